@@ -5,10 +5,15 @@ package com.example.sickar;
  */
 public class Constants {
     /**
-     * number of items to hold in BarcodeDataCache cache and RecyclerView adapter
+     * number of items to hold in the RecyclerView adapter
      */
     public static final int CACHE_SIZE = 10;
 
+    /**
+     * number of items to hold in the BarcodeDataCache cache before the oldest are evicted
+     */
+    public static final int DATA_CACHE_SIZE = 2000;
+
     /**
      * API endpoint that should direct to the SICK AR backend
      */
@@ -22,6 +27,293 @@ public class Constants {
      */
     public static final int SEARCH_DAYS = 14;
 
+    /**
+     * Time in milliseconds NetworkRequest gathers barcodes before sending them as one bulk lookup.
+     * Set to 0 to send one request per barcode.
+     */
+    public static final int BULK_LOOKUP_WINDOW_MS = 60;
+
+    /**
+     * Maximum number of barcodes in one bulk lookup
+     */
+    public static final int BULK_LOOKUP_MAX_BARCODES = 20;
+
+    /**
+     * Time in milliseconds NetworkRequest keeps tamper information before requesting it again
+     */
+    public static final long TAMPER_CACHE_TTL_MS = 30 * 1000;
+
+    /**
+     * Tolerances of TamperDetector. A length or weight counts as changed if it differs from the
+     * first system by more than the absolute tolerance and by more than the ratio.
+     */
+    public static final double TAMPER_DIMENSION_TOLERANCE_MM = 10;
+    public static final double TAMPER_WEIGHT_TOLERANCE_KG = 0.1;
+    public static final double TAMPER_TOLERANCE_RATIO = 0.05;
+
+    /**
+     * Also request tamper information from the backend and log when it disagrees with the local
+     * result of TamperDetector
+     */
+    public static final boolean TAMPER_VERIFY_WITH_BACKEND = false;
+
+    /**
+     * Bytes of pictures NetworkRequest keeps in its PictureDiskCache before evicting the least
+     * recently viewed items
+     */
+    public static final long PICTURE_DISK_CACHE_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Fetch the pictures of each newly scanned item into the PictureDiskCache in the background
+     */
+    public static final boolean PICTURE_PREFETCH_ENABLED = false;
+
+    /**
+     * Number of scanned items waiting for their pictures at most, older ones are dropped
+     */
+    public static final int PICTURE_PREFETCH_MAX_QUEUED = 8;
+
+    /**
+     * Bytes of picture responses to prefetch at most per PICTURE_PREFETCH_BUDGET_WINDOW_MS, kept
+     * well below PICTURE_DISK_CACHE_BYTES so prefetches do not evict the pictures viewed recently
+     */
+    public static final long PICTURE_PREFETCH_BUDGET_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Time in milliseconds after which the picture prefetch budget is refilled
+     */
+    public static final long PICTURE_PREFETCH_BUDGET_WINDOW_MS = 10 * 60 * 1000;
+
+    /**
+     * Time in milliseconds NetworkRequest keeps the system configuration before requesting it
+     * again
+     */
+    public static final long SYSTEM_CONFIG_CACHE_TTL_MS = 10 * 60 * 1000;
+
+    /**
+     * Keep parsed items in an ItemStore on disk under the BarcodeDataCache so they survive an app
+     * restart
+     */
+    public static final boolean PERSISTENT_CACHE_ENABLED = true;
+
+    /**
+     * number of items to keep in the ItemStore on disk
+     */
+    public static final int PERSISTENT_CACHE_SIZE = 5000;
+
+    /**
+     * Time in milliseconds after which items in the ItemStore are fetched from the network again
+     */
+    public static final long PERSISTENT_CACHE_TTL_MS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Address of the search/execute API used by the ZonePrefetcher
+     */
+    public static final String SEARCH_ENDPOINT = "http://10.102.11.96:8080/";
+
+    /**
+     * Prefetch every parcel scanned by the systems in PREFETCH_SYSTEM_GROUP_ID in the last
+     * PREFETCH_WINDOW_MINUTES into the BarcodeDataCache
+     */
+    public static final boolean PREFETCH_ENABLED = false;
+
+    /**
+     * System group to prefetch, null for all systems
+     */
+    public static final String PREFETCH_SYSTEM_GROUP_ID = null;
+
+    /**
+     * How far back the first prefetch reaches, later prefetches only fetch what is newer
+     */
+    public static final int PREFETCH_WINDOW_MINUTES = 30;
+
+    /**
+     * Time in milliseconds between prefetches
+     */
+    public static final long PREFETCH_INTERVAL_MS = 60 * 1000;
+
+    /**
+     * Number of search results to request per page
+     */
+    public static final int PREFETCH_PAGE_SIZE = 200;
+
+    /**
+     * Estimated bytes of prefetched items to hold at most
+     */
+    public static final long PREFETCH_MEMORY_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * A barcode is only reported by the BarcodeProcessor once it has been decoded in
+     * CONSENSUS_MIN_FRAMES of the last CONSENSUS_WINDOW_FRAMES frames
+     */
+    public static final int CONSENSUS_MIN_FRAMES = 3;
+    public static final int CONSENSUS_WINDOW_FRAMES = 5;
+
+    /**
+     * Time in milliseconds after a barcode is reported during which the BarcodeProcessor only
+     * sends bounding box updates for it
+     */
+    public static final long CONSENSUS_HOLD_OFF_MS = 500;
+
+    /**
+     * Skip the barcode detector on frames where the camera and the scene have not changed since
+     * the last decoded frame, see BarcodeTracker
+     */
+    public static final boolean TRACKER_ENABLED = true;
+
+    /**
+     * Decode at least every this many frames while barcodes are in view, and while none are
+     */
+    public static final int TRACKER_TRACKED_INTERVAL_FRAMES = 10;
+    public static final int TRACKER_SEARCH_INTERVAL_FRAMES = 3;
+
+    /**
+     * Camera rotation in degrees and translation in meters since the last decode that force a
+     * new decode
+     */
+    public static final float TRACKER_MAX_ROTATION_DEG = 1.5f;
+    public static final float TRACKER_MAX_TRANSLATION_M = 0.02f;
+
+    /**
+     * Size of the luminance grid compared between frames, a cell counts as changed once its mean
+     * luminance moved by more than TRACKER_LUMA_THRESHOLD and a decode is forced once more than
+     * TRACKER_CHANGED_CELLS of the cells changed
+     */
+    public static final int TRACKER_GRID_COLS = 16;
+    public static final int TRACKER_GRID_ROWS = 12;
+    public static final int TRACKER_LUMA_THRESHOLD = 12;
+    public static final float TRACKER_CHANGED_CELLS = 0.04f;
+
+    /**
+     * Pace the barcode decoder by camera motion, decoder latency and device temperature, see
+     * FrameRateGovernor. When disabled frames are decoded back to back
+     */
+    public static final boolean GOVERNOR_ENABLED = true;
+
+    /**
+     * Interval between decodes in milliseconds while the camera moves quickly, moves slowly and
+     * is still
+     */
+    public static final long GOVERNOR_SCAN_INTERVAL_MS = 33;
+    public static final long GOVERNOR_TRACK_INTERVAL_MS = 100;
+    public static final long GOVERNOR_IDLE_INTERVAL_MS = 400;
+
+    /**
+     * Largest fraction of the time the decoder may be busy
+     */
+    public static final float GOVERNOR_MAX_DUTY = 0.6f;
+
+    /**
+     * Camera rotation in degrees per second and movement in meters per second above which the
+     * decoder runs at the scan interval, and below which the camera counts as still
+     */
+    public static final float GOVERNOR_SCAN_ANGULAR_DEG_S = 30f;
+    public static final float GOVERNOR_SCAN_LINEAR_M_S = 0.25f;
+    public static final float GOVERNOR_IDLE_ANGULAR_DEG_S = 3f;
+    public static final float GOVERNOR_IDLE_LINEAR_M_S = 0.02f;
+
+    /**
+     * Time in milliseconds the camera must be still before the decoder backs off to the idle
+     * interval
+     */
+    public static final long GOVERNOR_IDLE_HOLD_MS = 1500;
+
+    /**
+     * Battery temperatures in degrees Celsius from which the device counts as warm and hot, the
+     * interval between decodes is doubled when warm and quadrupled when hot
+     */
+    public static final float GOVERNOR_WARM_CELSIUS = 40f;
+    public static final float GOVERNOR_HOT_CELSIUS = 45f;
+
+    /**
+     * Barcode decoder run by the BarcodeProcessor, "mlkit" for the Firebase ML Kit detector or
+     * "zxing" for the pure Java ZXing decoder
+     */
+    public static final String BARCODE_DECODER = "mlkit";
+
+    /**
+     * Barcode formats the decoder looks for, as ZXing BarcodeFormat names
+     */
+    public static final String[] BARCODE_FORMATS = {"CODE_128"};
+
+    /**
+     * Region of each frame handed to the barcode decoder, see RoiSelector. "full" decodes the
+     * whole frame, "reticle" a centered window, "band" a horizontal band and "tracked" the area
+     * around the last decoded barcodes
+     */
+    public static final String ROI_MODE = "full";
+
+    /**
+     * Width and height of the reticle window as a fraction of the frame
+     */
+    public static final float ROI_RETICLE_FRACTION = 0.5f;
+
+    /**
+     * Top and bottom of the band as fractions of the frame height
+     */
+    public static final float ROI_BAND_TOP = 0.3f;
+    public static final float ROI_BAND_BOTTOM = 0.7f;
+
+    /**
+     * Margin around the tracked barcodes as a fraction of their larger side, and the number of
+     * frames after which the whole frame is decoded again to find new barcodes
+     */
+    public static final float ROI_TRACKED_MARGIN = 0.5f;
+    public static final int ROI_FULL_FRAME_INTERVAL = 5;
+
+    /**
+     * Number of card and tamper view renderables ARScene keeps built ahead of placing cards
+     */
+    public static final int AR_TEMPLATE_POOL_SIZE = 2;
+
+    /**
+     * Largest number of removed AR card node graphs ARScene keeps to reuse, and the number it
+     * builds when the AR session starts
+     */
+    public static final int AR_CARD_POOL_SIZE = 8;
+    public static final int AR_CARD_POOL_PREFILL = 2;
+
+    /**
+     * Distance in meters the camera or an AR card must move before the card is turned to face
+     * the camera again
+     */
+    public static final float BILLBOARD_THRESHOLD_M = 0.005f;
+
+    /**
+     * Largest number of AR cards with loaded renderables, distance in meters beyond which a card
+     * is shown as a marker and beyond which it is hidden
+     */
+    public static final int CARD_BUDGET = 8;
+    public static final float CARD_LOD_DISTANCE_M = 3f;
+    public static final float CARD_CULL_DISTANCE_M = 10f;
+
+    /**
+     * Half angle in degrees of the cone in front of the camera an AR card must be in to be shown,
+     * and the milliseconds between choosing how each card is shown
+     */
+    public static final float CARD_VIEW_HALF_ANGLE_DEG = 45f;
+    public static final long CARD_BUDGET_INTERVAL_MS = 250;
+
+    /**
+     * Largest number of barcode boxes the GraphicOverlay draws, and the longest time a box takes
+     * to slide to its new position after a detection
+     */
+    public static final int OVERLAY_MAX_BOXES = 16;
+    public static final long OVERLAY_INTERPOLATION_MAX_MS = 200;
+
+    /**
+     * Part of the heap the decoded item pictures may take in the BitmapPipeline memory cache, as
+     * a divisor of the largest heap, and the number of threads decoding pictures
+     */
+    public static final int IMAGE_MEMORY_CACHE_HEAP_DIVISOR = 8;
+    public static final int IMAGE_DECODE_THREADS = 2;
+
+    /**
+     * Part of the heap the tiles TiledImageView decodes of zoomed in pictures may take, as a
+     * divisor of the largest heap
+     */
+    public static final int IMAGE_TILE_CACHE_HEAP_DIVISOR = 8;
+
     /**
      * Labels for messages sent from the BarcodeProcessor to the Main Handler
      */
@@ -30,4 +322,15 @@ public class Constants {
     public static final int BARCODE_READ_EMPTY = 2;
     public static final int REQUEST_ISSUED = 4;
     public static final int REQUEST_PENDING = 5;
+
+    /**
+     * Label for the message telling the Main Handler that the ScanStateMachine has a RenderBatch
+     * ready
+     */
+    public static final int SCAN_RENDER_UPDATE = 6;
+
+    /**
+     * Time after a failed attempt to place the AR card of an item before it is tried again
+     */
+    public static final long SCAN_ANCHOR_RETRY_MS = 500;
 }
@@ -0,0 +1,329 @@
+package com.example.sickar.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.sickar.Constants;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes the pictures of items on a background pool and keeps them in a memory cache that
+ * outlives ImageActivity, so reopening the pictures of an item does not decode them again.
+ *
+ * - Pictures are decoded with an inSampleSize so the bitmap is no larger than needed to fill the
+ * target size, see calculateInSampleSize
+ * - Decoded bitmaps are kept in an LruCache bounded by their bytes and keyed by
+ * barcode/system/device
+ * - Bitmaps evicted from the cache are decoded into again through inBitmap, unless they are still
+ * in use. Users of a bitmap call acquire and release so a bitmap on screen is never reused.
+ */
+public class BitmapPipeline {
+    /**
+     * debugging TAG
+     */
+    private static final String TAG = "app_" + BitmapPipeline.class.getSimpleName();
+
+    /**
+     * Decodes a picture from its source with the given options. Called once for the bounds and
+     * once for the pixels.
+     */
+    public interface Source {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    private static BitmapPipeline instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ExecutorService decoder;
+
+    /**
+     * Evicted bitmaps that may be decoded into, softly referenced so the GC can still free them
+     */
+    private final Set<SoftReference<Bitmap>> reusable;
+
+    /**
+     * Number of users of each key and the keys that were evicted while in use
+     */
+    private final Map<String, Integer> useCounts;
+    private final Map<String, Bitmap> evictedInUse;
+
+    private int decodeCount;
+    private long decodeNanos;
+    private int reuseCount;
+    private long peakHeapBytes;
+
+    /**
+     * Construct a pipeline
+     *
+     * @param cacheBytes    largest number of bytes of bitmaps in the memory cache
+     * @param decodeThreads number of threads decoding pictures
+     */
+    BitmapPipeline(int cacheBytes, int decodeThreads) {
+        reusable = new HashSet<>();
+        useCounts = new HashMap<>();
+        evictedInUse = new HashMap<>();
+        memoryCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                onRemoved(key, oldValue);
+            }
+        };
+        decoder = Executors.newFixedThreadPool(decodeThreads, runnable -> {
+            Thread thread = new Thread(() -> {
+                android.os.Process.setThreadPriority(
+                        android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the single instance of this class. Lazy initialization.
+     *
+     * @return BitmapPipeline
+     */
+    public static synchronized BitmapPipeline getInstance() {
+        if (instance == null) {
+            long cacheBytes = Runtime.getRuntime().maxMemory()
+                    / Constants.IMAGE_MEMORY_CACHE_HEAP_DIVISOR;
+            instance = new BitmapPipeline((int) Math.min(cacheBytes, Integer.MAX_VALUE),
+                    Constants.IMAGE_DECODE_THREADS);
+        }
+        return instance;
+    }
+
+    /**
+     * @param barcode  barcode of the item
+     * @param systemId system
+     * @param deviceId camera device of the system
+     * @return key of a picture in the memory cache
+     */
+    public static String key(String barcode, String systemId, String deviceId) {
+        return barcode + "/" + systemId + "/" + deviceId;
+    }
+
+    /**
+     * Largest power of two sample size that still decodes the picture at least as large as it is
+     * shown when fit inside the target size
+     *
+     * @param width        width of the picture
+     * @param height       height of the picture
+     * @param targetWidth  width the picture is shown in
+     * @param targetHeight height the picture is shown in
+     * @return inSampleSize, 1 if the target size is not known
+     */
+    public static int calculateInSampleSize(int width, int height, int targetWidth,
+                                            int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        // fit inside scales by the smaller ratio, so the larger ratio bounds the sample size
+        while (width / (sampleSize * 2) >= targetWidth
+                || height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Check if a bitmap can be decoded into
+     *
+     * @param allocationBytes bytes allocated for the bitmap to decode into
+     * @param width           width of the picture
+     * @param height          height of the picture
+     * @param sampleSize      inSampleSize of the decode
+     * @param bytesPerPixel   bytes per pixel of the decoded config
+     * @return true if the decoded picture fits in the allocation
+     */
+    static boolean fitsInBitmap(int allocationBytes, int width, int height, int sampleSize,
+                                int bytesPerPixel) {
+        long sampledWidth = (width + sampleSize - 1) / sampleSize;
+        long sampledHeight = (height + sampleSize - 1) / sampleSize;
+        return sampledWidth * sampledHeight * bytesPerPixel <= allocationBytes;
+    }
+
+    /**
+     * Get a picture from the memory cache or decode it on the background pool. The bitmap is
+     * acquired for the caller, who has to release it once it is no longer shown.
+     *
+     * @param key          key from key()
+     * @param source       Source of the encoded picture, only called on a cache miss
+     * @param targetWidth  width the picture is shown in
+     * @param targetHeight height the picture is shown in
+     * @return future completed with the bitmap, or with null if the picture could not be decoded
+     */
+    public CompletableFuture<Bitmap> load(String key, Source source, int targetWidth,
+                                          int targetHeight) {
+        Bitmap cached = getAndAcquire(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Bitmap bitmap = getAndAcquire(key);
+            if (bitmap != null) {
+                return bitmap;
+            }
+            bitmap = decode(source, targetWidth, targetHeight);
+            if (bitmap != null) {
+                putAndAcquire(key, bitmap);
+            }
+            return bitmap;
+        }, decoder);
+    }
+
+    /**
+     * Release a bitmap returned by load. Once no one uses it, a bitmap that was evicted from the
+     * cache may be decoded into.
+     *
+     * @param key key of the bitmap
+     */
+    public synchronized void release(String key) {
+        Integer count = useCounts.get(key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            useCounts.put(key, count - 1);
+            return;
+        }
+        useCounts.remove(key);
+        Bitmap evicted = evictedInUse.remove(key);
+        if (evicted != null) {
+            addReusable(evicted);
+        }
+    }
+
+    /**
+     * Drop all cached bitmaps, called when the system is low on memory
+     */
+    public void trimMemory() {
+        memoryCache.evictAll();
+        synchronized (this) {
+            reusable.clear();
+        }
+    }
+
+    private Bitmap decode(Source source, int targetWidth, int targetHeight) {
+        long start = System.nanoTime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.i(TAG, "could not decode picture bounds");
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                targetWidth, targetHeight);
+        options.inMutable = true;
+        options.inBitmap = takeReusable(options.outWidth, options.outHeight,
+                options.inSampleSize);
+        Bitmap bitmap;
+        try {
+            bitmap = source.decode(options);
+        } catch (IllegalArgumentException e) {
+            // the reused bitmap did not fit after all
+            options.inBitmap = null;
+            bitmap = source.decode(options);
+        }
+        long elapsed = System.nanoTime() - start;
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        synchronized (this) {
+            decodeCount++;
+            decodeNanos += elapsed;
+            if (options.inBitmap != null && bitmap == options.inBitmap) {
+                reuseCount++;
+            }
+            peakHeapBytes = Math.max(peakHeapBytes, heap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Look up and acquire under one lock so the bitmap cannot be evicted and reused in between.
+     * The LruCache calls entryRemoved outside of its own lock, so this cannot deadlock.
+     */
+    private synchronized Bitmap getAndAcquire(String key) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            acquire(key);
+        }
+        return bitmap;
+    }
+
+    private synchronized void putAndAcquire(String key, Bitmap bitmap) {
+        // acquired first, a bitmap larger than the cache is evicted by the put itself
+        acquire(key);
+        memoryCache.put(key, bitmap);
+    }
+
+    private synchronized void acquire(String key) {
+        Integer count = useCounts.get(key);
+        useCounts.put(key, count == null ? 1 : count + 1);
+    }
+
+    private synchronized void onRemoved(String key, Bitmap bitmap) {
+        if (useCounts.containsKey(key)) {
+            evictedInUse.put(key, bitmap);
+        } else {
+            addReusable(bitmap);
+        }
+    }
+
+    private void addReusable(Bitmap bitmap) {
+        if (bitmap.isMutable()) {
+            reusable.add(new SoftReference<>(bitmap));
+        }
+    }
+
+    private synchronized Bitmap takeReusable(int width, int height, int sampleSize) {
+        Iterator<SoftReference<Bitmap>> iterator = reusable.iterator();
+        while (iterator.hasNext()) {
+            Bitmap candidate = iterator.next().get();
+            if (candidate == null || candidate.isRecycled()) {
+                iterator.remove();
+            } else if (candidate.getConfig() == Bitmap.Config.ARGB_8888
+                    && fitsInBitmap(candidate.getAllocationByteCount(), width, height,
+                    sampleSize, 4)) {
+                iterator.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return decode count and time, reuses, peak heap and cache hits
+     */
+    @Override
+    public synchronized String toString() {
+        return "decodes=" + decodeCount
+                + " avgDecodeMs=" + (decodeCount == 0 ? 0 : decodeNanos / decodeCount / 1000000)
+                + " reused=" + reuseCount
+                + " peakHeapKb=" + peakHeapBytes / 1024
+                + " cacheKb=" + memoryCache.size() / 1024 + "/" + memoryCache.maxSize() / 1024
+                + " hits=" + memoryCache.hitCount()
+                + " misses=" + memoryCache.missCount();
+    }
+}
@@ -3,7 +3,7 @@ package com.example.sickar.image;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.util.Base64;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
@@ -19,14 +19,14 @@ import com.example.sickar.main.DataViewModel;
 import com.example.sickar.main.adapters.SystemsPagerAdapter;
 import com.example.sickar.main.helpers.Item;
 import com.google.android.material.tabs.TabLayout;
-import com.google.gson.Gson;
-
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * ImageActivity displays the images associated with a particular item. It is launched after
@@ -48,6 +48,12 @@ public class ImageActivity extends AppCompatActivity {
      */
     private Item item;
 
+    /**
+     * Keys of the pictures acquired from the BitmapPipeline, released when this activity is
+     * destroyed
+     */
+    private final List<String> acquiredPictures = new ArrayList<>();
+
     /**
      * Called on the creation of this Activity.
      *
@@ -92,6 +98,35 @@ public class ImageActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Release the pictures of this activity so the BitmapPipeline may reuse their memory once
+     * they are evicted
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        BitmapPipeline pipeline = BitmapPipeline.getInstance();
+        for (String key : acquiredPictures) {
+            pipeline.release(key);
+        }
+        acquiredPictures.clear();
+        Log.i(TAG, "pictures " + pipeline);
+    }
+
+    /**
+     * Drop the decoded pictures of other items when the system runs low on memory
+     *
+     * @param level memory trim level
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            BitmapPipeline.getInstance().trimMemory();
+            TiledImageView.trimMemory();
+        }
+    }
+
     /**
      * Called when the current {@link Window} of the activity gains or loses
      * focus.  This is the best indicator of whether this activity is visible
@@ -164,61 +199,101 @@ public class ImageActivity extends AppCompatActivity {
      * completion of the request.
      * (viewModel.getPicturesForItem returns a CompletableFuture)
      *
+     * The pictures are files in the picture disk cache. They are decoded from their files by the
+     * BitmapPipeline on its own threads, sized to the screen and kept in its memory cache for the
+     * next time the pictures of the item are opened. The pages are added once every picture is
+     * decoded, in the order of the systems. The files are passed on so zooming in decodes tiles
+     * of the full pictures.
+     *
      * @param pagerAdapter SystemsPagerAdapter
      * @param item         Item
      */
     private void addFragmentsToPagerAdapter(SystemsPagerAdapter pagerAdapter, Item item) {
-        viewModel.getPicturesForItem(item.getName()).thenAccept(jsonObject ->
+        viewModel.getPicturesForItem(item.getName()).thenAccept(files ->
         {
-            findViewById(R.id.image_loading_progress).setVisibility(ProgressBar.GONE);
-
             //noinspection ConstantConditions
             Map<String, Map<String, String>> systemConfig =
                     viewModel.getCacheData().getValue().getSystemConfig();
+            DisplayMetrics display = getResources().getDisplayMetrics();
+            BitmapPipeline pipeline = BitmapPipeline.getInstance();
+            // pipeline keys of the pictures of each system by device name
+            Map<String, Map<String, String>> keys = new LinkedHashMap<>();
+            // picture files of each system by device name
+            Map<String, Map<String, File>> deviceFiles = new HashMap<>();
+            Map<String, CompletableFuture<Bitmap>> pictures = new HashMap<>();
             try {
-                JSONObject results = jsonObject.getJSONObject("results");
-                if (results != null) {
-                    // response contains stuff (pictures are not guaranteed at this point)
-                    for (String sys : item.getSystemList()) {
-//                        String title = getResources().getString(R.string.system) + " " + sys;
-                        String title = item.getProp(sys, "systemLabel");
-                        if (!pagerAdapter.containsSystem(title)) {
-                            JSONObject systemPics = results.getJSONObject(sys);
-                            Map systemPicsMap = new Gson().fromJson(systemPics.toString(),
-                                    HashMap.class);
-
-                            Map<String, Bitmap> bitmaps = new HashMap<>();
-                            for (Object dId : systemPicsMap.keySet()) {
-                                String deviceId = (String) dId;
-                                String pureBase64 = (String) systemPicsMap.get(deviceId);
-                                String cleanedBase64 =
-                                        pureBase64.substring(Objects.requireNonNull(pureBase64).indexOf(",") + 1);
-                                byte[] decodedString = Base64.decode(cleanedBase64,
-                                        Base64.DEFAULT);
-                                Bitmap decodedByte =
-                                        BitmapFactory.decodeByteArray(decodedString, 0,
-                                                decodedString.length);
-
-                                //noinspection ConstantConditions
-                                bitmaps.put(
-                                        systemConfig.get(sys).get(deviceId)
-                                        , decodedByte
-                                );
-                            }
-//                            item.setSystem(sys);
-                            pagerAdapter.addFragment(new ImageSystemPageFragment(bitmaps), title);
-                        }
+                // pictures are not guaranteed for every system
+                for (String sys : item.getSystemList()) {
+                    Map<String, File> systemPics = files.get(sys);
+                    if (systemPics == null) {
+                        Log.i(TAG, "no pictures for system " + sys);
+                        continue;
                     }
-                    pagerAdapter.notifyDataSetChanged();
-                } else {
-                    // no item
-                    Log.i(TAG, "backend returned null results for pictures");
+                    Map<String, String> devices = new LinkedHashMap<>();
+                    Map<String, File> systemFiles = new HashMap<>();
+                    for (Map.Entry<String, File> picture : systemPics.entrySet()) {
+                        String deviceId = picture.getKey();
+                        String path = picture.getValue().getPath();
+                        String key = BitmapPipeline.key(item.getName(), sys, deviceId);
+                        pictures.put(key, pipeline.load(key,
+                                options -> BitmapFactory.decodeFile(path, options),
+                                display.widthPixels, display.heightPixels));
+                        //noinspection ConstantConditions
+                        String deviceName = systemConfig.get(sys).get(deviceId);
+                        devices.put(deviceName, key);
+                        systemFiles.put(deviceName, picture.getValue());
+                    }
+                    keys.put(sys, devices);
+                    deviceFiles.put(sys, systemFiles);
                 }
-            } catch (JSONException | NullPointerException e) {
+            } catch (NullPointerException e) {
                 e.printStackTrace();
                 Log.i(TAG, "during adding fragments to imageActivity " + e.toString());
             }
+            CompletableFuture.allOf(pictures.values().toArray(new CompletableFuture[0]))
+                    .whenComplete((ignored, throwable) -> runOnUiThread(() ->
+                            showPictures(pagerAdapter, item, keys, deviceFiles, pictures)));
         });
     }
 
+    /**
+     * Add a page for each system with the decoded pictures, called on the main thread
+     *
+     * @param pagerAdapter SystemsPagerAdapter
+     * @param item         Item
+     * @param keys         pipeline keys of the pictures of each system by device name
+     * @param files        picture files of each system by device name
+     * @param pictures     completed pictures by pipeline key
+     */
+    private void showPictures(SystemsPagerAdapter pagerAdapter, Item item,
+                              Map<String, Map<String, String>> keys,
+                              Map<String, Map<String, File>> files,
+                              Map<String, CompletableFuture<Bitmap>> pictures) {
+        BitmapPipeline pipeline = BitmapPipeline.getInstance();
+        for (Map.Entry<String, Map<String, String>> system : keys.entrySet()) {
+            String title = item.getProp(system.getKey(), "systemLabel");
+            Map<String, Bitmap> bitmaps = new HashMap<>();
+            for (Map.Entry<String, String> device : system.getValue().entrySet()) {
+                Bitmap bitmap = pictures.get(device.getValue()).exceptionally(e -> null).join();
+                if (bitmap != null) {
+                    bitmaps.put(device.getKey(), bitmap);
+                    acquiredPictures.add(device.getValue());
+                }
+            }
+            if (!isDestroyed() && !pagerAdapter.containsSystem(title)) {
+                pagerAdapter.addFragment(new ImageSystemPageFragment(bitmaps,
+                        files.get(system.getKey())), title);
+            }
+        }
+        if (isDestroyed()) {
+            for (String key : acquiredPictures) {
+                pipeline.release(key);
+            }
+            acquiredPictures.clear();
+            return;
+        }
+        findViewById(R.id.image_loading_progress).setVisibility(ProgressBar.GONE);
+        pagerAdapter.notifyDataSetChanged();
+    }
+
 }
@@ -1,14 +1,10 @@
 package com.example.sickar.image;
 
-import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
-import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 import android.widget.RadioGroup;
 
 import androidx.annotation.NonNull;
@@ -16,11 +12,10 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import com.example.sickar.R;
-import com.example.sickar.libs.ScaleGestureListener;
 
+import java.io.File;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Objects;
 
 /**
  * This fragment displays the images associated with a particular system of an item.
@@ -48,41 +43,33 @@ public class ImageSystemPageFragment extends Fragment {
     }
 
     /**
-     * Pixel offset of this fragment view. This is used to offset the presence of an AppBar or
-     * Navigation bar which changes the absolute position of this fragment.
+     * Holds all the images relevant to this system sampled to the screen. The mappings use the
+     * device names (TOP, BOT, RF, RB, LF, LB)
      */
-    private int[] viewXY;
-
-    /**
-     * Holds the initial position of the touch from the top left corner of the image. This is used
-     * to keep the relative position of the image to the touch point consistent while dragging or
-     * scaling.
-     */
-    private float[] initXY;
+    private Map<String, Bitmap> images; // contains the images
 
     /**
-     * Holds all the images relevant to this system. The mappings use the device names (TOP, BOT,
-     * RF, RB, LF, LB)
+     * Files of the full pictures by device name, tiles are decoded from them when zoomed in
      */
-    private Map<String, Bitmap> images; // contains the images
+    private Map<String, File> files;
 
     /**
-     * Construct an ImageSystemPageFragment with a map of camera device names to Bitmaps. It should
-     * contain images according to keys: TOP, BOT, RF, RB, LF, LB
+     * Construct an ImageSystemPageFragment with maps of camera device names to Bitmaps and picture
+     * files. They should contain images according to keys: TOP, BOT, RF, RB, LF, LB
      *
      * @param images images map
+     * @param files  picture files map
      */
-    ImageSystemPageFragment(Map<String, Bitmap> images) {
-        viewXY = new int[]{0, 0};
-        initXY = new float[]{0, 0};
+    ImageSystemPageFragment(Map<String, Bitmap> images, Map<String, File> files) {
         this.images = images;
+        this.files = files;
     }
 
     /**
      * Construct a fragment with no images
      */
     public ImageSystemPageFragment() {
-        this(null);
+        this(null, null);
     }
 
     /**
@@ -103,12 +90,12 @@ public class ImageSystemPageFragment extends Fragment {
      *                           from a previous saved state as given here.
      * @return Return the View for the fragment's UI, or null.
      */
-    @SuppressLint("ClickableViewAccessibility")
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_image_system_page, container, false);
-        ImageView image = view.findViewById(R.id.main_imageView);
+        TiledImageView image = view.findViewById(R.id.main_imageView);
+        image.setPlaceholder(getResources().getDrawable(R.drawable.no_images_icon, null));
 
         RadioGroup imageSelectors = view.findViewById(R.id.image_selectors);
         imageSelectors.setOnCheckedChangeListener((group, checkedId) -> {
@@ -135,84 +122,31 @@ public class ImageSystemPageFragment extends Fragment {
                     // check cleared
                     break;
             }
-            image.setX((view.getWidth() - image.getWidth()) / 2f);
-            image.setY((view.getHeight() - image.getHeight()) / 2f);
         });
         // select the first available image on start
         boolean anyImage = false;
         for (String deviceName : radioGroupNamesToIds.keySet()) {
-            if (images.get(deviceName) != null) {
+            if (images != null && images.get(deviceName) != null) {
                 //noinspection ConstantConditions
                 imageSelectors.check(radioGroupNamesToIds.get(deviceName));
                 anyImage = true;
                 break;
             }
         }
-        if (!anyImage) setDefaultImage(image);
-
-        ScaleGestureListener scaleGestureListener = new ScaleGestureListener(image);
-        ScaleGestureDetector scaleGestureDetector = new ScaleGestureDetector(this.getContext(),
-                scaleGestureListener);
-
-        // implements the drag behavior
-        view.setOnTouchListener((vw, ev) -> {
-            scaleGestureDetector.onTouchEvent(ev);
-            switch (ev.getAction()) {
-                case MotionEvent.ACTION_DOWN:
-                    initXY[0] = ev.getRawX() - image.getX() - viewXY[0];
-                    initXY[1] = ev.getRawY() - image.getY() - viewXY[1];
-                    break;
-                case MotionEvent.ACTION_MOVE:
-                    image.setX(ev.getRawX() - viewXY[0] - initXY[0]);
-                    image.setY(ev.getRawY() - viewXY[1] - initXY[1]);
-                    break;
-            }
-            return true;
-        });
+        if (!anyImage) image.setImage(null, null);
 
         return view;
     }
 
     /**
-     * Called when the fragment is visible to the user and actively running.
-     * This is generally tied to {@link ImageActivity} onResume() of the containing
-     * Activity's lifecycle.
-     *
-     * This fragment's offset is also calculated in onResume().
-     */
-    @Override
-    public void onResume() {
-        super.onResume();
-        // set the offset required since the fragment is embedded in a viewpager
-        Objects.requireNonNull(this.getView()).getLocationOnScreen(viewXY);
-    }
-
-    /**
-     * Sets the bitmap of an ImageView to be the from the specified camera device
+     * Shows the picture of the specified camera device, the pinch zoom is reset
      *
-     * @param image ImageView
+     * @param image TiledImageView
      * @param key   (TOP, BOT, RF, RB, LF, LB)
      */
-    private void setImageBitmap(ImageView image, String key) {
+    private void setImageBitmap(TiledImageView image, String key) {
         if (images == null) return;
-        if (images.containsKey(key)) {
-            image.setImageBitmap(images.get(key));
-        } else {
-            setDefaultImage(image);
-        }
-        // resize image back to base scale
-        image.setScaleX(1);
-        image.setScaleY(1);
-        image.invalidate();
+        // the placeholder is shown if there is no picture
+        image.setImage(images.get(key), files == null ? null : files.get(key));
     }
-
-    /**
-     * Sets the default image to an ImageView
-     *
-     * @param imageView ImageView
-     */
-    private void setDefaultImage(ImageView imageView) {
-        imageView.setImageDrawable(getResources().getDrawable(R.drawable.no_images_icon, null));
-    }
-
 }
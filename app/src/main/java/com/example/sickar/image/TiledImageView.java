@@ -0,0 +1,459 @@
+package com.example.sickar.image;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.sickar.Constants;
+import com.example.sickar.libs.TileGrid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows a picture with pinch zoom, drag and double tap zoom.
+ *
+ * The preview, a bitmap sampled to the screen by the BitmapPipeline, is drawn first. Once zoomed
+ * in further than the preview has detail for, the visible part of the picture file is decoded in
+ * tiles with a BitmapRegionDecoder at the sample size of the current zoom, see TileGrid. Tiles are
+ * decoded in the background and kept in a tile cache shared by all instances, so the full
+ * resolution picture is never decoded as a whole.
+ */
+public class TiledImageView extends View {
+    /**
+     * debugging TAG
+     */
+    private static final String TAG = "app_" + TiledImageView.class.getSimpleName();
+
+    /**
+     * Decoded pixels per side of a tile
+     */
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * Tiles are decoded in RGB_565, the scanner pictures are grayscale
+     */
+    private static final int TILE_BYTES_PER_PIXEL = 2;
+
+    /**
+     * Largest zoom in screen pixels per picture pixel
+     */
+    private static final float MAX_SCALE = 4f;
+
+    /**
+     * Zoom of a double tap
+     */
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    /**
+     * Decodes the tiles of every instance, one at a time so a region decoder is never used by
+     * two threads
+     */
+    private static final ExecutorService DECODER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static LruCache<String, Bitmap> tileCache;
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF destination = new RectF();
+
+    private Bitmap preview;
+    private File file;
+    private Drawable placeholder;
+    private Region region;
+
+    /**
+     * Size of the picture, that of the preview until the region decoder has read the file
+     */
+    private int imageWidth;
+    private int imageHeight;
+
+    /**
+     * View position of a picture pixel: picture * scale + translate
+     */
+    private float scale = 1f;
+    private float translateX;
+    private float translateY;
+
+    /**
+     * Keys of the tiles being decoded, only used on the main thread
+     */
+    private final Set<String> pending = new HashSet<>();
+
+    /**
+     * Keys of the tiles visible at the last draw, a queued decode is skipped if its tile is no
+     * longer visible
+     */
+    private volatile Set<String> wanted = Collections.emptySet();
+
+    /**
+     * Construct a TiledImageView
+     *
+     * @param context Context
+     * @param attrs   AttributeSet
+     */
+    public TiledImageView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        scaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        zoomBy(detector.getScaleFactor(), detector.getFocusX(),
+                                detector.getFocusY());
+                        return true;
+                    }
+                });
+        gestureDetector = new GestureDetector(context,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onDown(MotionEvent e) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
+                                            float distanceY) {
+                        translateX -= distanceX;
+                        translateY -= distanceY;
+                        clampTranslation();
+                        invalidate();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onDoubleTap(MotionEvent e) {
+                        if (scale > fitScale() * 1.01f) {
+                            fit();
+                        } else {
+                            zoomBy(DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Get the tile cache shared by all instances. Lazy initialization.
+     *
+     * @return cache of decoded tiles by file and tile
+     */
+    private static synchronized LruCache<String, Bitmap> getTileCache() {
+        if (tileCache == null) {
+            long cacheBytes = Runtime.getRuntime().maxMemory()
+                    / Constants.IMAGE_TILE_CACHE_HEAP_DIVISOR;
+            tileCache = new LruCache<String, Bitmap>((int) Math.min(cacheBytes,
+                    Integer.MAX_VALUE)) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getAllocationByteCount();
+                }
+            };
+        }
+        return tileCache;
+    }
+
+    /**
+     * Drop all decoded tiles, called when the system is low on memory
+     */
+    public static void trimMemory() {
+        getTileCache().evictAll();
+    }
+
+    /**
+     * Show a picture fit inside the view
+     *
+     * @param preview picture sampled to the screen, may be null
+     * @param file    file of the full picture to decode tiles from, may be null
+     */
+    public void setImage(@Nullable Bitmap preview, @Nullable File file) {
+        closeRegion();
+        this.preview = preview;
+        this.file = file;
+        imageWidth = preview == null ? 0 : preview.getWidth();
+        imageHeight = preview == null ? 0 : preview.getHeight();
+        if (file != null && isAttachedToWindow()) {
+            openRegion(file);
+        }
+        fit();
+    }
+
+    /**
+     * Set the drawable shown when there is no picture
+     *
+     * @param placeholder drawable, drawn at its intrinsic size
+     */
+    public void setPlaceholder(@Nullable Drawable placeholder) {
+        this.placeholder = placeholder;
+        invalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (file != null && region == null) {
+            openRegion(file);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        closeRegion();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        fit();
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        // both see every event, dragging with two fingers pans while zooming
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (imageWidth == 0 || imageHeight == 0) {
+            if (placeholder != null) {
+                int left = (getWidth() - placeholder.getIntrinsicWidth()) / 2;
+                int top = (getHeight() - placeholder.getIntrinsicHeight()) / 2;
+                placeholder.setBounds(left, top, left + placeholder.getIntrinsicWidth(),
+                        top + placeholder.getIntrinsicHeight());
+                placeholder.draw(canvas);
+            }
+            return;
+        }
+        if (preview != null) {
+            destination.set(translateX, translateY, translateX + imageWidth * scale,
+                    translateY + imageHeight * scale);
+            canvas.drawBitmap(preview, null, destination, paint);
+        }
+        if (region != null) {
+            drawTiles(canvas, region);
+        }
+    }
+
+    /**
+     * Draw the visible tiles that are decoded over the preview and request the others
+     */
+    private void drawTiles(Canvas canvas, Region region) {
+        LruCache<String, Bitmap> cache = getTileCache();
+        int sampleSize = TileGrid.sampleSizeFor(scale);
+        List<TileGrid.Tile> tiles = visibleTiles(sampleSize);
+        // coarser tiles rather than a cache too small to hold the visible ones
+        while (TileGrid.decodedBytes(tiles, TILE_BYTES_PER_PIXEL) > cache.maxSize() / 2) {
+            sampleSize *= 2;
+            tiles = visibleTiles(sampleSize);
+        }
+        if (preview != null && (long) preview.getWidth() * sampleSize >= imageWidth) {
+            // the preview has as much detail as the tiles would
+            wanted = Collections.emptySet();
+            return;
+        }
+        Set<String> visible = new HashSet<>();
+        List<TileGrid.Tile> missing = new ArrayList<>();
+        for (TileGrid.Tile tile : tiles) {
+            String key = region.keyPrefix + tile.key();
+            visible.add(key);
+            Bitmap bitmap = cache.get(key);
+            if (bitmap == null) {
+                missing.add(tile);
+                continue;
+            }
+            destination.set(translateX + tile.left * scale, translateY + tile.top * scale,
+                    translateX + tile.right * scale, translateY + tile.bottom * scale);
+            canvas.drawBitmap(bitmap, null, destination, paint);
+        }
+        wanted = visible;
+        for (TileGrid.Tile tile : missing) {
+            requestTile(region, tile, region.keyPrefix + tile.key());
+        }
+    }
+
+    private List<TileGrid.Tile> visibleTiles(int sampleSize) {
+        return TileGrid.visibleTiles(imageWidth, imageHeight, TILE_SIZE, sampleSize,
+                -translateX / scale, -translateY / scale,
+                (getWidth() - translateX) / scale, (getHeight() - translateY) / scale);
+    }
+
+    /**
+     * Decode a tile in the background and redraw once it is in the cache
+     */
+    private void requestTile(Region region, TileGrid.Tile tile, String key) {
+        if (!pending.add(key)) {
+            return;
+        }
+        DECODER.execute(() -> {
+            Bitmap bitmap = null;
+            // skipped if scrolled or zoomed away while queued
+            if (wanted.contains(key)) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = tile.sampleSize;
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                try {
+                    bitmap = region.decoder.decodeRegion(
+                            new Rect(tile.left, tile.top, tile.right, tile.bottom), options);
+                } catch (IllegalArgumentException e) {
+                    Log.i(TAG, "could not decode tile " + tile + " " + e.toString());
+                }
+                if (bitmap != null) {
+                    getTileCache().put(key, bitmap);
+                }
+            }
+            boolean decoded = bitmap != null;
+            post(() -> {
+                pending.remove(key);
+                if (decoded) {
+                    invalidate();
+                }
+            });
+        });
+    }
+
+    /**
+     * Open the region decoder of a file in the background
+     */
+    private void openRegion(File file) {
+        DECODER.execute(() -> {
+            try {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.getPath(),
+                        false);
+                // the modification time tells apart pictures written again to the same path
+                Region opened = new Region(decoder,
+                        file.getPath() + "@" + file.lastModified() + "/");
+                post(() -> onRegionOpened(file, opened));
+            } catch (IOException e) {
+                Log.i(TAG, "could not open " + file + " " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Switch to the size of the full picture, keeping the picture where it is on screen
+     */
+    private void onRegionOpened(File file, Region opened) {
+        if (file != this.file || region != null || !isAttachedToWindow()) {
+            DECODER.execute(opened.decoder::recycle);
+            return;
+        }
+        region = opened;
+        int width = opened.decoder.getWidth();
+        int height = opened.decoder.getHeight();
+        if (imageWidth > 0) {
+            scale *= (float) imageWidth / width;
+            imageWidth = width;
+            imageHeight = height;
+        } else {
+            imageWidth = width;
+            imageHeight = height;
+            fit();
+        }
+        invalidate();
+    }
+
+    /**
+     * Recycle the region decoder after the decodes already queued for it
+     */
+    private void closeRegion() {
+        if (region != null) {
+            DECODER.execute(region.decoder::recycle);
+            region = null;
+        }
+        pending.clear();
+        wanted = Collections.emptySet();
+    }
+
+    /**
+     * @return scale that fits the picture inside the view
+     */
+    private float fitScale() {
+        if (imageWidth == 0 || imageHeight == 0 || getWidth() == 0 || getHeight() == 0) {
+            return 1f;
+        }
+        return Math.min((float) getWidth() / imageWidth, (float) getHeight() / imageHeight);
+    }
+
+    private void fit() {
+        scale = fitScale();
+        clampTranslation();
+        invalidate();
+    }
+
+    /**
+     * Zoom around a focus point, between fitting the view and MAX_SCALE
+     */
+    private void zoomBy(float factor, float focusX, float focusY) {
+        float fitScale = fitScale();
+        float newScale = Math.max(fitScale, Math.min(Math.max(fitScale, MAX_SCALE),
+                scale * factor));
+        float applied = newScale / scale;
+        translateX = focusX - (focusX - translateX) * applied;
+        translateY = focusY - (focusY - translateY) * applied;
+        scale = newScale;
+        clampTranslation();
+        invalidate();
+    }
+
+    /**
+     * Center the picture along an axis it fits in, otherwise keep its edges outside the view
+     */
+    private void clampTranslation() {
+        float width = imageWidth * scale;
+        float height = imageHeight * scale;
+        translateX = width <= getWidth() ? (getWidth() - width) / 2
+                : Math.max(getWidth() - width, Math.min(0, translateX));
+        translateY = height <= getHeight() ? (getHeight() - height) / 2
+                : Math.max(getHeight() - height, Math.min(0, translateY));
+    }
+
+    /**
+     * Region decoder of a picture file and the prefix of its keys in the tile cache
+     */
+    private static class Region {
+        private final BitmapRegionDecoder decoder;
+        private final String keyPrefix;
+
+        Region(BitmapRegionDecoder decoder, String keyPrefix) {
+            this.decoder = decoder;
+            this.keyPrefix = keyPrefix;
+        }
+    }
+}
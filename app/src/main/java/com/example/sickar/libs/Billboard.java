@@ -0,0 +1,213 @@
+package com.example.sickar.libs;
+
+/**
+ * Orientation of a node that faces the camera, computed without allocating. Holds the camera and
+ * node positions and the parent rotation it was last computed for, and skips the work while both
+ * positions have moved less than a threshold and the parent has not turned. The rotation is local
+ * to the parent, so turning only the parent also needs a new rotation.
+ *
+ * Matrices are column major float[16] as in com.google.ar.sceneform.math.Matrix, rotations are
+ * quaternions {x, y, z, w}. The rotation matches Quaternion.lookRotation(position - camera, up).
+ */
+public class Billboard {
+    /**
+     * Squared change of the parent's rotation columns below which the parent counts as still,
+     * about a tenth of a degree for an unscaled parent
+     */
+    private static final float PARENT_TOLERANCE_SQ = 1e-6f;
+
+    private final float thresholdSq;
+    private final float[] rotation = new float[4];
+    private final float[] last = new float[6];
+    /**
+     * Rotation columns of the parent's world matrix at the last update
+     */
+    private final float[] lastParent = new float[9];
+    private boolean lastHadParent;
+    private boolean oriented;
+
+    /**
+     * Construct a billboard
+     *
+     * @param threshold distance in meters the camera or node must move before the rotation is
+     *                  computed again
+     */
+    public Billboard(float threshold) {
+        thresholdSq = threshold * threshold;
+    }
+
+    /**
+     * Compute the rotation that turns the node to the camera, if either moved enough
+     *
+     * @param parentMatrix world matrix of the parent of the node, null if it has none
+     * @param px           world position of the node
+     * @param py           world position of the node
+     * @param pz           world position of the node
+     * @param cx           world position of the camera
+     * @param cy           world position of the camera
+     * @param cz           world position of the camera
+     * @return true if getRotation() changed and should be set as the local rotation of the node
+     */
+    public boolean update(float[] parentMatrix, float px, float py, float pz,
+                          float cx, float cy, float cz) {
+        if (oriented
+                && distanceSq(last[0], last[1], last[2], px, py, pz) < thresholdSq
+                && distanceSq(last[3], last[4], last[5], cx, cy, cz) < thresholdSq
+                && sameParentRotation(parentMatrix)) {
+            return false;
+        }
+        if (!lookRotation(parentMatrix, px - cx, py - cy, pz - cz, rotation)) {
+            return false;
+        }
+        last[0] = px;
+        last[1] = py;
+        last[2] = pz;
+        last[3] = cx;
+        last[4] = cy;
+        last[5] = cz;
+        lastHadParent = parentMatrix != null;
+        if (lastHadParent) {
+            for (int column = 0; column < 3; column++) {
+                System.arraycopy(parentMatrix, column * 4, lastParent, column * 3, 3);
+            }
+        }
+        oriented = true;
+        return true;
+    }
+
+    /**
+     * @return true if the parent's rotation and scale are those of the last update
+     */
+    private boolean sameParentRotation(float[] parentMatrix) {
+        if (parentMatrix == null || !lastHadParent) {
+            return parentMatrix == null && !lastHadParent;
+        }
+        float changeSq = 0;
+        for (int column = 0; column < 3; column++) {
+            for (int row = 0; row < 3; row++) {
+                float d = parentMatrix[column * 4 + row] - lastParent[column * 3 + row];
+                changeSq += d * d;
+            }
+        }
+        return changeSq < PARENT_TOLERANCE_SQ;
+    }
+
+    /**
+     * Compute the rotation again on the next update, for example after the node was re-parented
+     */
+    public void invalidate() {
+        oriented = false;
+    }
+
+    /**
+     * @return rotation {x, y, z, w} from the last update that returned true
+     */
+    public float[] getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Rotation whose forward (+z) axis points along a world direction with world up (+y) as
+     * close to up as possible, relative to a parent
+     *
+     * @param parentMatrix world matrix of the parent, null for a world rotation
+     * @param dx           world direction
+     * @param dy           world direction
+     * @param dz           world direction
+     * @param out          receives the rotation {x, y, z, w}
+     * @return false if the direction is zero or straight up or down, out is unchanged
+     */
+    public static boolean lookRotation(float[] parentMatrix, float dx, float dy, float dz,
+                                       float[] out) {
+        float ux = 0;
+        float uy = 1;
+        float uz = 0;
+        if (parentMatrix != null) {
+            // rotate the direction and up into the parent's space by the transposed rotation,
+            // the columns of the matrix are scaled so normalize them
+            float[] m = parentMatrix;
+            float s0 = 1 / length(m[0], m[1], m[2]);
+            float s1 = 1 / length(m[4], m[5], m[6]);
+            float s2 = 1 / length(m[8], m[9], m[10]);
+            float lx = (m[0] * dx + m[1] * dy + m[2] * dz) * s0;
+            float ly = (m[4] * dx + m[5] * dy + m[6] * dz) * s1;
+            float lz = (m[8] * dx + m[9] * dy + m[10] * dz) * s2;
+            dx = lx;
+            dy = ly;
+            dz = lz;
+            ux = m[1] * s0;
+            uy = m[5] * s1;
+            uz = m[9] * s2;
+        }
+
+        float forwardLength = length(dx, dy, dz);
+        if (forwardLength < 1e-6f) {
+            return false;
+        }
+        float fx = dx / forwardLength;
+        float fy = dy / forwardLength;
+        float fz = dz / forwardLength;
+
+        // right = up x forward
+        float rx = uy * fz - uz * fy;
+        float ry = uz * fx - ux * fz;
+        float rz = ux * fy - uy * fx;
+        float rightLength = length(rx, ry, rz);
+        if (rightLength < 1e-6f) {
+            return false;
+        }
+        rx /= rightLength;
+        ry /= rightLength;
+        rz /= rightLength;
+
+        // up = forward x right
+        ux = fy * rz - fz * ry;
+        uy = fz * rx - fx * rz;
+        uz = fx * ry - fy * rx;
+
+        // quaternion of the rotation matrix with columns right, up, forward
+        float trace = rx + uy + fz;
+        float x, y, z, w;
+        if (trace > 0) {
+            float s = (float) Math.sqrt(trace + 1) * 2;
+            w = 0.25f * s;
+            x = (uz - fy) / s;
+            y = (fx - rz) / s;
+            z = (ry - ux) / s;
+        } else if (rx > uy && rx > fz) {
+            float s = (float) Math.sqrt(1 + rx - uy - fz) * 2;
+            w = (uz - fy) / s;
+            x = 0.25f * s;
+            y = (ux + ry) / s;
+            z = (fx + rz) / s;
+        } else if (uy > fz) {
+            float s = (float) Math.sqrt(1 + uy - rx - fz) * 2;
+            w = (fx - rz) / s;
+            x = (ux + ry) / s;
+            y = 0.25f * s;
+            z = (fy + uz) / s;
+        } else {
+            float s = (float) Math.sqrt(1 + fz - rx - uy) * 2;
+            w = (ry - ux) / s;
+            x = (fx + rz) / s;
+            y = (fy + uz) / s;
+            z = 0.25f * s;
+        }
+        out[0] = x;
+        out[1] = y;
+        out[2] = z;
+        out[3] = w;
+        return true;
+    }
+
+    private static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    private static float distanceSq(float ax, float ay, float az, float bx, float by, float bz) {
+        float dx = ax - bx;
+        float dy = ay - by;
+        float dz = az - bz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.sickar.libs;
+
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Scene;
+
+import java.util.ArrayList;
+
+/**
+ * Orients all active SelfOrientingNodes of a scene to the camera in one pass per frame. Register
+ * it with Scene.addOnUpdateListener and create the nodes with it. The camera position is read
+ * once per frame and nodes that moved less than the threshold relative to the camera are
+ * skipped.
+ */
+public class BillboardUpdater implements Scene.OnUpdateListener {
+    private final Scene scene;
+    private final float threshold;
+    private final ArrayList<SelfOrientingNode> nodes = new ArrayList<>();
+
+    private long frames;
+    private long oriented;
+    private long skipped;
+
+    /**
+     * Construct an updater
+     *
+     * @param scene     Scene of the nodes
+     * @param threshold distance in meters the camera or a node must move before the node is
+     *                  turned again
+     */
+    public BillboardUpdater(Scene scene, float threshold) {
+        this.scene = scene;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return distance in meters the camera or a node must move before the node is turned again
+     */
+    float getThreshold() {
+        return threshold;
+    }
+
+    void add(SelfOrientingNode node) {
+        if (!nodes.contains(node)) {
+            nodes.add(node);
+        }
+    }
+
+    void remove(SelfOrientingNode node) {
+        nodes.remove(node);
+    }
+
+    /**
+     * Orient the nodes, called by the scene before each frame
+     *
+     * @param frameTime FrameTime
+     */
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        frames++;
+        float[] camera = scene.getCamera().getWorldModelMatrix().data;
+        float cx = camera[12];
+        float cy = camera[13];
+        float cz = camera[14];
+        for (int i = 0; i < nodes.size(); i++) {
+            SelfOrientingNode node = nodes.get(i);
+            if (node.isEnabled() && node.orient(cx, cy, cz)) {
+                oriented++;
+            } else {
+                skipped++;
+            }
+        }
+    }
+
+    /**
+     * @return number of nodes being oriented
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    @Override
+    public String toString() {
+        return "nodes=" + nodes.size() + " frames=" + frames + " oriented=" + oriented
+                + " skipped=" + skipped;
+    }
+}
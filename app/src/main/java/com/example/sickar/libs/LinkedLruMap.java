@@ -0,0 +1,312 @@
+package com.example.sickar.libs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded map that keeps its entries in a doubly linked list ordered from newest to oldest.
+ * A HashMap indexes the list nodes so inserts, lookups, removals and evictions are all O(1).
+ * Once the capacity is exceeded the oldest entry (the tail of the list) is evicted.
+ *
+ * Entries inserted with offerBack form a back region at the tail of the list, behind every entry
+ * inserted with putFirstIfAbsent, so they are always evicted first.
+ *
+ * All methods are synchronized on this map so it can be shared between the main thread and
+ * network threads.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LinkedLruMap<K, V> {
+    /**
+     * Notified of entries that are evicted or removed, called while the map is locked
+     *
+     * @param <K> key type
+     * @param <V> value type
+     */
+    public interface RemovalListener<K, V> {
+        void onRemoved(K key, V value);
+    }
+
+    /**
+     * Index of the list nodes by key
+     */
+    private final Map<K, Entry<K, V>> index;
+
+    /**
+     * Sentinel node, head.next is the newest entry and head.prev is the oldest entry
+     */
+    private final Entry<K, V> head;
+
+    /**
+     * Newest entry of the back region, null if the region is empty
+     */
+    private Entry<K, V> backHead;
+
+    private RemovalListener<K, V> removalListener;
+
+    /**
+     * Maximum number of entries before the oldest ones are evicted
+     */
+    private int capacity;
+
+    /**
+     * Construct an empty map
+     *
+     * @param capacity maximum number of entries, must be positive
+     */
+    public LinkedLruMap(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        index = new HashMap<>();
+        head = new Entry<>(null, null);
+        head.next = head;
+        head.prev = head;
+    }
+
+    /**
+     * Insert a value at the front of the map if there is no entry for its key yet. Evicts the
+     * oldest entry if the capacity is exceeded.
+     *
+     * @param key   key
+     * @param value value
+     * @return true if the value was inserted, false if the key was already present
+     */
+    public synchronized boolean putFirstIfAbsent(K key, V value) {
+        if (index.containsKey(key)) {
+            return false;
+        }
+        Entry<K, V> entry = new Entry<>(key, value);
+        index.put(key, entry);
+        linkAfter(head, entry);
+        trimToCapacity();
+        return true;
+    }
+
+    /**
+     * Insert a value at the front of the back region if there is no entry for its key yet. If the
+     * map is full the oldest entry of the back region is evicted to make room, entries inserted
+     * with putFirstIfAbsent are never evicted for it.
+     *
+     * @param key   key
+     * @param value value
+     * @return true if the value was inserted, false if the key was present or the map is full of
+     * entries outside the back region
+     */
+    public synchronized boolean offerBack(K key, V value) {
+        if (index.containsKey(key) || (index.size() >= capacity && backHead == null)) {
+            return false;
+        }
+        Entry<K, V> entry = new Entry<>(key, value);
+        index.put(key, entry);
+        linkAfter(backHead == null ? head.prev : backHead.prev, entry);
+        backHead = entry;
+        trimToCapacity();
+        return true;
+    }
+
+    /**
+     * Move the entry for a key to the front of the map, out of the back region if it was offered
+     * with offerBack
+     *
+     * @param key key
+     * @return true if there was an entry for the key
+     */
+    public synchronized boolean promote(K key) {
+        Entry<K, V> entry = index.get(key);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        linkAfter(head, entry);
+        return true;
+    }
+
+    /**
+     * Set the listener notified of evicted and removed entries, clear does not notify it
+     *
+     * @param listener listener, null for none
+     */
+    public synchronized void setRemovalListener(RemovalListener<K, V> listener) {
+        removalListener = listener;
+    }
+
+    /**
+     * Get the value mapped to a key. Does not change the order of the entries.
+     *
+     * @param key key
+     * @return value or null if there is no such entry
+     */
+    public synchronized V get(K key) {
+        Entry<K, V> entry = index.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Check if this map contains a key
+     *
+     * @param key key
+     * @return true if the key is contained, false if not
+     */
+    public synchronized boolean containsKey(K key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Remove the entry for a key
+     *
+     * @param key key
+     * @return the removed value or null if there was no such entry
+     */
+    public synchronized V remove(K key) {
+        Entry<K, V> entry = index.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        unlink(entry);
+        if (removalListener != null) {
+            removalListener.onRemoved(entry.key, entry.value);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Remove every entry
+     */
+    public synchronized void clear() {
+        index.clear();
+        head.next = head;
+        head.prev = head;
+        backHead = null;
+    }
+
+    /**
+     * @return the newest value or null if the map is empty
+     */
+    public synchronized V peekFirst() {
+        return head.next == head ? null : head.next.value;
+    }
+
+    /**
+     * @return the oldest value or null if the map is empty
+     */
+    public synchronized V peekLast() {
+        return head.prev == head ? null : head.prev.value;
+    }
+
+    /**
+     * Snapshot of the values ordered from newest to oldest
+     *
+     * @return list of values
+     */
+    public synchronized ArrayList<V> values() {
+        ArrayList<V> list = new ArrayList<>(index.size());
+        for (Entry<K, V> e = head.next; e != head; e = e.next) {
+            list.add(e.value);
+        }
+        return list;
+    }
+
+    /**
+     * Snapshot of the keys ordered from newest to oldest
+     *
+     * @return list of keys
+     */
+    public synchronized ArrayList<K> keys() {
+        ArrayList<K> list = new ArrayList<>(index.size());
+        for (Entry<K, V> e = head.next; e != head; e = e.next) {
+            list.add(e.key);
+        }
+        return list;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return true if there are no entries
+     */
+    public synchronized boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * @return maximum number of entries
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the capacity. Evicts the oldest entries if the map is now over capacity.
+     *
+     * @param capacity maximum number of entries, must be positive
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        trimToCapacity();
+    }
+
+    /**
+     * Evict entries from the tail until the size is within capacity
+     */
+    private void trimToCapacity() {
+        while (index.size() > capacity) {
+            Entry<K, V> eldest = head.prev;
+            unlink(eldest);
+            index.remove(eldest.key);
+            if (removalListener != null) {
+                removalListener.onRemoved(eldest.key, eldest.value);
+            }
+        }
+    }
+
+    /**
+     * Link an entry into the list directly after another entry
+     */
+    private void linkAfter(Entry<K, V> before, Entry<K, V> entry) {
+        entry.prev = before;
+        entry.next = before.next;
+        before.next.prev = entry;
+        before.next = entry;
+    }
+
+    /**
+     * Unlink an entry from the list
+     */
+    private void unlink(Entry<K, V> entry) {
+        if (entry == backHead) {
+            // the back region runs to the tail of the list
+            backHead = entry.next == head ? null : entry.next;
+        }
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /**
+     * Node of the linked list
+     */
+    private static class Entry<K, V> {
+        private final K key;
+        private final V value;
+        private Entry<K, V> prev;
+        private Entry<K, V> next;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
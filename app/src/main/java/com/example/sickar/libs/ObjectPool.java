@@ -0,0 +1,120 @@
+package com.example.sickar.libs;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps released objects to hand them out again instead of building new ones.
+ *
+ * acquire() returns an idle object or builds one with the factory. release() resets an object and
+ * keeps it while fewer than capacity are idle, otherwise it is dropped. The counts show how many
+ * objects were built, reused and dropped.
+ *
+ * Not thread safe, use it from one thread.
+ *
+ * @param <T> object type
+ */
+public class ObjectPool<T> {
+    private final int capacity;
+    private final Supplier<T> factory;
+    private final Consumer<T> reset;
+    private final ArrayDeque<T> idle;
+
+    private long created;
+    private long reused;
+    private long dropped;
+
+    /**
+     * Construct a pool
+     *
+     * @param capacity largest number of idle objects kept
+     * @param factory  builds a new object
+     * @param reset    returns a released object to the state of a new one
+     */
+    public ObjectPool(int capacity, Supplier<T> factory, Consumer<T> reset) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        this.factory = factory;
+        this.reset = reset;
+        idle = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Build objects ahead of time until count are idle, at most capacity
+     *
+     * @param count number of idle objects wanted
+     */
+    public void prefill(int count) {
+        int target = Math.min(count, capacity);
+        while (idle.size() < target) {
+            created++;
+            idle.push(factory.get());
+        }
+    }
+
+    /**
+     * @return an idle object, or a new one if none is idle
+     */
+    public T acquire() {
+        T object = idle.poll();
+        if (object != null) {
+            reused++;
+            return object;
+        }
+        created++;
+        return factory.get();
+    }
+
+    /**
+     * Reset an object and keep it for a later acquire()
+     *
+     * @param object object that is no longer used
+     * @return true if it was kept, false if the pool was full and it was dropped
+     */
+    public boolean release(T object) {
+        if (idle.size() >= capacity) {
+            dropped++;
+            return false;
+        }
+        reset.accept(object);
+        idle.push(object);
+        return true;
+    }
+
+    /**
+     * @return number of idle objects
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return number of objects built by the factory
+     */
+    public long getCreatedCount() {
+        return created;
+    }
+
+    /**
+     * @return number of acquires served by an idle object
+     */
+    public long getReusedCount() {
+        return reused;
+    }
+
+    /**
+     * @return number of released objects dropped because the pool was full
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "idle=" + idle.size() + " created=" + created + " reused=" + reused
+                + " dropped=" + dropped;
+    }
+}
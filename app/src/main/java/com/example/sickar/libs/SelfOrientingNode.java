@@ -1,14 +1,57 @@
 package com.example.sickar.libs;
 
+import com.example.sickar.Constants;
 import com.google.ar.sceneform.FrameTime;
 import com.google.ar.sceneform.Node;
 import com.google.ar.sceneform.math.Quaternion;
-import com.google.ar.sceneform.math.Vector3;
 
 /**
  * Custom Sceneform Node which will orient itself to the camera
+ *
+ * The orientation is computed by a Billboard without allocating and only when the camera or the
+ * node moved more than a threshold. Nodes created with a BillboardUpdater are all oriented by it
+ * in one pass per frame, other nodes orient themselves in onUpdate.
  */
 public class SelfOrientingNode extends Node {
+    private final BillboardUpdater updater;
+    private final Billboard billboard;
+    private final Quaternion rotation = new Quaternion();
+
+    /**
+     * Construct a node that orients itself in onUpdate
+     */
+    public SelfOrientingNode() {
+        this(null, Constants.BILLBOARD_THRESHOLD_M);
+    }
+
+    /**
+     * Construct a node that is oriented by an updater while it is active
+     *
+     * @param updater BillboardUpdater of the scene
+     */
+    public SelfOrientingNode(BillboardUpdater updater) {
+        this(updater, updater.getThreshold());
+    }
+
+    private SelfOrientingNode(BillboardUpdater updater, float threshold) {
+        this.updater = updater;
+        billboard = new Billboard(threshold);
+    }
+
+    @Override
+    public void onActivate() {
+        billboard.invalidate();
+        if (updater != null) {
+            updater.add(this);
+        }
+    }
+
+    @Override
+    public void onDeactivate() {
+        if (updater != null) {
+            updater.remove(this);
+        }
+    }
 
     /**
      * Called on the update of a frame.
@@ -18,14 +61,33 @@ public class SelfOrientingNode extends Node {
      */
     @Override
     public void onUpdate(FrameTime frameTime) {
-        if (getScene() == null || !this.isEnabled()) {
+        if (updater != null || getScene() == null || !this.isEnabled()) {
             return;
         }
+        float[] camera = getScene().getCamera().getWorldModelMatrix().data;
+        orient(camera[12], camera[13], camera[14]);
+    }
 
-        Vector3 cameraPosition = getScene().getCamera().getWorldPosition();
-        Vector3 position = this.getWorldPosition();
-        Vector3 direction = Vector3.subtract(position, cameraPosition);
-        Quaternion lookRotation = Quaternion.lookRotation(direction, Vector3.up());
-        this.setWorldRotation(lookRotation);
+    /**
+     * Turn this node to a camera position if the camera or the node moved enough
+     *
+     * @return true if the rotation was set
+     */
+    boolean orient(float cx, float cy, float cz) {
+        // the translation of the world matrix does not depend on the rotation of this node
+        float[] world = getWorldModelMatrix().data;
+        Node parent = getParent();
+        float[] parentMatrix = parent == null ? null : parent.getWorldModelMatrix().data;
+        if (!billboard.update(parentMatrix, world[12], world[13], world[14], cx, cy, cz)) {
+            return false;
+        }
+        float[] r = billboard.getRotation();
+        rotation.set(r[0], r[1], r[2], r[3]);
+        if (parent == null) {
+            setWorldRotation(rotation);
+        } else {
+            setLocalRotation(rotation);
+        }
+        return true;
     }
 }
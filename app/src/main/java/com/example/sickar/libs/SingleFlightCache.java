@@ -0,0 +1,192 @@
+package com.example.sickar.libs;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Shares one load per key between concurrent callers and keeps the completed results for a fixed
+ * time.
+ *
+ * A call to get() either returns a cached result that has not expired (a hit), joins the load that
+ * is already in flight for the key (a join), or starts a new load (a miss). Loads that complete
+ * exceptionally are not cached, so the next call starts a new one. Expired results are swept
+ * whenever a result is cached, so keys that are never asked for again do not pile up.
+ *
+ * Every caller gets its own dependent future, so completing or cancelling it does not affect the
+ * other callers or the load.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlightCache<K, V> {
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final Map<K, CompletableFuture<V>> inFlight = new HashMap<>();
+    /**
+     * Completed results in the order they expire, oldest first
+     */
+    private final LinkedHashMap<K, Entry<V>> completed = new LinkedHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong joins = new AtomicLong();
+
+    /**
+     * Construct a cache that uses the system clock
+     *
+     * @param ttlMs time in milliseconds to keep a completed result, 0 to not keep results
+     */
+    public SingleFlightCache(long ttlMs) {
+        this(ttlMs, System::currentTimeMillis);
+    }
+
+    /**
+     * Construct a cache
+     *
+     * @param ttlMs time in milliseconds to keep a completed result, 0 to not keep results
+     * @param clock current time in milliseconds
+     */
+    public SingleFlightCache(long ttlMs, LongSupplier clock) {
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("ttl must not be negative: " + ttlMs);
+        }
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the result for a key, loading it if it is neither cached nor in flight. The loader is
+     * called outside of the lock and must not block.
+     *
+     * @param key    key
+     * @param loader starts the load for a key
+     * @return future of the result, a new one for every call
+     */
+    public CompletableFuture<V> get(K key, Function<K, CompletableFuture<V>> loader) {
+        CompletableFuture<V> pending;
+        synchronized (this) {
+            Entry<V> entry = completed.get(key);
+            if (entry != null) {
+                if (clock.getAsLong() < entry.expiresAt) {
+                    hits.incrementAndGet();
+                    return CompletableFuture.completedFuture(entry.value);
+                }
+                completed.remove(key);
+            }
+            CompletableFuture<V> existing = inFlight.get(key);
+            if (existing != null) {
+                joins.incrementAndGet();
+                return existing.thenApply(Function.identity());
+            }
+            misses.incrementAndGet();
+            pending = new CompletableFuture<>();
+            inFlight.put(key, pending);
+        }
+
+        CompletableFuture<V> load;
+        try {
+            load = loader.apply(key);
+        } catch (RuntimeException e) {
+            load = new CompletableFuture<>();
+            load.completeExceptionally(e);
+        }
+        load.whenComplete((value, error) -> {
+            synchronized (this) {
+                inFlight.remove(key, pending);
+                if (error == null && ttlMs > 0) {
+                    long now = clock.getAsLong();
+                    sweep(now);
+                    // re-inserted so the map stays in expiry order
+                    completed.remove(key);
+                    completed.put(key, new Entry<>(value, now + ttlMs));
+                }
+            }
+            if (error == null) {
+                pending.complete(value);
+            } else {
+                pending.completeExceptionally(error);
+            }
+        });
+        return pending.thenApply(Function.identity());
+    }
+
+    /**
+     * Drop the expired results, all results expire after the same time so they are in order
+     *
+     * @param now current time in milliseconds
+     */
+    private void sweep(long now) {
+        Iterator<Entry<V>> iterator = completed.values().iterator();
+        while (iterator.hasNext() && now >= iterator.next().expiresAt) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return number of cached results, including expired ones that were not swept yet
+     */
+    public synchronized int size() {
+        return completed.size();
+    }
+
+    /**
+     * Drop the cached result for a key. A load in flight is not affected.
+     *
+     * @param key key
+     */
+    public synchronized void invalidate(K key) {
+        completed.remove(key);
+    }
+
+    /**
+     * Drop all cached results
+     */
+    public synchronized void clear() {
+        completed.clear();
+    }
+
+    /**
+     * @return number of calls answered from a cached result
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of calls that started a load
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of calls that joined a load already in flight
+     */
+    public long getJoins() {
+        return joins.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits.get() + " misses=" + misses.get() + " joins=" + joins.get();
+    }
+
+    /**
+     * Completed result with its expiry time
+     */
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
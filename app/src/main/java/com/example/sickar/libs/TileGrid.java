@@ -0,0 +1,129 @@
+package com.example.sickar.libs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a picture into square tiles for decoding with BitmapRegionDecoder. A tile at sample size
+ * s covers tileSize * s picture pixels per side and decodes to at most tileSize pixels per side,
+ * so each zoom level decodes about as many pixels as fit on screen.
+ */
+public final class TileGrid {
+    private TileGrid() {
+    }
+
+    /**
+     * Part of a picture decoded on its own. The bounds are in picture pixels and clipped to the
+     * picture.
+     */
+    public static final class Tile {
+        public final int sampleSize;
+        public final int column;
+        public final int row;
+        public final int left;
+        public final int top;
+        public final int right;
+        public final int bottom;
+
+        Tile(int sampleSize, int column, int row, int left, int top, int right, int bottom) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        /**
+         * @return key of the tile, unique within a picture
+         */
+        public String key() {
+            return sampleSize + "/" + column + "/" + row;
+        }
+
+        /**
+         * @return width of the decoded tile in pixels
+         */
+        public int decodedWidth() {
+            return (right - left + sampleSize - 1) / sampleSize;
+        }
+
+        /**
+         * @return height of the decoded tile in pixels
+         */
+        public int decodedHeight() {
+            return (bottom - top + sampleSize - 1) / sampleSize;
+        }
+
+        @Override
+        public String toString() {
+            return key() + " [" + left + "," + top + "][" + right + "," + bottom + "]";
+        }
+    }
+
+    /**
+     * Largest power of two sample size that still shows the picture at full detail
+     *
+     * @param scale screen pixels per picture pixel
+     * @return inSampleSize to decode tiles with
+     */
+    public static int sampleSizeFor(float scale) {
+        int sampleSize = 1;
+        while (scale > 0 && 1f / (sampleSize * 2) >= scale) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Tiles of a sample size that intersect the visible part of a picture
+     *
+     * @param width      width of the picture
+     * @param height     height of the picture
+     * @param tileSize   decoded pixels per side of a tile
+     * @param sampleSize sample size of the tiles
+     * @param left       left of the visible part in picture pixels
+     * @param top        top of the visible part in picture pixels
+     * @param right      right of the visible part in picture pixels
+     * @param bottom     bottom of the visible part in picture pixels
+     * @return visible tiles row by row, empty if the picture is not visible
+     */
+    public static List<Tile> visibleTiles(int width, int height, int tileSize, int sampleSize,
+                                          float left, float top, float right, float bottom) {
+        List<Tile> tiles = new ArrayList<>();
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        if (left >= right || top >= bottom) {
+            return tiles;
+        }
+        int span = tileSize * sampleSize;
+        int firstColumn = (int) (left / span);
+        int firstRow = (int) (top / span);
+        int lastColumn = (int) Math.ceil(right / span) - 1;
+        int lastRow = (int) Math.ceil(bottom / span) - 1;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                tiles.add(new Tile(sampleSize, column, row, column * span, row * span,
+                        Math.min((column + 1) * span, width),
+                        Math.min((row + 1) * span, height)));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * @param tiles         tiles
+     * @param bytesPerPixel bytes per pixel of the decoded config
+     * @return bytes of the decoded tiles
+     */
+    public static long decodedBytes(List<Tile> tiles, int bytesPerPixel) {
+        long bytes = 0;
+        for (Tile tile : tiles) {
+            bytes += (long) tile.decodedWidth() * tile.decodedHeight() * bytesPerPixel;
+        }
+        return bytes;
+    }
+}
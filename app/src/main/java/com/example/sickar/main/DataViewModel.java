@@ -1,21 +1,32 @@
 package com.example.sickar.main;
 
 import android.app.Application;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.MutableLiveData;
 
+import com.example.sickar.Constants;
 import com.example.sickar.main.helpers.BarcodeDataCache;
 import com.example.sickar.main.helpers.Item;
+import com.example.sickar.main.helpers.ItemStore;
 import com.example.sickar.main.helpers.NetworkRequest;
+import com.example.sickar.main.helpers.PicturePrefetcher;
+import com.example.sickar.main.helpers.TamperDetector;
+import com.example.sickar.main.helpers.ZonePrefetcher;
 
 import org.json.JSONObject;
 
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * ViewModel for main activity. This ViewModel abstracts away the cache from mainActivity and
@@ -24,6 +35,8 @@ import java.util.concurrent.ConcurrentHashMap;
  * update the appropriate views.
  */
 public class DataViewModel extends AndroidViewModel {
+    private static final String TAG = "app_" + DataViewModel.class.getSimpleName();
+
     /**
      * LiveData that holds the BarcodeDataCache to update observers about newly requested items
      */
@@ -51,6 +64,24 @@ public class DataViewModel extends AndroidViewModel {
      */
     private Set<String> currentRequests;
 
+    /**
+     * Prefetches the parcels recently scanned on the floor, null if Constants.PREFETCH_ENABLED
+     * is off
+     */
+    private ZonePrefetcher prefetcher;
+    private ScheduledExecutorService prefetchExecutor;
+
+    /**
+     * Prefetches the pictures of newly scanned items, null if
+     * Constants.PICTURE_PREFETCH_ENABLED is off
+     */
+    private PicturePrefetcher picturePrefetcher;
+
+    /**
+     * Computes tamper information from the systems of cached items
+     */
+    private TamperDetector tamperDetector = new TamperDetector();
+
     /**
      * Construct this ViewModel
      *
@@ -65,7 +96,37 @@ public class DataViewModel extends AndroidViewModel {
         currentRequests = ConcurrentHashMap.newKeySet();
         currentRequestsData = new MutableLiveData<>();
         currentRequestsData.postValue(currentRequests);
+        if (Constants.PERSISTENT_CACHE_ENABLED && barcodeDataCache.getItemStore() == null) {
+            barcodeDataCache.setItemStore(new ItemStore(
+                    new File(application.getFilesDir(), "scan_cache/items.log"),
+                    Constants.PERSISTENT_CACHE_SIZE, Constants.PERSISTENT_CACHE_TTL_MS));
+        }
         fetchSystemConfig();
+        if (Constants.PREFETCH_ENABLED) {
+            startPrefetch();
+        }
+        if (Constants.PICTURE_PREFETCH_ENABLED) {
+            picturePrefetcher = new PicturePrefetcher(networkRequest::prefetchPictures,
+                    Constants.PICTURE_PREFETCH_MAX_QUEUED, Constants.PICTURE_PREFETCH_BUDGET_BYTES,
+                    Duration.ofMillis(Constants.PICTURE_PREFETCH_BUDGET_WINDOW_MS), Instant::now);
+        }
+    }
+
+    /**
+     * Stop prefetching when the ViewModel is no longer used
+     */
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (prefetcher != null) {
+            prefetcher.stop();
+            prefetchExecutor.shutdownNow();
+            barcodeDataCache.removeZonePrefetcher(prefetcher);
+        }
+        if (picturePrefetcher != null) {
+            Log.i(TAG, "picture prefetch " + picturePrefetcher);
+            picturePrefetcher.stop();
+        }
     }
 
     /**
@@ -105,6 +166,17 @@ public class DataViewModel extends AndroidViewModel {
         }
     }
 
+    /**
+     * Mark a cached item as scanned and listed, see BarcodeDataCache.markScanned
+     *
+     * @param barcode barcode
+     */
+    void markListed(String barcode) {
+        if (getBarcodeData() != null) {
+            getBarcodeData().markScanned(barcode);
+        }
+    }
+
     /**
      * Post data with the JSON response
      *
@@ -124,20 +196,35 @@ public class DataViewModel extends AndroidViewModel {
                 putError(barcode, "No data for this item: " + barcode);
             }
         }
-        if (enteredItem) cacheData.postValue(d);
+        if (enteredItem) {
+            cacheData.postValue(d);
+            prefetchPictures(barcode);
+        }
     }
 
     /**
-     * Post data with Item
+     * Post data with an Item already parsed from the network response
      *
-     * @deprecated
+     * @param barcode barcode
+     * @param item    Item, null or without systems if the response contained no data
      */
-    void putBarcodeItem(String barcode, Item item) {
+    public void putBarcodeItem(String barcode, Item item) {
         BarcodeDataCache d = getBarcodeData();
+        boolean enteredItem = false;
         if (d != null) {
-            d.put(barcode, item);
+            // check if response had data inside
+            if (item != null && !item.getSystemList().isEmpty()) {
+                enteredItem = d.put(barcode, item);
+                currentRequests.remove(barcode);
+                currentRequestsData.postValue(currentRequests);
+            } else {
+                putError(barcode, "No data for this item: " + barcode);
+            }
+        }
+        if (enteredItem) {
+            cacheData.postValue(d);
+            prefetchPictures(barcode);
         }
-        cacheData.postValue(d);
     }
 
     /**
@@ -179,23 +266,49 @@ public class DataViewModel extends AndroidViewModel {
     }
 
     /**
-     * Get the CompletableFuture for loading images
+     * Get the CompletableFuture for loading images. They are read from the picture disk cache
+     * if it has them.
      *
      * @param barcode barcode string
-     * @return images future
+     * @return future of the picture files of each system by device
      */
-    public CompletableFuture<JSONObject> getPicturesForItem(String barcode) {
+    public CompletableFuture<Map<String, Map<String, File>>> getPicturesForItem(String barcode) {
         return networkRequest.sendPictureRequest(barcode);
     }
 
     /**
-     * Get the CompletableFuture for loading tamper information
+     * Stop prefetching the pictures of an item, called when it is dismissed
+     *
+     * @param barcode barcode string
+     */
+    public void cancelPicturePrefetch(String barcode) {
+        if (picturePrefetcher != null) {
+            picturePrefetcher.cancel(barcode);
+        }
+    }
+
+    /**
+     * Get the CompletableFuture for loading tamper information. It is computed locally from the
+     * cached item and only requested from the backend if the item is not cached.
      *
      * @param barcode barcode string
      * @return tamper information future
      */
-    public CompletableFuture<Map> getTamperInfo(String barcode) {
-        return networkRequest.sendTamperRequest(barcode);
+    public CompletableFuture<Map<String, Object>> getTamperInfo(String barcode) {
+        Item item = getBarcodeItem(barcode);
+        if (item == null || item.getSystemList().isEmpty()) {
+            return networkRequest.sendTamperRequest(barcode);
+        }
+        Map<String, Object> local = tamperDetector.detect(item);
+        if (Constants.TAMPER_VERIFY_WITH_BACKEND) {
+            networkRequest.sendTamperRequest(barcode).thenAccept(remote -> {
+                if (!TamperDetector.sameResult(local, remote)) {
+                    Log.w(TAG, "tamper mismatch for " + barcode + " local " + local
+                            + " backend " + remote);
+                }
+            });
+        }
+        return CompletableFuture.completedFuture(local);
     }
 
     /**
@@ -209,14 +322,30 @@ public class DataViewModel extends AndroidViewModel {
     }
 
     /**
-     * Issue network request to fetch data
+     * Issue request to fetch data. Items kept in the persistent ItemStore are loaded from disk
+     * instead of the network.
      *
      * @param barcode barcode
      */
     void fetchBarcodeData(String barcode) {
-        if (!currentRequests.contains(barcode)) {
-            networkRequest.sendRequest(barcode);
-            currentRequests.add(barcode);
+        if (currentRequests.add(barcode)) {
+            ItemStore store = barcodeDataCache.getItemStore();
+            if (store == null) {
+                networkRequest.sendRequest(barcode);
+            } else {
+                // a failed disk read falls back to the network so the barcode is not left in
+                // currentRequests
+                store.getAsync(barcode).whenComplete((item, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "reading stored item " + barcode + " failed", e);
+                    }
+                    if (e != null || item == null) {
+                        networkRequest.sendRequest(barcode);
+                    } else {
+                        putBarcodeItem(barcode, item);
+                    }
+                });
+            }
         }
     }
 
@@ -229,6 +358,31 @@ public class DataViewModel extends AndroidViewModel {
         return cacheData.getValue();
     }
 
+    /**
+     * Queue the pictures of a newly inserted item for prefetching if it is enabled
+     *
+     * @param barcode barcode
+     */
+    private void prefetchPictures(String barcode) {
+        if (picturePrefetcher != null) {
+            picturePrefetcher.enqueue(barcode);
+        }
+    }
+
+    /**
+     * Start syncing the parcels scanned in the last Constants.PREFETCH_WINDOW_MINUTES into the
+     * cache in the background
+     */
+    private void startPrefetch() {
+        prefetcher = new ZonePrefetcher(networkRequest::fetchSearchPage,
+                barcodeDataCache::putPrefetched, Constants.PREFETCH_PAGE_SIZE,
+                Constants.PREFETCH_MEMORY_BUDGET_BYTES,
+                Duration.ofMinutes(Constants.PREFETCH_WINDOW_MINUTES), Instant::now);
+        barcodeDataCache.setZonePrefetcher(prefetcher);
+        prefetchExecutor = Executors.newSingleThreadScheduledExecutor();
+        prefetcher.start(prefetchExecutor, Constants.PREFETCH_INTERVAL_MS);
+    }
+
     /**
      * Issue request for the system configuration details. Used to get the devices configured
      * for images.
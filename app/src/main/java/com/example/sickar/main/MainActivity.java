@@ -3,17 +3,17 @@ package com.example.sickar.main;
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.Configuration;
-import android.graphics.Point;
 import android.graphics.PointF;
-import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
 import android.media.Image;
+import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
@@ -49,10 +49,14 @@ import com.example.sickar.main.helpers.BarcodeProcessor;
 import com.example.sickar.main.helpers.GraphicOverlay;
 import com.example.sickar.main.helpers.Item;
 import com.example.sickar.main.helpers.ItemTouchHelperCallback;
+import com.example.sickar.main.helpers.ScanStateMachine;
 import com.example.sickar.tutorial.TutorialActivity;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.google.ar.core.Camera;
 import com.google.ar.core.Config;
+import com.google.ar.core.Frame;
 import com.google.ar.core.Session;
+import com.google.ar.core.TrackingState;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.DeadlineExceededException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
@@ -63,6 +67,8 @@ import com.google.ar.sceneform.ux.ArFragment;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Main Activity for this application.
@@ -111,15 +117,24 @@ public class MainActivity extends AppCompatActivity {
     private Handler mainHandler;
 
     /**
-     * Background Handler listens to message from BarcodeProcessor that should be handled on a
-     * background thread. (not currently in use)
+     * Decides what to do with each detected barcode on scanExecutor and hands the main thread
+     * batches of view updates
      */
-    private Handler backgroundHandler;
+    private ScanStateMachine scanStateMachine;
+    private ExecutorService scanExecutor;
 
     /**
-     * Handler Thread for use with backgroundHandler
+     * Passes the battery temperature to the BarcodeProcessor, which slows down decoding while
+     * the device is warm
      */
-    private HandlerThread backgroundHandlerThread;
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int temperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            barcodeProcessor.setBatteryTemperature(temperature);
+        }
+    };
+    private boolean batteryReceiverRegistered;
 
 
     /**
@@ -196,11 +211,15 @@ public class MainActivity extends AppCompatActivity {
         recyclerView.setAdapter(recyclerViewAdapter);
         // attach the itemTouchHelper to recyclerView
         itemTouchHelperCallback.setAdapter(recyclerViewAdapter);
+        // a dismissed item no longer needs its pictures prefetched
+        itemTouchHelperCallback.setOnDismissListener(
+                item -> viewModel.cancelPicturePrefetch(item.getName()));
         itemTouchHelper.attachToRecyclerView(recyclerView);
 
         // initialize the handlers
         mainHandler = setupMainHandler();
-        backgroundHandler = setupBackgroundHandler();
+        scanExecutor = Executors.newSingleThreadExecutor();
+        scanStateMachine = setupScanStateMachine(scanExecutor);
 
         // create ARScene instance for ARCore functionality
         arScene = new ARScene(this, arFragment);
@@ -216,7 +235,8 @@ public class MainActivity extends AppCompatActivity {
         // initialize the barcode processor
         barcodeProcessor = BarcodeProcessor.getInstance();
         barcodeProcessor.setMainHandler(mainHandler);
-//        barcodeProcessor.setBackgroundHandler(backgroundHandler);
+        barcodeProcessor.setScanStateMachine(scanStateMachine);
+        barcodeProcessor.setBoxBuffer(graphicOverlay.getBoxBuffer());
 
         // reticle setup
         center = new PointF();
@@ -354,6 +374,7 @@ public class MainActivity extends AppCompatActivity {
                 return true;
             case R.id.clear_data_cache:
                 BarcodeDataCache.getInstance().clear();
+                scanStateMachine.reset();
                 return true;
             default:
                 return super.onOptionsItemSelected(item);
@@ -373,6 +394,8 @@ public class MainActivity extends AppCompatActivity {
         if (arSceneView.getSession() == null) {
             try {
                 setupArSession(new Session(this));
+                // load the card renderables now so the first card does not wait for them
+                arScene.warmUp();
             } catch (Exception e) {
                 Utils.displayErrorSnackbar(rootView, "arSession failed to create", e);
             }
@@ -386,8 +409,9 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
         barcodeProcessor.start();
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        batteryReceiverRegistered = true;
         configureDisplaySize(this.getResources().getConfiguration().orientation);
-        if (!backgroundHandlerThread.isAlive()) backgroundHandlerThread.start();
         if (getSupportActionBar() != null) getSupportActionBar().show();
         mainHandler.postDelayed(() -> {
             // hide appbar after some time
@@ -405,6 +429,14 @@ public class MainActivity extends AppCompatActivity {
             arSceneView.pause();
         }
         barcodeProcessor.stop();
+        Log.i(TAG, "placement " + arScene.getPlacementStats());
+        Log.i(TAG, "billboards " + arScene.getBillboardUpdater());
+        Log.i(TAG, "cards " + arScene.getCardManager());
+        Log.i(TAG, "card pool " + arScene.getCardPool());
+        if (batteryReceiverRegistered) {
+            unregisterReceiver(batteryReceiver);
+            batteryReceiverRegistered = false;
+        }
     }
 
     /**
@@ -416,7 +448,9 @@ public class MainActivity extends AppCompatActivity {
         if (arSceneView != null) {
             arSceneView.destroy();
         }
-        backgroundHandlerThread.quitSafely();
+        barcodeProcessor.setScanStateMachine(null);
+        barcodeProcessor.setBoxBuffer(null);
+        scanExecutor.shutdown();
     }
 
     /**
@@ -531,47 +565,8 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void handleMessage(Message msg) {
                 switch (msg.what) {
-                    case Constants.BARCODE_READ_SUCCESS:
-                        Bundle data = msg.getData();
-                        Rect box = data.getParcelable("boundingBox");
-                        String value = data.getString("value");
-
-                        graphicOverlay.drawBoundingBox(box);
-                        graphicOverlay.invalidate();
-
-                        // get item if it is already in the cache
-                        Item item = viewModel.getBarcodeItem(value);
-                        if (item != null) {
-                            // make sure both these conditions are checked
-                            // that's why there is not an else if here
-                            if (!item.isScanned()) {
-                                Utils.vibrate(vibrator, 300);
-                                updateRecyclerView(item);
-                            }
-                            if (!item.isPlaced()) {
-                                // item was already fetched and cached in barcodeData
-                                Point[] corners = (Point[]) data.getParcelableArray("cornerPoints");
-                                if (corners != null) {
-                                    Point topCenter = Utils.midPoint(corners[0], corners[1]);
-                                    boolean success = arScene.tryPlaceARCard(topCenter.x, topCenter.y, item);
-                                    if (success) {
-                                        Utils.vibrate2(vibrator);
-                                    } else {
-                                        Utils.displayErrorSnackbar(rootView, "unable to attach Anchor", null);
-                                    }
-                                }
-                            }
-                        } else if (!viewModel.requestPending(value)) {
-                            // first time requesting this item so network request is issued
-                            viewModel.fetchBarcodeData(value);
-                            progressBar.setVisibility(ProgressBar.VISIBLE);
-                            Log.i(TAG, "network request issued for " + value);
-                            Utils.vibrate(vibrator, 300);
-                        }
-                        break;
-                    case Constants.BARCODE_READ_EMPTY:
-                        graphicOverlay.clear();
-                        graphicOverlay.invalidate();
+                    case Constants.SCAN_RENDER_UPDATE:
+                        applyRenderBatch(scanStateMachine.takeRenderBatch());
                         break;
                     case Constants.BARCODE_READ_FAILURE:
                         String errMsg = msg.getData().getString("error reading barcodes");
@@ -589,59 +584,92 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Configures the background handler and background thread to process barcodes
-     * (no messages are currently being delivered. see BarcodeProcessor.BarcodeProcessRunnable
-     * .detect() )
-     * @return Handler
+     * Configures the ScanStateMachine which looks up barcodes and issues network requests on
+     * the given executor. Placing AR cards and updating views is left to the main thread, see
+     * applyRenderBatch.
+     *
+     * @param executor single thread executor
+     * @return ScanStateMachine
      */
-    private Handler setupBackgroundHandler() {
-        HandlerThread backgroundHandlerThread = new HandlerThread("background");
-        this.backgroundHandlerThread = backgroundHandlerThread;
-        backgroundHandlerThread.start();
-        return new Handler(backgroundHandlerThread.getLooper()) {
-            /**
-             * Receive messages from Barcode Processor to lookup barcodes,
-             * issue network requests, and place AR elements
-             *
-             * @param msg message to handle
-             */
+    private ScanStateMachine setupScanStateMachine(ExecutorService executor) {
+        ScanStateMachine.Host host = new ScanStateMachine.Host() {
             @Override
-            public void handleMessage(Message msg) {
-                // TODO: do barcode filtering here
-                if (msg.what == Constants.BARCODE_READ_SUCCESS) {
-                    Bundle data = msg.getData();
-                    String value = data.getString("value");
-                    Item item = viewModel.getBarcodeItem(value);
-                    if (item != null && (!item.isScanned() || !item.isPlaced()) && item.getName() != null) {
-                        // item was already fetched and cached in barcodeData
-                        Point[] corners = (Point[]) data.getParcelableArray("cornerPoints");
-//                        Log.i(TAG, "corners" + corners.toString());
-                        if (corners != null) {
-                            Point topCenter = Utils.midPoint(corners[0], corners[1]);
-                            boolean success = arScene.tryPlaceARCard(topCenter.x, topCenter.y, item);
-                            if (success) {
-                                Utils.vibrate2(vibrator);
-                            } else {
-                                Utils.displayErrorSnackbar(rootView, "unable to attach Anchor", null);
-                            }
-                        }
-                    } else if (item != null && item.getName() == null) {
-                        // there is a current request for this item that is pending
-                        Message msgOut = mainHandler.obtainMessage(Constants.REQUEST_PENDING);
-                        msgOut.sendToTarget();
-
-//                        Log.i(TAG, "network request pending" + value);
-                    } else if (item == null) {
-                        // first time requesting this item and a network request was issued
-                        Message msgOut = mainHandler.obtainMessage(Constants.REQUEST_ISSUED);
-                        msgOut.sendToTarget();
-
-                        Log.i(TAG, "network request issued for " + value);
-                        Utils.vibrate(vibrator, 300);
-                    }
-                }
+            public boolean isCached(String barcode) {
+                return viewModel.getBarcodeItem(barcode) != null;
+            }
+
+            @Override
+            public boolean isRequestPending(String barcode) {
+                return viewModel.requestPending(barcode);
+            }
+
+            @Override
+            public void fetch(String barcode) {
+                viewModel.fetchBarcodeData(barcode);
+                Log.i(TAG, "network request issued for " + barcode);
+            }
+
+            @Override
+            public boolean isListed(String barcode) {
+                Item item = viewModel.getBarcodeItem(barcode);
+                return item != null && item.isScanned();
+            }
+
+            @Override
+            public void markListed(String barcode) {
+                viewModel.markListed(barcode);
+            }
+
+            @Override
+            public boolean isAnchored(String barcode) {
+                Item item = viewModel.getBarcodeItem(barcode);
+                return item != null && item.isPlaced();
+            }
+
+            @Override
+            public void onRenderReady() {
+                mainHandler.sendEmptyMessage(Constants.SCAN_RENDER_UPDATE);
             }
         };
+        return new ScanStateMachine(host, executor, Constants.SCAN_ANCHOR_RETRY_MS,
+                SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * Applies the view updates decided by the ScanStateMachine: lists new items and places AR
+     * cards. The barcode boxes are drawn by the GraphicOverlay from its BoxBuffer. The ARCore hit
+     * test runs here because Sceneform must be used from the main thread.
+     *
+     * @param batch RenderBatch, null if it was already applied
+     */
+    private void applyRenderBatch(ScanStateMachine.RenderBatch batch) {
+        if (batch == null) {
+            return;
+        }
+        if (batch.requestIssued || batch.requestPending) {
+            progressBar.setVisibility(ProgressBar.VISIBLE);
+        }
+        if (batch.requestIssued) {
+            Utils.vibrate(vibrator, 300);
+        }
+        for (String barcode : batch.listed) {
+            Item item = viewModel.getBarcodeItem(barcode);
+            if (item != null) {
+                Utils.vibrate(vibrator, 300);
+                updateRecyclerView(item);
+            }
+        }
+        for (ScanStateMachine.AnchorRequest request : batch.anchors) {
+            Item item = viewModel.getBarcodeItem(request.barcode);
+            boolean success = item != null &&
+                    arScene.tryPlaceARCard(request.x, request.y, item);
+            if (success) {
+                Utils.vibrate2(vibrator);
+            } else {
+                Utils.displayErrorSnackbar(rootView, "unable to attach Anchor", null);
+            }
+            scanStateMachine.onAnchorResult(request.barcode, success);
+        }
     }
 
     /**
@@ -689,8 +717,11 @@ public class MainActivity extends AppCompatActivity {
     private void onUpdate() {
         try {
             //noinspection ConstantConditions
-            Image frameImage = arSceneView.getArFrame().acquireCameraImage();
-            barcodeProcessor.pushFrame(frameImage);
+            Frame arFrame = arSceneView.getArFrame();
+            Image frameImage = arFrame.acquireCameraImage();
+            Camera camera = arFrame.getCamera();
+            barcodeProcessor.pushFrame(frameImage,
+                    camera.getTrackingState() == TrackingState.TRACKING ? camera.getPose() : null);
 
 //            List<HitResult> hits = arSceneView.getArFrame().hitTest(center.x, center.y);
 //            if (!hits.isEmpty()) {
@@ -24,6 +24,7 @@ import com.example.sickar.R;
 import com.example.sickar.image.ImageActivity;
 import com.example.sickar.libs.EnhancedWrapContentViewPager;
 import com.example.sickar.main.helpers.Item;
+import com.example.sickar.main.helpers.ItemSnapshot;
 import com.example.sickar.main.helpers.SystemPageFragment;
 import com.google.android.material.tabs.TabLayout;
 
@@ -234,11 +235,11 @@ public class ItemRecyclerViewAdapter extends RecyclerView.Adapter<ItemRecyclerVi
             // only update the first time or for new systems
             Log.i(TAG, "new bind");
 //            pagerAdapter.clear();
-            for (String sys : item.getSystemList()) {
+            ItemSnapshot snapshot = item.snapshot();
+            for (String sys : snapshot.getSystemList()) {
                 if (!pagerAdapter.containsSystem(sys)) {
-                    item.setSystem(sys);
                     pagerAdapter.addFragment(
-                            new SystemPageFragment(item.getOneSystemData()), sys);
+                            new SystemPageFragment(snapshot.getSystemData(sys)), sys);
                 }
             }
             pagerAdapter.notifyDataSetChanged();
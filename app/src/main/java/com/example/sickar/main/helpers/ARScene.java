@@ -7,7 +7,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
-import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Base64;
 import android.util.Log;
 import android.view.View;
@@ -15,9 +15,12 @@ import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import com.example.sickar.Constants;
 import com.example.sickar.R;
 import com.example.sickar.Utils;
 import com.example.sickar.image.ImageActivity;
+import com.example.sickar.libs.BillboardUpdater;
+import com.example.sickar.libs.ObjectPool;
 import com.example.sickar.libs.SelfOrientingNode;
 import com.example.sickar.main.MainActivity;
 import com.google.ar.core.Anchor;
@@ -26,6 +29,7 @@ import com.google.ar.core.TrackingState;
 import com.google.ar.sceneform.AnchorNode;
 import com.google.ar.sceneform.ArSceneView;
 import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.math.Quaternion;
 import com.google.ar.sceneform.math.Vector3;
 import com.google.ar.sceneform.rendering.DpToMetersViewSizer;
 import com.google.ar.sceneform.rendering.ModelRenderable;
@@ -74,6 +78,31 @@ public class ARScene {
      */
     private ArFragment arFragment;
 
+    /**
+     * Loaded renderables copied or taken for each card
+     */
+    private RenderableTemplates templates;
+
+    /**
+     * Time to the first card and latency of each card
+     */
+    private PlacementStats placementStats;
+
+    /**
+     * Turns all cards to the camera in one pass per frame
+     */
+    private BillboardUpdater billboardUpdater;
+
+    /**
+     * Keeps the placed cards within a budget of live renderables
+     */
+    private CardManager cardManager;
+
+    /**
+     * Node graphs of removed cards, reused for the next cards placed
+     */
+    private ObjectPool<CardManager.PlacedCard> cardPool;
+
     /**
      * private constructor to create an instance with ArSceneView instead of ArFragment
      *
@@ -85,6 +114,19 @@ public class ARScene {
         mainActivity = (MainActivity) context;
         this.arSceneView = arSceneView;
         viewSizer = new DpToMetersViewSizer(1000);
+        templates = new RenderableTemplates(context, Constants.AR_TEMPLATE_POOL_SIZE);
+        placementStats = new PlacementStats();
+        billboardUpdater = new BillboardUpdater(arSceneView.getScene(),
+                Constants.BILLBOARD_THRESHOLD_M);
+        arSceneView.getScene().addOnUpdateListener(billboardUpdater);
+        cardManager = new CardManager(arSceneView.getScene(),
+                new CardBudgetPolicy(Constants.CARD_BUDGET, Constants.CARD_LOD_DISTANCE_M,
+                        Constants.CARD_CULL_DISTANCE_M),
+                this::loadCard, card -> cardPool.release(card),
+                Constants.CARD_VIEW_HALF_ANGLE_DEG, Constants.CARD_BUDGET_INTERVAL_MS);
+        arSceneView.getScene().addOnUpdateListener(cardManager);
+        cardPool = new ObjectPool<>(Constants.AR_CARD_POOL_SIZE, this::createNode,
+                this::resetNode);
     }
 
     /**
@@ -98,6 +140,52 @@ public class ARScene {
         this.arFragment = arFragment;
     }
 
+    /**
+     * Start loading the renderables of the cards and build the nodes of the first cards so the
+     * first card does not wait for them. Call when the AR session starts.
+     */
+    public void warmUp() {
+        placementStats.onSessionStart(SystemClock.elapsedRealtime());
+        templates.warmUp();
+        cardPool.prefill(Constants.AR_CARD_POOL_PREFILL);
+    }
+
+    /**
+     * Get the time to the first card and the latency of each card
+     *
+     * @return PlacementStats
+     */
+    public PlacementStats getPlacementStats() {
+        return placementStats;
+    }
+
+    /**
+     * Get the updater that turns the cards to the camera
+     *
+     * @return BillboardUpdater
+     */
+    public BillboardUpdater getBillboardUpdater() {
+        return billboardUpdater;
+    }
+
+    /**
+     * Get the pool of card node graphs
+     *
+     * @return ObjectPool
+     */
+    public ObjectPool<CardManager.PlacedCard> getCardPool() {
+        return cardPool;
+    }
+
+    /**
+     * Get the manager that keeps the cards within the budget of live renderables
+     *
+     * @return CardManager
+     */
+    public CardManager getCardManager() {
+        return cardManager;
+    }
+
     /**
      * Try and place the AR card for an item at a point on screen.
      * Only places one card per item.
@@ -115,13 +203,14 @@ public class ARScene {
                 Log.i(TAG, "placing anchor for " + item.getName());
                 // create Anchor
                 Anchor anchor = firstHit.createAnchor();
-                AnchorNode anchorNode = new AnchorNode(anchor);
-                anchorNode.setParent(arSceneView.getScene());
-                Node base = createNode(item);
-                anchorNode.addChild(base);
+                CardManager.PlacedCard card = cardPool.acquire();
+                card.bind(item, SystemClock.elapsedRealtime());
+                card.anchorNode.setAnchor(anchor);
+                card.anchorNode.setParent(arSceneView.getScene());
 
                 // notify that item has been placed
-                item.setAnchorAndAnchorNode(anchorNode, base.findByName("mainDisplayNode"));
+                item.setAnchorAndAnchorNode(card.anchorNode, card.mainDisplayNode);
+                cardManager.add(card);
                 return true;
             }
         }
@@ -129,28 +218,74 @@ public class ARScene {
     }
 
     /**
-     * Create the whole AR display to be placed.
+     * Create the nodes of the whole AR display, built by the card pool. The marker is set once it
+     * is built, the renderables of the card are set by loadCard() when the CardManager loads it.
      *
-     * @return base Node
+     * @return PlacedCard with the nodes
      */
-    private Node createNode(Item item) {
+    private CardManager.PlacedCard createNode() {
+        AnchorNode anchorNode = new AnchorNode();
         Node base = new TransformableNode(arFragment.getTransformationSystem());
-        Node mainDisplayNode = new SelfOrientingNode();
+        Node detailNode = new Node();
+        Node mainDisplayNode = new SelfOrientingNode(billboardUpdater);
         Node tamperNode = new Node();
         Node modelNode = new Node();
+        Node markerNode = new Node();
 
-        mainDisplayNode.setParent(base);
+        base.setParent(anchorNode);
+        detailNode.setParent(base);
+        mainDisplayNode.setParent(detailNode);
         tamperNode.setParent(mainDisplayNode);
-        modelNode.setParent(base);
+        modelNode.setParent(detailNode);
+        markerNode.setParent(base);
 
         mainDisplayNode.setName("mainDisplayNode");
+        mainDisplayNode.setLocalPosition(new Vector3(0.0f, 0.07f, 0.0f));
+        tamperNode.setLocalPosition(new Vector3(0.0f, 0.2f, 0.0f));
+        modelNode.setLocalScale(new Vector3(0.05f, 0.05f, 0.05f));
+        templates.takeMarker().thenAccept(markerNode::setRenderable);
+
+        return new CardManager.PlacedCard(anchorNode, base, detailNode, mainDisplayNode,
+                tamperNode, modelNode, markerNode);
+    }
 
-        CompletableFuture<ViewRenderable> mainDisplayStage =
-                ViewRenderable.builder().setView(context, R.layout.ar_item).build();
-        CompletableFuture<ViewRenderable> tamperDisplayStage =
-                ViewRenderable.builder().setView(context, R.layout.ar_tamper).build();
-        CompletableFuture<ModelRenderable> modelStage =
-                ModelRenderable.builder().setSource(context, Uri.parse("1240 Neptune.sfb")).build();
+    /**
+     * Return the nodes of a removed card to the state createNode() left them in. The card and
+     * tamper views belong to the removed item so they are dropped, the marker is kept.
+     *
+     * @param card PlacedCard
+     */
+    private void resetNode(CardManager.PlacedCard card) {
+        card.releaseRenderables();
+        card.anchorNode.setParent(null);
+        card.anchorNode.setAnchor(null);
+        if (arFragment.getTransformationSystem().getSelectedNode() == card.base) {
+            arFragment.getTransformationSystem().selectNode(null);
+        }
+        // undo the moves, turns and scales of the user
+        card.base.setLocalPosition(Vector3.zero());
+        card.base.setLocalRotation(Quaternion.identity());
+        card.base.setLocalScale(Vector3.one());
+        card.base.setEnabled(true);
+        card.detailNode.setEnabled(true);
+        card.mainDisplayNode.setEnabled(true);
+        card.tamperNode.setEnabled(true);
+        card.markerNode.setEnabled(true);
+    }
+
+    /**
+     * Set the renderables of a card, when it is placed and again when it comes back in view after
+     * its renderables were released. Its renderables are set once they are taken from the
+     * templates, which is right away once they are warmed up.
+     *
+     * @param card PlacedCard
+     */
+    private void loadCard(CardManager.PlacedCard card) {
+        Item item = card.item;
+        int generation = card.generation;
+        CompletableFuture<ViewRenderable> mainDisplayStage = templates.takeCard();
+        CompletableFuture<ViewRenderable> tamperDisplayStage = templates.takeTamper();
+        CompletableFuture<ModelRenderable> modelStage = templates.takeModel();
 
         CompletableFuture.allOf(
                 mainDisplayStage,
@@ -158,7 +293,12 @@ public class ARScene {
                 modelStage)
                 .handle((notUsed, throwable) -> {
 //                    Log.i(TAG, "ARscene create "+Thread.currentThread().toString());
+                    if (card.generation != generation) {
+                        // the card was removed and its nodes reused for another item
+                        return null;
+                    }
                     if (throwable != null) {
+                        cardManager.onLoadFailed(card);
                         Utils.displayErrorSnackbar(mainActivity.getRootView(), "Unable to load renderable", throwable);
                         return null;
                     }
@@ -168,35 +308,49 @@ public class ARScene {
                         // setup main display
                         ViewRenderable mainDisplayRenderable = mainDisplayStage.get();
                         setRenderableSettings(mainDisplayRenderable);
-                        mainDisplayNode.setRenderable(mainDisplayRenderable);
-                        mainDisplayNode.setLocalPosition(new Vector3(0.0f, 0.07f, 0.0f));
+                        card.mainDisplayNode.setRenderable(mainDisplayRenderable);
                         cardView = mainDisplayRenderable.getView();
 
                         // setup tamper display
                         ViewRenderable tamperDisplayRenderable = tamperDisplayStage.get();
                         setRenderableSettings(tamperDisplayRenderable);
-                        tamperNode.setRenderable(tamperDisplayRenderable);
-                        tamperNode.setLocalPosition(new Vector3(0.0f, 0.2f, 0.0f));
+                        card.tamperNode.setRenderable(tamperDisplayRenderable);
                         tamperView = tamperDisplayRenderable.getView();
+                        card.tamperView = tamperView;
 
                         // setup object handle
-                        ModelRenderable boxRenderable = modelStage.get();
-                        modelNode.setRenderable(boxRenderable);
-                        modelNode.setLocalScale(new Vector3(0.05f, 0.05f, 0.05f));
-
-                        setMainDisplay(item, cardView, tamperNode);
-                        // update tamper View once network request is finished
-                        mainActivity.getViewModel().getTamperInfo(item.getName())
-                                .thenAccept(map -> setTamperDisplay(map, item, tamperView,
-                                        tamperNode));
+                        card.modelNode.setRenderable(modelStage.get());
+
+                        setMainDisplay(item, cardView, card.tamperNode);
+                        boolean first = !card.loadedOnce;
+                        cardManager.onLoaded(card);
+                        if (card.tamperInfo != null) {
+                            setTamperDisplay(card.tamperInfo, item, tamperView, card.tamperNode);
+                        } else if (first) {
+                            placementStats.onCardReady(card.placedMs,
+                                    SystemClock.elapsedRealtime());
+                            Log.i(TAG, "card ready " + placementStats);
+                            // update tamper View once network request is finished
+                            mainActivity.getViewModel().getTamperInfo(item.getName())
+                                    .thenAccept(map -> {
+                                        if (card.generation != generation) {
+                                            return;
+                                        }
+                                        card.tamperInfo = map;
+                                        // the card may have been released and loaded again
+                                        if (card.tamperView != null) {
+                                            setTamperDisplay(map, item, card.tamperView,
+                                                    card.tamperNode);
+                                        }
+                                    });
+                        }
                     } catch (InterruptedException | ExecutionException ex) {
+                        cardManager.onLoadFailed(card);
                         Utils.displayErrorSnackbar(mainActivity.getRootView(), "Unable to load renderable", ex);
                         return null;
                     }
                     return null;
                 });
-
-        return base;
     }
 
     /**
@@ -244,8 +398,7 @@ public class ARScene {
         LinearLayout layout = pictureView.findViewById(R.id.ar_picture_layout);
         boolean noImages = false;
         for (String system_id : item.getSystemList()) {
-            item.setSystem(system_id);
-            Map<String, String> rawImgMap = item.getImageData();
+            Map<String, String> rawImgMap = item.getImageData(system_id);
             if (rawImgMap == null) {
                 noImages = true;
                 break;
@@ -301,7 +454,7 @@ public class ARScene {
      * @param tamperView the root view of the tamper display
      * @param tamperNode the node the tamper display is attached to
      */
-    private void setTamperDisplay(Map tampers, Item item, View tamperView, Node tamperNode) {
+    private void setTamperDisplay(Map<String, Object> tampers, Item item, View tamperView, Node tamperNode) {
         LinearLayout layout = tamperView.findViewById(R.id.tamper_layout);
         TextView title = tamperView.findViewById(R.id.tamper_title);
         TextView body = tamperView.findViewById(R.id.tamper_info);
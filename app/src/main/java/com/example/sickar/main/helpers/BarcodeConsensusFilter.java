@@ -0,0 +1,147 @@
+package com.example.sickar.main.helpers;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Temporal filter for decoded barcodes. A barcode is only reported once it has been decoded in
+ * at least K of the last N frames, which drops one-off misreads. After it has been reported,
+ * repeats of it are downgraded to bounding box updates for a hold-off window so the main thread
+ * does not look it up again on every frame.
+ *
+ * Call beginFrame() once per processed frame, then accept() for every barcode decoded in it.
+ * The history of each barcode is a bitmask of the last N frames, bit 0 being the current frame.
+ */
+public class BarcodeConsensusFilter {
+    /**
+     * What to do with a decoded barcode
+     */
+    public enum Decision {
+        /**
+         * Not confirmed yet, do not report it
+         */
+        DROP,
+        /**
+         * Confirmed, report it as a successful read
+         */
+        EMIT,
+        /**
+         * Already reported within the hold-off window, only update its bounding box
+         */
+        UPDATE
+    }
+
+    private final int k;
+    private final int n;
+    private final long holdOffMs;
+    private final long windowMask;
+    private final Map<String, Track> tracks = new HashMap<>();
+
+    private long frame;
+    private long now;
+
+    /**
+     * Construct a filter
+     *
+     * @param k         frames a barcode must be decoded in before it is reported
+     * @param n         number of most recent frames that are considered, at most 63
+     * @param holdOffMs time in milliseconds after a report during which repeats are updates
+     */
+    public BarcodeConsensusFilter(int k, int n, long holdOffMs) {
+        if (n < 1 || n > 63 || k < 1 || k > n) {
+            throw new IllegalArgumentException("need 1 <= k <= n <= 63, got k=" + k + " n=" + n);
+        }
+        this.k = k;
+        this.n = n;
+        this.holdOffMs = holdOffMs;
+        windowMask = (1L << n) - 1;
+    }
+
+    /**
+     * Start a new frame. Barcodes not seen for N frames and outside their hold-off window are
+     * forgotten.
+     *
+     * @param timeMs time of the frame in milliseconds
+     */
+    public synchronized void beginFrame(long timeMs) {
+        frame++;
+        now = timeMs;
+        Iterator<Track> it = tracks.values().iterator();
+        while (it.hasNext()) {
+            Track track = it.next();
+            age(track);
+            if (track.history == 0 && !inHoldOff(track)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Record a barcode decoded in the current frame
+     *
+     * @param value barcode value
+     * @return what to do with the barcode
+     */
+    public synchronized Decision accept(String value) {
+        Track track = tracks.get(value);
+        if (track == null) {
+            track = new Track(frame);
+            tracks.put(value, track);
+        }
+        age(track);
+        track.history |= 1;
+        if (inHoldOff(track)) {
+            return Decision.UPDATE;
+        }
+        if (Long.bitCount(track.history) >= k) {
+            track.reportedAt = now;
+            track.reported = true;
+            return Decision.EMIT;
+        }
+        return Decision.DROP;
+    }
+
+    /**
+     * Forget every barcode, for example when scanning is restarted
+     */
+    public synchronized void reset() {
+        tracks.clear();
+    }
+
+    /**
+     * @return number of barcodes currently tracked
+     */
+    synchronized int size() {
+        return tracks.size();
+    }
+
+    /**
+     * Shift the history of a track to the current frame
+     */
+    private void age(Track track) {
+        long shift = frame - track.frame;
+        if (shift > 0) {
+            track.history = shift >= n ? 0 : (track.history << shift) & windowMask;
+            track.frame = frame;
+        }
+    }
+
+    private boolean inHoldOff(Track track) {
+        return track.reported && now - track.reportedAt < holdOffMs;
+    }
+
+    /**
+     * Recent history of one barcode value
+     */
+    private static class Track {
+        private long history;
+        private long frame;
+        private boolean reported;
+        private long reportedAt;
+
+        Track(long frame) {
+            this.frame = frame;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.example.sickar.main.helpers;
 import android.util.Log;
 
 import com.example.sickar.Constants;
+import com.example.sickar.libs.LinkedLruMap;
 import com.google.gson.Gson;
 
 import org.json.JSONArray;
@@ -14,18 +15,16 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * Data class to hold barcode information retrieved from the SICK AR backend service.
- * Uses a list to keep track of the order of retrieved
+ * Uses a LinkedLruMap to keep track of the order of retrieved
  * barcodes from latest to oldest. (Newest items are place in front)
- * Holds the data associated with a barcode in a MAP
+ * Inserting, looking up and evicting an item are all constant time.
  * Singleton so one cache persists throughout the entire app.
  */
 public class BarcodeDataCache {
@@ -40,26 +39,31 @@ public class BarcodeDataCache {
     private static BarcodeDataCache instance;
 
     /**
-     * b_stack acts like index-able stack (newest items in the front at index 0)
+     * Data containing all the cached items ordered from newest to oldest. The oldest items are
+     * evicted once Constants.DATA_CACHE_SIZE is exceeded.
      */
-    private List<String> b_stack;
+    private LinkedLruMap<String, Item> data;
 
     /**
-     * Data containing all the cached items
+     * Saved system configuration details
      */
-    private Map<String, Item> data;
+    private Map<String, Map<String, String>> systemConfig;
 
     /**
-     * Saved system configuration details
+     * Persistent tier under the in-memory cache, null if not used
      */
-    private Map<String, Map<String, String>> systemConfig;
+    private ItemStore itemStore;
+
+    /**
+     * Prefetcher whose budget is given back as its items leave the cache, null if not used
+     */
+    private ZonePrefetcher zonePrefetcher;
 
     /**
      * private constructor to initialize the instance
      */
     private BarcodeDataCache() {
-        b_stack = new ArrayList<>();
-        data = new ConcurrentHashMap<>();
+        data = new LinkedLruMap<>(Constants.DATA_CACHE_SIZE);
     }
 
     /**
@@ -72,13 +76,54 @@ public class BarcodeDataCache {
         return instance;
     }
 
+    /**
+     * Set the persistent store that inserted items are written through to
+     *
+     * @param itemStore ItemStore, null to not persist items
+     */
+    public void setItemStore(ItemStore itemStore) {
+        this.itemStore = itemStore;
+    }
+
+    /**
+     * Set the prefetcher that fills this cache with putPrefetched. It is told about every item
+     * evicted or removed and reset when the cache is cleared.
+     *
+     * @param prefetcher ZonePrefetcher, null if items are not prefetched
+     */
+    public void setZonePrefetcher(ZonePrefetcher prefetcher) {
+        zonePrefetcher = prefetcher;
+        data.setRemovalListener(prefetcher == null ? null
+                : (barcode, item) -> prefetcher.onRemoved(barcode));
+    }
+
+    /**
+     * Stop telling a prefetcher about removed items, unless another one has been set since
+     *
+     * @param prefetcher ZonePrefetcher that is stopped
+     */
+    public void removeZonePrefetcher(ZonePrefetcher prefetcher) {
+        if (zonePrefetcher == prefetcher) {
+            setZonePrefetcher(null);
+        }
+    }
+
+    /**
+     * Get the persistent store under this cache
+     *
+     * @return ItemStore, null if items are not persisted
+     */
+    public ItemStore getItemStore() {
+        return itemStore;
+    }
+
     /**
      * Check if the cache is empty
      *
      * @return true if cache is empty, false if not
      */
     public Boolean isEmpty() {
-        return b_stack.isEmpty() || data.isEmpty();
+        return data.isEmpty();
     }
 
     /**
@@ -104,11 +149,9 @@ public class BarcodeDataCache {
         // for the application lifetime. Once an item is scanned no new network
         // fetch requests will be made. Might want to consider different
         // designs in the future.
-        if (!containsBarcode(item.getName())) {
+        if (data.putFirstIfAbsent(barcode, item)) {
             Log.i(TAG, "inserted " + item.getName());
-            b_stack.add(0, barcode);
-            data.put(barcode, item);
-            resize();
+            if (itemStore != null) itemStore.putAsync(item);
             return true;
         } else {
             Log.i(TAG, "repeat item request");
@@ -116,24 +159,61 @@ public class BarcodeDataCache {
         }
     }
 
+    /**
+     * Put a prefetched Item behind the scanned items. The Item is marked as not scanned so it is
+     * added to the RecyclerView when it is scanned. Prefetched items never evict scanned items,
+     * but once the cache is full a new prefetched Item evicts the oldest prefetched one.
+     *
+     * @param item item object
+     * @return true if item was inserted, false if it was already present or the cache is full of
+     * scanned items
+     */
+    public boolean putPrefetched(Item item) {
+        item.setScanned(false);
+        return data.offerBack(item.getName(), item);
+    }
+
+    /**
+     * Mark an Item as scanned and listed. A prefetched Item is moved in front of the other
+     * prefetched items with the scanned ones, so a later putPrefetched can not evict it while it
+     * is listed or has an AR card.
+     *
+     * @param barcode barcode
+     * @return true if the item is cached
+     */
+    public boolean markScanned(String barcode) {
+        Item item = data.get(barcode);
+        if (item == null) {
+            return false;
+        }
+        if (!item.isScanned()) {
+            item.setScanned(true);
+            data.promote(barcode);
+            if (itemStore != null) itemStore.putAsync(item);
+        }
+        return true;
+    }
+
     /**
      * Remove the specified item in the cache
      *
      * @param barcode barcode
      */
     public void remove(String barcode) {
-        b_stack.remove(barcode);
         data.remove(barcode);
+        if (itemStore != null) itemStore.removeAsync(barcode);
     }
 
     /**
-     * Clear everything in the cache including system configuration information.
+     * Clear everything in the cache including system configuration information and the
+     * persistent store.
      * Do this so the app will fetch data from the network again.
      */
     public void clear() {
-        Log.i(TAG, "clearing BarcodeDataCache" + data.toString());
-        b_stack.clear();
+        Log.i(TAG, "clearing BarcodeDataCache" + data.keys().toString());
         data.clear();
+        if (zonePrefetcher != null) zonePrefetcher.reset();
+        if (itemStore != null) itemStore.clearAsync();
         systemConfig.clear();
     }
 
@@ -161,7 +241,7 @@ public class BarcodeDataCache {
      * returns the latest barcode data added
      */
     public Item getLatest() {
-        return get(peekLatest());
+        return data.peekFirst();
     }
 
     /**
@@ -171,11 +251,7 @@ public class BarcodeDataCache {
      */
     ArrayList<Item> getItemList() {
         if (!isEmpty()) {
-            ArrayList<Item> list = new ArrayList<>();
-            for (String bcode : b_stack) {
-                list.add(get(bcode));
-            }
-            return list;
+            return data.values();
         }
         return null;
     }
@@ -237,10 +313,13 @@ public class BarcodeDataCache {
      * each item in the recyclerView.
      * Change this method to parse more information from Json responses
      *
+     * NetworkRequest.sendRequest parses responses with ItemJsonParser instead, this method is kept
+     * for the JSONObject based requests.
+     *
      * @param json origin JSON response object
      * @return item Item
      */
-    private Item jsonToItem(String barcode, JSONObject json) {
+    static Item jsonToItem(String barcode, JSONObject json) {
         try {
 //            Log.i(TAG, Looper.myLooper() + ", " + Looper.getMainLooper());
             Item itm = new Item(barcode);
@@ -256,9 +335,8 @@ public class BarcodeDataCache {
                     itm.addProp(systems.getString(x),"systemLabel", itemData.getString("systemLabel"));
 
                     // read properties
-                    String[] properties = {"beltSpeed", "length", "width", "height", "weight", "gap", "angle"};
                     float volume = 1;
-                    for (String key : properties) {
+                    for (String key : ItemJsonParser.PROPERTIES) {
                         JSONObject property = itemData.getJSONObject(key);
                         try {
                             double value = property.getDouble("value");
@@ -281,8 +359,7 @@ public class BarcodeDataCache {
                     // see NetworkRequest.createJson on how this time is formatted
                     ZonedDateTime zdt = ZonedDateTime.parse(itemData.getString("objectScanTime"),
                             DateTimeFormatter.ISO_DATE_TIME);
-                    DateTimeFormatter f = DateTimeFormatter.ofPattern("MM-dd-yyyy kk:mm:ss");
-                    String dateOut = zdt.format(f);
+                    String dateOut = zdt.format(ItemJsonParser.SCAN_TIME_FORMAT);
                     itm.addProp(systems.getString(x), "objectScanTime", dateOut);
 
                     // id
@@ -323,24 +400,4 @@ public class BarcodeDataCache {
         return new Gson().fromJson(json.toString(), HashMap.class);
     }
 
-    /**
-     * Resize this BarcodeDataCache cache to be consistent with the maxSize
-     */
-    private void resize() {
-        int size = b_stack.size();
-        if (size > Constants.CACHE_SIZE) {
-            for (int i = size - 1; i >= Constants.CACHE_SIZE; i--) {
-                String key = b_stack.get(i);
-                b_stack.remove(i);
-                data.remove(key);
-            }
-        }
-    }
-
-    /**
-     * Returns the latest barcode located at the top of the stack
-     */
-    private String peekLatest() {
-        return b_stack.get(0);
-    }
 }
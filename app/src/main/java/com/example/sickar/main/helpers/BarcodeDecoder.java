@@ -0,0 +1,44 @@
+package com.example.sickar.main.helpers;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Finds the barcodes in a camera frame. BarcodeProcessor runs one of these on every frame it
+ * decodes, see Constants.BARCODE_DECODER for which one.
+ */
+public interface BarcodeDecoder {
+    /**
+     * Receives the result of decoding one frame
+     */
+    interface Listener {
+        /**
+         * Called with the barcodes of the frame, the list is empty if there were none
+         *
+         * @param barcodes decoded barcodes
+         */
+        void onDecoded(List<DecodedBarcode> barcodes);
+
+        /**
+         * Called if the frame could not be processed
+         *
+         * @param e cause
+         */
+        void onError(Exception e);
+    }
+
+    /**
+     * Decode a frame. Exactly one listener method is called, on the executor or on the calling
+     * thread.
+     *
+     * @param frame    frame to decode
+     * @param executor executor for the listener
+     * @param listener receives the result
+     */
+    void decode(LuminanceFrame frame, Executor executor, Listener listener);
+
+    /**
+     * Release the resources of this decoder
+     */
+    void close();
+}
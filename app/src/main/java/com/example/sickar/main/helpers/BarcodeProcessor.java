@@ -11,6 +11,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseIntArray;
 import android.view.Surface;
@@ -18,16 +19,16 @@ import android.view.Surface;
 import androidx.annotation.RequiresApi;
 
 import com.example.sickar.Constants;
-import com.google.firebase.ml.vision.FirebaseVision;
-import com.google.firebase.ml.vision.barcode.FirebaseVisionBarcode;
-import com.google.firebase.ml.vision.barcode.FirebaseVisionBarcodeDetector;
-import com.google.firebase.ml.vision.barcode.FirebaseVisionBarcodeDetectorOptions;
-import com.google.firebase.ml.vision.common.FirebaseVisionImage;
+import com.google.ar.core.Pose;
 import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
 
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static android.content.Context.CAMERA_SERVICE;
 
@@ -38,9 +39,10 @@ import static android.content.Context.CAMERA_SERVICE;
  * BarcodeProcessor.getInstance()
  *
  * Call start() and stop() to start and stop this BarcodeProcessor. New frames are added via
- * pushFrame(Image frame) and the background threads will continuously pop off new frames or wait
- * until new ones are available. The frame buffer works as a stack where newest frames are added
- * to the top and popped off the top.
+ * pushFrame(Image frame) and the background threads will continuously take the latest frame or
+ * wait until a new one is available. Frames are handed over through a FrameExchanger, a frame
+ * that is replaced before it is decoded goes back to its pool, so the camera thread only copies
+ * the Y plane into a pooled buffer and does not allocate per frame.
  */
 public class BarcodeProcessor {
     private static final String TAG = "app_" + BarcodeProcessor.class.getSimpleName();
@@ -65,51 +67,94 @@ public class BarcodeProcessor {
     }
 
     /**
-     * Data structure used to hold the frames
+     * Hands the latest frame to the decoder thread
      */
-    private final LinkedBlockingDeque<FirebaseVisionImage> frameStack;
+    private final FrameExchanger frames;
 
     /**
-     * Barcode detector
+     * Barcode decoder, see Constants.BARCODE_DECODER
      */
-    private FirebaseVisionBarcodeDetector detector;
+    private BarcodeDecoder decoder;
 
     /**
-     * Reference to send barcode outlines to highlight them. This process is currently done in the
-     * main Activity and not in BarcodeProcessor
-     *
-     * @deprecated
+     * Handler to deliver messages to the main thread
      */
-    private GraphicOverlay overlay;
+    private Handler handler;
+    private int rotation;
 
     /**
-     * Handler to deliver messages to the main thread
+     * Dedicated thread and associated runnable to run the barcode detector. Must call
+     * BarcodeProcessor.start() to initialize the thread pool thread
      */
-    private Handler handler;
+    private ScheduledExecutorService threadPool;
 
     /**
-     * Handler to deliver messages to the background thread
+     * Only lets a barcode through once it has been decoded in several recent frames, and turns
+     * repeats into bounding box updates
      */
-    private Handler backgroundHandler;
-    private int rotation;
+    private final BarcodeConsensusFilter consensusFilter;
 
     /**
-     * Dedicated thread and associated runnable to run the barcode detector. Must call
-     * BarcodeProcessor.start() to initialize the thread pool thread
+     * Skips the detector on frames that have not changed since the last decoded frame
+     */
+    private final BarcodeTracker tracker;
+
+    /**
+     * Chooses the region of each frame that is decoded
+     */
+    private final RoiSelector roiSelector;
+
+    /**
+     * Paces the decoder by camera motion, decoder latency and device temperature
+     */
+    private final FrameRateGovernor governor;
+
+    /**
+     * Receives the barcodes of each decoded frame, see setScanStateMachine
+     */
+    private volatile ScanStateMachine scanStateMachine;
+
+    /**
+     * Receives the boxes of each decoded frame for the GraphicOverlay, see setBoxBuffer
      */
-    private ExecutorService threadPool;
+    private volatile BoxBuffer boxBuffer;
 
     /**
-     * Initialize the FirebaseVisionBarcodeDetector, frame stack, and Handler
+     * Scratch objects reused by pushFrame on the camera thread
+     */
+    private LumaGrid scratchGrid;
+    private final float[] scratchRotation = new float[4];
+    private final float[] scratchTranslation = new float[3];
+    private final int[] scratchRoi = new int[4];
+
+    /**
+     * Initialize the BarcodeDecoder, frame exchanger, and Handler
      */
     private BarcodeProcessor() {
-        FirebaseVisionBarcodeDetectorOptions mOptions = new FirebaseVisionBarcodeDetectorOptions
-                .Builder().setBarcodeFormats(
-//                    FirebaseVisionBarcode.FORMAT_ALL_FORMATS
-                FirebaseVisionBarcode.FORMAT_CODE_128
-        ).build();
-        detector = FirebaseVision.getInstance().getVisionBarcodeDetector(mOptions);
-        frameStack = new LinkedBlockingDeque<>(2);
+        List<String> formats = Arrays.asList(Constants.BARCODE_FORMATS);
+        if ("zxing".equals(Constants.BARCODE_DECODER)) {
+            decoder = new ZXingBarcodeDecoder(formats);
+        } else {
+            decoder = new MlKitBarcodeDecoder(formats);
+        }
+        frames = new FrameExchanger();
+        consensusFilter = new BarcodeConsensusFilter(Constants.CONSENSUS_MIN_FRAMES,
+                Constants.CONSENSUS_WINDOW_FRAMES, Constants.CONSENSUS_HOLD_OFF_MS);
+        tracker = new BarcodeTracker(Constants.TRACKER_TRACKED_INTERVAL_FRAMES,
+                Constants.TRACKER_SEARCH_INTERVAL_FRAMES,
+                (float) Math.toRadians(Constants.TRACKER_MAX_ROTATION_DEG),
+                Constants.TRACKER_MAX_TRANSLATION_M, Constants.TRACKER_LUMA_THRESHOLD,
+                Constants.TRACKER_CHANGED_CELLS);
+        roiSelector = new RoiSelector(Constants.ROI_MODE, Constants.ROI_RETICLE_FRACTION,
+                Constants.ROI_BAND_TOP, Constants.ROI_BAND_BOTTOM, Constants.ROI_TRACKED_MARGIN,
+                Constants.ROI_FULL_FRAME_INTERVAL);
+        governor = new FrameRateGovernor(Constants.GOVERNOR_SCAN_INTERVAL_MS,
+                Constants.GOVERNOR_TRACK_INTERVAL_MS, Constants.GOVERNOR_IDLE_INTERVAL_MS,
+                Constants.GOVERNOR_MAX_DUTY,
+                (float) Math.toRadians(Constants.GOVERNOR_SCAN_ANGULAR_DEG_S),
+                Constants.GOVERNOR_SCAN_LINEAR_M_S,
+                (float) Math.toRadians(Constants.GOVERNOR_IDLE_ANGULAR_DEG_S),
+                Constants.GOVERNOR_IDLE_LINEAR_M_S, Constants.GOVERNOR_IDLE_HOLD_MS);
     }
 
     /**
@@ -178,9 +223,13 @@ public class BarcodeProcessor {
      * Start the barcode process by adding a BarcodeProcessRunnable to the thread pool
      */
     public void start() {
+        consensusFilter.reset();
+        tracker.reset();
+        roiSelector.reset();
+        governor.reset();
         // requires a minimum of 2 threads because 1 thread will be held
         // be the detection process and another is used to execute the listeners
-        threadPool = Executors.newFixedThreadPool(2);
+        threadPool = Executors.newScheduledThreadPool(2);
         threadPool.submit(new BarcodeProcessRunnable());
     }
 
@@ -189,21 +238,117 @@ public class BarcodeProcessor {
      */
     public void stop() {
         threadPool.shutdownNow();
+        frames.clear();
+        BoxBuffer buffer = boxBuffer;
+        if (buffer != null) {
+            buffer.clear();
+        }
+        Log.i(TAG, "frames " + frames);
+        Log.i(TAG, "tracker " + tracker);
+        Log.i(TAG, "roi " + roiSelector);
+        Log.i(TAG, "governor " + governor);
+    }
+
+    /**
+     * Get the tracker that decides which frames are decoded. Exposes its frame, decode and skip
+     * counters.
+     *
+     * @return BarcodeTracker
+     */
+    public BarcodeTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Get the governor that paces the decoder. Exposes its decisions, effective decode rate and
+     * decoder latency.
+     *
+     * @return FrameRateGovernor
+     */
+    public FrameRateGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Report the battery temperature, used as the thermal level of the device by the governor
+     *
+     * @param tenthsCelsius battery temperature in tenths of a degree Celsius
+     */
+    public void setBatteryTemperature(int tenthsCelsius) {
+        governor.setThermalLevel(FrameRateGovernor.thermalLevelForBattery(tenthsCelsius,
+                Constants.GOVERNOR_WARM_CELSIUS, Constants.GOVERNOR_HOT_CELSIUS));
+    }
+
+    /**
+     * Get the selector that chooses the decoded region of each frame
+     *
+     * @return RoiSelector
+     */
+    public RoiSelector getRoiSelector() {
+        return roiSelector;
+    }
+
+    /**
+     * Hands a new frame to the decoder unless the BarcodeTracker decides it does not need to be
+     * decoded
+     *
+     * @param frame      new frame
+     * @param cameraPose pose of the ARCore camera for this frame, null if it is not tracking
+     */
+    public void pushFrame(Image frame, Pose cameraPose) {
+        if (cameraPose != null) {
+            cameraPose.getRotationQuaternion(scratchRotation, 0);
+            cameraPose.getTranslation(scratchTranslation, 0);
+        }
+        float[] rotation = cameraPose == null ? null : scratchRotation;
+        float[] translation = cameraPose == null ? null : scratchTranslation;
+        if (Constants.GOVERNOR_ENABLED) {
+            governor.onPose(SystemClock.elapsedRealtime(), rotation, translation);
+        }
+        if (Constants.TRACKER_ENABLED) {
+            long start = System.nanoTime();
+            Image.Plane yPlane = frame.getPlanes()[0];
+            if (scratchGrid == null) {
+                scratchGrid = new LumaGrid(Constants.TRACKER_GRID_COLS,
+                        Constants.TRACKER_GRID_ROWS);
+            }
+            scratchGrid.sample(yPlane.getBuffer(), frame.getWidth(), frame.getHeight(),
+                    yPlane.getRowStride(), yPlane.getPixelStride());
+            tracker.addCheckNanos(System.nanoTime() - start);
+            boolean decode = tracker.shouldDecode(scratchGrid, rotation, translation);
+            if (!decode) {
+                frame.close();
+                return;
+            }
+        }
+        pushFrame(frame);
     }
 
     /**
-     * Adds a new frame to the stack and makes sure there is room for this new frame by
-     * removing old frames from the bottom of the stack
+     * Copies the Y plane of a new frame into a pooled frame and makes it the latest frame,
+     * replacing a frame the decoder has not taken yet. Only the region chosen by the
+     * RoiSelector is copied.
      *
-     * @param frame new frame
+     * @param frame new frame, closed by this method
      */
     public void pushFrame(Image frame) {
-        FirebaseVisionImage fvImage = FirebaseVisionImage.fromMediaImage(frame, rotation);
-        frame.close();
-        if (!frameStack.offerFirst(fvImage)) {
-            frameStack.pollLast();
-            frameStack.offerFirst(fvImage);
+        int degrees = rotation * 90;
+        boolean upright = degrees % 180 == 0;
+        boolean cropped = roiSelector.select(upright ? frame.getWidth() : frame.getHeight(),
+                upright ? frame.getHeight() : frame.getWidth(), scratchRoi);
+        Image.Plane yPlane = frame.getPlanes()[0];
+        LuminanceFrame luminanceFrame = frames.acquire();
+        try {
+            luminanceFrame.copyFrom(yPlane.getBuffer(), frame.getWidth(), frame.getHeight(),
+                    yPlane.getRowStride(), yPlane.getPixelStride(), degrees,
+                    cropped ? scratchRoi : null);
+        } catch (RuntimeException e) {
+            frames.cancel(luminanceFrame);
+            throw e;
+        } finally {
+            frame.close();
         }
+        frames.publish(luminanceFrame);
     }
 
     /**
@@ -216,22 +361,21 @@ public class BarcodeProcessor {
     }
 
     /**
-     * Set the background handler for sending messages to the background thread
+     * Set the state machine that decides what to do with the barcodes of each decoded frame
      *
-     * @param handler background handler
+     * @param machine ScanStateMachine
      */
-    public void setBackgroundHandler(Handler handler) {
-        backgroundHandler = handler;
+    public void setScanStateMachine(ScanStateMachine machine) {
+        scanStateMachine = machine;
     }
 
     /**
-     * Sets a reference to the GraphicOverlay which will display the bounding boxes
-     * of detected barcodes.
+     * Set the buffer the boxes of each decoded frame are published to
      *
-     * @param overlay GraphicOverlay
+     * @param buffer BoxBuffer of the GraphicOverlay
      */
-    void setGraphicOverlay(GraphicOverlay overlay) {
-        this.overlay = overlay;
+    public void setBoxBuffer(BoxBuffer buffer) {
+        boxBuffer = buffer;
     }
 
     /**
@@ -252,64 +396,117 @@ public class BarcodeProcessor {
      */
     private class BarcodeProcessRunnable implements Runnable {
         /**
-         * Pops a frame off the top of frameStack and runs barcode detection on it.
+         * Takes the latest frame and runs barcode detection on it.
          */
         @Override
         public void run() {
             android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
             try {
-                FirebaseVisionImage image = frameStack.takeFirst();
-                detect(image);
+                LuminanceFrame frame = frames.take();
+                detect(frame);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
         }
 
         /**
-         * Runs detectInImage on the detector and attaches listeners
+         * Runs the decoder on a frame, returns the frame to the pool and submits the next
+         * runnable once it is done
          *
-         * @param image    FirebaseVisionImage
+         * @param frame LuminanceFrame
          */
-        private void detect(FirebaseVisionImage image) {
-            detector.detectInImage(image)
-                    .addOnSuccessListener(threadPool, firebaseVisionBarcodes -> {
-                        // if the list is empty no barcodes detected
-                        if (firebaseVisionBarcodes.isEmpty()) {
-                            Message msg = handler.obtainMessage(Constants.BARCODE_READ_EMPTY);
-                            msg.sendToTarget();
-                        }
-                        for (FirebaseVisionBarcode barcode : firebaseVisionBarcodes) {
-                            String value = barcode.getDisplayValue();
-                            if (value != null && BarcodeProcessor.validBarcode(value)) {
-                                Bundle data = new Bundle();
-                                data.putParcelable("boundingBox", barcode.getBoundingBox());
-                                data.putParcelableArray("cornerPoints", barcode.getCornerPoints());
-                                data.putString("value", barcode.getDisplayValue());
-
-                                // send message to main handler to display overlay
-                                Message msg = handler.obtainMessage(Constants.BARCODE_READ_SUCCESS);
-                                msg.setData(data);
-                                msg.sendToTarget();
-
-                                // send message to background handler to process barcode
-                                //                            Message msg2 = backgroundHandler.obtainMessage(Constants.BARCODE_READ_SUCCESS);
-                                //                            msg2.setData(data);
-                                //                            msg2.sendToTarget();
+        private void detect(LuminanceFrame frame) {
+            long start = SystemClock.elapsedRealtime();
+            decoder.decode(frame, threadPool, new BarcodeDecoder.Listener() {
+                @Override
+                public void onDecoded(List<DecodedBarcode> barcodes) {
+                    consensusFilter.beginFrame(SystemClock.elapsedRealtime());
+                    BoxBuffer buffer = boxBuffer;
+                    if (buffer != null) {
+                        buffer.begin();
+                    }
+                    List<int[]> boxes = new ArrayList<>(barcodes.size());
+                    List<ScanStateMachine.Detection> detections =
+                            new ArrayList<>(barcodes.size());
+                    // barcodes the consensus filter confirmed, misreads do not slow the search
+                    int confirmedCount = 0;
+                    for (DecodedBarcode barcode : barcodes) {
+                        String value = barcode.getValue();
+                        if (value != null && BarcodeProcessor.validBarcode(value)) {
+                            boxes.add(barcode.getBox());
+                            boolean confirmed;
+                            switch (consensusFilter.accept(value)) {
+                                case EMIT:
+                                    confirmed = true;
+                                    break;
+                                case UPDATE:
+                                    confirmed = false;
+                                    break;
+                                default:
+                                    // not seen in enough recent frames yet
+                                    continue;
+                            }
+                            confirmedCount++;
+                            if (buffer != null && barcode.getBox() != null) {
+                                buffer.add(barcode.getBox());
+                            }
+                            if (confirmed) {
+                                detections.add(new ScanStateMachine.Detection(value,
+                                        barcode.getCorners()));
                             }
                         }
-                    }).addOnFailureListener(threadPool, e -> {
-                Bundle data = new Bundle();
-                data.putString("error", "error reading frame: " + e.toString());
-
-                Message msg = handler.obtainMessage(Constants.BARCODE_READ_FAILURE);
-                msg.setData(data);
-                msg.sendToTarget();
-            }).addOnCompleteListener(task -> {
-                // submit a new runnable on the completion of detection on this frame
-                if (!threadPool.isShutdown()) {
-                    threadPool.submit(new BarcodeProcessRunnable());
+                    }
+                    if (buffer != null) {
+                        // redraws the overlay, no boxes clears it
+                        buffer.publish();
+                    }
+                    // the state machine decides what to do with each barcode and hands the
+                    // main thread a batch of updates
+                    ScanStateMachine machine = scanStateMachine;
+                    if (machine != null && !detections.isEmpty()) {
+                        machine.onFrame(detections);
+                    }
+                    tracker.onDecoded(confirmedCount);
+                    roiSelector.onDecoded(boxes);
+                    frames.release(frame);
+                    next(start);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    consensusFilter.beginFrame(SystemClock.elapsedRealtime());
+                    Bundle data = new Bundle();
+                    data.putString("error", "error reading frame: " + e.toString());
+
+                    Message msg = handler.obtainMessage(Constants.BARCODE_READ_FAILURE);
+                    msg.setData(data);
+                    msg.sendToTarget();
+                    frames.release(frame);
+                    next(start);
                 }
             });
         }
+
+        /**
+         * Submit a new runnable on the completion of detection on this frame, delayed by the
+         * governor
+         *
+         * @param start time the detection of this frame started
+         */
+        private void next(long start) {
+            if (threadPool.isShutdown()) {
+                return;
+            }
+            long delay = 0;
+            if (Constants.GOVERNOR_ENABLED) {
+                long now = SystemClock.elapsedRealtime();
+                delay = governor.onDecoded(now, now - start);
+            }
+            try {
+                threadPool.schedule(new BarcodeProcessRunnable(), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // stopped while this frame was decoded
+            }
+        }
     }
 }
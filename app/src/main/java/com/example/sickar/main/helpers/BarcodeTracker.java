@@ -0,0 +1,180 @@
+package com.example.sickar.main.helpers;
+
+/**
+ * Decides which camera frames need a full barcode decode. Between decodes the barcodes found in
+ * the last decoded frame are assumed to stay where they are, which holds while the camera and the
+ * scene are still.
+ *
+ * A frame is decoded when
+ * - no frame has been decoded yet,
+ * - the camera has rotated or moved more than a threshold since the last decode (the ARCore
+ * camera pose is used, so the tracked boxes would have drifted),
+ * - enough cells of the LumaGrid changed since the last decode (a new region or parcel appeared),
+ * - or a cadence of frames has passed, a shorter one while no barcodes are tracked.
+ *
+ * Only barcodes confirmed by the BarcodeConsensusFilter count as tracked, so a barcode that was
+ * decoded but not confirmed yet keeps the search cadence until it is.
+ *
+ * Counts frames, decodes and skips and the time spent deciding, see the getters.
+ *
+ * The grid and pose of a decoded frame are copied, so callers can reuse the objects they pass in.
+ */
+public class BarcodeTracker {
+    private final int trackedInterval;
+    private final int searchInterval;
+    private final float maxRotationRad;
+    private final float maxTranslation;
+    private final int lumaThreshold;
+    private final float changedFraction;
+
+    /**
+     * State at the last decode
+     */
+    private LumaGrid referenceGrid;
+    private boolean hasReference;
+    private final float[] referenceRotation = new float[4];
+    private final float[] referenceTranslation = new float[3];
+    private boolean hasReferencePose;
+    private int framesSinceDecode;
+    private int trackedCount;
+
+    private long frames;
+    private long decodes;
+    private long skips;
+    private long checkNanos;
+
+    /**
+     * Construct a tracker
+     *
+     * @param trackedInterval decode at least every this many frames while barcodes are tracked
+     * @param searchInterval  decode at least every this many frames while none are tracked
+     * @param maxRotationRad  camera rotation in radians since the last decode that forces a decode
+     * @param maxTranslation  camera translation in meters since the last decode that forces a
+     *                        decode
+     * @param lumaThreshold   luminance difference at which a grid cell counts as changed
+     * @param changedFraction fraction of changed grid cells that forces a decode
+     */
+    public BarcodeTracker(int trackedInterval, int searchInterval, float maxRotationRad,
+                          float maxTranslation, int lumaThreshold, float changedFraction) {
+        this.trackedInterval = trackedInterval;
+        this.searchInterval = searchInterval;
+        this.maxRotationRad = maxRotationRad;
+        this.maxTranslation = maxTranslation;
+        this.lumaThreshold = lumaThreshold;
+        this.changedFraction = changedFraction;
+    }
+
+    /**
+     * Decide whether a frame needs a full decode. If it does the frame becomes the new reference.
+     *
+     * @param grid        luminance grid of the frame
+     * @param rotation    camera rotation quaternion {x, y, z, w}, null if tracking is lost
+     * @param translation camera translation {x, y, z} in meters, null if tracking is lost
+     * @return true to decode the frame, false to skip it
+     */
+    public synchronized boolean shouldDecode(LumaGrid grid, float[] rotation, float[] translation) {
+        long start = System.nanoTime();
+        frames++;
+        framesSinceDecode++;
+        boolean decode = !hasReference
+                || rotation == null || translation == null || !hasReferencePose
+                || framesSinceDecode >= (trackedCount > 0 ? trackedInterval : searchInterval)
+                || rotationAngle(referenceRotation, rotation) > maxRotationRad
+                || distance(referenceTranslation, translation) > maxTranslation
+                || grid.changedFraction(referenceGrid, lumaThreshold) > changedFraction;
+        if (decode) {
+            decodes++;
+            framesSinceDecode = 0;
+            if (referenceGrid == null || !referenceGrid.sameSize(grid)) {
+                referenceGrid = grid.copy();
+            } else {
+                referenceGrid.copyFrom(grid);
+            }
+            hasReference = true;
+            hasReferencePose = rotation != null && translation != null;
+            if (hasReferencePose) {
+                System.arraycopy(rotation, 0, referenceRotation, 0, 4);
+                System.arraycopy(translation, 0, referenceTranslation, 0, 3);
+            }
+        } else {
+            skips++;
+        }
+        checkNanos += System.nanoTime() - start;
+        return decode;
+    }
+
+    /**
+     * Report the number of barcodes confirmed in the last decoded frame
+     *
+     * @param count number of valid barcodes the BarcodeConsensusFilter did not drop
+     */
+    public synchronized void onDecoded(int count) {
+        trackedCount = count;
+    }
+
+    /**
+     * Add time spent preparing the check of a frame, for example building its LumaGrid
+     *
+     * @param nanos time in nanoseconds
+     */
+    public synchronized void addCheckNanos(long nanos) {
+        checkNanos += nanos;
+    }
+
+    /**
+     * Forget the reference frame so the next frame is decoded
+     */
+    public synchronized void reset() {
+        hasReference = false;
+        trackedCount = 0;
+    }
+
+    /**
+     * @return number of frames checked
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of frames decoded
+     */
+    public synchronized long getDecodes() {
+        return decodes;
+    }
+
+    /**
+     * @return number of frames whose decode was skipped
+     */
+    public synchronized long getSkips() {
+        return skips;
+    }
+
+    /**
+     * @return average time in nanoseconds spent checking a frame
+     */
+    public synchronized long getAverageCheckNanos() {
+        return frames == 0 ? 0 : checkNanos / frames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "frames=" + frames + " decodes=" + decodes + " skips=" + skips
+                + " avgCheckUs=" + getAverageCheckNanos() / 1000;
+    }
+
+    /**
+     * Angle in radians of the rotation between two unit quaternions
+     */
+    static float rotationAngle(float[] a, float[] b) {
+        float dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return (float) (2 * Math.acos(Math.min(1f, dot)));
+    }
+
+    private static float distance(float[] a, float[] b) {
+        float dx = a[0] - b[0];
+        float dy = a[1] - b[1];
+        float dz = a[2] - b[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
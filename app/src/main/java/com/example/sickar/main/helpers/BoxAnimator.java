@@ -0,0 +1,128 @@
+package com.example.sickar.main.helpers;
+
+/**
+ * Moves the boxes drawn by the GraphicOverlay smoothly between detections. When new boxes arrive
+ * each one is matched to the nearest box on screen and slides from there to its new position
+ * over about the time between detections, so boxes do not jump at the decode rate. Boxes without
+ * a match appear at their new position.
+ *
+ * Used on the main thread only, all arrays are allocated once.
+ */
+public class BoxAnimator {
+    private final int capacity;
+    private final long maxDurationMs;
+
+    private final float[] from;
+    private final float[] to;
+    private final float[] current;
+    private final boolean[] matched;
+    private int count;
+
+    private long startMs;
+    private long lastTargetMs = -1;
+    private float durationMs;
+
+    /**
+     * Construct an animator
+     *
+     * @param capacity      largest number of boxes
+     * @param maxDurationMs longest time a box takes to reach its new position
+     */
+    public BoxAnimator(int capacity, long maxDurationMs) {
+        this.capacity = capacity;
+        this.maxDurationMs = maxDurationMs;
+        from = new float[capacity * 4];
+        to = new float[capacity * 4];
+        current = new float[capacity * 4];
+        matched = new boolean[capacity];
+    }
+
+    /**
+     * Set the positions the boxes move to
+     *
+     * @param boxes  boxes {left, top, right, bottom, ...}
+     * @param count  number of boxes
+     * @param nowMs  current time in milliseconds
+     */
+    public void setTargets(float[] boxes, int count, long nowMs) {
+        count = Math.min(count, capacity);
+        if (lastTargetMs >= 0 && nowMs > lastTargetMs) {
+            // follow the time between detections
+            long interval = Math.min(nowMs - lastTargetMs, maxDurationMs);
+            durationMs = durationMs == 0 ? interval : durationMs + 0.3f * (interval - durationMs);
+        }
+        lastTargetMs = nowMs;
+
+        for (int i = 0; i < this.count; i++) {
+            matched[i] = false;
+        }
+        for (int i = 0; i < count; i++) {
+            int t = i * 4;
+            int nearest = nearest(boxes, t);
+            if (nearest < 0) {
+                System.arraycopy(boxes, t, from, t, 4);
+            } else {
+                matched[nearest] = true;
+                System.arraycopy(current, nearest * 4, from, t, 4);
+            }
+        }
+        System.arraycopy(boxes, 0, to, 0, count * 4);
+        // current is read while matching, only overwrite it afterwards
+        System.arraycopy(from, 0, current, 0, count * 4);
+        this.count = count;
+        startMs = nowMs;
+    }
+
+    /**
+     * Find the unmatched box on screen closest to a new box, within the size of the new box
+     *
+     * @return index of the box, -1 if there is none
+     */
+    private int nearest(float[] boxes, int t) {
+        float cx = (boxes[t] + boxes[t + 2]) / 2;
+        float cy = (boxes[t + 1] + boxes[t + 3]) / 2;
+        float size = Math.max(boxes[t + 2] - boxes[t], boxes[t + 3] - boxes[t + 1]);
+        float best = size * size;
+        int nearest = -1;
+        for (int i = 0; i < count; i++) {
+            if (matched[i]) continue;
+            int c = i * 4;
+            float dx = (current[c] + current[c + 2]) / 2 - cx;
+            float dy = (current[c + 1] + current[c + 3]) / 2 - cy;
+            float distance = dx * dx + dy * dy;
+            if (distance <= best) {
+                best = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Move the boxes to their positions at a time
+     *
+     * @param nowMs current time in milliseconds
+     * @return true if the boxes are still moving and another frame should be drawn
+     */
+    public boolean update(long nowMs) {
+        float fraction = durationMs <= 0 ? 1 : Math.min(1, (nowMs - startMs) / durationMs);
+        for (int i = 0; i < count * 4; i++) {
+            current[i] = from[i] + (to[i] - from[i]) * fraction;
+        }
+        return fraction < 1;
+    }
+
+    /**
+     * @return number of boxes
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return current boxes {left, top, right, bottom, ...}, valid up to 4 * getCount()
+     */
+    public float[] getBoxes() {
+        return current;
+    }
+}
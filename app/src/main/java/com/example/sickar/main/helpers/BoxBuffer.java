@@ -0,0 +1,120 @@
+package com.example.sickar.main.helpers;
+
+/**
+ * Double buffered boxes handed from the decoder thread to the GraphicOverlay. The decoder thread
+ * fills the back buffer with begin(), add() and publish(), which swaps it with the front buffer.
+ * The view read()s the front buffer when it draws. Both buffers are allocated once, so neither
+ * side allocates per frame.
+ *
+ * Boxes are stored as {left, top, right, bottom} in the upright camera image.
+ */
+public class BoxBuffer {
+    private final int capacity;
+    private final Runnable onPublish;
+
+    /**
+     * Written by the decoder thread only
+     */
+    private float[] back;
+    private int backCount;
+
+    /**
+     * Swapped with back under the lock of this object
+     */
+    private float[] front;
+    private int frontCount;
+    private long version;
+
+    /**
+     * Construct a buffer
+     *
+     * @param capacity  largest number of boxes, further boxes of a frame are dropped
+     * @param onPublish called on the decoder thread after each publish(), null for none
+     */
+    public BoxBuffer(int capacity, Runnable onPublish) {
+        this.capacity = capacity;
+        this.onPublish = onPublish;
+        back = new float[capacity * 4];
+        front = new float[capacity * 4];
+    }
+
+    /**
+     * Start filling the back buffer, called on the decoder thread
+     */
+    public void begin() {
+        backCount = 0;
+    }
+
+    /**
+     * Add a box to the back buffer, called on the decoder thread
+     *
+     * @param box box {left, top, right, bottom}
+     * @return false if the buffer is full and the box was dropped
+     */
+    public boolean add(int[] box) {
+        if (backCount == capacity) {
+            return false;
+        }
+        int i = backCount * 4;
+        back[i] = box[0];
+        back[i + 1] = box[1];
+        back[i + 2] = box[2];
+        back[i + 3] = box[3];
+        backCount++;
+        return true;
+    }
+
+    /**
+     * Swap the back buffer with the front buffer, called on the decoder thread
+     */
+    public void publish() {
+        synchronized (this) {
+            float[] swap = front;
+            front = back;
+            frontCount = backCount;
+            back = swap;
+            version++;
+        }
+        if (onPublish != null) {
+            onPublish.run();
+        }
+    }
+
+    /**
+     * Publish an empty frame, removing all boxes
+     */
+    public void clear() {
+        synchronized (this) {
+            frontCount = 0;
+            version++;
+        }
+        if (onPublish != null) {
+            onPublish.run();
+        }
+    }
+
+    /**
+     * Copy the front buffer
+     *
+     * @param out receives the boxes, at least 4 * capacity long
+     * @return number of boxes
+     */
+    public synchronized int read(float[] out) {
+        System.arraycopy(front, 0, out, 0, frontCount * 4);
+        return frontCount;
+    }
+
+    /**
+     * @return number of publishes, changes whenever the front buffer changes
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return largest number of boxes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.sickar.main.helpers;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Volley request for a bulk lookup of several barcodes. Posts {"barcodes": [...]} and parses the
+ * response with ItemJsonParser.parseBulk on the Volley network thread.
+ */
+public class BulkItemRequest extends Request<Map<String, Item>> {
+    private final byte[] body;
+    private final Response.Listener<Map<String, Item>> listener;
+
+    /**
+     * Construct a POST request for the items of several barcodes
+     *
+     * @param url           request url
+     * @param barcodes      barcodes to look up
+     * @param listener      called with the parsed Items mapped by barcode
+     * @param errorListener called on network or parse errors
+     */
+    public BulkItemRequest(String url, List<String> barcodes,
+                           Response.Listener<Map<String, Item>> listener,
+                           Response.ErrorListener errorListener) {
+        super(Method.POST, url, errorListener);
+        this.listener = listener;
+        body = new Gson().toJson(Collections.singletonMap("barcodes", barcodes))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return "application/json; charset=utf-8";
+    }
+
+    @Override
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Parse the raw response into Items. Called on a worker thread.
+     *
+     * @param response raw network response
+     * @return parsed response
+     */
+    @Override
+    protected Response<Map<String, Item>> parseNetworkResponse(NetworkResponse response) {
+        try {
+            return Response.success(ItemJsonParser.parseBulk(response.data),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | IllegalStateException | NumberFormatException |
+                DateTimeException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * Deliver the parsed Items to the listener. Called on the main thread.
+     *
+     * @param response parsed Items
+     */
+    @Override
+    protected void deliverResponse(Map<String, Item> response) {
+        listener.onResponse(response);
+    }
+}
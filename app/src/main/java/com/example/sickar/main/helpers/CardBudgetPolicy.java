@@ -0,0 +1,229 @@
+package com.example.sickar.main.helpers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides how each placed AR card is shown so the number of live renderables stays within a
+ * budget however many cards are placed.
+ *
+ * Levels
+ * - FULL: card, tamper view and model. Only cards in view and within the detail distance, at
+ * most budget of them, nearest first.
+ * - MARKER: a small shared marker instead of the card. Cards in view beyond the detail distance,
+ * or over the budget.
+ * - HIDDEN: nothing is drawn. Cards out of view or beyond the cull distance.
+ *
+ * At most budget cards keep their renderables loaded. FULL cards always do, the remaining room
+ * goes to the most recently seen cards and the renderables of the others are released. Their
+ * anchors are kept, so a released card is loaded again when it becomes FULL.
+ */
+public class CardBudgetPolicy {
+    public enum Level {FULL, MARKER, HIDDEN}
+
+    /**
+     * State of one placed card, distance and inView are set before each evaluate()
+     */
+    public static class Card {
+        /**
+         * Distance from the camera in meters
+         */
+        public float distance;
+
+        /**
+         * True if the card is within the view of the camera
+         */
+        public boolean inView;
+
+        private long lastSeenMs = -1;
+        private Level level = Level.FULL;
+        private boolean loaded;
+        private boolean release;
+
+        /**
+         * @return level chosen by the last evaluate()
+         */
+        public Level getLevel() {
+            return level;
+        }
+
+        /**
+         * @return true if the renderables of the card are loaded
+         */
+        public boolean isLoaded() {
+            return loaded;
+        }
+
+        /**
+         * Report whether the renderables of the card are loaded
+         *
+         * @param loaded true once loaded, false once released
+         */
+        public void setLoaded(boolean loaded) {
+            this.loaded = loaded;
+        }
+
+        /**
+         * @return true if the last evaluate() chose to release the renderables of the card
+         */
+        public boolean shouldRelease() {
+            return release;
+        }
+
+        /**
+         * @return time the card was last in view in milliseconds, -1 if never
+         */
+        public long getLastSeenMs() {
+            return lastSeenMs;
+        }
+
+        /**
+         * Return to the state of a new card, for a card that is reused
+         */
+        public void reset() {
+            distance = 0;
+            inView = false;
+            lastSeenMs = -1;
+            level = Level.FULL;
+            loaded = false;
+            release = false;
+        }
+    }
+
+    private static final Comparator<Card> NEAREST_FIRST =
+            (a, b) -> Float.compare(a.distance, b.distance);
+
+    private static final Comparator<Card> KEEP_FIRST = (a, b) -> {
+        boolean aFull = a.level == Level.FULL;
+        boolean bFull = b.level == Level.FULL;
+        if (aFull != bFull) {
+            return aFull ? -1 : 1;
+        }
+        return Long.compare(b.lastSeenMs, a.lastSeenMs);
+    };
+
+    private final int budget;
+    private final float detailDistance;
+    private final float cullDistance;
+    private final ArrayList<Card> scratch = new ArrayList<>();
+
+    private int full;
+    private int markers;
+    private int hidden;
+    private int loaded;
+    private long released;
+
+    /**
+     * Construct a policy
+     *
+     * @param budget         largest number of cards with loaded renderables
+     * @param detailDistance distance in meters beyond which cards are shown as markers
+     * @param cullDistance   distance in meters beyond which cards are hidden
+     */
+    public CardBudgetPolicy(int budget, float detailDistance, float cullDistance) {
+        this.budget = budget;
+        this.detailDistance = detailDistance;
+        this.cullDistance = cullDistance;
+    }
+
+    /**
+     * Choose the level of each card and the cards whose renderables are released
+     *
+     * @param cards all placed cards
+     * @param nowMs current time in milliseconds
+     */
+    public void evaluate(List<? extends Card> cards, long nowMs) {
+        full = 0;
+        markers = 0;
+        hidden = 0;
+        loaded = 0;
+
+        scratch.clear();
+        for (Card card : cards) {
+            card.release = false;
+            boolean visible = card.inView && card.distance <= cullDistance;
+            if (!visible) {
+                card.level = Level.HIDDEN;
+                hidden++;
+                continue;
+            }
+            card.lastSeenMs = nowMs;
+            if (card.distance > detailDistance) {
+                card.level = Level.MARKER;
+                markers++;
+            } else {
+                card.level = Level.FULL;
+                scratch.add(card);
+            }
+        }
+        scratch.sort(NEAREST_FIRST);
+        for (int i = 0; i < scratch.size(); i++) {
+            if (i < budget) {
+                full++;
+            } else {
+                scratch.get(i).level = Level.MARKER;
+                markers++;
+            }
+        }
+
+        scratch.clear();
+        for (Card card : cards) {
+            if (card.loaded || card.level == Level.FULL) {
+                scratch.add(card);
+            }
+        }
+        scratch.sort(KEEP_FIRST);
+        for (int i = 0; i < scratch.size(); i++) {
+            Card card = scratch.get(i);
+            if (i < budget) {
+                loaded++;
+            } else if (card.loaded) {
+                card.release = true;
+                released++;
+            }
+        }
+        scratch.clear();
+    }
+
+    /**
+     * @return number of FULL cards in the last evaluation
+     */
+    public int getFullCount() {
+        return full;
+    }
+
+    /**
+     * @return number of MARKER cards in the last evaluation
+     */
+    public int getMarkerCount() {
+        return markers;
+    }
+
+    /**
+     * @return number of HIDDEN cards in the last evaluation
+     */
+    public int getHiddenCount() {
+        return hidden;
+    }
+
+    /**
+     * @return number of cards keeping or loading their renderables after the last evaluation
+     */
+    public int getLoadedCount() {
+        return loaded;
+    }
+
+    /**
+     * @return number of times renderables were released
+     */
+    public long getReleasedCount() {
+        return released;
+    }
+
+    @Override
+    public String toString() {
+        return "full=" + full + " markers=" + markers + " hidden=" + hidden
+                + " loaded=" + loaded + " released=" + released;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.sickar.main.helpers;
+
+import android.os.SystemClock;
+import android.view.View;
+
+import com.google.ar.sceneform.AnchorNode;
+import com.google.ar.sceneform.FrameTime;
+import com.google.ar.sceneform.Node;
+import com.google.ar.sceneform.Scene;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the placed AR cards within a budget of live renderables. Register it with
+ * Scene.addOnUpdateListener. A few times a second it measures the distance of each card and
+ * whether it is in view, lets a CardBudgetPolicy choose the level of each card and then enables
+ * the nodes of that level, loads cards that became FULL and releases the renderables of the least
+ * recently seen cards. Anchors are never touched. Cards whose anchor node was taken out of the scene
+ * are handed to the recycler.
+ *
+ * Used on the main thread only.
+ */
+public class CardManager implements Scene.OnUpdateListener {
+    /**
+     * One placed card and its nodes. The nodes are built once and reused for later cards through
+     * bind().
+     *
+     * anchorNode
+     * - base
+     *   - detailNode, enabled for FULL
+     *     - mainDisplayNode, card view, the user minimizes it
+     *       - tamperNode, tamper view
+     *     - modelNode, handle model
+     *   - markerNode, low detail marker, enabled for MARKER and while a FULL card loads
+     */
+    public static class PlacedCard extends CardBudgetPolicy.Card {
+        final AnchorNode anchorNode;
+        final Node base;
+        final Node detailNode;
+        final Node mainDisplayNode;
+        final Node tamperNode;
+        final Node modelNode;
+        final Node markerNode;
+
+        Item item;
+        long placedMs;
+
+        /**
+         * Incremented by bind(), loads started for an earlier item compare it and stop
+         */
+        int generation;
+
+        /**
+         * True from the start of loading the renderables until they are set
+         */
+        boolean loading;
+
+        /**
+         * True once the renderables were set the first time
+         */
+        boolean loadedOnce;
+
+        /**
+         * View of the current tamper renderable
+         */
+        View tamperView;
+
+        /**
+         * Response of the tamper request, kept to fill the tamper view again after a reload
+         */
+        Map<String, Object> tamperInfo;
+
+        PlacedCard(AnchorNode anchorNode, Node base, Node detailNode, Node mainDisplayNode,
+                   Node tamperNode, Node modelNode, Node markerNode) {
+            this.anchorNode = anchorNode;
+            this.base = base;
+            this.detailNode = detailNode;
+            this.mainDisplayNode = mainDisplayNode;
+            this.tamperNode = tamperNode;
+            this.modelNode = modelNode;
+            this.markerNode = markerNode;
+        }
+
+        /**
+         * Use the nodes for an item
+         *
+         * @param item     Item
+         * @param placedMs time the card was placed
+         */
+        void bind(Item item, long placedMs) {
+            reset();
+            this.item = item;
+            this.placedMs = placedMs;
+            generation++;
+            loading = false;
+            loadedOnce = false;
+            tamperView = null;
+            tamperInfo = null;
+        }
+
+        /**
+         * Drop the renderables of the card, the shared marker is kept
+         */
+        void releaseRenderables() {
+            mainDisplayNode.setRenderable(null);
+            tamperNode.setRenderable(null);
+            modelNode.setRenderable(null);
+            tamperView = null;
+            setLoaded(false);
+        }
+    }
+
+    private final Scene scene;
+    private final CardBudgetPolicy policy;
+    private final Consumer<PlacedCard> loader;
+    private final Consumer<PlacedCard> recycler;
+    private final float cosHalfAngle;
+    private final long intervalMs;
+    private final ArrayList<PlacedCard> cards = new ArrayList<>();
+
+    private long lastEvaluationMs = -1;
+    private long evaluations;
+
+    /**
+     * Construct a manager
+     *
+     * @param scene         Scene of the cards
+     * @param policy        CardBudgetPolicy choosing the level of each card
+     * @param loader        sets the renderables of a card, then calls onLoaded
+     * @param recycler      takes the cards that were removed from the scene
+     * @param halfAngleDeg  half angle in degrees of the cone in front of the camera a card must
+     *                      be in to be in view
+     * @param intervalMs    milliseconds between evaluations
+     */
+    public CardManager(Scene scene, CardBudgetPolicy policy, Consumer<PlacedCard> loader,
+                       Consumer<PlacedCard> recycler, float halfAngleDeg, long intervalMs) {
+        this.scene = scene;
+        this.policy = policy;
+        this.loader = loader;
+        this.recycler = recycler;
+        this.cosHalfAngle = (float) Math.cos(Math.toRadians(halfAngleDeg));
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Add a newly placed card and start loading it
+     *
+     * @param card PlacedCard
+     */
+    void add(PlacedCard card) {
+        // recycle the cards removed since the last evaluation first so this one can reuse them
+        removeDetached();
+        cards.add(card);
+        load(card);
+        apply(card);
+    }
+
+    /**
+     * Report that the renderables of a card were set
+     *
+     * @param card PlacedCard
+     */
+    void onLoaded(PlacedCard card) {
+        card.loading = false;
+        card.loadedOnce = true;
+        card.setLoaded(true);
+        apply(card);
+    }
+
+    /**
+     * Report that loading the renderables of a card failed, it is tried again when it is FULL
+     *
+     * @param card PlacedCard
+     */
+    void onLoadFailed(PlacedCard card) {
+        card.loading = false;
+    }
+
+    /**
+     * Evaluate the cards if the interval passed, called by the scene before each frame
+     *
+     * @param frameTime FrameTime
+     */
+    @Override
+    public void onUpdate(FrameTime frameTime) {
+        long now = SystemClock.elapsedRealtime();
+        if (cards.isEmpty() || (lastEvaluationMs >= 0 && now - lastEvaluationMs < intervalMs)) {
+            return;
+        }
+        lastEvaluationMs = now;
+        evaluations++;
+
+        float[] camera = scene.getCamera().getWorldModelMatrix().data;
+        float cx = camera[12];
+        float cy = camera[13];
+        float cz = camera[14];
+        // the camera looks along -z
+        float fx = -camera[8];
+        float fy = -camera[9];
+        float fz = -camera[10];
+        float forwardLength = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+
+        removeDetached();
+        for (int i = 0; i < cards.size(); i++) {
+            PlacedCard card = cards.get(i);
+            float[] world = card.base.getWorldModelMatrix().data;
+            float dx = world[12] - cx;
+            float dy = world[13] - cy;
+            float dz = world[14] - cz;
+            card.distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            card.inView = card.distance < 1e-3f
+                    || (fx * dx + fy * dy + fz * dz)
+                    >= cosHalfAngle * card.distance * forwardLength;
+        }
+
+        policy.evaluate(cards, now);
+        for (int i = 0; i < cards.size(); i++) {
+            PlacedCard card = cards.get(i);
+            if (card.shouldRelease()) {
+                card.releaseRenderables();
+            }
+            if (card.getLevel() == CardBudgetPolicy.Level.FULL) {
+                load(card);
+            }
+            apply(card);
+        }
+    }
+
+    /**
+     * Hand the cards the user detached to the recycler
+     */
+    private void removeDetached() {
+        for (int i = cards.size() - 1; i >= 0; i--) {
+            PlacedCard card = cards.get(i);
+            if (card.base.getScene() == null) {
+                cards.remove(i);
+                recycler.accept(card);
+            }
+        }
+    }
+
+    private void load(PlacedCard card) {
+        if (card.isLoaded() || card.loading) {
+            return;
+        }
+        card.loading = true;
+        loader.accept(card);
+    }
+
+    private void apply(PlacedCard card) {
+        CardBudgetPolicy.Level level = card.getLevel();
+        boolean full = level == CardBudgetPolicy.Level.FULL;
+        card.base.setEnabled(level != CardBudgetPolicy.Level.HIDDEN);
+        card.detailNode.setEnabled(full && card.isLoaded());
+        card.markerNode.setEnabled(!full || !card.isLoaded());
+    }
+
+    /**
+     * @return number of placed cards
+     */
+    public int getCardCount() {
+        return cards.size();
+    }
+
+    /**
+     * @return CardBudgetPolicy with the counts of the last evaluation
+     */
+    public CardBudgetPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        return "cards=" + cards.size() + " evaluations=" + evaluations + " " + policy;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.sickar.main.helpers;
+
+/**
+ * Barcode found by a BarcodeDecoder. Coordinates are in the upright image of the LuminanceFrame.
+ */
+public class DecodedBarcode {
+    private final String value;
+    private final String format;
+    private final int[] box;
+    private final int[] corners;
+
+    /**
+     * Construct a decoded barcode
+     *
+     * @param value   decoded value
+     * @param format  barcode format name, for example CODE_128
+     * @param box     bounding box {left, top, right, bottom}, null if unknown
+     * @param corners corner points {x0, y0, x1, y1, ...} clockwise from the top left, null if
+     *                unknown
+     */
+    public DecodedBarcode(String value, String format, int[] box, int[] corners) {
+        this.value = value;
+        this.format = format;
+        this.box = box;
+        this.corners = corners;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return bounding box {left, top, right, bottom}, null if unknown
+     */
+    public int[] getBox() {
+        return box;
+    }
+
+    /**
+     * @return corner points {x0, y0, x1, y1, ...} clockwise from the top left, null if unknown
+     */
+    public int[] getCorners() {
+        return corners;
+    }
+
+    @Override
+    public String toString() {
+        return format + " " + value;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.sickar.main.helpers;
+
+import java.util.ArrayDeque;
+
+/**
+ * Hands camera frames from the camera thread to the decoder thread, latest frame wins. Frames
+ * come from a small pool and are recycled, so once their buffers have grown to the frame size
+ * the camera thread copies the Y plane without allocating.
+ *
+ * The camera thread acquire()s a frame, fills it and publish()es it. A published frame that the
+ * decoder has not taken yet is replaced and goes back to the pool. The decoder take()s the latest
+ * frame, blocking until there is one, and release()s it once the decoder is done with it.
+ */
+public class FrameExchanger {
+    /**
+     * One frame being filled, one waiting and one being decoded
+     */
+    private static final int POOL_SIZE = 3;
+
+    private final ArrayDeque<LuminanceFrame> pool = new ArrayDeque<>(POOL_SIZE);
+    private LuminanceFrame pending;
+
+    private long published;
+    private long dropped;
+    private long taken;
+
+    /**
+     * Construct an exchanger with an empty pool of frames
+     */
+    public FrameExchanger() {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool.add(new LuminanceFrame());
+        }
+    }
+
+    /**
+     * Get a frame to fill, the frame still holds the contents of an older frame
+     *
+     * @return pooled frame
+     */
+    public synchronized LuminanceFrame acquire() {
+        LuminanceFrame frame = pool.poll();
+        // the pool only runs dry if frames are not released, do not stall the camera thread
+        return frame == null ? new LuminanceFrame() : frame;
+    }
+
+    /**
+     * Make a filled frame the latest frame. A frame that was published before and not taken yet
+     * is dropped back into the pool.
+     *
+     * @param frame frame from acquire()
+     */
+    public synchronized void publish(LuminanceFrame frame) {
+        published++;
+        if (pending != null) {
+            dropped++;
+            recycle(pending);
+        }
+        pending = frame;
+        notifyAll();
+    }
+
+    /**
+     * Return an acquired frame that was not published
+     *
+     * @param frame frame from acquire()
+     */
+    public synchronized void cancel(LuminanceFrame frame) {
+        recycle(frame);
+    }
+
+    /**
+     * Take the latest frame, waiting until one is published
+     *
+     * @return latest frame, release() it once it is no longer used
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized LuminanceFrame take() throws InterruptedException {
+        while (pending == null) {
+            wait();
+        }
+        LuminanceFrame frame = pending;
+        pending = null;
+        taken++;
+        return frame;
+    }
+
+    /**
+     * Return a taken frame to the pool
+     *
+     * @param frame frame from take()
+     */
+    public synchronized void release(LuminanceFrame frame) {
+        recycle(frame);
+    }
+
+    /**
+     * Drop the waiting frame
+     */
+    public synchronized void clear() {
+        if (pending != null) {
+            recycle(pending);
+            pending = null;
+        }
+    }
+
+    private void recycle(LuminanceFrame frame) {
+        if (pool.size() < POOL_SIZE) {
+            pool.add(frame);
+        }
+    }
+
+    /**
+     * @return number of frames published
+     */
+    public synchronized long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return number of frames replaced before the decoder took them
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return number of frames taken by the decoder
+     */
+    public synchronized long getTaken() {
+        return taken;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "published=" + published + " taken=" + taken + " dropped=" + dropped;
+    }
+}
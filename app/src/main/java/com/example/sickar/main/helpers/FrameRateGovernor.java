@@ -0,0 +1,250 @@
+package com.example.sickar.main.helpers;
+
+/**
+ * Sets the rate at which the BarcodeProcessor runs the decoder. After each decode it returns how
+ * long the decoder thread waits before taking the next frame, from
+ * - the motion of the ARCore camera. While the camera pans or moves quickly new parcels come
+ * into view and the decoder runs as often as allowed (SCAN). Once the camera has been still for a
+ * while it backs off (IDLE), in between it runs at a medium rate (TRACK).
+ * - the measured decoder latency. The decoder is kept busy for at most a fraction of the time so
+ * a slow decoder does not hog the CPU the renderer needs.
+ * - the thermal level of the device, which stretches the interval while the device is warm or
+ * hot.
+ *
+ * Counts the decisions per mode and measures the effective decode rate, see the getters.
+ */
+public class FrameRateGovernor {
+    public enum Mode {SCAN, TRACK, IDLE}
+
+    /**
+     * Thermal levels passed to setThermalLevel
+     */
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_WARM = 1;
+    public static final int THERMAL_HOT = 2;
+
+    /**
+     * Weight of a new sample in the moving averages
+     */
+    private static final float SMOOTHING = 0.3f;
+
+    private final long scanIntervalMs;
+    private final long trackIntervalMs;
+    private final long idleIntervalMs;
+    private final float maxDuty;
+    private final float scanAngularSpeed;
+    private final float scanLinearSpeed;
+    private final float idleAngularSpeed;
+    private final float idleLinearSpeed;
+    private final long idleHoldMs;
+
+    private final float[] lastRotation = new float[4];
+    private final float[] lastTranslation = new float[3];
+    private boolean hasPose;
+    private long lastPoseMs;
+    private float angularSpeed;
+    private float linearSpeed;
+    private long lastMotionMs;
+
+    private int thermalLevel = THERMAL_NONE;
+    private float latencyMs;
+    private long lastDecodeMs = -1;
+    private float decodeIntervalMs;
+    private Mode mode = Mode.SCAN;
+    private long intervalMs;
+
+    private final long[] decisions = new long[Mode.values().length];
+
+    /**
+     * Construct a governor
+     *
+     * @param scanIntervalMs   interval between decodes while the camera moves quickly
+     * @param trackIntervalMs  interval between decodes while the camera moves slowly
+     * @param idleIntervalMs   interval between decodes while the camera is still
+     * @param maxDuty          largest fraction of the time the decoder may be busy, 0-1
+     * @param scanAngularSpeed camera rotation in radians per second above which it scans
+     * @param scanLinearSpeed  camera movement in meters per second above which it scans
+     * @param idleAngularSpeed camera rotation in radians per second below which it is still
+     * @param idleLinearSpeed  camera movement in meters per second below which it is still
+     * @param idleHoldMs       time the camera must be still before backing off
+     */
+    public FrameRateGovernor(long scanIntervalMs, long trackIntervalMs, long idleIntervalMs,
+                             float maxDuty, float scanAngularSpeed, float scanLinearSpeed,
+                             float idleAngularSpeed, float idleLinearSpeed, long idleHoldMs) {
+        this.scanIntervalMs = scanIntervalMs;
+        this.trackIntervalMs = trackIntervalMs;
+        this.idleIntervalMs = idleIntervalMs;
+        this.maxDuty = maxDuty;
+        this.scanAngularSpeed = scanAngularSpeed;
+        this.scanLinearSpeed = scanLinearSpeed;
+        this.idleAngularSpeed = idleAngularSpeed;
+        this.idleLinearSpeed = idleLinearSpeed;
+        this.idleHoldMs = idleHoldMs;
+        this.intervalMs = scanIntervalMs;
+    }
+
+    /**
+     * Report the camera pose of a frame
+     *
+     * @param timeMs      time of the frame in milliseconds
+     * @param rotation    camera rotation quaternion {x, y, z, w}, null if tracking is lost
+     * @param translation camera translation {x, y, z} in meters, null if tracking is lost
+     */
+    public synchronized void onPose(long timeMs, float[] rotation, float[] translation) {
+        if (rotation == null || translation == null) {
+            // the view is unknown, do not treat it as still
+            hasPose = false;
+            lastMotionMs = timeMs;
+            return;
+        }
+        if (hasPose && timeMs > lastPoseMs) {
+            float seconds = (timeMs - lastPoseMs) / 1000f;
+            float angular = BarcodeTracker.rotationAngle(lastRotation, rotation) / seconds;
+            float dx = translation[0] - lastTranslation[0];
+            float dy = translation[1] - lastTranslation[1];
+            float dz = translation[2] - lastTranslation[2];
+            float linear = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / seconds;
+            angularSpeed += SMOOTHING * (angular - angularSpeed);
+            linearSpeed += SMOOTHING * (linear - linearSpeed);
+        } else if (!hasPose) {
+            lastMotionMs = timeMs;
+        }
+        if (angularSpeed > idleAngularSpeed || linearSpeed > idleLinearSpeed) {
+            lastMotionMs = timeMs;
+        }
+        System.arraycopy(rotation, 0, lastRotation, 0, 4);
+        System.arraycopy(translation, 0, lastTranslation, 0, 3);
+        lastPoseMs = timeMs;
+        hasPose = true;
+    }
+
+    /**
+     * Set the thermal level of the device
+     *
+     * @param level one of the THERMAL_ constants
+     */
+    public synchronized void setThermalLevel(int level) {
+        thermalLevel = level;
+    }
+
+    /**
+     * Report a finished decode and decide when to run the next one
+     *
+     * @param nowMs     time the decode finished in milliseconds
+     * @param latencyMs time the decode took in milliseconds
+     * @return milliseconds to wait before taking the next frame
+     */
+    public synchronized long onDecoded(long nowMs, long latencyMs) {
+        this.latencyMs = this.latencyMs == 0 ? latencyMs
+                : this.latencyMs + SMOOTHING * (latencyMs - this.latencyMs);
+        if (lastDecodeMs >= 0 && nowMs > lastDecodeMs) {
+            long interval = nowMs - lastDecodeMs;
+            decodeIntervalMs = decodeIntervalMs == 0 ? interval
+                    : decodeIntervalMs + SMOOTHING * (interval - decodeIntervalMs);
+        }
+        lastDecodeMs = nowMs;
+
+        if (angularSpeed > scanAngularSpeed || linearSpeed > scanLinearSpeed) {
+            mode = Mode.SCAN;
+        } else if (hasPose && nowMs - lastMotionMs >= idleHoldMs) {
+            mode = Mode.IDLE;
+        } else {
+            mode = Mode.TRACK;
+        }
+        decisions[mode.ordinal()]++;
+
+        long modeInterval;
+        switch (mode) {
+            case SCAN:
+                modeInterval = scanIntervalMs;
+                break;
+            case IDLE:
+                modeInterval = idleIntervalMs;
+                break;
+            default:
+                modeInterval = trackIntervalMs;
+        }
+        long dutyInterval = Math.round(this.latencyMs / maxDuty);
+        intervalMs = Math.max(modeInterval, dutyInterval) << thermalLevel;
+        return Math.max(0, intervalMs - latencyMs);
+    }
+
+    /**
+     * Map a battery temperature to a thermal level, used where the thermal status API is not
+     * available
+     *
+     * @param tenthsCelsius battery temperature in tenths of a degree Celsius
+     * @param warmCelsius   temperature from which the device counts as warm
+     * @param hotCelsius    temperature from which the device counts as hot
+     * @return one of the THERMAL_ constants
+     */
+    public static int thermalLevelForBattery(int tenthsCelsius, float warmCelsius,
+                                             float hotCelsius) {
+        float celsius = tenthsCelsius / 10f;
+        if (celsius >= hotCelsius) {
+            return THERMAL_HOT;
+        }
+        return celsius >= warmCelsius ? THERMAL_WARM : THERMAL_NONE;
+    }
+
+    /**
+     * Forget the camera motion and measurements, for example when scanning restarts
+     */
+    public synchronized void reset() {
+        hasPose = false;
+        angularSpeed = 0;
+        linearSpeed = 0;
+        latencyMs = 0;
+        lastDecodeMs = -1;
+        decodeIntervalMs = 0;
+        mode = Mode.SCAN;
+        intervalMs = scanIntervalMs;
+    }
+
+    /**
+     * @return mode of the last decision
+     */
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return interval between decodes chosen by the last decision in milliseconds
+     */
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * @param mode mode
+     * @return number of decisions for a mode
+     */
+    public synchronized long getDecisions(Mode mode) {
+        return decisions[mode.ordinal()];
+    }
+
+    /**
+     * @return average decoder latency in milliseconds
+     */
+    public synchronized float getLatencyMs() {
+        return latencyMs;
+    }
+
+    /**
+     * @return measured decodes per second
+     */
+    public synchronized float getEffectiveFps() {
+        return decodeIntervalMs == 0 ? 0 : 1000f / decodeIntervalMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "mode=" + mode + " intervalMs=" + intervalMs
+                + " fps=" + Math.round(getEffectiveFps() * 10) / 10f
+                + " latencyMs=" + Math.round(latencyMs)
+                + " thermal=" + thermalLevel
+                + " scan=" + decisions[Mode.SCAN.ordinal()]
+                + " track=" + decisions[Mode.TRACK.ordinal()]
+                + " idle=" + decisions[Mode.IDLE.ordinal()];
+    }
+}
@@ -11,15 +11,20 @@ import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.PorterDuff;
-import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.util.Size;
 import android.view.View;
 
-import java.util.LinkedList;
+import com.example.sickar.Constants;
 
 /**
  * Graphic Overlay draws the highlight box around detected barcodes and enables the reticle tool
+ *
+ * The boxes are filled into a BoxBuffer by the decoder thread, see getBoxBuffer(). Each publish
+ * schedules a redraw with postInvalidateOnAnimation(), so the view is invalidated at most once per
+ * display frame however many barcodes are decoded. A BoxAnimator slides the boxes between
+ * detections.
  */
 public class GraphicOverlay extends View {
     private static final String TAG = "app_" + GraphicOverlay.class.getSimpleName();
@@ -34,10 +39,16 @@ public class GraphicOverlay extends View {
      */
     private static final int START_ANGLE = 270;
 
+    private static final float CORNER_RADIUS = 25;
+
     /**
-     * Holds the outline rectangles that should be drawn on the next overlay refresh.
+     * Boxes of the last decoded frame, written by the decoder thread
      */
-    private LinkedList<RectF> drawCache;
+    private final BoxBuffer boxBuffer;
+    private final BoxAnimator boxAnimator;
+    private final float[] readBoxes;
+    private long readVersion;
+    private final RectF drawBox = new RectF();
     private Size cameraConfigSize;
     private int[] trueXY;
     private float angle;
@@ -62,7 +73,10 @@ public class GraphicOverlay extends View {
         // get the true coordinates of this view to draw the bounding box according to the screen
         // not the view
         trueXY = new int[2];
-        drawCache = new LinkedList<>();
+        boxBuffer = new BoxBuffer(Constants.OVERLAY_MAX_BOXES, this::postInvalidateOnAnimation);
+        boxAnimator = new BoxAnimator(Constants.OVERLAY_MAX_BOXES,
+                Constants.OVERLAY_INTERPOLATION_MAX_MS);
+        readBoxes = new float[Constants.OVERLAY_MAX_BOXES * 4];
         center = new PointF();
 
         // paints
@@ -122,12 +136,29 @@ public class GraphicOverlay extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (!drawCache.isEmpty()) {
-            float cornerRadius = 25;
-            for (RectF box : drawCache) {
-                canvas.drawRoundRect(box, cornerRadius, cornerRadius, boxPaint);
+        long now = SystemClock.uptimeMillis();
+        long version = boxBuffer.getVersion();
+        if (version != readVersion) {
+            readVersion = version;
+            boxAnimator.setTargets(readBoxes, boxBuffer.read(readBoxes), now);
+        }
+        boolean moving = boxAnimator.update(now);
+        int count = boxAnimator.getCount();
+        if (count > 0 && cameraConfigSize != null) {
+            // scale the boxes to be same ratio as the root view
+            float scaleX = this.getRootView().getWidth() / (float) cameraConfigSize.getWidth();
+            float scaleY = this.getRootView().getHeight() / (float) cameraConfigSize.getHeight();
+            float[] boxes = boxAnimator.getBoxes();
+            for (int i = 0; i < count * 4; i += 4) {
+                drawBox.set(boxes[i] * scaleX + trueXY[0],
+                        boxes[i + 1] * scaleY - trueXY[1],
+                        boxes[i + 2] * scaleX + trueXY[0],
+                        boxes[i + 3] * scaleY - trueXY[1]);
+                canvas.drawRoundRect(drawBox, CORNER_RADIUS, CORNER_RADIUS, boxPaint);
+            }
+            if (moving) {
+                postInvalidateOnAnimation();
             }
-            drawCache.clear();
         } else {
             canvas.drawColor(0, PorterDuff.Mode.CLEAR);
         }
@@ -194,25 +225,13 @@ public class GraphicOverlay extends View {
     }
 
     /**
-     * Adds a new rectangle to the drawCache to be drawn on the next update.
-     * Multiple rectangles can be added to the drawCache so a single refresh will draw all the
-     * outlines.
+     * Get the buffer the decoder thread fills with the boxes of each decoded frame, in the
+     * coordinates of the camera image. Publishing it redraws this view.
      *
-     * @param rect rectangle to be drawn
+     * @return BoxBuffer
      */
-    public void drawBoundingBox(Rect rect) {
-        RectF rectF = new RectF(rect);
-        // resize the bounding bos to be same ratio as the root view
-        float viewWidth = this.getRootView().getWidth();
-        float viewHeight = this.getRootView().getHeight();
-
-//        Log.i(TAG, "true " + Arrays.toString(trueXY));
-        rectF.left = rectF.left * viewWidth / cameraConfigSize.getWidth() + trueXY[0];
-        rectF.right = rectF.right * viewWidth / cameraConfigSize.getWidth() + trueXY[0];
-        rectF.top = rectF.top * viewHeight / cameraConfigSize.getHeight() - trueXY[1];
-        rectF.bottom = rectF.bottom * viewHeight / cameraConfigSize.getHeight() - trueXY[1];
-
-        drawCache.push(rectF);
+    public BoxBuffer getBoxBuffer() {
+        return boxBuffer;
     }
 
     /**
@@ -231,10 +250,10 @@ public class GraphicOverlay extends View {
     }
 
     /**
-     * clear the drawCache
+     * Remove all boxes
      */
     public void clear() {
-        drawCache.clear();
+        boxBuffer.clear();
     }
 
     /**
@@ -5,29 +5,30 @@ import android.widget.Switch;
 
 import androidx.annotation.Nullable;
 
-import com.example.sickar.Utils;
 import com.google.ar.core.Anchor;
 import com.google.ar.sceneform.AnchorNode;
 import com.google.ar.sceneform.Node;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 /**
  * Item class represents the data associated with a particular barcode
+ *
+ * The systems and properties are held in an immutable ItemSnapshot. Threads that read them take
+ * snapshot() once and read from it, adding a system or a property publishes a new snapshot. The
+ * AR card nodes are used on the main thread only. The scanned and placed flags are volatile since
+ * the ScanStateMachine reads and sets them on the scan thread.
  */
 public class Item {
     private static final String TAG = "app_" + Item.class.getSimpleName();
 
-    private Map<String, Map<String, String>> data;
-    private ArrayList<String> systems;
+    /**
+     * Systems and properties, replaced as a whole on every change
+     */
+    private volatile ItemSnapshot snapshot;
     private Map<String, Map<String, String>> imageData;
-    private int currentSysIdx;
 
     /**
      * Barcode identifier for this object
@@ -37,12 +38,12 @@ public class Item {
     /**
      * indicated whether or not the AR display has been placed
      */
-    private boolean placedCard;
+    private volatile boolean placedCard;
 
     /**
      * indicates whether or not this package has been scanned and displayed in the recyclerView
      */
-    private boolean scanned;
+    private volatile boolean scanned;
     private boolean hasImages;
     private Anchor anchor;
     private AnchorNode anchorNode;
@@ -61,9 +62,7 @@ public class Item {
         hasImages = false;
         // if an Item is created it must have been scanned
 
-        data = new HashMap<>();
-        systems = new ArrayList<>();
-        currentSysIdx = 0;
+        snapshot = ItemSnapshot.empty(name);
     }
 
     /**
@@ -116,31 +115,42 @@ public class Item {
         return name;
     }
 
+    /**
+     * Get the current systems and properties of this item. The snapshot does not change, read it
+     * instead of the item to see one consistent state.
+     *
+     * @return ItemSnapshot
+     */
+    public ItemSnapshot snapshot() {
+        return snapshot;
+    }
+
     /**
      * Add a new system to this item
      *
      * @param systemId string systemId
      */
     void addSystem(String systemId) {
-        systems.add(systemId);
+        addSystem(systemId, new SystemRecord());
     }
 
     /**
-     * Set the system that subsequent get methods will pull from
+     * Add a new system to this item with its properties
      *
      * @param systemId string systemId
+     * @param record   properties of the system, must not be modified afterwards
      */
-    public void setSystem(String systemId) {
-        currentSysIdx = systems.indexOf(systemId);
+    synchronized void addSystem(String systemId, SystemRecord record) {
+        snapshot = snapshot.withSystem(systemId, record);
     }
 
     /**
      * Get the systemIds associated with this item
      *
-     * @return list of systemIds
+     * @return read-only list of systemIds
      */
     public List<String> getSystemList() {
-        return systems;
+        return snapshot.getSystemList();
     }
 
     /**
@@ -150,17 +160,13 @@ public class Item {
      * @param label    name of this property
      * @param value    value of this property
      */
-    void addProp(String systemId, String label, String value) {
-        try {
-            if (data.get(systemId) == null) {
-                data.put(systemId, new LinkedHashMap<>());
-                Objects.requireNonNull(data.get(systemId)).put(label, value);
-            } else {
-                Objects.requireNonNull(data.get(systemId)).put(label, value);
-            }
-        } catch (NullPointerException e) {
+    synchronized void addProp(String systemId, String label, String value) {
+        ItemSnapshot updated = snapshot.withProp(systemId, label, value);
+        if (updated == snapshot) {
             Log.i(TAG, "no such system: " + systemId);
+            return;
         }
+        snapshot = updated;
     }
 
     /**
@@ -171,33 +177,39 @@ public class Item {
      * @return String property
      */
     public String getProp(String systemId, String label) {
-        return Objects.requireNonNull(data.get(systemId)).get(label);
+        return snapshot.getProp(systemId, label);
     }
 
     /**
-     * Returns a String with all properties of this Item. Used for display on card
+     * Returns a String with all properties of a system. Used for display on card
      *
      * @deprecated
+     * @param systemId system
      * @return String of all properties
      */
-    public String getAllPropsAsString() {
-        StringBuilder text = new StringBuilder();
-        Map<String, String> oneSystemData = data.get(systems.get(currentSysIdx));
-        for (String label : Objects.requireNonNull(oneSystemData).keySet()) {
-            text.append(Utils.unpackCamelCase(label)).append(": ").append(getProp(label)).append(
-                    "\n");
-        }
-        text.deleteCharAt(text.length() - 1);
-        return text.toString();
+    public String getAllPropsAsString(String systemId) {
+        return snapshot.getAllPropsAsString(systemId);
+    }
+
+    /**
+     * return the map containing properties and values of a system
+     *
+     * @param systemId system
+     * @return read-only data from the system, null if the item has no such system
+     */
+    public Map<String, String> getSystemData(String systemId) {
+        return snapshot.getSystemData(systemId);
     }
 
     /**
-     * return the map containing properties and values
+     * return the typed properties of a system
      *
-     * @return data from a single system
+     * @param systemId system
+     * @return properties of the system, null if the item has no such system. Must not be
+     * modified.
      */
-    public Map<String, String> getOneSystemData() {
-        return data.get(systems.get(currentSysIdx));
+    SystemRecord getSystemRecord(String systemId) {
+        return snapshot.getSystemRecord(systemId);
     }
 
     /**
@@ -206,18 +218,8 @@ public class Item {
      * @return String of properties
      */
     String getPropsForARCard() {
-        StringBuilder text = new StringBuilder();
         // display info from only the latest system
-        int orig = currentSysIdx;
-        currentSysIdx = 0;
-        // order in which to display the properties
-        String[] propertiesOrder = {"length", "width", "height", "volume", "weight"};
-        for (String prop : propertiesOrder) {
-            text.append(prop).append(" : ").append(getProp(prop)).append("\n");
-        }
-        text.deleteCharAt(text.length() - 1);
-        currentSysIdx = orig;
-        return text.toString();
+        return snapshot.getPropsForARCard();
     }
 
     /**
@@ -238,19 +240,19 @@ public class Item {
     }
 
     /**
-     * Detach the AR elements from this item
+     * Detach the AR elements from this item. The card nodes stay under the AnchorNode so ARScene
+     * can reuse them for the next card.
      *
      * @return true if successful, false if not
      */
     public boolean detachFromAnchors() {
         if (placedCard) {
-            for (Node child : anchorNode.getChildren()) {
-                anchorNode.removeChild(child);
-            }
             anchorNode.setParent(null);
             anchor.detach();
             anchor = null;
             anchorNode = null;
+            // the nodes are reused for other items
+            displayNode = null;
             placedCard = false;
             setVisibleToggle(false);
             return true;
@@ -297,9 +299,9 @@ public class Item {
      * @deprecated Not used anymore
      * @return Map containing the image data
      */
-    Map<String, String> getImageData() {
+    Map<String, String> getImageData(String systemId) {
         if (hasImages) {
-            return imageData.get(systems.get(currentSysIdx));
+            return imageData.get(systemId);
         } else {
             return null;
         }
@@ -317,23 +319,6 @@ public class Item {
         hasImages = true;
     }
 
-    /**
-     * Get the value of a particular property of this item
-     *
-     * @param label name of the property
-     * @return value of the property
-     */
-    private String getProp(String label) {
-        try {
-            if (data.get(systems.get(currentSysIdx)) != null) {
-                return Objects.requireNonNull(data.get(systems.get(currentSysIdx))).get(label);
-            }
-        } catch (NullPointerException e) {
-            Log.i(TAG, "no such system: " + systems.get(currentSysIdx));
-        }
-        return null;
-    }
-
     /**
      * Set the visibility of the item's AR card
      *
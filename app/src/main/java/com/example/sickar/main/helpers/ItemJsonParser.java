@@ -0,0 +1,362 @@
+package com.example.sickar.main.helpers;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streaming parser for the get/ response of the SICK AR backend. Reads the response bytes with a
+ * Gson JsonReader and builds the Item directly without creating a JSONObject tree first. Also
+ * parses the pages of the search/execute API used by the ZonePrefetcher.
+ *
+ * The resulting Item holds the same properties in the same order as
+ * BarcodeDataCache.jsonToItem produces from a JSONObject.
+ */
+public class ItemJsonParser {
+    /**
+     * Numeric properties read from each system result. They are stored as "value unitLabel".
+     */
+    static final String[] PROPERTIES = {"beltSpeed", "length", "width", "height", "weight", "gap",
+            "angle"};
+
+    /**
+     * Format used to display objectScanTime
+     */
+    static final DateTimeFormatter SCAN_TIME_FORMAT = DateTimeFormatter.ofPattern("MM-dd-yyyy " +
+            "kk:mm:ss");
+
+    private ItemJsonParser() {
+    }
+
+    /**
+     * Parse an Item from the raw bytes of a get/ response
+     *
+     * @param barcode barcode string
+     * @param data    response body encoded in UTF-8
+     * @return Item, it has no systems if the response contains no results
+     * @throws IOException if the response is malformed
+     */
+    public static Item parse(String barcode, byte[] data) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            return parse(barcode, reader);
+        }
+    }
+
+    /**
+     * Parse an Item from a reader positioned at the start of a get/ response object
+     *
+     * @param barcode barcode string
+     * @param reader  JsonReader
+     * @return Item, it has no systems if the response contains no results
+     * @throws IOException if the response is malformed
+     */
+    public static Item parse(String barcode, JsonReader reader) throws IOException {
+        List<String> systems = new ArrayList<>();
+        List<SystemRecord> results = new ArrayList<>();
+
+        // systems and results may arrive in any order so both are collected before zipping them
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "systems":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        systems.add(nextString(reader));
+                    }
+                    reader.endArray();
+                    break;
+                case "results":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        results.add(parseSystemResult(reader));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Item itm = new Item(barcode);
+        if (!results.isEmpty()) {
+            if (results.size() < systems.size()) {
+                throw new IOException("response has " + systems.size() + " systems but only "
+                        + results.size() + " results");
+            }
+            for (int x = 0; x < systems.size(); x++) {
+                itm.addSystem(systems.get(x), results.get(x));
+            }
+        }
+        return itm;
+    }
+
+    /**
+     * Parse the response of a bulk lookup. The response has the form
+     * {"results": {"barcode1": {get/ response}, "barcode2": {get/ response}}}
+     *
+     * @param data response body encoded in UTF-8
+     * @return Items mapped by barcode, barcodes unknown to the backend are left out
+     * @throws IOException if the response is malformed
+     */
+    public static Map<String, Item> parseBulk(byte[] data) throws IOException {
+        Map<String, Item> items = new HashMap<>();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("results") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String barcode = reader.nextName();
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else {
+                            items.put(barcode, parse(barcode, reader));
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return items;
+    }
+
+    /**
+     * Parse one page of a search/execute response. The response has the form
+     * {"total": 1234, "results": [{get/ result with "systemId"}, ...]}. Results without a
+     * systemId are attributed to their systemName.
+     *
+     * @param data response body encoded in UTF-8
+     * @return parsed page
+     * @throws IOException if the response is malformed
+     */
+    public static SearchPage parseSearchPage(byte[] data) throws IOException {
+        SearchPage page = new SearchPage();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "total":
+                        page.setTotal(reader.nextInt());
+                        break;
+                    case "results":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            ResultKeys keys = new ResultKeys();
+                            SystemRecord props = parseSystemResult(reader, keys);
+                            String systemId = keys.systemId != null ? keys.systemId
+                                    : props.get("systemName");
+                            page.addResult(systemId, keys.barcodes != null ? keys.barcodes
+                                    : Collections.emptySet(), props, keys.scanTime);
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return page;
+    }
+
+    /**
+     * Parse the result object of one system into its properties. The properties are returned in
+     * display order regardless of the order of the fields in the response.
+     *
+     * @param reader JsonReader positioned at the start of a result object
+     * @return properties of this system
+     * @throws IOException if the object is malformed
+     */
+    static SystemRecord parseSystemResult(JsonReader reader) throws IOException {
+        return parseSystemResult(reader, null);
+    }
+
+    /**
+     * Parse the result object of one system and collect the fields that identify it
+     *
+     * @param reader JsonReader positioned at the start of a result object
+     * @param keys   receives systemId, barcodes and scan time, may be null
+     * @return properties of this system
+     * @throws IOException if the object is malformed
+     */
+    private static SystemRecord parseSystemResult(JsonReader reader, ResultKeys keys)
+            throws IOException {
+        String systemName = null;
+        String systemLabel = null;
+        Map<String, String> units = new HashMap<>();
+        Map<String, Double> values = new HashMap<>();
+        double boxFactor = Double.NaN;
+        String objectScanTime = null;
+        Set<String> barcodes = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "systemName":
+                    systemName = nextString(reader);
+                    break;
+                case "systemLabel":
+                    systemLabel = nextString(reader);
+                    break;
+                case "boxFactor":
+                    boxFactor = reader.nextDouble();
+                    break;
+                case "objectScanTime":
+                    ZonedDateTime zdt = ZonedDateTime.parse(reader.nextString(),
+                            DateTimeFormatter.ISO_DATE_TIME);
+                    objectScanTime = zdt.format(SCAN_TIME_FORMAT);
+                    if (keys != null) keys.scanTime = zdt.toInstant();
+                    break;
+                case "systemId":
+                    if (keys != null) {
+                        keys.systemId = nextString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "barcodes":
+                    barcodes = parseBarcodes(reader);
+                    break;
+                default:
+                    if (isProperty(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        parseProperty(reader, name, units, values);
+                    } else {
+                        reader.skipValue();
+                    }
+            }
+        }
+        reader.endObject();
+        if (keys != null) keys.barcodes = barcodes;
+
+        SystemRecord props = new SystemRecord();
+        props.put("systemName", systemName);
+        props.put("systemLabel", systemLabel);
+        float volume = 1;
+        for (String key : PROPERTIES) {
+            Double value = values.get(key);
+            if (value != null) {
+                props.putNumber(key, value, units.get(key));
+                if (key.equals("length") || key.equals("width") || key.equals("height")) {
+                    volume *= value;
+                }
+            }
+        }
+        props.putFloat("volume", volume / 1000, SystemRecord.Unit.CM3);
+        if (Double.isNaN(boxFactor)) {
+            props.put("boxFactor", null);
+        } else {
+            props.putNumber("boxFactor", boxFactor, "");
+        }
+        props.put("objectScanTime", objectScanTime);
+        if (barcodes != null && !barcodes.isEmpty()) {
+            props.put("barcodes", barcodes.toString());
+        }
+        return props;
+    }
+
+    /**
+     * Parse a property object of the form {"value": 1.0, "unitLabel": "mm"}. Properties with a
+     * null or missing value are left out.
+     */
+    private static void parseProperty(JsonReader reader, String key, Map<String, String> units,
+                                      Map<String, Double> values) throws IOException {
+        Double value = null;
+        String unitLabel = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "value":
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        value = reader.nextDouble();
+                    }
+                    break;
+                case "unitLabel":
+                    unitLabel = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (value != null && unitLabel != null) {
+            units.put(key, unitLabel);
+            values.put(key, value);
+        }
+    }
+
+    /**
+     * Parse the barcodes array into the set of unique barcode values
+     */
+    private static Set<String> parseBarcodes(JsonReader reader) throws IOException {
+        Set<String> barcodes = new HashSet<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("value")) {
+                    barcodes.add(nextString(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return barcodes;
+    }
+
+    /**
+     * Read a string value. A JSON null is returned as "null" which is what JSONObject.getString
+     * does on Android.
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "null";
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * @return true if the name is one of the numeric PROPERTIES
+     */
+    private static boolean isProperty(String name) {
+        for (String key : PROPERTIES) {
+            if (key.equals(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fields of a search result that are not display properties
+     */
+    private static class ResultKeys {
+        private String systemId;
+        private Set<String> barcodes;
+        private Instant scanTime;
+    }
+}
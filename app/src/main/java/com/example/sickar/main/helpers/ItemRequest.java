@@ -0,0 +1,62 @@
+package com.example.sickar.main.helpers;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+
+/**
+ * Volley request for the get/ endpoint of the SICK AR backend. The response bytes are parsed
+ * straight into an Item by ItemJsonParser on the Volley network thread, so no JSONObject is built
+ * and the main thread only receives the finished Item.
+ */
+public class ItemRequest extends Request<Item> {
+    private final String barcode;
+    private final Response.Listener<Item> listener;
+
+    /**
+     * Construct a GET request for the item of a barcode
+     *
+     * @param url           request url
+     * @param barcode       barcode the response belongs to
+     * @param listener      called with the parsed Item
+     * @param errorListener called on network or parse errors
+     */
+    public ItemRequest(String url, String barcode, Response.Listener<Item> listener,
+                       Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        this.barcode = barcode;
+        this.listener = listener;
+    }
+
+    /**
+     * Parse the raw response into an Item. Called on a worker thread.
+     *
+     * @param response raw network response
+     * @return parsed response
+     */
+    @Override
+    protected Response<Item> parseNetworkResponse(NetworkResponse response) {
+        try {
+            return Response.success(ItemJsonParser.parse(barcode, response.data),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | IllegalStateException | NumberFormatException |
+                DateTimeException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * Deliver the parsed Item to the listener. Called on the main thread.
+     *
+     * @param response parsed Item
+     */
+    @Override
+    protected void deliverResponse(Item response) {
+        listener.onResponse(response);
+    }
+}
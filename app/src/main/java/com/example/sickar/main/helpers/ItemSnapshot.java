@@ -0,0 +1,153 @@
+package com.example.sickar.main.helpers;
+
+import com.example.sickar.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the systems and properties of an Item at one point in time. Any thread may
+ * read it without locking. Changes to the Item publish a new snapshot and leave the ones already
+ * handed out as they were, the SystemRecords in a snapshot are never modified.
+ *
+ * Properties are read per system by its id, there is no current system.
+ */
+public final class ItemSnapshot {
+    /**
+     * Properties shown on the AR card, in display order
+     */
+    private static final String[] AR_CARD_PROPERTIES = {"length", "width", "height", "volume",
+            "weight"};
+
+    private final String name;
+    private final List<String> systems;
+    private final List<SystemRecord> records;
+
+    /**
+     * Construct a snapshot, the lists must not be modified afterwards
+     *
+     * @param systems read-only list of systemIds
+     * @param records records in the order of systems
+     */
+    private ItemSnapshot(String name, List<String> systems, List<SystemRecord> records) {
+        this.name = name;
+        this.systems = systems;
+        this.records = records;
+    }
+
+    /**
+     * @param name barcode
+     * @return snapshot without systems
+     */
+    static ItemSnapshot empty(String name) {
+        return new ItemSnapshot(name, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * @return barcode of the item
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return systemIds of the item, newest first, read-only
+     */
+    public List<String> getSystemList() {
+        return systems;
+    }
+
+    /**
+     * @param systemId system
+     * @return read-only properties of the system, null if the item has no such system
+     */
+    public Map<String, String> getSystemData(String systemId) {
+        SystemRecord record = getSystemRecord(systemId);
+        return record == null ? null : record.asMap();
+    }
+
+    /**
+     * @param systemId system
+     * @param label    property label
+     * @return display string of the property, null if the system or the property is missing
+     */
+    public String getProp(String systemId, String label) {
+        SystemRecord record = getSystemRecord(systemId);
+        return record == null ? null : record.get(label);
+    }
+
+    /**
+     * @return properties of the newest system for the AR card, one "label : value" per line
+     */
+    public String getPropsForARCard() {
+        SystemRecord record = records.isEmpty() ? null : records.get(0);
+        StringBuilder text = new StringBuilder();
+        for (String prop : AR_CARD_PROPERTIES) {
+            text.append(prop).append(" : ").append(record == null ? null : record.get(prop))
+                    .append("\n");
+        }
+        text.deleteCharAt(text.length() - 1);
+        return text.toString();
+    }
+
+    /**
+     * @param systemId system
+     * @return all properties of the system, one "Label: value" per line, empty if the item has no
+     * such system
+     */
+    public String getAllPropsAsString(String systemId) {
+        Map<String, String> data = getSystemData(systemId);
+        if (data == null || data.isEmpty()) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> prop : data.entrySet()) {
+            text.append(Utils.unpackCamelCase(prop.getKey())).append(": ")
+                    .append(prop.getValue()).append("\n");
+        }
+        text.deleteCharAt(text.length() - 1);
+        return text.toString();
+    }
+
+    /**
+     * @param systemId system
+     * @return typed properties of the system, null if the item has no such system. Must not be
+     * modified.
+     */
+    SystemRecord getSystemRecord(String systemId) {
+        int index = systems.indexOf(systemId);
+        return index < 0 ? null : records.get(index);
+    }
+
+    /**
+     * @return copy of this snapshot with a system added at the end
+     */
+    ItemSnapshot withSystem(String systemId, SystemRecord record) {
+        List<String> newSystems = new ArrayList<>(systems.size() + 1);
+        newSystems.addAll(systems);
+        newSystems.add(systemId);
+        List<SystemRecord> newRecords = new ArrayList<>(records.size() + 1);
+        newRecords.addAll(records);
+        newRecords.add(record);
+        return new ItemSnapshot(name, Collections.unmodifiableList(newSystems), newRecords);
+    }
+
+    /**
+     * @return copy of this snapshot with a property of a system set, this snapshot if the item
+     * has no such system
+     */
+    ItemSnapshot withProp(String systemId, String label, String value) {
+        int index = systems.indexOf(systemId);
+        if (index < 0) {
+            return this;
+        }
+        SystemRecord record = records.get(index).copy();
+        record.put(label, value);
+        List<SystemRecord> newRecords = new ArrayList<>(records);
+        newRecords.set(index, record);
+        // the system list is unchanged and read-only so it is shared
+        return new ItemSnapshot(name, systems, newRecords);
+    }
+}
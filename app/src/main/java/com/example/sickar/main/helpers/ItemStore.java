@@ -0,0 +1,532 @@
+package com.example.sickar.main.helpers;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of parsed Items keyed by barcode. Sits under the in-memory BarcodeDataCache so
+ * scanned items survive an app restart or the process being killed.
+ *
+ * Items are kept in an append-only log file. Each record is
+ * [int payload length][int CRC32 of payload][payload], where the payload is
+ * [byte type][long written at][UTF barcode] followed for PUT records by
+ * [int system count] and per system [UTF systemId][int property count] and per property
+ * [UTF label][boolean has value][UTF value]. A DELETE record has no systems and hides older
+ * records of its barcode.
+ *
+ * Opening the store only reads the log to build an index from barcode to record offset, the
+ * Items themselves are read when they are requested. Records older than the TTL are ignored and
+ * only the newest maxItems barcodes are kept. When more than half of the log is unreachable it is
+ * compacted into a new file. A record cut off by the process being killed is dropped on open.
+ *
+ * The *Async methods run on a single background thread and never block the caller. The other
+ * methods do the file IO on the calling thread.
+ */
+public class ItemStore {
+    private static final String TAG = "app_" + ItemStore.class.getSimpleName();
+
+    private static final int MAGIC = 0x53414331;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    /**
+     * Bytes of [payload length][CRC32] in front of each payload
+     */
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    /**
+     * Logs smaller than this are not compacted
+     */
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+
+    private final File file;
+    private final int maxItems;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final ExecutorService writer;
+
+    /**
+     * Location of the newest record of each barcode, ordered from oldest to newest write
+     */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>();
+    private RandomAccessFile log;
+    private long liveBytes;
+
+    /**
+     * Construct a store. The log is opened on the background thread.
+     *
+     * @param file     log file
+     * @param maxItems maximum number of items to keep
+     * @param ttlMs    time in milliseconds after which an item is no longer returned
+     */
+    public ItemStore(File file, int maxItems, long ttlMs) {
+        this(file, maxItems, ttlMs, System::currentTimeMillis);
+        writer.execute(() -> {
+            try {
+                open();
+            } catch (IOException e) {
+                Log.i(TAG, "could not open item store " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Construct a store without opening it
+     *
+     * @param file     log file
+     * @param maxItems maximum number of items to keep
+     * @param ttlMs    time in milliseconds after which an item is no longer returned
+     * @param clock    current time in milliseconds
+     */
+    ItemStore(File file, int maxItems, long ttlMs, LongSupplier clock) {
+        if (maxItems <= 0) {
+            throw new IllegalArgumentException("maxItems must be positive: " + maxItems);
+        }
+        this.file = file;
+        this.maxItems = maxItems;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+        writer = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Look up an item on the background thread
+     *
+     * @param barcode barcode
+     * @return future of the item, completes with null if it is not stored or could not be read
+     */
+    public CompletableFuture<Item> getAsync(String barcode) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return get(barcode);
+            } catch (IOException e) {
+                Log.i(TAG, "could not read " + barcode + " " + e.toString());
+                return null;
+            }
+        }, writer);
+    }
+
+    /**
+     * Store an item on the background thread
+     *
+     * @param item item
+     */
+    public void putAsync(Item item) {
+        writer.execute(() -> {
+            try {
+                put(item);
+            } catch (IOException e) {
+                Log.i(TAG, "could not write " + item.getName() + " " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Remove an item on the background thread
+     *
+     * @param barcode barcode
+     */
+    public void removeAsync(String barcode) {
+        writer.execute(() -> {
+            try {
+                remove(barcode);
+            } catch (IOException e) {
+                Log.i(TAG, "could not remove " + barcode + " " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Remove all items on the background thread
+     */
+    public void clearAsync() {
+        writer.execute(() -> {
+            try {
+                clear();
+            } catch (IOException e) {
+                Log.i(TAG, "could not clear item store " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Open the log and build the index. Truncates a cut off record at the end of the log.
+     *
+     * @throws IOException if the log can not be read or created
+     */
+    synchronized void open() throws IOException {
+        if (log != null) {
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        log = new RandomAccessFile(file, "rw");
+        index.clear();
+        liveBytes = 0;
+        if (log.length() < 4 || log.readInt() != MAGIC) {
+            Log.i(TAG, "starting new item store " + file);
+            log.setLength(0);
+            log.writeInt(MAGIC);
+            return;
+        }
+
+        long offset = 4;
+        long end = log.length();
+        while (offset + RECORD_HEADER_BYTES <= end) {
+            log.seek(offset);
+            int length = log.readInt();
+            if (length <= 0 || offset + RECORD_HEADER_BYTES + length > end) {
+                break;
+            }
+            byte[] payload = readPayload(offset, length);
+            if (payload == null) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            long writtenAt = in.readLong();
+            String barcode = in.readUTF();
+            unindex(barcode);
+            if (type == PUT) {
+                addToIndex(barcode, new Entry(offset, RECORD_HEADER_BYTES + length, writtenAt));
+            }
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        if (offset < end) {
+            Log.i(TAG, "dropping " + (end - offset) + " bytes of cut off records");
+            log.setLength(offset);
+        }
+        dropExpired();
+        Log.i(TAG, "opened item store with " + index.size() + " items");
+        compactIfNeeded();
+    }
+
+    /**
+     * Read an item
+     *
+     * @param barcode barcode
+     * @return item, null if it is not stored or has expired
+     * @throws IOException if the log can not be read
+     */
+    synchronized Item get(String barcode) throws IOException {
+        open();
+        Entry entry = index.get(barcode);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry)) {
+            unindex(barcode);
+            return null;
+        }
+        byte[] payload = readPayload(entry.offset, entry.length - RECORD_HEADER_BYTES);
+        if (payload == null) {
+            Log.i(TAG, "corrupt record for " + barcode);
+            unindex(barcode);
+            return null;
+        }
+        return decode(payload);
+    }
+
+    /**
+     * Write an item. Does nothing if the barcode is already stored and has not expired, so the
+     * TTL counts from when the item was first fetched.
+     *
+     * @param item item
+     * @throws IOException if the log can not be written
+     */
+    synchronized void put(Item item) throws IOException {
+        open();
+        Entry existing = index.get(item.getName());
+        if (existing != null && !isExpired(existing)) {
+            return;
+        }
+        long writtenAt = clock.getAsLong();
+        long offset = append(encode(PUT, writtenAt, item));
+        unindex(item.getName());
+        addToIndex(item.getName(), new Entry(offset, (int) (log.length() - offset), writtenAt));
+        compactIfNeeded();
+    }
+
+    /**
+     * Remove an item by appending a DELETE record
+     *
+     * @param barcode barcode
+     * @throws IOException if the log can not be written
+     */
+    synchronized void remove(String barcode) throws IOException {
+        open();
+        if (unindex(barcode)) {
+            append(encode(DELETE, clock.getAsLong(), new Item(barcode)));
+        }
+    }
+
+    /**
+     * Remove all items
+     *
+     * @throws IOException if the log can not be written
+     */
+    synchronized void clear() throws IOException {
+        open();
+        index.clear();
+        liveBytes = 0;
+        log.setLength(4);
+    }
+
+    /**
+     * Close the log. The store is opened again by the next call.
+     *
+     * @throws IOException if the log can not be closed
+     */
+    synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * @return number of items stored, including expired items not looked up since they expired
+     */
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return size of the log in bytes
+     * @throws IOException if the log can not be read
+     */
+    synchronized long logBytes() throws IOException {
+        open();
+        return log.length();
+    }
+
+    /**
+     * Rewrite the log with only the newest record of each stored barcode. The index and the log
+     * are only swapped once the new file has replaced the old one, so a failed compaction leaves
+     * the store as it was.
+     *
+     * @throws IOException if the log can not be written
+     */
+    synchronized void compact() throws IOException {
+        open();
+        dropExpired();
+        File compacted = new File(file.getPath() + ".compact");
+        LinkedHashMap<String, Entry> compactedIndex = new LinkedHashMap<>();
+        try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                Entry entry = e.getValue();
+                byte[] record = new byte[entry.length];
+                log.seek(entry.offset);
+                log.readFully(record);
+                long offset = out.getFilePointer();
+                out.write(record);
+                compactedIndex.put(e.getKey(), new Entry(offset, entry.length, entry.writtenAt));
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            compacted.delete();
+            throw e;
+        }
+        log.close();
+        log = null;
+        boolean replaced = rename(compacted, file);
+        // reopens the old log if the rename failed, its offsets are still those of the index
+        log = new RandomAccessFile(file, "rw");
+        if (!replaced) {
+            //noinspection ResultOfMethodCallIgnored
+            compacted.delete();
+            throw new IOException("could not replace " + file);
+        }
+        index.clear();
+        index.putAll(compactedIndex);
+        Log.i(TAG, "compacted item store to " + log.length() + " bytes");
+    }
+
+    /**
+     * Move a file over another, overridden by tests
+     *
+     * @return true if the file was moved
+     */
+    boolean rename(File from, File to) {
+        return from.renameTo(to);
+    }
+
+    /**
+     * Compact once more than half of a large enough log is unreachable
+     */
+    private void compactIfNeeded() throws IOException {
+        long size = log.length();
+        if (size >= MIN_COMPACT_BYTES && liveBytes < size / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Add a barcode as the newest entry and evict the oldest entries over maxItems
+     */
+    private void addToIndex(String barcode, Entry entry) {
+        index.put(barcode, entry);
+        liveBytes += entry.length;
+        Iterator<Entry> it = index.values().iterator();
+        while (index.size() > maxItems) {
+            liveBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove a barcode from the index
+     *
+     * @return true if it was indexed
+     */
+    private boolean unindex(String barcode) {
+        Entry entry = index.remove(barcode);
+        if (entry != null) {
+            liveBytes -= entry.length;
+            return true;
+        }
+        return false;
+    }
+
+    private void dropExpired() {
+        Iterator<Entry> it = index.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (isExpired(entry)) {
+                liveBytes -= entry.length;
+                it.remove();
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlMs > 0 && clock.getAsLong() - entry.writtenAt >= ttlMs;
+    }
+
+    /**
+     * Append a record to the end of the log
+     *
+     * @param payload record payload
+     * @return offset of the record
+     */
+    private long append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        long offset = log.length();
+        ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_HEADER_BYTES + payload.length);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+        log.seek(offset);
+        log.write(record.toByteArray());
+        return offset;
+    }
+
+    /**
+     * Read the payload of the record at an offset
+     *
+     * @return payload, null if its checksum does not match
+     */
+    private byte[] readPayload(long offset, int length) throws IOException {
+        log.seek(offset + 4);
+        int expected = log.readInt();
+        byte[] payload = new byte[length];
+        log.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == expected ? payload : null;
+    }
+
+    /**
+     * Serialize an item into a record payload
+     */
+    static byte[] encode(byte type, long writtenAt, Item item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeLong(writtenAt);
+        out.writeUTF(item.getName());
+        if (type == PUT) {
+            List<String> systems = item.getSystemList();
+            out.writeInt(systems.size());
+            for (String system : systems) {
+                Map<String, String> props = item.getSystemData(system);
+                out.writeUTF(system);
+                out.writeInt(props == null ? 0 : props.size());
+                if (props != null) {
+                    for (Map.Entry<String, String> prop : props.entrySet()) {
+                        out.writeUTF(prop.getKey());
+                        out.writeBoolean(prop.getValue() != null);
+                        if (prop.getValue() != null) {
+                            out.writeUTF(prop.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserialize a PUT record payload into an item
+     */
+    static Item decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readByte() != PUT) {
+            throw new IOException("not a PUT record");
+        }
+        in.readLong();
+        Item item = new Item(in.readUTF());
+        int systems = in.readInt();
+        for (int i = 0; i < systems; i++) {
+            String system = in.readUTF();
+            SystemRecord record = new SystemRecord();
+            int props = in.readInt();
+            for (int p = 0; p < props; p++) {
+                String label = in.readUTF();
+                record.put(label, in.readBoolean() ? in.readUTF() : null);
+            }
+            item.addSystem(system, record);
+        }
+        return item;
+    }
+
+    /**
+     * Location and write time of a record in the log
+     */
+    private static class Entry {
+        private final long offset;
+        private final int length;
+        private final long writtenAt;
+
+        Entry(long offset, int length, long writtenAt) {
+            this.offset = offset;
+            this.length = length;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
@@ -17,7 +17,20 @@ import java.util.Collections;
 public class ItemTouchHelperCallback extends ItemTouchHelper.Callback {
     private static final String TAG = "app_" + ItemTouchHelperCallback.class.getSimpleName();
 
+    /**
+     * Notified when the user dismisses an item
+     */
+    public interface OnDismissListener {
+        /**
+         * Called after the item is removed from the adapter
+         *
+         * @param item dismissed item
+         */
+        void onDismiss(Item item);
+    }
+
     private ItemRecyclerViewAdapter adapter;
+    private OnDismissListener dismissListener;
 
     /**
      * Construct an instance without an adapter Note that the adapter must be set afterward
@@ -43,6 +56,15 @@ public class ItemTouchHelperCallback extends ItemTouchHelper.Callback {
         adapter = recyclerViewAdapter;
     }
 
+    /**
+     * Set the listener notified when an item is swiped out
+     *
+     * @param listener listener, null for none
+     */
+    public void setOnDismissListener(OnDismissListener listener) {
+        dismissListener = listener;
+    }
+
     /**
      * Should return a composite flag which defines the enabled move directions in each state
      * (idle, swiping, dragging).
@@ -169,5 +191,8 @@ public class ItemTouchHelperCallback extends ItemTouchHelper.Callback {
         adapter.notifyItemRemoved(index);
         adapter.notifyItemRangeChanged(index, adapter.getItemCount());
         Log.i(TAG, "removing recycelerView item");
+        if (dismissListener != null) {
+            dismissListener.onDismiss(item);
+        }
     }
 }
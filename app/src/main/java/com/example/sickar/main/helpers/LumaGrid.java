@@ -0,0 +1,140 @@
+package com.example.sickar.main.helpers;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Coarse grid of mean luminance values sampled from the Y plane of a camera frame. Two grids are
+ * compared to tell if the scene has changed since a frame was decoded, at a cost of a few
+ * thousand byte reads per frame. A grid can be sampled again and copied into, so the camera
+ * thread does not allocate one per frame.
+ */
+public class LumaGrid {
+    /**
+     * Distance in pixels between samples within a cell
+     */
+    private static final int SAMPLE_STEP = 8;
+
+    private final int cols;
+    private final int rows;
+    private final int[] means;
+    private final int[] counts;
+
+    /**
+     * Construct an empty grid
+     *
+     * @param cols number of grid columns
+     * @param rows number of grid rows
+     */
+    public LumaGrid(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        this.means = new int[cols * rows];
+        this.counts = new int[cols * rows];
+    }
+
+    /**
+     * Sample a Y plane into a grid of cells
+     *
+     * @param plane       Y plane buffer, its position is not changed
+     * @param width       frame width in pixels
+     * @param height      frame height in pixels
+     * @param rowStride   bytes between the starts of two rows
+     * @param pixelStride bytes between two pixels of a row
+     * @param cols        number of grid columns
+     * @param rows        number of grid rows
+     * @return grid of mean luminance per cell
+     */
+    public static LumaGrid fromPlane(ByteBuffer plane, int width, int height, int rowStride,
+                                     int pixelStride, int cols, int rows) {
+        LumaGrid grid = new LumaGrid(cols, rows);
+        grid.sample(plane, width, height, rowStride, pixelStride);
+        return grid;
+    }
+
+    /**
+     * Sample a Y plane into this grid, replacing its values
+     *
+     * @param plane       Y plane buffer, its position is not changed
+     * @param width       frame width in pixels
+     * @param height      frame height in pixels
+     * @param rowStride   bytes between the starts of two rows
+     * @param pixelStride bytes between two pixels of a row
+     */
+    public void sample(ByteBuffer plane, int width, int height, int rowStride, int pixelStride) {
+        int[] sums = means;
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        int base = plane.position();
+        for (int y = SAMPLE_STEP / 2; y < height; y += SAMPLE_STEP) {
+            int row = y * rows / height;
+            int rowStart = base + y * rowStride;
+            for (int x = SAMPLE_STEP / 2; x < width; x += SAMPLE_STEP) {
+                int cell = row * cols + x * cols / width;
+                sums[cell] += plane.get(rowStart + x * pixelStride) & 0xff;
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = counts[i] == 0 ? 0 : sums[i] / counts[i];
+        }
+    }
+
+    /**
+     * Copy the values of another grid of the same size into this grid
+     *
+     * @param other grid to copy
+     */
+    public void copyFrom(LumaGrid other) {
+        if (other.cols != cols || other.rows != rows) {
+            throw new IllegalArgumentException("grid size differs");
+        }
+        System.arraycopy(other.means, 0, means, 0, means.length);
+    }
+
+    /**
+     * @return new grid with the values of this grid
+     */
+    public LumaGrid copy() {
+        LumaGrid grid = new LumaGrid(cols, rows);
+        grid.copyFrom(this);
+        return grid;
+    }
+
+    /**
+     * @param other grid
+     * @return true if the other grid has the same number of columns and rows
+     */
+    public boolean sameSize(LumaGrid other) {
+        return other.cols == cols && other.rows == rows;
+    }
+
+    /**
+     * Fraction of cells whose mean luminance differs from another grid by more than a threshold
+     *
+     * @param other     grid of the same size
+     * @param threshold luminance difference, 0-255
+     * @return fraction of changed cells, 1 if the grids have different sizes
+     */
+    public float changedFraction(LumaGrid other, int threshold) {
+        if (!sameSize(other)) {
+            return 1;
+        }
+        int changed = 0;
+        for (int i = 0; i < means.length; i++) {
+            if (Math.abs(means[i] - other.means[i]) > threshold) {
+                changed++;
+            }
+        }
+        return (float) changed / means.length;
+    }
+
+    /**
+     * @param col column
+     * @param row row
+     * @return mean luminance of a cell
+     */
+    int mean(int col, int row) {
+        return means[row * cols + col];
+    }
+}
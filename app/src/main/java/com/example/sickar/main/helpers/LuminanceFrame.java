@@ -0,0 +1,305 @@
+package com.example.sickar.main.helpers;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Camera frame handed to a BarcodeDecoder. Holds the luminance of the frame as an NV21 buffer
+ * whose chroma is neutral grey, so it can be passed to decoders that need a full NV21 image as
+ * well as to decoders that only read the Y plane.
+ *
+ * Coordinates reported by decoders are in the upright image, which is the buffer rotated
+ * clockwise by getRotationDegrees(). A frame can hold a region of interest cropped out of the
+ * camera image, toUpright() then maps back to the upright image of the whole camera image so
+ * callers never see crop coordinates.
+ */
+public class LuminanceFrame {
+    private byte[] nv21;
+    private int width;
+    private int height;
+    private int rotationDegrees;
+
+    /**
+     * Size of the camera image and position of the crop in it, in buffer coordinates
+     */
+    private int fullWidth;
+    private int fullHeight;
+    private int cropLeft;
+    private int cropTop;
+
+    /**
+     * Scratch rectangle for the crop, reused by copyFrom
+     */
+    private final int[] crop = new int[4];
+
+    /**
+     * Construct a frame around an NV21 buffer
+     *
+     * @param nv21            NV21 buffer of at least width * height * 3 / 2 bytes
+     * @param width           width of the buffer in pixels
+     * @param height          height of the buffer in pixels
+     * @param rotationDegrees clockwise rotation that makes the buffer upright, 0, 90, 180 or 270
+     */
+    public LuminanceFrame(byte[] nv21, int width, int height, int rotationDegrees) {
+        if (nv21.length < width * height * 3 / 2) {
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height);
+        }
+        this.nv21 = nv21;
+        set(width, height, rotationDegrees, width, height, 0, 0);
+    }
+
+    /**
+     * Construct an empty frame to be filled by copyFrom
+     */
+    LuminanceFrame() {
+        nv21 = new byte[0];
+    }
+
+    private void set(int width, int height, int rotationDegrees, int fullWidth, int fullHeight,
+                     int cropLeft, int cropTop) {
+        if (rotationDegrees % 90 != 0) {
+            throw new IllegalArgumentException("rotation must be a multiple of 90");
+        }
+        this.width = width;
+        this.height = height;
+        this.rotationDegrees = ((rotationDegrees % 360) + 360) % 360;
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+        this.cropLeft = cropLeft;
+        this.cropTop = cropTop;
+    }
+
+    /**
+     * Copy the Y plane of a camera image into a new frame
+     *
+     * @param plane           Y plane buffer, its position is not changed
+     * @param width           frame width in pixels
+     * @param height          frame height in pixels
+     * @param rowStride       bytes between the starts of two rows
+     * @param pixelStride     bytes between two pixels of a row
+     * @param rotationDegrees clockwise rotation that makes the frame upright
+     * @return frame
+     */
+    public static LuminanceFrame fromYPlane(ByteBuffer plane, int width, int height, int rowStride,
+                                            int pixelStride, int rotationDegrees) {
+        return fromYPlane(plane, width, height, rowStride, pixelStride, rotationDegrees, null);
+    }
+
+    /**
+     * Copy a region of interest of the Y plane of a camera image into a new frame. Only the
+     * region is copied and decoded.
+     *
+     * @param plane           Y plane buffer, its position is not changed
+     * @param width           frame width in pixels
+     * @param height          frame height in pixels
+     * @param rowStride       bytes between the starts of two rows
+     * @param pixelStride     bytes between two pixels of a row
+     * @param rotationDegrees clockwise rotation that makes the frame upright
+     * @param roi             region {left, top, right, bottom} in the upright image, null for the
+     *                        whole frame
+     * @return frame
+     */
+    public static LuminanceFrame fromYPlane(ByteBuffer plane, int width, int height, int rowStride,
+                                            int pixelStride, int rotationDegrees, int[] roi) {
+        LuminanceFrame frame = new LuminanceFrame();
+        frame.copyFrom(plane, width, height, rowStride, pixelStride, rotationDegrees, roi);
+        return frame;
+    }
+
+    /**
+     * Copy a region of interest of the Y plane of a camera image into this frame, replacing its
+     * contents. The buffer of the frame is reused when it is large enough, so pooled frames do
+     * not allocate once they have grown to the frame size.
+     *
+     * @param plane           Y plane buffer, its position is not changed
+     * @param width           frame width in pixels
+     * @param height          frame height in pixels
+     * @param rowStride       bytes between the starts of two rows
+     * @param pixelStride     bytes between two pixels of a row
+     * @param rotationDegrees clockwise rotation that makes the frame upright
+     * @param roi             region {left, top, right, bottom} in the upright image, null for the
+     *                        whole frame
+     */
+    public void copyFrom(ByteBuffer plane, int width, int height, int rowStride,
+                         int pixelStride, int rotationDegrees, int[] roi) {
+        int rotation = ((rotationDegrees % 360) + 360) % 360;
+        if (roi == null) {
+            crop[0] = 0;
+            crop[1] = 0;
+            crop[2] = width;
+            crop[3] = height;
+        } else {
+            toBufferRect(roi, width, height, rotation, crop);
+        }
+        int cropWidth = crop[2] - crop[0];
+        int cropHeight = crop[3] - crop[1];
+        int area = cropWidth * cropHeight;
+        if (nv21.length < area * 3 / 2) {
+            nv21 = new byte[area * 3 / 2];
+        }
+        Arrays.fill(nv21, area, area * 3 / 2, (byte) 128);
+        copyYPlane(plane, crop[1] * rowStride + crop[0] * pixelStride, cropWidth, cropHeight,
+                rowStride, pixelStride, nv21);
+        set(cropWidth, cropHeight, rotation, width, height, crop[0], crop[1]);
+    }
+
+    /**
+     * Map a rectangle of the upright image to the buffer, clamped to the buffer and aligned to
+     * even coordinates so the crop stays a valid NV21 image
+     *
+     * @param rect receives {left, top, right, bottom} in the buffer, right and bottom exclusive
+     */
+    static void toBufferRect(int[] roi, int width, int height, int rotationDegrees, int[] rect) {
+        int left = roi[0];
+        int top = roi[1];
+        int right = roi[2];
+        int bottom = roi[3];
+        switch (rotationDegrees) {
+            case 90:
+                rect[0] = top;
+                rect[1] = height - right;
+                rect[2] = bottom;
+                rect[3] = height - left;
+                break;
+            case 180:
+                rect[0] = width - right;
+                rect[1] = height - bottom;
+                rect[2] = width - left;
+                rect[3] = height - top;
+                break;
+            case 270:
+                rect[0] = width - bottom;
+                rect[1] = left;
+                rect[2] = width - top;
+                rect[3] = right;
+                break;
+            default:
+                rect[0] = left;
+                rect[1] = top;
+                rect[2] = right;
+                rect[3] = bottom;
+        }
+        rect[0] = Math.max(0, Math.min(width - 2, rect[0])) & ~1;
+        rect[1] = Math.max(0, Math.min(height - 2, rect[1])) & ~1;
+        rect[2] = Math.max(rect[0] + 2, Math.min(width, (rect[2] + 1) & ~1));
+        rect[3] = Math.max(rect[1] + 2, Math.min(height, (rect[3] + 1) & ~1));
+    }
+
+    /**
+     * Copy a Y plane into the start of an NV21 buffer. The position of the plane is restored
+     * afterwards.
+     *
+     * @param offset index in the plane of the first pixel to copy
+     */
+    static void copyYPlane(ByteBuffer plane, int offset, int width, int height, int rowStride,
+                           int pixelStride, byte[] nv21) {
+        int position = plane.position();
+        int base = position + offset;
+        try {
+            if (pixelStride == 1 && rowStride == width) {
+                plane.position(base);
+                plane.get(nv21, 0, width * height);
+                return;
+            }
+            for (int y = 0; y < height; y++) {
+                int rowStart = base + y * rowStride;
+                if (pixelStride == 1) {
+                    plane.position(rowStart);
+                    plane.get(nv21, y * width, width);
+                } else {
+                    for (int x = 0; x < width; x++) {
+                        nv21[y * width + x] = plane.get(rowStart + x * pixelStride);
+                    }
+                }
+            }
+        } finally {
+            plane.position(position);
+        }
+    }
+
+    /**
+     * @return NV21 buffer, the first width * height bytes are the luminance
+     */
+    public byte[] getNv21() {
+        return nv21;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    /**
+     * @return true if the frame holds only a region of the camera image
+     */
+    public boolean isCropped() {
+        return width != fullWidth || height != fullHeight;
+    }
+
+    /**
+     * @return position {x, y} of the crop in the upright image of the whole camera image, add it
+     * to coordinates in the upright image of the crop
+     */
+    public int[] getUprightOffset() {
+        int[] a = toUpright(0, 0);
+        int[] b = toUpright(width - 1, height - 1);
+        return new int[]{Math.min(a[0], b[0]), Math.min(a[1], b[1])};
+    }
+
+    /**
+     * @return width of the upright image of the whole camera image
+     */
+    public int getFullUprightWidth() {
+        return rotationDegrees % 180 == 0 ? fullWidth : fullHeight;
+    }
+
+    /**
+     * @return height of the upright image of the whole camera image
+     */
+    public int getFullUprightHeight() {
+        return rotationDegrees % 180 == 0 ? fullHeight : fullWidth;
+    }
+
+    /**
+     * @return width of the upright image
+     */
+    public int getUprightWidth() {
+        return rotationDegrees % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return height of the upright image
+     */
+    public int getUprightHeight() {
+        return rotationDegrees % 180 == 0 ? height : width;
+    }
+
+    /**
+     * Map a point of the buffer to the upright image of the whole camera image
+     *
+     * @param x x in the buffer
+     * @param y y in the buffer
+     * @return {x, y} in the upright image
+     */
+    public int[] toUpright(float x, float y) {
+        int ix = Math.round(x) + cropLeft;
+        int iy = Math.round(y) + cropTop;
+        switch (rotationDegrees) {
+            case 90:
+                return new int[]{fullHeight - 1 - iy, ix};
+            case 180:
+                return new int[]{fullWidth - 1 - ix, fullHeight - 1 - iy};
+            case 270:
+                return new int[]{iy, fullWidth - 1 - ix};
+            default:
+                return new int[]{ix, iy};
+        }
+    }
+}
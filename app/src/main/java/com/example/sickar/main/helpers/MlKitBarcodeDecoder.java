@@ -0,0 +1,160 @@
+package com.example.sickar.main.helpers;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.google.firebase.ml.vision.FirebaseVision;
+import com.google.firebase.ml.vision.barcode.FirebaseVisionBarcode;
+import com.google.firebase.ml.vision.barcode.FirebaseVisionBarcodeDetector;
+import com.google.firebase.ml.vision.barcode.FirebaseVisionBarcodeDetectorOptions;
+import com.google.firebase.ml.vision.common.FirebaseVisionImage;
+import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * BarcodeDecoder backed by the Firebase ML Kit barcode detector. Coordinates reported by ML Kit
+ * are already in the upright image of the frame and only need the offset of a cropped frame.
+ */
+public class MlKitBarcodeDecoder implements BarcodeDecoder {
+    private final FirebaseVisionBarcodeDetector detector;
+
+    /**
+     * Construct a decoder
+     *
+     * @param formats names of the formats to look for, for example CODE_128
+     */
+    public MlKitBarcodeDecoder(Collection<String> formats) {
+        int mask = 0;
+        for (String format : formats) {
+            mask |= toMlKitFormat(format);
+        }
+        FirebaseVisionBarcodeDetectorOptions options = new FirebaseVisionBarcodeDetectorOptions
+                .Builder().setBarcodeFormats(mask).build();
+        detector = FirebaseVision.getInstance().getVisionBarcodeDetector(options);
+    }
+
+    @Override
+    public void decode(LuminanceFrame frame, Executor executor, Listener listener) {
+        FirebaseVisionImageMetadata metadata = new FirebaseVisionImageMetadata.Builder()
+                .setFormat(FirebaseVisionImageMetadata.IMAGE_FORMAT_NV21)
+                .setWidth(frame.getWidth())
+                .setHeight(frame.getHeight())
+                .setRotation(frame.getRotationDegrees() / 90)
+                .build();
+        FirebaseVisionImage image = FirebaseVisionImage.fromByteArray(frame.getNv21(), metadata);
+        int[] offset = frame.getUprightOffset();
+        detector.detectInImage(image)
+                .addOnSuccessListener(executor, firebaseVisionBarcodes -> {
+                    List<DecodedBarcode> barcodes = new ArrayList<>(firebaseVisionBarcodes.size());
+                    for (FirebaseVisionBarcode barcode : firebaseVisionBarcodes) {
+                        barcodes.add(toDecodedBarcode(barcode, offset[0], offset[1]));
+                    }
+                    listener.onDecoded(barcodes);
+                })
+                .addOnFailureListener(executor, listener::onError);
+    }
+
+    @Override
+    public void close() {
+        try {
+            detector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static DecodedBarcode toDecodedBarcode(FirebaseVisionBarcode barcode, int dx,
+                                                   int dy) {
+        Rect rect = barcode.getBoundingBox();
+        int[] box = rect == null ? null
+                : new int[]{rect.left + dx, rect.top + dy, rect.right + dx, rect.bottom + dy};
+        Point[] points = barcode.getCornerPoints();
+        int[] corners = null;
+        if (points != null) {
+            corners = new int[points.length * 2];
+            for (int i = 0; i < points.length; i++) {
+                corners[2 * i] = points[i].x + dx;
+                corners[2 * i + 1] = points[i].y + dy;
+            }
+        }
+        return new DecodedBarcode(barcode.getDisplayValue(), toFormatName(barcode.getFormat()),
+                box, corners);
+    }
+
+    /**
+     * Map a format name to the ML Kit format constant
+     */
+    private static int toMlKitFormat(String format) {
+        switch (format) {
+            case "CODE_128":
+                return FirebaseVisionBarcode.FORMAT_CODE_128;
+            case "CODE_39":
+                return FirebaseVisionBarcode.FORMAT_CODE_39;
+            case "CODE_93":
+                return FirebaseVisionBarcode.FORMAT_CODE_93;
+            case "CODABAR":
+                return FirebaseVisionBarcode.FORMAT_CODABAR;
+            case "EAN_13":
+                return FirebaseVisionBarcode.FORMAT_EAN_13;
+            case "EAN_8":
+                return FirebaseVisionBarcode.FORMAT_EAN_8;
+            case "ITF":
+                return FirebaseVisionBarcode.FORMAT_ITF;
+            case "UPC_A":
+                return FirebaseVisionBarcode.FORMAT_UPC_A;
+            case "UPC_E":
+                return FirebaseVisionBarcode.FORMAT_UPC_E;
+            case "QR_CODE":
+                return FirebaseVisionBarcode.FORMAT_QR_CODE;
+            case "PDF_417":
+                return FirebaseVisionBarcode.FORMAT_PDF417;
+            case "AZTEC":
+                return FirebaseVisionBarcode.FORMAT_AZTEC;
+            case "DATA_MATRIX":
+                return FirebaseVisionBarcode.FORMAT_DATA_MATRIX;
+            default:
+                throw new IllegalArgumentException("unsupported barcode format " + format);
+        }
+    }
+
+    /**
+     * Map an ML Kit format constant to the format name
+     */
+    private static String toFormatName(int format) {
+        switch (format) {
+            case FirebaseVisionBarcode.FORMAT_CODE_128:
+                return "CODE_128";
+            case FirebaseVisionBarcode.FORMAT_CODE_39:
+                return "CODE_39";
+            case FirebaseVisionBarcode.FORMAT_CODE_93:
+                return "CODE_93";
+            case FirebaseVisionBarcode.FORMAT_CODABAR:
+                return "CODABAR";
+            case FirebaseVisionBarcode.FORMAT_EAN_13:
+                return "EAN_13";
+            case FirebaseVisionBarcode.FORMAT_EAN_8:
+                return "EAN_8";
+            case FirebaseVisionBarcode.FORMAT_ITF:
+                return "ITF";
+            case FirebaseVisionBarcode.FORMAT_UPC_A:
+                return "UPC_A";
+            case FirebaseVisionBarcode.FORMAT_UPC_E:
+                return "UPC_E";
+            case FirebaseVisionBarcode.FORMAT_QR_CODE:
+                return "QR_CODE";
+            case FirebaseVisionBarcode.FORMAT_PDF417:
+                return "PDF_417";
+            case FirebaseVisionBarcode.FORMAT_AZTEC:
+                return "AZTEC";
+            case FirebaseVisionBarcode.FORMAT_DATA_MATRIX:
+                return "DATA_MATRIX";
+            default:
+                return "UNKNOWN";
+        }
+    }
+}
@@ -8,19 +8,34 @@ import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.JsonObjectRequest;
+import com.android.volley.toolbox.RequestFuture;
 import com.android.volley.toolbox.Volley;
 import com.example.sickar.Constants;
+import com.example.sickar.libs.SingleFlightCache;
 import com.example.sickar.main.DataViewModel;
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Type;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Class to get and send network requests. Currently this is only configured to send requests to
@@ -39,9 +54,57 @@ public class NetworkRequest {
      */
     private static final int MAX_NUM_RETRIES = 2;
 
+    /**
+     * Gson type of a tamper/ response
+     */
+    private static final Type TAMPER_RESPONSE_TYPE =
+            new TypeToken<Map<String, Object>>() {}.getType();
+
     private RequestQueue queue;
     private DataViewModel model;
 
+    /**
+     * Gathers barcode lookups into bulk requests, see Constants.BULK_LOOKUP_WINDOW_MS
+     */
+    private RequestBatcher batcher;
+
+    /**
+     * Share in-flight requests and keep recent responses, one cache per endpoint
+     */
+    private final SingleFlightCache<String, Map<String, Object>> tamperCache =
+            new SingleFlightCache<>(Constants.TAMPER_CACHE_TTL_MS);
+    private final SingleFlightCache<String, Map<String, Map<String, File>>> pictureCache =
+            new SingleFlightCache<>(0);
+    private final SingleFlightCache<String, JSONObject> systemConfigCache =
+            new SingleFlightCache<>(Constants.SYSTEM_CONFIG_CACHE_TTL_MS);
+
+    /**
+     * Pictures of items as files, the results of pictureCache. Shared by all instances since they
+     * use the same directory.
+     */
+    private static PictureDiskCache pictureDiskCache;
+
+    /**
+     * Flushes the batches of the RequestBatchers of all instances. A daemon thread, so it never
+     * keeps the process alive, shared so instances do not each leave a thread behind.
+     */
+    private static final ScheduledExecutorService BATCH_SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, TAG + "-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Looks up and loads the PictureDiskCache, which reads the disk, off the main thread
+     */
+    private static final ExecutorService DISK_EXECUTOR = Executors.newSingleThreadExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, TAG + "-disk");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     /**
      * Construct an instance with context and a ViewModel
      *
@@ -51,6 +114,28 @@ public class NetworkRequest {
     public NetworkRequest(Context context, DataViewModel model) {
         queue = Volley.newRequestQueue(context);
         this.model = model;
+        synchronized (NetworkRequest.class) {
+            if (pictureDiskCache == null) {
+                pictureDiskCache = new PictureDiskCache(
+                        new File(context.getCacheDir(), "pictures"),
+                        Constants.PICTURE_DISK_CACHE_BYTES);
+                DISK_EXECUTOR.execute(pictureDiskCache::load);
+            }
+        }
+        batcher = new RequestBatcher(Constants.BULK_LOOKUP_WINDOW_MS,
+                Constants.BULK_LOOKUP_MAX_BARCODES,
+                BATCH_SCHEDULER,
+                new RequestBatcher.Dispatcher() {
+                    @Override
+                    public void sendBulk(List<String> barcodes) {
+                        sendBulkRequest(barcodes);
+                    }
+
+                    @Override
+                    public void sendSingle(String barcode) {
+                        sendSingleRequest(barcode);
+                    }
+                });
     }
 
     /**
@@ -122,80 +207,307 @@ public class NetworkRequest {
     }
 
     /**
-     * Sends a request to the SICK AR backend services for data
+     * Sends a request to the SICK AR backend services for data. Barcodes requested within
+     * Constants.BULK_LOOKUP_WINDOW_MS of each other are sent as one bulk lookup.
      *
      * @param barcode barcode string
      */
     public void sendRequest(String barcode) {
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(
-                Constants.API_ENDPOINT + "get/" + barcode, null,
-                response -> {
-                    Log.i(TAG, "successfully received " + response.toString());
-                    //                    Log.i(TAG, "network "+Thread.currentThread().toString());
+        if (Constants.BULK_LOOKUP_WINDOW_MS > 0) {
+            batcher.add(barcode);
+        } else {
+            sendSingleRequest(barcode);
+        }
+    }
 
-                    model.putBarcodeItem(barcode, response);
+    /**
+     * Get the batcher used by sendRequest. Exposes how many round trips bulk lookups saved.
+     *
+     * @return RequestBatcher
+     */
+    public RequestBatcher getBatcher() {
+        return batcher;
+    }
 
+    /**
+     * Sends a request to the SICK AR backend services for the data of a single barcode
+     *
+     * @param barcode barcode string
+     */
+    private void sendSingleRequest(String barcode) {
+        // the response is parsed into an Item on the network thread, see ItemRequest
+        ItemRequest itemRequest = new ItemRequest(
+                Constants.API_ENDPOINT + "get/" + barcode, barcode,
+                item -> {
+                    Log.i(TAG, "successfully received " + barcode);
+                    model.putBarcodeItem(barcode, item);
                 }, error -> postError(barcode, error));
-        jsonObjectRequest.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, MAX_NUM_RETRIES,
+        itemRequest.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, MAX_NUM_RETRIES,
                 DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
-        queue.add(jsonObjectRequest);
+        queue.add(itemRequest);
+    }
 
+    /**
+     * Sends one request to the SICK AR backend services for the data of several barcodes. The
+     * results are fanned out to the ViewModel per barcode. If the backend does not know the
+     * bulk endpoint the batch is handed back to the batcher to be sent as single requests.
+     *
+     * @param barcodes barcode strings
+     */
+    private void sendBulkRequest(List<String> barcodes) {
+        BulkItemRequest bulkRequest = new BulkItemRequest(
+                Constants.API_ENDPOINT + "get_bulk", barcodes,
+                items -> {
+                    Log.i(TAG, "successfully received bulk lookup of " + barcodes.size());
+                    for (String barcode : barcodes) {
+                        model.putBarcodeItem(barcode, items.get(barcode));
+                    }
+                }, error -> {
+            if (error.networkResponse != null && isUnsupportedStatus(error.networkResponse.statusCode)) {
+                batcher.onBulkUnsupported(barcodes);
+            } else {
+                for (String barcode : barcodes) {
+                    postError(barcode, error);
+                }
+            }
+        });
+        bulkRequest.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, MAX_NUM_RETRIES,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        queue.add(bulkRequest);
     }
 
     /**
-     * Sends a request to the SICK AR backend service for image data
+     * Fetch one page of the parcels scanned in a time range from the search/execute API. Blocks
+     * until the page has arrived, so this must not be called on the main thread.
      *
-     * @param barcode item to get images for
+     * @param start  start of the time range
+     * @param end    end of the time range
+     * @param offset index of the first result of the page
+     * @param size   maximum number of results on the page
+     * @return parsed page
+     * @throws IOException if the request failed or timed out
      */
-    public CompletableFuture<JSONObject> sendPictureRequest(String barcode) {
-        CompletableFuture<JSONObject> result = new CompletableFuture<>();
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(
-                Constants.API_ENDPOINT + "get_pictures/" + barcode, null,
-                response -> {
-                    Log.i(TAG, "received pictures" + response.toString());
-                    // add received picture data to item
-//                    model.addPicturesToItem(barcode, response);
-                    result.complete(response);
-                }, error -> postError(barcode, error));
-        jsonObjectRequest.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, MAX_NUM_RETRIES,
+    public SearchPage fetchSearchPage(Instant start, Instant end, int offset, int size)
+            throws IOException {
+        RequestFuture<SearchPage> future = RequestFuture.newFuture();
+        SearchPageRequest request = new SearchPageRequest(Constants.SEARCH_ENDPOINT
+                + "search/execute?offset=" + offset + "&size=" + size + "&locale=en-US",
+                createSearchJson(start, end).toString(), future, future);
+        request.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, MAX_NUM_RETRIES,
                 DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
-        queue.add(jsonObjectRequest);
+        future.setRequest(request);
+        queue.add(request);
+        try {
+            return future.get(INITIAL_TIMEOUT_MS * (MAX_NUM_RETRIES + 1) * 2,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            request.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted fetching search page");
+        } catch (ExecutionException | TimeoutException e) {
+            request.cancel();
+            throw new IOException("could not fetch search page at " + offset, e);
+        }
+    }
+
+    /**
+     * Creates the search/execute request json for every parcel scanned in a time range by the
+     * systems of Constants.PREFETCH_SYSTEM_GROUP_ID
+     *
+     * @param start start of the time range
+     * @param end   end of the time range
+     * @return JSONObject containing the request json
+     */
+    private static JSONObject createSearchJson(Instant start, Instant end) {
+        try {
+            JSONObject values = new JSONObject();
+            values.put("systemName", JSONObject.NULL);
+            values.put("systemGroupId", Constants.PREFETCH_SYSTEM_GROUP_ID == null ?
+                    JSONObject.NULL : Constants.PREFETCH_SYSTEM_GROUP_ID);
+            values.put("startDate", DateTimeFormatter.ISO_INSTANT.format(start));
+            values.put("endDate", DateTimeFormatter.ISO_INSTANT.format(end));
+            values.put("searchPattern", "*");
+            JSONObject requestBody = new JSONObject();
+            requestBody.put("type", "byBarcode");
+            requestBody.put("values", values);
+            requestBody.put("conditions", new JSONObject());
+            return requestBody;
+        } catch (JSONException e) {
+            // only thrown for non-finite numbers, which are never put
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the pictures of an item from the PictureDiskCache, or send a request to the SICK AR
+     * backend service for them. Callers asking for the same barcode while a request is in flight
+     * share it. The disk cache is looked up on a background thread.
+     *
+     * @param barcode item to get images for
+     * @return Future that completes with the picture files of each system by device
+     */
+    public CompletableFuture<Map<String, Map<String, File>>> sendPictureRequest(String barcode) {
+        return CompletableFuture.supplyAsync(() -> pictureDiskCache.get(barcode), DISK_EXECUTOR)
+                .thenCompose(cached -> cached != null ? CompletableFuture.completedFuture(cached)
+                        : pictureCache.get(barcode, this::requestPictures));
+    }
+
+    /**
+     * Fetches the pictures of a barcode into the disk cache at low priority without reporting
+     * errors to the user, used by PicturePrefetcher. Unlike sendPictureRequest it is not shared
+     * with other callers, so cancelling the future cancels the request. The disk cache is looked
+     * up on a background thread.
+     *
+     * @param barcode barcode
+     * @return future of the bytes of the response, 0 if the pictures were already cached
+     */
+    public CompletableFuture<Long> prefetchPictures(String barcode) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> pictureDiskCache.get(barcode) != null, DISK_EXECUTOR)
+                .whenComplete((cached, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else if (cached) {
+                        result.complete(0L);
+                    } else if (!result.isDone()) {
+                        requestPrefetch(barcode, result);
+                    }
+                });
         return result;
     }
 
     /**
-     * Sends a request to the SICK AR backend service for tamper detection
+     * Send the low priority picture request of prefetchPictures
+     *
+     * @param barcode barcode
+     * @param result  future completed with the bytes of the response, cancelling it cancels the
+     *                request
+     */
+    private void requestPrefetch(String barcode, CompletableFuture<Long> result) {
+        PictureRequest[] request = new PictureRequest[1];
+        request[0] = new PictureRequest(
+                Constants.API_ENDPOINT + "get_pictures/" + barcode, barcode, pictureDiskCache,
+                files -> result.complete(request[0].getResponseBytes()),
+                result::completeExceptionally);
+        request[0].setPriority(Request.Priority.LOW);
+        request[0].setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, 0,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        result.whenComplete((bytes, error) -> {
+            if (result.isCancelled()) {
+                request[0].cancel();
+            }
+        });
+        queue.add(request[0]);
+    }
+
+    /**
+     * Get the disk cache of the pictures. Exposes its size, hit, miss and eviction counters.
+     *
+     * @return PictureDiskCache
+     */
+    public PictureDiskCache getPictureDiskCache() {
+        return pictureDiskCache;
+    }
+
+    /**
+     * Sends a request to the SICK AR backend service for tamper detection. Callers asking for the
+     * same barcode while a request is in flight share it, and the response is kept for
+     * Constants.TAMPER_CACHE_TTL_MS.
      *
      * @param barcode barcode
      * @return Future that can be blocked for the result with .get
      */
-    public CompletableFuture<Map> sendTamperRequest(String barcode) {
-        CompletableFuture<Map> result = new CompletableFuture<>();
+    public CompletableFuture<Map<String, Object>> sendTamperRequest(String barcode) {
+        return tamperCache.get(barcode, this::requestTamper);
+    }
+
+    /**
+     * Sends a request to the SICK AR backend service for the system configuration. The response
+     * is kept for Constants.SYSTEM_CONFIG_CACHE_TTL_MS.
+     *
+     * @return Future that completes with the system configuration json
+     */
+    public CompletableFuture<JSONObject> sendSystemConfigRequest() {
+        return systemConfigCache.get("", key -> requestSystemConfig());
+    }
+
+    /**
+     * Get the single-flight caches of the tamper, picture and system config endpoints. Exposes
+     * their hit, miss and join counters.
+     *
+     * @return caches mapped by endpoint
+     */
+    public Map<String, SingleFlightCache<String, ?>> getRequestCaches() {
+        Map<String, SingleFlightCache<String, ?>> caches = new HashMap<>();
+        caches.put("tamper", tamperCache);
+        caches.put("get_pictures", pictureCache);
+        caches.put("get_system_config", systemConfigCache);
+        return caches;
+    }
+
+    private CompletableFuture<Map<String, Map<String, File>>> requestPictures(String barcode) {
+        CompletableFuture<Map<String, Map<String, File>>> result = new CompletableFuture<>();
+        // the pictures are written to the disk cache on the network thread, see PictureRequest
+        PictureRequest pictureRequest = new PictureRequest(
+                Constants.API_ENDPOINT + "get_pictures/" + barcode, barcode, pictureDiskCache,
+                files -> {
+                    Log.i(TAG, "received pictures of " + files.size() + " systems for "
+                            + barcode);
+                    result.complete(files);
+                }, error -> {
+            postError(barcode, error);
+            result.completeExceptionally(error);
+        });
+        pictureRequest.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, MAX_NUM_RETRIES,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        queue.add(pictureRequest);
+        return result;
+    }
+
+    private CompletableFuture<Map<String, Object>> requestTamper(String barcode) {
+        CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
         JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(
                 Constants.API_ENDPOINT + "tamper/" + barcode, null,
                 response -> {
                     Log.i(TAG, "received tamper data" + response.toString());
-                    Map respMap = new Gson().fromJson(response.toString(), HashMap.class);
+                    Map<String, Object> respMap = new Gson().fromJson(response.toString(),
+                            TAMPER_RESPONSE_TYPE);
                     result.complete(respMap);
-                }, error -> postError(barcode, error));
+                }, error -> {
+            postError(barcode, error);
+            result.completeExceptionally(error);
+        });
         jsonObjectRequest.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT_MS, MAX_NUM_RETRIES,
                 DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
         queue.add(jsonObjectRequest);
         return result;
     }
 
-    public CompletableFuture<JSONObject> sendSystemConfigRequest() {
+    private CompletableFuture<JSONObject> requestSystemConfig() {
         CompletableFuture<JSONObject> result = new CompletableFuture<>();
         JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(
                 Constants.API_ENDPOINT + "get_system_config", null,
                 response -> {
                     Log.i(TAG, "received system config" + response.toString());
                     result.complete(response);
-                }, error -> model.putError("on fetching system config: " + error.toString()));
+                }, error -> {
+            model.putError("on fetching system config: " + error.toString());
+            result.completeExceptionally(error);
+        });
         queue.add(jsonObjectRequest);
         return result;
     }
 
+    /**
+     * Check if a HTTP status code means the backend does not have an endpoint
+     *
+     * @param statusCode HTTP status code
+     * @return true for 404 Not Found, 405 Method Not Allowed and 501 Not Implemented
+     */
+    private static boolean isUnsupportedStatus(int statusCode) {
+        return statusCode == 404 || statusCode == 405 || statusCode == 501;
+    }
+
     /**
      * Post a network error to the ViewModel
      *
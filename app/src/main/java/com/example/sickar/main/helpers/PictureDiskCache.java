@@ -0,0 +1,370 @@
+package com.example.sickar.main.helpers;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Disk cache of the pictures of items, one file per picture at dir/barcode/systemId/deviceId.
+ * Pictures are written by PictureResponseParser straight from the get_pictures/ response, so they
+ * are stored as raw image bytes and are decoded from their files.
+ *
+ * The pictures of a barcode are written to a temporary directory and renamed into place, so an
+ * interrupted write never leaves a barcode with only some of its pictures. Once the files take
+ * more than maxBytes, whole barcodes are evicted, least recently used first. The barcode written
+ * last is never evicted so the files it returns exist at least until the next put.
+ *
+ * The index is read from the directory by load() or on first use, ordered by the modification
+ * time of each barcode directory, which is updated whenever a barcode is read. Only one instance
+ * may use a directory. Every method may block on the disk, so none must be called on the main
+ * thread. Directories to delete are renamed away under the lock and deleted after it is released.
+ */
+public class PictureDiskCache {
+    private static final String TAG = "app_" + PictureDiskCache.class.getSimpleName();
+
+    /**
+     * Prefix of temporary directories, '~' is always encoded in file names so a barcode cannot
+     * produce it
+     */
+    private static final String TEMP_PREFIX = "~tmp-";
+
+    private final File dir;
+    private final long maxBytes;
+    private final AtomicInteger tempCount = new AtomicInteger();
+
+    /**
+     * Barcodes in access order, least recently used first
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded;
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Construct a cache, the directory is read by load() or on first use
+     *
+     * @param dir      directory of the cache
+     * @param maxBytes size of the pictures above which barcodes are evicted
+     */
+    public PictureDiskCache(File dir, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("max bytes must not be negative: " + maxBytes);
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the picture files of a barcode
+     *
+     * @param barcode barcode
+     * @return read-only files of each system by device, null if the barcode is not cached
+     */
+    public Map<String, Map<String, File>> get(String barcode) {
+        load();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(barcode);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        // fails harmlessly if the barcode was evicted in the meantime
+        //noinspection ResultOfMethodCallIgnored
+        entry.dir.setLastModified(System.currentTimeMillis());
+        return entry.files;
+    }
+
+    /**
+     * Write the pictures of a get_pictures/ response, replacing those cached for the barcode.
+     * Blocks on disk writes, so this must not be called on the main thread.
+     *
+     * @param barcode  barcode
+     * @param response response body encoded in UTF-8
+     * @return read-only files of each system by device
+     * @throws IOException if the response is malformed or the files could not be written
+     */
+    public Map<String, Map<String, File>> put(String barcode, InputStream response)
+            throws IOException {
+        // the first load deletes temporary directories
+        load();
+        File temp = new File(dir, TEMP_PREFIX + tempCount.incrementAndGet() + "-"
+                + System.nanoTime());
+        try {
+            if (!temp.mkdirs()) {
+                throw new IOException("could not create " + temp);
+            }
+            PictureResponseParser.parse(response, (systemId, deviceId) -> {
+                File systemDir = new File(temp, encode(systemId));
+                if (!systemDir.isDirectory() && !systemDir.mkdir()) {
+                    throw new IOException("could not create " + systemDir);
+                }
+                return new BufferedOutputStream(
+                        new FileOutputStream(new File(systemDir, encode(deviceId))));
+            });
+            File target = new File(dir, encode(barcode));
+            Entry entry = index(temp, target);
+            List<File> garbage = new ArrayList<>();
+            try {
+                synchronized (this) {
+                    Entry old = entries.remove(barcode);
+                    if (old != null) {
+                        totalBytes -= old.bytes;
+                    }
+                    if (target.exists()) {
+                        garbage.add(moveAway(target));
+                    }
+                    if (!temp.renameTo(target)) {
+                        throw new IOException("could not move pictures to " + target);
+                    }
+                    entries.put(barcode, entry);
+                    totalBytes += entry.bytes;
+                    evict(barcode, garbage);
+                }
+            } finally {
+                deleteAll(garbage);
+            }
+            return entry.files;
+        } finally {
+            // nothing is left after the rename
+            deleteRecursively(temp);
+        }
+    }
+
+    /**
+     * Read the index from the directory unless it was read already. Called at startup on a
+     * background thread so the first get does not wait for it.
+     */
+    public void load() {
+        List<File> garbage = new ArrayList<>();
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            readIndex(garbage);
+        }
+        deleteAll(garbage);
+    }
+
+    /**
+     * @return number of cached barcodes
+     */
+    public int size() {
+        load();
+        synchronized (this) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return bytes of the cached pictures
+     */
+    public long getTotalBytes() {
+        load();
+        synchronized (this) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * @return number of calls to get that found the barcode
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of calls to get that did not find the barcode
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return number of barcodes evicted
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Index the barcode directories
+     *
+     * @param garbage receives the files to delete once the lock is released
+     */
+    private void readIndex(List<File> garbage) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "could not create " + dir);
+            return;
+        }
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        List<File> barcodeDirs = new ArrayList<>();
+        for (File child : children) {
+            if (child.getName().startsWith(TEMP_PREFIX) || !child.isDirectory()) {
+                // left over from an interrupted put
+                garbage.add(child);
+            } else {
+                barcodeDirs.add(child);
+            }
+        }
+        Collections.sort(barcodeDirs, (a, b) -> Long.compare(a.lastModified(),
+                b.lastModified()));
+        for (File barcodeDir : barcodeDirs) {
+            Entry entry = index(barcodeDir, barcodeDir);
+            entries.put(decode(barcodeDir.getName()), entry);
+            totalBytes += entry.bytes;
+        }
+        evict(null, garbage);
+    }
+
+    /**
+     * Evict least recently used barcodes until the pictures fit in maxBytes
+     *
+     * @param keep    barcode that is not evicted, may be null
+     * @param garbage receives the directories of the evicted barcodes
+     */
+    private void evict(String keep, List<File> garbage) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> oldest = iterator.next();
+            if (oldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= oldest.getValue().bytes;
+            File evicted = oldest.getValue().dir;
+            garbage.add(evicted.exists() ? moveAway(evicted) : evicted);
+            evictions++;
+        }
+    }
+
+    /**
+     * Rename a barcode directory to a temporary name, so it can be deleted outside the lock
+     * without racing a put of the same barcode. Falls back to the directory itself if it cannot
+     * be renamed.
+     */
+    private File moveAway(File barcodeDir) {
+        File temp = new File(dir, TEMP_PREFIX + tempCount.incrementAndGet() + "-"
+                + System.nanoTime());
+        return barcodeDir.renameTo(temp) ? temp : barcodeDir;
+    }
+
+    /**
+     * Read the files of a barcode directory
+     *
+     * @param barcodeDir directory to read
+     * @param targetDir  directory the files are returned in, where barcodeDir is moved to
+     */
+    private static Entry index(File barcodeDir, File targetDir) {
+        Map<String, Map<String, File>> files = new LinkedHashMap<>();
+        long bytes = 0;
+        for (File systemDir : sortedChildren(barcodeDir)) {
+            File targetSystemDir = new File(targetDir, systemDir.getName());
+            Map<String, File> devices = new LinkedHashMap<>();
+            for (File picture : sortedChildren(systemDir)) {
+                devices.put(decode(picture.getName()),
+                        new File(targetSystemDir, picture.getName()));
+                bytes += picture.length();
+            }
+            files.put(decode(systemDir.getName()), Collections.unmodifiableMap(devices));
+        }
+        return new Entry(targetDir, Collections.unmodifiableMap(files), bytes);
+    }
+
+    private static File[] sortedChildren(File parent) {
+        File[] children = parent.listFiles();
+        if (children == null) {
+            return new File[0];
+        }
+        Arrays.sort(children);
+        return children;
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File file : files) {
+            deleteRecursively(file);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * @return name as a file name, '.' is encoded as well so "." and ".." are not produced
+     */
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8").replace(".", "%2E");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String fileName) {
+        try {
+            return URLDecoder.decode(fileName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return cached barcodes, size, hits, misses and evictions
+     */
+    @Override
+    public synchronized String toString() {
+        return "barcodes=" + entries.size()
+                + " kB=" + totalBytes / 1024 + "/" + maxBytes / 1024
+                + " hits=" + hits
+                + " misses=" + misses
+                + " evictions=" + evictions;
+    }
+
+    /**
+     * Picture files of one barcode
+     */
+    private static class Entry {
+        private final File dir;
+        private final Map<String, Map<String, File>> files;
+        private final long bytes;
+
+        Entry(File dir, Map<String, Map<String, File>> files, long bytes) {
+            this.dir = dir;
+            this.files = files;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.sickar.main.helpers;
+
+import android.util.Log;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Fetches the pictures of newly scanned items into the PictureDiskCache in the background, so
+ * opening ImageActivity for a recent scan does not wait for the network.
+ *
+ * Barcodes are fetched one at a time, most recently enqueued first. Once the queue is full the
+ * oldest barcode is dropped, since the operator is least likely to open its pictures. The bytes
+ * fetched count against a budget that is refilled every budget window. Once it is spent the queue
+ * waits and is resumed by the next enqueue after the window has passed.
+ */
+public class PicturePrefetcher {
+    private static final String TAG = "app_" + PicturePrefetcher.class.getSimpleName();
+
+    /**
+     * Fetches the pictures of one barcode
+     */
+    public interface Fetcher {
+        /**
+         * Start fetching the pictures of a barcode
+         *
+         * @param barcode barcode
+         * @return future completed with the bytes transferred, 0 if nothing was transferred.
+         * Cancelling it cancels the fetch.
+         */
+        CompletableFuture<Long> fetch(String barcode);
+    }
+
+    private final Fetcher fetcher;
+    private final int maxQueued;
+    private final long budgetBytes;
+    private final Duration budgetWindow;
+    private final Supplier<Instant> clock;
+
+    /**
+     * Barcodes waiting to be fetched, most recent last
+     */
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    private String inFlightBarcode;
+    private CompletableFuture<Long> inFlight;
+
+    private Instant windowStart;
+    private long bytesInWindow;
+
+    private long bytesFetched;
+    private int fetched;
+    private int failed;
+    private int cancelled;
+    private int dropped;
+    private int budgetWaits;
+
+    /**
+     * Construct a prefetcher
+     *
+     * @param fetcher      fetches the pictures
+     * @param maxQueued    number of barcodes waiting at most
+     * @param budgetBytes  bytes to fetch at most per budget window
+     * @param budgetWindow time after which the budget is refilled
+     * @param clock        current time
+     */
+    public PicturePrefetcher(Fetcher fetcher, int maxQueued, long budgetBytes,
+                             Duration budgetWindow, Supplier<Instant> clock) {
+        if (maxQueued <= 0) {
+            throw new IllegalArgumentException("maxQueued must be positive: " + maxQueued);
+        }
+        this.fetcher = fetcher;
+        this.maxQueued = maxQueued;
+        this.budgetBytes = budgetBytes;
+        this.budgetWindow = budgetWindow;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue the pictures of a barcode for prefetching. Does nothing if the barcode is already
+     * queued or being fetched.
+     *
+     * @param barcode barcode
+     */
+    public synchronized void enqueue(String barcode) {
+        if (barcode.equals(inFlightBarcode) || queue.contains(barcode)) {
+            return;
+        }
+        if (queue.size() == maxQueued) {
+            queue.pollFirst();
+            dropped++;
+        }
+        queue.addLast(barcode);
+        next();
+    }
+
+    /**
+     * Stop prefetching the pictures of a barcode, for example because its item was dismissed.
+     * A fetch in progress is cancelled.
+     *
+     * @param barcode barcode
+     * @return true if the barcode was queued or being fetched
+     */
+    public synchronized boolean cancel(String barcode) {
+        if (barcode.equals(inFlightBarcode)) {
+            CompletableFuture<Long> future = inFlight;
+            inFlight = null;
+            inFlightBarcode = null;
+            cancelled++;
+            future.cancel(true);
+            next();
+            return true;
+        }
+        if (queue.remove(barcode)) {
+            cancelled++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cancel the fetch in progress and drop every queued barcode
+     */
+    public synchronized void stop() {
+        queue.clear();
+        if (inFlight != null) {
+            CompletableFuture<Long> future = inFlight;
+            inFlight = null;
+            inFlightBarcode = null;
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Start the next fetch unless one is in progress or the budget is spent
+     */
+    private void next() {
+        while (inFlight == null && !queue.isEmpty()) {
+            Instant now = clock.get();
+            if (windowStart == null || !now.isBefore(windowStart.plus(budgetWindow))) {
+                windowStart = now;
+                bytesInWindow = 0;
+            }
+            if (bytesInWindow >= budgetBytes) {
+                budgetWaits++;
+                Log.i(TAG, "picture prefetch budget of " + budgetBytes + " bytes reached");
+                return;
+            }
+            String barcode = queue.pollLast();
+            CompletableFuture<Long> future = fetcher.fetch(barcode);
+            inFlight = future;
+            inFlightBarcode = barcode;
+            // runs right away if the future is already complete
+            future.whenComplete((bytes, error) -> onFetched(future, bytes, error));
+        }
+    }
+
+    private synchronized void onFetched(CompletableFuture<Long> future, Long bytes,
+                                        Throwable error) {
+        if (future != inFlight) {
+            // cancelled or stopped
+            return;
+        }
+        if (error != null) {
+            failed++;
+            Log.i(TAG, "picture prefetch of " + inFlightBarcode + " failed " + error.toString());
+        } else {
+            fetched++;
+            bytesFetched += bytes;
+            bytesInWindow += bytes;
+        }
+        inFlight = null;
+        inFlightBarcode = null;
+        next();
+    }
+
+    /**
+     * @return number of barcodes waiting to be fetched
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return barcode being fetched, null if none
+     */
+    public synchronized String getInFlight() {
+        return inFlightBarcode;
+    }
+
+    /**
+     * @return bytes fetched so far
+     */
+    public synchronized long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    /**
+     * @return number of barcodes fetched so far
+     */
+    public synchronized int getFetchedCount() {
+        return fetched;
+    }
+
+    /**
+     * @return number of barcodes cancelled so far
+     */
+    public synchronized int getCancelledCount() {
+        return cancelled;
+    }
+
+    /**
+     * @return fetches, failures, cancellations, drops, budget waits and bytes
+     */
+    @Override
+    public synchronized String toString() {
+        return "fetched=" + fetched
+                + " failed=" + failed
+                + " cancelled=" + cancelled
+                + " dropped=" + dropped
+                + " budgetWaits=" + budgetWaits
+                + " queued=" + queue.size()
+                + " kB=" + bytesFetched / 1024;
+    }
+}
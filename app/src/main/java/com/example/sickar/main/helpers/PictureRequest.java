@@ -0,0 +1,96 @@
+package com.example.sickar.main.helpers;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Volley request for the get_pictures/ endpoint of the SICK AR backend. The pictures in the
+ * response bytes are Base64-decoded into the PictureDiskCache on the Volley network thread, so no
+ * String or JSONObject of the response is built and the main thread only receives the files.
+ */
+public class PictureRequest extends Request<Map<String, Map<String, File>>> {
+    private final String barcode;
+    private final PictureDiskCache diskCache;
+    private final Response.Listener<Map<String, Map<String, File>>> listener;
+    private Priority priority = Priority.NORMAL;
+    private volatile long responseBytes;
+
+    /**
+     * Construct a GET request for the pictures of a barcode
+     *
+     * @param url           request url
+     * @param barcode       barcode the response belongs to
+     * @param diskCache     cache the pictures are written to
+     * @param listener      called with the picture files of each system by device
+     * @param errorListener called on network, parse or disk errors
+     */
+    public PictureRequest(String url, String barcode, PictureDiskCache diskCache,
+                          Response.Listener<Map<String, Map<String, File>>> listener,
+                          Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        this.barcode = barcode;
+        this.diskCache = diskCache;
+        this.listener = listener;
+        // the pictures are kept in the disk cache, not as a response in the Volley cache
+        setShouldCache(false);
+    }
+
+    /**
+     * Set the priority of the request in the Volley queue, prefetches use Priority.LOW so they
+     * wait behind requests the user is waiting for
+     *
+     * @param priority priority
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return bytes of the response body, 0 until it has arrived
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Write the pictures of the raw response to the disk cache. Called on a worker thread.
+     *
+     * @param response raw network response
+     * @return picture files
+     */
+    @Override
+    protected Response<Map<String, Map<String, File>>> parseNetworkResponse(
+            NetworkResponse response) {
+        responseBytes = response.data.length;
+        try {
+            return Response.success(diskCache.put(barcode,
+                    new ByteArrayInputStream(response.data)),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * Deliver the picture files to the listener. Called on the main thread.
+     *
+     * @param response picture files
+     */
+    @Override
+    protected void deliverResponse(Map<String, Map<String, File>> response) {
+        listener.onResponse(response);
+    }
+}
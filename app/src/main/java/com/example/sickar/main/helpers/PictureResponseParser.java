@@ -0,0 +1,315 @@
+package com.example.sickar.main.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Streaming parser for the get_pictures/ response of the SICK AR backend:
+ * {"results": {systemId: {deviceId: "data:image/jpeg;base64,...", ...}, ...}}
+ *
+ * Each picture is Base64-decoded while it is read and written to the OutputStream the Sink opens
+ * for it, so neither the response nor a picture is ever held as a String. Only the structure of
+ * the response is tokenized, other members are skipped and pictures that are null are left out.
+ */
+final class PictureResponseParser {
+    /**
+     * Receives the pictures of a response
+     */
+    interface Sink {
+        /**
+         * Open the stream a picture is written to, it is closed by the parser
+         *
+         * @param systemId system
+         * @param deviceId camera device of the system
+         * @return stream for the decoded picture
+         * @throws IOException if the stream could not be opened
+         */
+        OutputStream open(String systemId, String deviceId) throws IOException;
+    }
+
+    private static final byte[] DATA_URI = "data:".getBytes(StandardCharsets.US_ASCII);
+
+    private final PushbackInputStream in;
+    private final Sink sink;
+
+    private PictureResponseParser(InputStream in, Sink sink) {
+        this.in = new PushbackInputStream(in, 1);
+        this.sink = sink;
+    }
+
+    /**
+     * Parse a response and write its pictures to a sink
+     *
+     * @param in   response body encoded in UTF-8
+     * @param sink Sink
+     * @throws IOException if the response is malformed or a picture could not be written
+     */
+    static void parse(InputStream in, Sink sink) throws IOException {
+        new PictureResponseParser(in, sink).parseResponse();
+    }
+
+    private void parseResponse() throws IOException {
+        if (beginObject()) {
+            do {
+                if (nextName().equals("results") && peekToken() == '{') {
+                    parseResults();
+                } else {
+                    skipValue();
+                }
+            } while (hasNextMember('}'));
+        }
+    }
+
+    private void parseResults() throws IOException {
+        if (beginObject()) {
+            do {
+                String systemId = nextName();
+                if (peekToken() == '{') {
+                    parseSystem(systemId);
+                } else {
+                    skipValue();
+                }
+            } while (hasNextMember('}'));
+        }
+    }
+
+    private void parseSystem(String systemId) throws IOException {
+        if (beginObject()) {
+            do {
+                String deviceId = nextName();
+                if (peekToken() == '"') {
+                    read();
+                    writePicture(systemId, deviceId);
+                } else {
+                    skipValue();
+                }
+            } while (hasNextMember('}'));
+        }
+    }
+
+    /**
+     * Decode the picture string the reader is in, after its opening quote
+     */
+    private void writePicture(String systemId, String deviceId) throws IOException {
+        StringStream string = new StringStream();
+        // skip the "data:image/...;base64," prefix of a data URI
+        byte[] head = new byte[DATA_URI.length];
+        int n = 0;
+        int b;
+        while (n < head.length && (b = string.read()) >= 0) {
+            head[n++] = (byte) b;
+        }
+        InputStream base64;
+        if (n == head.length && Arrays.equals(head, DATA_URI)) {
+            while ((b = string.read()) >= 0 && b != ',') {
+                // media type and encoding
+            }
+            base64 = string;
+        } else {
+            base64 = new SequenceInputStream(new ByteArrayInputStream(head, 0, n), string);
+        }
+        try (OutputStream out = sink.open(systemId, deviceId);
+             InputStream decoded = Base64.getMimeDecoder().wrap(base64)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = decoded.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+        }
+        // the decoder may stop at the padding before the closing quote
+        while (string.read() >= 0) {
+            // rest of the string
+        }
+    }
+
+    private boolean beginObject() throws IOException {
+        expect('{');
+        if (peekToken() == '}') {
+            read();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean hasNextMember(char close) throws IOException {
+        int c = nextToken();
+        if (c == ',') {
+            return true;
+        }
+        if (c != close) {
+            throw new IOException("expected ',' or '" + close + "' but was '" + (char) c + "'");
+        }
+        return false;
+    }
+
+    private String nextName() throws IOException {
+        expect('"');
+        ByteArrayOutputStream name = new ByteArrayOutputStream();
+        int b;
+        while ((b = read()) != '"') {
+            if (b == '\\') {
+                int c = unescape(read());
+                name.write(String.valueOf((char) c).getBytes(StandardCharsets.UTF_8));
+            } else {
+                name.write(b);
+            }
+        }
+        expect(':');
+        return new String(name.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void skipValue() throws IOException {
+        int c = nextToken();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                int b = read();
+                if (b == '"') {
+                    skipString();
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            // number, true, false or null
+            int b;
+            while ((b = in.read()) >= 0 && b != ',' && b != '}' && b != ']'
+                    && !isWhitespace(b)) {
+                // rest of the literal
+            }
+            if (b >= 0) {
+                in.unread(b);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        int b;
+        while ((b = read()) != '"') {
+            if (b == '\\') {
+                read();
+            }
+        }
+    }
+
+    /**
+     * @return character of the escape sequence after a backslash
+     */
+    private int unescape(int escape) throws IOException {
+        switch (escape) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int c = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw new IOException("malformed unicode escape");
+                    }
+                    c = c * 16 + digit;
+                }
+                return c;
+            default:
+                // '"', '\\' and '/'
+                return escape;
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextToken();
+        if (c != expected) {
+            throw new IOException("expected '" + expected + "' but was '" + (char) c + "'");
+        }
+    }
+
+    private int peekToken() throws IOException {
+        int c = nextToken();
+        in.unread(c);
+        return c;
+    }
+
+    private int nextToken() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private int read() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("response ended early");
+        }
+        return b;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * Bytes of the JSON string the reader is in with escapes resolved, ends at its closing quote.
+     * Escaped characters outside of ASCII are not Base64 and read as a space, which the decoder
+     * skips.
+     */
+    private class StringStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int b = PictureResponseParser.this.read();
+            if (b == '"') {
+                ended = true;
+                return -1;
+            }
+            if (b == '\\') {
+                int c = unescape(PictureResponseParser.this.read());
+                return c < 0x80 ? c : ' ';
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = 0;
+            while (count < length) {
+                int b = read();
+                if (b < 0) {
+                    return count == 0 ? -1 : count;
+                }
+                buffer[offset + count++] = (byte) b;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            // the response stream stays open
+        }
+    }
+}
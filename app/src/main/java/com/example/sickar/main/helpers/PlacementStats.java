@@ -0,0 +1,77 @@
+package com.example.sickar.main.helpers;
+
+/**
+ * Measures how long AR cards take to show up: the time from the start of the AR session to the
+ * first card, and the latency of each card from its placement until its renderables are set.
+ */
+public class PlacementStats {
+    private long sessionStartMs = -1;
+    private long firstCardMs = -1;
+
+    private long cards;
+    private long totalMs;
+    private long maxMs;
+    private long lastMs;
+
+    /**
+     * Report the start of an AR session
+     *
+     * @param nowMs current time in milliseconds
+     */
+    public synchronized void onSessionStart(long nowMs) {
+        sessionStartMs = nowMs;
+        firstCardMs = -1;
+    }
+
+    /**
+     * Report a card whose renderables were set
+     *
+     * @param placedMs time the card was placed in milliseconds
+     * @param readyMs  time its renderables were set in milliseconds
+     */
+    public synchronized void onCardReady(long placedMs, long readyMs) {
+        if (firstCardMs < 0 && sessionStartMs >= 0) {
+            firstCardMs = readyMs - sessionStartMs;
+        }
+        lastMs = readyMs - placedMs;
+        cards++;
+        totalMs += lastMs;
+        maxMs = Math.max(maxMs, lastMs);
+    }
+
+    /**
+     * @return milliseconds from the start of the session to the first card, -1 before it
+     */
+    public synchronized long getTimeToFirstCardMs() {
+        return firstCardMs;
+    }
+
+    /**
+     * @return mean milliseconds from placing a card until it is ready, 0 before the first card
+     */
+    public synchronized float getMeanLatencyMs() {
+        return cards == 0 ? 0 : (float) totalMs / cards;
+    }
+
+    /**
+     * @return largest milliseconds from placing a card until it is ready
+     */
+    public synchronized long getMaxLatencyMs() {
+        return maxMs;
+    }
+
+    /**
+     * @return number of cards
+     */
+    public synchronized long getCards() {
+        return cards;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "firstCardMs=" + firstCardMs + " cards=" + cards
+                + " lastMs=" + lastMs
+                + " meanMs=" + Math.round(getMeanLatencyMs())
+                + " maxMs=" + maxMs;
+    }
+}
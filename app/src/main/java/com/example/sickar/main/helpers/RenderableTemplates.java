@@ -0,0 +1,166 @@
+package com.example.sickar.main.helpers;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.sickar.R;
+import com.google.ar.sceneform.math.Vector3;
+import com.google.ar.sceneform.rendering.Color;
+import com.google.ar.sceneform.rendering.MaterialFactory;
+import com.google.ar.sceneform.rendering.ModelRenderable;
+import com.google.ar.sceneform.rendering.ShapeFactory;
+import com.google.ar.sceneform.rendering.ViewRenderable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the renderables of the AR cards loaded so placing a card does not wait for them.
+ *
+ * The handle model is loaded once and every card gets a makeCopy() of it. A copy of a
+ * ViewRenderable shares the View of the original, so each card still needs its own card and tamper
+ * views. Those are built ahead of time into a small pool, and whenever one is taken a new one is
+ * built in the background. Call warmUp() when the AR session starts.
+ *
+ * The low detail marker of far cards is a small sphere shared by all of them.
+ *
+ * Used on the main thread only.
+ */
+public class RenderableTemplates {
+    private static final String TAG = "app_" + RenderableTemplates.class.getSimpleName();
+
+    /**
+     * Model of the handle below each card
+     */
+    private static final String MODEL_SOURCE = "1240 Neptune.sfb";
+
+    /**
+     * Radius in meters of the low detail marker
+     */
+    private static final float MARKER_RADIUS = 0.03f;
+
+    private final Context context;
+    private final int poolSize;
+
+    private CompletableFuture<ModelRenderable> model;
+    private CompletableFuture<ModelRenderable> marker;
+    private final Pool cards = new Pool(R.layout.ar_item);
+    private final Pool tampers = new Pool(R.layout.ar_tamper);
+
+    /**
+     * Construct the templates, nothing is loaded until warmUp() or the first take
+     *
+     * @param context  Context
+     * @param poolSize number of card and tamper views kept built ahead
+     */
+    public RenderableTemplates(Context context, int poolSize) {
+        this.context = context;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Start loading the model and building the pooled views
+     */
+    public void warmUp() {
+        model();
+        marker();
+        cards.fill();
+        tampers.fill();
+    }
+
+    /**
+     * @return copy of the handle model
+     */
+    public CompletableFuture<ModelRenderable> takeModel() {
+        return model().thenApply(ModelRenderable::makeCopy);
+    }
+
+    /**
+     * @return card view renderable for one card, inflated from R.layout.ar_item
+     */
+    public CompletableFuture<ViewRenderable> takeCard() {
+        return cards.take();
+    }
+
+    /**
+     * @return tamper view renderable for one card, inflated from R.layout.ar_tamper
+     */
+    public CompletableFuture<ViewRenderable> takeTamper() {
+        return tampers.take();
+    }
+
+    /**
+     * @return low detail marker, the same renderable for every card
+     */
+    public CompletableFuture<ModelRenderable> takeMarker() {
+        return marker();
+    }
+
+    private CompletableFuture<ModelRenderable> marker() {
+        if (marker == null || marker.isCompletedExceptionally()) {
+            marker = MaterialFactory.makeOpaqueWithColor(context,
+                    new Color(android.graphics.Color.WHITE))
+                    .thenApply(material -> {
+                        ModelRenderable sphere = ShapeFactory.makeSphere(MARKER_RADIUS,
+                                new Vector3(0.0f, MARKER_RADIUS, 0.0f), material);
+                        sphere.setShadowCaster(false);
+                        return sphere;
+                    });
+        }
+        return marker;
+    }
+
+    private CompletableFuture<ModelRenderable> model() {
+        if (model == null || model.isCompletedExceptionally()) {
+            long start = System.nanoTime();
+            model = ModelRenderable.builder()
+                    .setSource(context, Uri.parse(MODEL_SOURCE))
+                    .build();
+            model.thenAccept(renderable -> Log.i(TAG, "model loaded in "
+                    + (System.nanoTime() - start) / 1000000 + " ms"));
+        }
+        return model;
+    }
+
+    /**
+     * View renderables of one layout built ahead of time
+     */
+    private class Pool {
+        private final int layout;
+        private final ArrayDeque<ViewRenderable> ready = new ArrayDeque<>();
+        private int building;
+
+        Pool(int layout) {
+            this.layout = layout;
+        }
+
+        CompletableFuture<ViewRenderable> take() {
+            ViewRenderable renderable = ready.poll();
+            CompletableFuture<ViewRenderable> result = renderable != null
+                    ? CompletableFuture.completedFuture(renderable) : build();
+            fill();
+            return result;
+        }
+
+        void fill() {
+            // bounded so a build that fails right away is not retried in a loop
+            for (int i = ready.size() + building; i < poolSize; i++) {
+                building++;
+                build().handle((renderable, throwable) -> {
+                    building--;
+                    if (renderable != null) {
+                        ready.add(renderable);
+                    } else {
+                        Log.e(TAG, "unable to build view renderable", throwable);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        private CompletableFuture<ViewRenderable> build() {
+            return ViewRenderable.builder().setView(context, layout).build();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.sickar.main.helpers;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gathers barcode lookups over a short window so they can be sent to the backend as one bulk
+ * request instead of one request per barcode. A batch is flushed once the window has passed
+ * since its first barcode or once it reaches the maximum batch size.
+ *
+ * If the backend reports that it does not support bulk lookups, the batcher falls back to single
+ * lookups for the pending batch and every barcode after it.
+ */
+public class RequestBatcher {
+    private static final String TAG = "app_" + RequestBatcher.class.getSimpleName();
+
+    /**
+     * Sends the requests that the batcher decides on
+     */
+    public interface Dispatcher {
+        /**
+         * Send one lookup for several barcodes
+         *
+         * @param barcodes barcodes in the batch
+         */
+        void sendBulk(List<String> barcodes);
+
+        /**
+         * Send a lookup for a single barcode
+         *
+         * @param barcode barcode
+         */
+        void sendSingle(String barcode);
+    }
+
+    private final long windowMs;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final Dispatcher dispatcher;
+
+    /**
+     * Barcodes waiting for the current window to close, in the order they were added
+     */
+    private Set<String> pending;
+
+    /**
+     * Cleared once the backend reports that bulk lookups are not supported
+     */
+    private volatile boolean bulkSupported;
+
+    private final AtomicLong barcodesRequested = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    /**
+     * Construct a batcher
+     *
+     * @param windowMs     time in milliseconds to gather barcodes before sending a batch
+     * @param maxBatchSize maximum number of barcodes in one batch
+     * @param scheduler    executor that flushes the batches and calls the dispatcher
+     * @param dispatcher   sends the requests
+     */
+    public RequestBatcher(long windowMs, int maxBatchSize, ScheduledExecutorService scheduler,
+                          Dispatcher dispatcher) {
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+        pending = new LinkedHashSet<>();
+        bulkSupported = true;
+    }
+
+    /**
+     * Add a barcode to the current batch. Starts a new window if there is no batch pending.
+     *
+     * @param barcode barcode
+     */
+    public void add(String barcode) {
+        if (!bulkSupported) {
+            barcodesRequested.incrementAndGet();
+            roundTrips.incrementAndGet();
+            scheduler.execute(() -> dispatcher.sendSingle(barcode));
+            return;
+        }
+        synchronized (this) {
+            if (!pending.add(barcode)) {
+                return;
+            }
+            barcodesRequested.incrementAndGet();
+            if (pending.size() >= maxBatchSize) {
+                List<String> batch = takePending();
+                scheduler.execute(() -> send(batch));
+            } else if (pending.size() == 1) {
+                scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Send the pending batch now
+     */
+    public void flush() {
+        List<String> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        send(batch);
+    }
+
+    /**
+     * Remove the pending barcodes so that the next add() starts a new batch. Must be called while
+     * holding the lock.
+     *
+     * @return barcodes of the pending batch
+     */
+    private List<String> takePending() {
+        List<String> batch = new ArrayList<>(pending);
+        pending = new LinkedHashSet<>();
+        return batch;
+    }
+
+    /**
+     * Send a batch as one bulk lookup, or as single lookups if bulk lookups are not supported
+     *
+     * @param batch barcodes of the batch
+     */
+    private void send(List<String> batch) {
+        if (batch.size() == 1 || !bulkSupported) {
+            for (String barcode : batch) {
+                roundTrips.incrementAndGet();
+                dispatcher.sendSingle(barcode);
+            }
+        } else {
+            roundTrips.incrementAndGet();
+            dispatcher.sendBulk(batch);
+        }
+    }
+
+    /**
+     * Called by the dispatcher when the backend rejected a bulk lookup because it does not
+     * support it. The batch is resent as single lookups and batching is turned off.
+     *
+     * @param batch barcodes of the rejected bulk lookup
+     */
+    public void onBulkUnsupported(List<String> batch) {
+        if (bulkSupported) {
+            Log.i(TAG, "backend does not support bulk lookups, falling back to single lookups");
+        }
+        bulkSupported = false;
+        for (String barcode : batch) {
+            roundTrips.incrementAndGet();
+            scheduler.execute(() -> dispatcher.sendSingle(barcode));
+        }
+        // anything added while the bulk lookup was in flight
+        scheduler.execute(this::flush);
+    }
+
+    /**
+     * @return false once the backend reported that bulk lookups are not supported
+     */
+    public boolean isBulkSupported() {
+        return bulkSupported;
+    }
+
+    /**
+     * @return number of barcodes passed to add(), repeats within one batch are not counted
+     */
+    public long getBarcodesRequested() {
+        return barcodesRequested.get();
+    }
+
+    /**
+     * @return number of requests sent to the backend
+     */
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * @return number of requests saved compared to one request per barcode
+     */
+    public long getRoundTripsSaved() {
+        return barcodesRequested.get() - roundTrips.get();
+    }
+}
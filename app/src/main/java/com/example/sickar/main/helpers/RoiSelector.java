@@ -0,0 +1,184 @@
+package com.example.sickar.main.helpers;
+
+import java.util.List;
+
+/**
+ * Chooses the region of interest of a camera frame that is handed to the barcode decoder. Pixels
+ * outside of it are neither copied nor decoded. Regions are in the upright image of the frame,
+ * the same coordinates the decoders report.
+ *
+ * Modes
+ * - full: the whole frame
+ * - reticle: a window in the center of the frame, around the reticle of the GraphicOverlay
+ * - band: a horizontal band across the whole width of the frame
+ * - tracked: the boxes of the barcodes found in the last decoded frame grown by a margin. The
+ * whole frame is decoded while nothing is tracked and every fullFrameInterval frames so new
+ * barcodes are still found.
+ */
+public class RoiSelector {
+    public static final String MODE_FULL = "full";
+    public static final String MODE_RETICLE = "reticle";
+    public static final String MODE_BAND = "band";
+    public static final String MODE_TRACKED = "tracked";
+
+    private final String mode;
+    private final float windowFraction;
+    private final float bandTop;
+    private final float bandBottom;
+    private final float margin;
+    private final int fullFrameInterval;
+
+    /**
+     * Union of the last decoded boxes {left, top, right, bottom}, null if there are none
+     */
+    private int[] tracked;
+    private int framesSinceFull;
+
+    private long frames;
+    private long croppedFrames;
+    private double areaFractionSum;
+
+    /**
+     * Construct a selector
+     *
+     * @param mode              one of the MODE_ constants
+     * @param windowFraction    width and height of the reticle window as a fraction of the frame
+     * @param bandTop           top of the band as a fraction of the frame height
+     * @param bandBottom        bottom of the band as a fraction of the frame height
+     * @param margin            margin added around tracked boxes as a fraction of their larger
+     *                          side
+     * @param fullFrameInterval decode the whole frame at least every this many frames in tracked
+     *                          mode
+     */
+    public RoiSelector(String mode, float windowFraction, float bandTop, float bandBottom,
+                       float margin, int fullFrameInterval) {
+        this.mode = mode;
+        this.windowFraction = windowFraction;
+        this.bandTop = bandTop;
+        this.bandBottom = bandBottom;
+        this.margin = margin;
+        this.fullFrameInterval = fullFrameInterval;
+    }
+
+    /**
+     * Choose the region of the next frame
+     *
+     * @param width  width of the upright frame
+     * @param height height of the upright frame
+     * @return region {left, top, right, bottom}, null for the whole frame
+     */
+    public int[] select(int width, int height) {
+        int[] roi = new int[4];
+        return select(width, height, roi) ? roi : null;
+    }
+
+    /**
+     * Choose the region of the next frame without allocating
+     *
+     * @param width  width of the upright frame
+     * @param height height of the upright frame
+     * @param roi    receives the region {left, top, right, bottom}
+     * @return true if roi was set, false for the whole frame
+     */
+    public synchronized boolean select(int width, int height, int[] roi) {
+        frames++;
+        boolean cropped;
+        switch (mode) {
+            case MODE_RETICLE:
+                int windowWidth = Math.round(width * windowFraction);
+                int windowHeight = Math.round(height * windowFraction);
+                roi[0] = (width - windowWidth) / 2;
+                roi[1] = (height - windowHeight) / 2;
+                roi[2] = roi[0] + windowWidth;
+                roi[3] = roi[1] + windowHeight;
+                cropped = true;
+                break;
+            case MODE_BAND:
+                roi[0] = 0;
+                roi[1] = Math.round(height * bandTop);
+                roi[2] = width;
+                roi[3] = Math.round(height * bandBottom);
+                cropped = true;
+                break;
+            case MODE_TRACKED:
+                cropped = trackedRegion(width, height, roi);
+                break;
+            default:
+                cropped = false;
+        }
+        if (cropped) {
+            croppedFrames++;
+            areaFractionSum += (double) (roi[2] - roi[0]) * (roi[3] - roi[1]) / width / height;
+        }
+        return cropped;
+    }
+
+    private boolean trackedRegion(int width, int height, int[] roi) {
+        framesSinceFull++;
+        if (tracked == null || framesSinceFull >= fullFrameInterval) {
+            framesSinceFull = 0;
+            return false;
+        }
+        int grow = Math.round(Math.max(tracked[2] - tracked[0], tracked[3] - tracked[1]) * margin);
+        roi[0] = Math.max(0, tracked[0] - grow);
+        roi[1] = Math.max(0, tracked[1] - grow);
+        roi[2] = Math.min(width, tracked[2] + grow);
+        roi[3] = Math.min(height, tracked[3] + grow);
+        if (roi[0] >= roi[2] || roi[1] >= roi[3]) {
+            framesSinceFull = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Report the boxes of the barcodes found in the last decoded frame
+     *
+     * @param boxes boxes {left, top, right, bottom} in the upright image
+     */
+    public synchronized void onDecoded(List<int[]> boxes) {
+        int[] union = null;
+        for (int[] box : boxes) {
+            if (box == null) continue;
+            if (union == null) {
+                union = box.clone();
+            } else {
+                union[0] = Math.min(union[0], box[0]);
+                union[1] = Math.min(union[1], box[1]);
+                union[2] = Math.max(union[2], box[2]);
+                union[3] = Math.max(union[3], box[3]);
+            }
+        }
+        tracked = union;
+    }
+
+    /**
+     * Forget the tracked boxes
+     */
+    public synchronized void reset() {
+        tracked = null;
+        framesSinceFull = 0;
+    }
+
+    /**
+     * @return number of frames whose region was chosen
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of frames that were cropped
+     */
+    public synchronized long getCroppedFrames() {
+        return croppedFrames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        double meanArea = croppedFrames == 0 ? 1
+                : (areaFractionSum + (frames - croppedFrames)) / frames;
+        return "mode=" + mode + " frames=" + frames + " cropped=" + croppedFrames
+                + " meanArea=" + Math.round(meanArea * 100) + "%";
+    }
+}
@@ -0,0 +1,390 @@
+package com.example.sickar.main.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides what to do with each detected barcode, off the main thread. Every barcode moves
+ * through the states
+ * - UNKNOWN: never seen, or its data was evicted. Detecting it issues a request.
+ * - REQUESTED: a request for its data is pending.
+ * - CACHED: its data is cached but it is not in the list of scanned items, because it was
+ * prefetched or swiped away. Detecting it lists it.
+ * - LISTED: it is in the list. Detecting it asks the main thread to place its AR card.
+ * - ANCHORED: its AR card is placed, detections only move its box.
+ *
+ * The states are checked against the Host on each detection, so a failed request, an evicted
+ * item or a removed card moves a barcode back to an earlier state.
+ *
+ * All decisions run on the executor passed in. The results of a frame, if there are any, are
+ * collected into a RenderBatch which the main thread takes with takeRenderBatch() once the Host is told that a
+ * batch is ready. If the main thread has not taken the previous batch yet the new one is merged
+ * into it, so a busy main thread gets one update instead of a queue of them. Nothing in here
+ * needs Android, the Host connects it to the app.
+ */
+public class ScanStateMachine {
+    public enum State {UNKNOWN, REQUESTED, CACHED, LISTED, ANCHORED}
+
+    /**
+     * Connects the state machine to the item data and the main thread. Called on the executor
+     * except for onRenderReady.
+     */
+    public interface Host {
+        /**
+         * @param barcode barcode
+         * @return true if the data of the item is cached
+         */
+        boolean isCached(String barcode);
+
+        /**
+         * @param barcode barcode
+         * @return true if a request for the item is pending
+         */
+        boolean isRequestPending(String barcode);
+
+        /**
+         * Issue a request for the data of an item
+         *
+         * @param barcode barcode
+         */
+        void fetch(String barcode);
+
+        /**
+         * @param barcode barcode
+         * @return true if the item is already in the list of scanned items
+         */
+        boolean isListed(String barcode);
+
+        /**
+         * Mark an item as listed, the main thread adds it to the list with the next RenderBatch
+         *
+         * @param barcode barcode
+         */
+        void markListed(String barcode);
+
+        /**
+         * @param barcode barcode
+         * @return true if the AR card of the item is placed
+         */
+        boolean isAnchored(String barcode);
+
+        /**
+         * Called when a RenderBatch is ready to be taken by the main thread, from the executor
+         */
+        void onRenderReady();
+    }
+
+    /**
+     * Barcode that passed the consensus filter in a frame, coordinates in the upright camera
+     * image
+     */
+    public static class Detection {
+        final String value;
+        final int[] corners;
+
+        /**
+         * Construct a detection
+         *
+         * @param value   barcode
+         * @param corners corner points {x0, y0, ...} clockwise from the top left, null if unknown
+         */
+        public Detection(String value, int[] corners) {
+            this.value = value;
+            this.corners = corners;
+        }
+    }
+
+    /**
+     * Request to place the AR card of an item at a point of the camera image
+     */
+    public static class AnchorRequest {
+        public final String barcode;
+        public final float x;
+        public final float y;
+
+        AnchorRequest(String barcode, float x, float y) {
+            this.barcode = barcode;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * Updates for the main thread, collected from one or more frames
+     */
+    public static class RenderBatch {
+        /**
+         * Barcodes to add to the list of scanned items
+         */
+        public final List<String> listed = new ArrayList<>();
+
+        /**
+         * AR cards to place, report each result with onAnchorResult
+         */
+        public final List<AnchorRequest> anchors = new ArrayList<>();
+
+        /**
+         * A request was issued, or one is pending
+         */
+        public boolean requestIssued;
+        public boolean requestPending;
+
+        /**
+         * Number of frames merged into this batch
+         */
+        public int frames = 1;
+
+        boolean isEmpty() {
+            return listed.isEmpty() && anchors.isEmpty() && !requestIssued && !requestPending;
+        }
+
+        void merge(RenderBatch newer) {
+            listed.addAll(newer.listed);
+            anchors.addAll(newer.anchors);
+            requestIssued |= newer.requestIssued;
+            requestPending |= newer.requestPending;
+            frames += newer.frames;
+        }
+    }
+
+    private final Host host;
+    private final Executor executor;
+    private final long anchorRetryMs;
+    private final LongSupplier clock;
+
+    /**
+     * States of the barcodes, written on the executor
+     */
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private final Set<String> anchorsInFlight = new HashSet<>();
+    private final Map<String, Long> anchorRetryAt = new HashMap<>();
+
+    private final Object batchLock = new Object();
+    private RenderBatch outgoing;
+
+    private long frames;
+    private long batches;
+    private long merged;
+
+    /**
+     * Construct a state machine
+     *
+     * @param host          connects the state machine to the app
+     * @param executor      executor all decisions run on, should run one task at a time
+     * @param anchorRetryMs time after a failed placement before the card is placed again
+     * @param clock         milliseconds clock
+     */
+    public ScanStateMachine(Host host, Executor executor, long anchorRetryMs,
+                            LongSupplier clock) {
+        this.host = host;
+        this.executor = executor;
+        this.anchorRetryMs = anchorRetryMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Process the barcodes of a decoded frame on the executor
+     *
+     * @param detections barcodes confirmed in the frame
+     */
+    public void onFrame(List<Detection> detections) {
+        submit(() -> process(detections));
+    }
+
+    /**
+     * Report whether the main thread placed the AR card of an anchor request
+     *
+     * @param barcode barcode of the request
+     * @param placed  true if the card was placed
+     */
+    public void onAnchorResult(String barcode, boolean placed) {
+        submit(() -> {
+            anchorsInFlight.remove(barcode);
+            if (placed) {
+                states.put(barcode, State.ANCHORED);
+                anchorRetryAt.remove(barcode);
+            } else {
+                anchorRetryAt.put(barcode, clock.getAsLong() + anchorRetryMs);
+            }
+        });
+    }
+
+    /**
+     * Take the pending updates, called on the main thread
+     *
+     * @return batch, null if there is none
+     */
+    public RenderBatch takeRenderBatch() {
+        synchronized (batchLock) {
+            RenderBatch batch = outgoing;
+            outgoing = null;
+            return batch;
+        }
+    }
+
+    /**
+     * @param barcode barcode
+     * @return state of the barcode
+     */
+    public State getState(String barcode) {
+        State state = states.get(barcode);
+        return state == null ? State.UNKNOWN : state;
+    }
+
+    /**
+     * Forget all barcodes, for example when the cache is cleared
+     */
+    public void reset() {
+        submit(() -> {
+            states.clear();
+            anchorsInFlight.clear();
+            anchorRetryAt.clear();
+        });
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the executor was shut down with the activity
+        }
+    }
+
+    private void process(List<Detection> detections) {
+        frames++;
+        RenderBatch batch = new RenderBatch();
+        for (Detection detection : detections) {
+            step(detection, batch);
+        }
+        if (!batch.isEmpty()) {
+            publish(batch);
+        }
+    }
+
+    /**
+     * Advance the state of a detection as far as it goes in this frame
+     */
+    private void step(Detection detection, RenderBatch batch) {
+        String barcode = detection.value;
+        State state = reconcile(barcode, getState(barcode));
+        boolean advanced = true;
+        while (advanced) {
+            advanced = false;
+            switch (state) {
+                case UNKNOWN:
+                    if (host.isCached(barcode)) {
+                        state = cachedState(barcode);
+                        advanced = true;
+                    } else if (host.isRequestPending(barcode)) {
+                        state = State.REQUESTED;
+                        batch.requestPending = true;
+                    } else {
+                        host.fetch(barcode);
+                        state = State.REQUESTED;
+                        batch.requestIssued = true;
+                    }
+                    break;
+                case REQUESTED:
+                    if (host.isCached(barcode)) {
+                        state = cachedState(barcode);
+                        advanced = true;
+                    } else {
+                        batch.requestPending = true;
+                    }
+                    break;
+                case CACHED:
+                    host.markListed(barcode);
+                    batch.listed.add(barcode);
+                    state = State.LISTED;
+                    advanced = true;
+                    break;
+                case LISTED:
+                    requestAnchor(detection, batch);
+                    break;
+                case ANCHORED:
+                    break;
+            }
+        }
+        states.put(barcode, state);
+    }
+
+    /**
+     * Move a barcode back to an earlier state if the Host no longer agrees with it
+     */
+    private State reconcile(String barcode, State state) {
+        switch (state) {
+            case REQUESTED:
+                return host.isCached(barcode) || host.isRequestPending(barcode)
+                        ? state : State.UNKNOWN;
+            case CACHED:
+                return host.isCached(barcode) ? state : State.UNKNOWN;
+            case LISTED:
+                return host.isCached(barcode) ? cachedState(barcode) : State.UNKNOWN;
+            case ANCHORED:
+                if (!host.isCached(barcode)) {
+                    return State.UNKNOWN;
+                }
+                return host.isAnchored(barcode) ? state : cachedState(barcode);
+            default:
+                return state;
+        }
+    }
+
+    /**
+     * State of a cached barcode, items are listed when their data arrives and unlisted when
+     * they are swiped away
+     */
+    private State cachedState(String barcode) {
+        return host.isListed(barcode) ? State.LISTED : State.CACHED;
+    }
+
+    private void requestAnchor(Detection detection, RenderBatch batch) {
+        String barcode = detection.value;
+        int[] corners = detection.corners;
+        if (corners == null || corners.length < 4 || anchorsInFlight.contains(barcode)) {
+            return;
+        }
+        Long retryAt = anchorRetryAt.get(barcode);
+        if (retryAt != null && clock.getAsLong() < retryAt) {
+            return;
+        }
+        // top center of the barcode, the card is placed above it
+        float x = (corners[0] + corners[2]) / 2f;
+        float y = (corners[1] + corners[3]) / 2f;
+        batch.anchors.add(new AnchorRequest(barcode, x, y));
+        anchorsInFlight.add(barcode);
+    }
+
+    private void publish(RenderBatch batch) {
+        boolean notify;
+        synchronized (batchLock) {
+            batches++;
+            notify = outgoing == null;
+            if (notify) {
+                outgoing = batch;
+            } else {
+                merged++;
+                outgoing.merge(batch);
+            }
+        }
+        if (notify) {
+            host.onRenderReady();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (batchLock) {
+            return "frames=" + frames + " batches=" + batches + " merged=" + merged
+                    + " barcodes=" + states.size();
+        }
+    }
+}
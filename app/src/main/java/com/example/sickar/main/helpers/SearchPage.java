@@ -0,0 +1,76 @@
+package com.example.sickar.main.helpers;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One page of a search/execute response. The results of the page are grouped into Items by
+ * barcode, each result becomes one system of the Item.
+ */
+public class SearchPage {
+    private final Map<String, Item> items = new LinkedHashMap<>();
+    private int resultCount;
+    private int total = -1;
+    private Instant newestScanTime;
+
+    /**
+     * @return Items of this page in the order their first result appeared
+     */
+    public Collection<Item> getItems() {
+        return items.values();
+    }
+
+    /**
+     * @return number of results on this page, a result may have several barcodes
+     */
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    /**
+     * @return total number of results of the search, -1 if the response did not contain it
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return newest objectScanTime on this page, null if the page is empty
+     */
+    public Instant getNewestScanTime() {
+        return newestScanTime;
+    }
+
+    void setTotal(int total) {
+        this.total = total;
+    }
+
+    /**
+     * Add the properties of one result to the Item of each of its barcodes. A system already
+     * present in an Item is kept, results are expected newest first.
+     *
+     * @param systemId id of the system that scanned the object
+     * @param barcodes barcodes of the object
+     * @param props    properties from ItemJsonParser.parseSystemResult
+     * @param scanTime objectScanTime of the result, may be null
+     */
+    void addResult(String systemId, Iterable<String> barcodes, SystemRecord props,
+                   Instant scanTime) {
+        resultCount++;
+        if (scanTime != null && (newestScanTime == null || scanTime.isAfter(newestScanTime))) {
+            newestScanTime = scanTime;
+        }
+        for (String barcode : barcodes) {
+            Item item = items.get(barcode);
+            if (item == null) {
+                item = new Item(barcode);
+                items.put(barcode, item);
+            }
+            if (!item.getSystemList().contains(systemId)) {
+                item.addSystem(systemId, props.copy());
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.sickar.main.helpers;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+
+/**
+ * Volley request for one page of the search/execute API. The response is parsed with
+ * ItemJsonParser.parseSearchPage on the Volley network thread.
+ */
+public class SearchPageRequest extends Request<SearchPage> {
+    private final byte[] body;
+    private final Response.Listener<SearchPage> listener;
+
+    /**
+     * Construct a POST request for a page of search results
+     *
+     * @param url           request url including offset and size
+     * @param body          search request json
+     * @param listener      called with the parsed page
+     * @param errorListener called on network or parse errors
+     */
+    public SearchPageRequest(String url, String body, Response.Listener<SearchPage> listener,
+                             Response.ErrorListener errorListener) {
+        super(Method.POST, url, errorListener);
+        this.listener = listener;
+        this.body = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return "application/json; charset=utf-8";
+    }
+
+    @Override
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Parse the raw response into a SearchPage. Called on a worker thread.
+     *
+     * @param response raw network response
+     * @return parsed response
+     */
+    @Override
+    protected Response<SearchPage> parseNetworkResponse(NetworkResponse response) {
+        try {
+            return Response.success(ItemJsonParser.parseSearchPage(response.data),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | IllegalStateException | NumberFormatException |
+                DateTimeException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * Deliver the parsed page to the listener
+     *
+     * @param response parsed page
+     */
+    @Override
+    protected void deliverResponse(SearchPage response) {
+        listener.onResponse(response);
+    }
+}
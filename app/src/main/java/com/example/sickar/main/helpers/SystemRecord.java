@@ -0,0 +1,407 @@
+package com.example.sickar.main.helpers;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Properties of an Item as scanned by one system, kept in parallel primitive arrays instead of a
+ * map of display strings.
+ *
+ * Measurements are stored as a number and a Unit, other properties as text. Labels are interned
+ * so all records share one instance of each label, and so are the system names and labels that
+ * repeat across parcels. The display string of a measurement, "value unitLabel", is produced when
+ * it is read and is the same string the parsers used to store.
+ *
+ * asMap() is an ordered read-only Map view for the code that reads properties as strings.
+ */
+public class SystemRecord {
+    /**
+     * Physical quantity of a Unit, values are only compared within one dimension
+     */
+    public enum Dimension {LENGTH, MASS, SPEED, ANGLE, VOLUME, NONE}
+
+    /**
+     * Units of the backend measurements and their factor to the base unit of their dimension,
+     * mm for lengths and kg for masses
+     */
+    public enum Unit {
+        MM("mm", Dimension.LENGTH, 1),
+        CM("cm", Dimension.LENGTH, 10),
+        M("m", Dimension.LENGTH, 1000),
+        G("g", Dimension.MASS, 0.001),
+        KG("kg", Dimension.MASS, 1),
+        M_PER_S("m/s", Dimension.SPEED, 1),
+        DEG("deg", Dimension.ANGLE, 1),
+        CM3("cm^3", Dimension.VOLUME, 1),
+        NONE("", Dimension.NONE, 1);
+
+        private static final Unit[] VALUES = values();
+
+        private final String label;
+        private final Dimension dimension;
+        private final double factor;
+
+        Unit(String label, Dimension dimension, double factor) {
+            this.label = label;
+            this.dimension = dimension;
+            this.factor = factor;
+        }
+
+        /**
+         * @return unitLabel as sent by the backend
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return Dimension of this unit
+         */
+        public Dimension getDimension() {
+            return dimension;
+        }
+
+        /**
+         * Convert a value to the base unit of the dimension
+         *
+         * @param value value in this unit
+         * @return value in mm, kg or this unit for other dimensions
+         */
+        public double toBase(double value) {
+            return value * factor;
+        }
+
+        /**
+         * @param label unitLabel
+         * @return Unit with this label, null if it is not known
+         */
+        public static Unit fromLabel(String label) {
+            for (Unit unit : VALUES) {
+                if (unit.label.equals(label)) {
+                    return unit;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final byte TEXT = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte FLOAT = 2;
+    /**
+     * A measurement whose display string is not the one produced from its value, such as "3 kg",
+     * the string is kept as well
+     */
+    private static final byte NUMBER_TEXT = 3;
+
+    /**
+     * Number of properties of a system in the get/ response
+     */
+    private static final int INITIAL_CAPACITY = 13;
+
+    private String[] labels;
+    private byte[] kinds;
+    private byte[] units;
+    private double[] numbers;
+    private String[] texts;
+    private int size;
+
+    /**
+     * Construct an empty record
+     */
+    public SystemRecord() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private SystemRecord(int capacity) {
+        labels = new String[capacity];
+        kinds = new byte[capacity];
+        units = new byte[capacity];
+        numbers = new double[capacity];
+        texts = new String[capacity];
+    }
+
+    /**
+     * Set a property from its display string. Strings of the form "value unitLabel" with a known
+     * unit are stored as measurements, others as text. A measurement that would not be displayed
+     * the same way again keeps its display string.
+     *
+     * @param label   property label
+     * @param display display string, may be null
+     */
+    public void put(String label, String display) {
+        int i = slot(label);
+        if (display != null && parse(i, display)) {
+            return;
+        }
+        setText(i, label, display);
+    }
+
+    /**
+     * Set a measurement
+     *
+     * @param label     property label
+     * @param value     value
+     * @param unitLabel unitLabel, a unit that is not known is stored as text
+     */
+    public void putNumber(String label, double value, String unitLabel) {
+        Unit unit = Unit.fromLabel(unitLabel);
+        int i = slot(label);
+        if (unit == null) {
+            setText(i, label, value + " " + unitLabel);
+        } else {
+            setNumber(i, DOUBLE, value, unit);
+        }
+    }
+
+    /**
+     * Set a measurement that is displayed with float precision
+     *
+     * @param label property label
+     * @param value value
+     * @param unit  Unit
+     */
+    public void putFloat(String label, float value, Unit unit) {
+        setNumber(slot(label), FLOAT, value, unit);
+    }
+
+    /**
+     * @param label property label
+     * @return display string of the property, null if it is missing or null
+     */
+    public String get(String label) {
+        int i = indexOf(label);
+        return i < 0 ? null : display(i);
+    }
+
+    /**
+     * @param label property label
+     * @return true if the record has the property, its value may be null
+     */
+    public boolean contains(String label) {
+        return indexOf(label) >= 0;
+    }
+
+    /**
+     * @param label property label
+     * @return value of a measurement in its own unit, NaN if the property is not a measurement
+     */
+    public double getNumber(String label) {
+        int i = indexOf(label);
+        return i < 0 || kinds[i] == TEXT ? Double.NaN : numbers[i];
+    }
+
+    /**
+     * @param label property label
+     * @return Unit of a measurement, null if the property is not a measurement
+     */
+    public Unit getUnit(String label) {
+        int i = indexOf(label);
+        return i < 0 || kinds[i] == TEXT ? null : Unit.VALUES[units[i]];
+    }
+
+    /**
+     * @param label property label
+     * @return value of a measurement in mm or kg, see Unit.toBase, NaN if it is not a
+     * measurement
+     */
+    public double getBaseValue(String label) {
+        int i = indexOf(label);
+        return i < 0 || kinds[i] == TEXT ? Double.NaN : Unit.VALUES[units[i]].toBase(numbers[i]);
+    }
+
+    /**
+     * @return number of properties
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of this record
+     */
+    public SystemRecord copy() {
+        SystemRecord copy = new SystemRecord(Math.max(size, 1));
+        System.arraycopy(labels, 0, copy.labels, 0, size);
+        System.arraycopy(kinds, 0, copy.kinds, 0, size);
+        System.arraycopy(units, 0, copy.units, 0, size);
+        System.arraycopy(numbers, 0, copy.numbers, 0, size);
+        System.arraycopy(texts, 0, copy.texts, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Estimate the heap bytes of this record, labels are shared and not counted
+     *
+     * @return estimated bytes
+     */
+    public long estimateBytes() {
+        int capacity = labels.length;
+        // object, 5 array headers, label and text references, kinds, units and numbers
+        long bytes = 32 + 5 * 16 + capacity * (4 + 4 + 1 + 1 + 8);
+        for (int i = 0; i < size; i++) {
+            if (texts[i] != null) {
+                bytes += 40 + 2L * texts[i].length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return ordered read-only view of the properties as display strings
+     */
+    public Map<String, String> asMap() {
+        return new MapView();
+    }
+
+    private boolean parse(int i, String display) {
+        int space = display.indexOf(' ');
+        String number = space < 0 ? display : display.substring(0, space);
+        Unit unit = space < 0 ? Unit.NONE : Unit.fromLabel(display.substring(space + 1));
+        if (unit == null || number.isEmpty()) {
+            return false;
+        }
+        try {
+            double value = Double.parseDouble(number);
+            if (Double.toString(value).equals(number)) {
+                setNumber(i, DOUBLE, value, unit);
+                return true;
+            }
+            float floatValue = Float.parseFloat(number);
+            if (Float.toString(floatValue).equals(number)) {
+                setNumber(i, FLOAT, floatValue, unit);
+                return true;
+            }
+            setNumber(i, NUMBER_TEXT, value, unit);
+            texts[i] = display;
+            return true;
+        } catch (NumberFormatException e) {
+            // not a number, kept as text
+        }
+        return false;
+    }
+
+    private String display(int i) {
+        switch (kinds[i]) {
+            case DOUBLE:
+                return withUnit(Double.toString(numbers[i]), units[i]);
+            case FLOAT:
+                return withUnit(Float.toString((float) numbers[i]), units[i]);
+            default:
+                return texts[i];
+        }
+    }
+
+    private static String withUnit(String number, byte unit) {
+        String label = Unit.VALUES[unit].label;
+        return label.isEmpty() ? number : number + " " + label;
+    }
+
+    private void setNumber(int i, byte kind, double value, Unit unit) {
+        kinds[i] = kind;
+        numbers[i] = value;
+        units[i] = (byte) unit.ordinal();
+        texts[i] = null;
+    }
+
+    private void setText(int i, String label, String text) {
+        kinds[i] = TEXT;
+        numbers[i] = 0;
+        units[i] = 0;
+        // system names and labels repeat across parcels
+        boolean shared = text != null
+                && (label.equals("systemName") || label.equals("systemLabel"));
+        texts[i] = shared ? text.intern() : text;
+    }
+
+    private int indexOf(String label) {
+        for (int i = 0; i < size; i++) {
+            if (labels[i] == label) {
+                return i;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (labels[i].equals(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of a label, added at the end if it is new
+     */
+    private int slot(String label) {
+        int i = indexOf(label);
+        if (i >= 0) {
+            return i;
+        }
+        if (size == labels.length) {
+            int capacity = size * 2;
+            labels = Arrays.copyOf(labels, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            units = Arrays.copyOf(units, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        labels[size] = label.intern();
+        return size++;
+    }
+
+    /**
+     * Read-only Map of the properties in the order they were added
+     */
+    private class MapView extends AbstractMap<String, String> {
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? SystemRecord.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains((String) key);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = next++;
+                            return new SimpleImmutableEntry<>(labels[i], display(i));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.sickar.main.helpers;
+
+import com.example.sickar.Constants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects tampering from the systems of an Item without asking the backend. Each system is
+ * compared to the first system that scanned the item, the last one in Item.getSystemList(), and
+ * a property that differs by more than its Tolerance counts as a change.
+ *
+ * The result has the structure of the tamper/ response of the backend:
+ * - "tamper": true if any system has changes
+ * - "tamperDetails": the changed properties of each system with changes
+ * - "tamperOrder": the systems with changes, in the order of Item.getSystemList()
+ *
+ * Properties are read from the SystemRecord of each system. Lengths are compared in mm and weights
+ * in kg, values that are not measurements or whose units have different dimensions are not
+ * compared.
+ */
+public class TamperDetector {
+    /**
+     * Largest allowed difference of a property, the larger of an absolute difference and a ratio
+     * of the reference value
+     */
+    public static class Tolerance {
+        private final double absolute;
+        private final double ratio;
+
+        /**
+         * Construct a tolerance
+         *
+         * @param absolute allowed difference in mm for lengths or kg for weights
+         * @param ratio    allowed difference as a ratio of the reference value
+         */
+        public Tolerance(double absolute, double ratio) {
+            this.absolute = absolute;
+            this.ratio = ratio;
+        }
+
+        /**
+         * @param reference value of the reference system
+         * @param value     value of the compared system
+         * @return true if the values differ by more than this tolerance
+         */
+        public boolean isExceeded(double reference, double value) {
+            return Math.abs(value - reference) > Math.max(absolute, ratio * Math.abs(reference));
+        }
+    }
+
+    private final Map<String, Tolerance> tolerances;
+
+    /**
+     * Construct a detector with the tolerances in Constants
+     */
+    public TamperDetector() {
+        this(defaultTolerances());
+    }
+
+    /**
+     * Construct a detector
+     *
+     * @param tolerances properties to compare and their tolerances, compared in iteration order
+     */
+    public TamperDetector(Map<String, Tolerance> tolerances) {
+        this.tolerances = new LinkedHashMap<>(tolerances);
+    }
+
+    /**
+     * @return tolerances of length, width, height and weight from Constants
+     */
+    public static Map<String, Tolerance> defaultTolerances() {
+        Map<String, Tolerance> tolerances = new LinkedHashMap<>();
+        Tolerance dimension = new Tolerance(Constants.TAMPER_DIMENSION_TOLERANCE_MM,
+                Constants.TAMPER_TOLERANCE_RATIO);
+        tolerances.put("length", dimension);
+        tolerances.put("width", dimension);
+        tolerances.put("height", dimension);
+        tolerances.put("weight", new Tolerance(Constants.TAMPER_WEIGHT_TOLERANCE_KG,
+                Constants.TAMPER_TOLERANCE_RATIO));
+        return tolerances;
+    }
+
+    /**
+     * Compare the systems of an item. Reads one snapshot of the item, so systems added meanwhile
+     * are not mixed in.
+     *
+     * @param item Item
+     * @return result with the structure of the tamper/ response
+     */
+    public Map<String, Object> detect(Item item) {
+        ItemSnapshot snapshot = item.snapshot();
+        List<String> systems = snapshot.getSystemList();
+        Map<String, List<String>> details = new LinkedHashMap<>();
+        ArrayList<String> order = new ArrayList<>();
+        if (systems.size() > 1) {
+            SystemRecord reference = snapshot.getSystemRecord(systems.get(systems.size() - 1));
+            for (int i = 0; i < systems.size() - 1; i++) {
+                String systemId = systems.get(i);
+                List<String> changes = compare(reference, snapshot.getSystemRecord(systemId));
+                if (!changes.isEmpty()) {
+                    details.put(systemId, changes);
+                    order.add(systemId);
+                }
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("tamper", !order.isEmpty());
+        result.put("tamperDetails", details);
+        result.put("tamperOrder", order);
+        return result;
+    }
+
+    /**
+     * @return the properties whose difference exceeds their tolerance
+     */
+    private List<String> compare(SystemRecord reference, SystemRecord system) {
+        List<String> changes = new ArrayList<>();
+        if (reference == null || system == null) {
+            return changes;
+        }
+        for (Map.Entry<String, Tolerance> entry : tolerances.entrySet()) {
+            String label = entry.getKey();
+            SystemRecord.Unit referenceUnit = reference.getUnit(label);
+            SystemRecord.Unit unit = system.getUnit(label);
+            if (referenceUnit != null && unit != null
+                    && referenceUnit.getDimension() == unit.getDimension()
+                    && entry.getValue().isExceeded(reference.getBaseValue(label),
+                    system.getBaseValue(label))) {
+                changes.add(label);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Check if two tamper results agree, used to verify the local result against the backend
+     *
+     * @param a tamper result
+     * @param b tamper result
+     * @return true if both have the same tamper flag, systems and changed properties
+     */
+    public static boolean sameResult(Map<?, ?> a, Map<?, ?> b) {
+        boolean tamperA = Boolean.TRUE.equals(a.get("tamper"));
+        boolean tamperB = Boolean.TRUE.equals(b.get("tamper"));
+        if (tamperA != tamperB) {
+            return false;
+        }
+        if (!tamperA) {
+            return true;
+        }
+        Object orderA = a.get("tamperOrder");
+        Object orderB = b.get("tamperOrder");
+        if (!(orderA instanceof List) || !orderA.equals(orderB)) {
+            return false;
+        }
+        Map<?, ?> detailsA = (Map<?, ?>) a.get("tamperDetails");
+        Map<?, ?> detailsB = (Map<?, ?>) b.get("tamperDetails");
+        if (detailsA == null || detailsB == null) {
+            return detailsA == detailsB;
+        }
+        for (Object systemId : (List<?>) orderA) {
+            Object changesA = detailsA.get(systemId);
+            Object changesB = detailsB.get(systemId);
+            if (!(changesA instanceof List) || !(changesB instanceof List)
+                    || !new HashSet<>((List<?>) changesA).equals(
+                    new HashSet<>((List<?>) changesB))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
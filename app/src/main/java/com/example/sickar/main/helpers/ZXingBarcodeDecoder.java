@@ -0,0 +1,213 @@
+package com.example.sickar.main.helpers;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Pure Java BarcodeDecoder using ZXing core. Reads only the luminance of the frame, so it runs
+ * on the JVM as well as on the device and serves as the reference to compare other decoders
+ * against.
+ */
+public class ZXingBarcodeDecoder implements BarcodeDecoder {
+    /**
+     * 1D barcodes are reported as the line they were read along. Their box is padded across that
+     * line by this fraction of its length.
+     */
+    private static final float LINEAR_BOX_PADDING = 0.15f;
+
+    private final MultiFormatReader formatReader;
+    private final GenericMultipleBarcodeReader reader;
+    private final Map<DecodeHintType, Object> hints;
+
+    /**
+     * Construct a decoder
+     *
+     * @param formats names of the ZXing BarcodeFormats to look for, for example CODE_128
+     */
+    public ZXingBarcodeDecoder(Collection<String> formats) {
+        EnumSet<BarcodeFormat> possible = EnumSet.noneOf(BarcodeFormat.class);
+        for (String format : formats) {
+            possible.add(BarcodeFormat.valueOf(format));
+        }
+        hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, possible);
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        formatReader = new MultiFormatReader();
+        formatReader.setHints(hints);
+        reader = new GenericMultipleBarcodeReader(formatReader);
+    }
+
+    @Override
+    public void decode(LuminanceFrame frame, Executor executor, Listener listener) {
+        List<DecodedBarcode> barcodes;
+        try {
+            barcodes = decode(frame);
+        } catch (RuntimeException e) {
+            listener.onError(e);
+            return;
+        }
+        listener.onDecoded(barcodes);
+    }
+
+    /**
+     * Decode a frame on the calling thread
+     *
+     * @param frame frame to decode
+     * @return barcodes in the frame
+     */
+    public synchronized List<DecodedBarcode> decode(LuminanceFrame frame) {
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new YLuminanceSource(
+                frame.getNv21(), frame.getWidth(), frame.getHeight())));
+        Result[] results;
+        try {
+            results = reader.decodeMultiple(bitmap, hints);
+        } catch (NotFoundException e) {
+            return Collections.emptyList();
+        }
+        List<DecodedBarcode> barcodes = new ArrayList<>(results.length);
+        for (Result result : results) {
+            barcodes.add(toDecodedBarcode(frame, result));
+        }
+        return barcodes;
+    }
+
+    @Override
+    public synchronized void close() {
+        formatReader.reset();
+    }
+
+    /**
+     * Convert a ZXing result to upright coordinates
+     */
+    private static DecodedBarcode toDecodedBarcode(LuminanceFrame frame, Result result) {
+        ResultPoint[] points = result.getResultPoints();
+        int[] box = null;
+        int[] corners = null;
+        if (points != null && points.length > 0) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (ResultPoint point : points) {
+                if (point == null) continue;
+                int[] p = frame.toUpright(point.getX(), point.getY());
+                minX = Math.min(minX, p[0]);
+                minY = Math.min(minY, p[1]);
+                maxX = Math.max(maxX, p[0]);
+                maxY = Math.max(maxY, p[1]);
+            }
+            if (points.length == 2) {
+                int pad = Math.round(Math.max(maxX - minX, maxY - minY) * LINEAR_BOX_PADDING);
+                if (maxX - minX >= maxY - minY) {
+                    minY -= pad;
+                    maxY += pad;
+                } else {
+                    minX -= pad;
+                    maxX += pad;
+                }
+            }
+            minX = Math.max(0, minX);
+            minY = Math.max(0, minY);
+            maxX = Math.min(frame.getFullUprightWidth() - 1, maxX);
+            maxY = Math.min(frame.getFullUprightHeight() - 1, maxY);
+            box = new int[]{minX, minY, maxX, maxY};
+            corners = new int[]{minX, minY, maxX, minY, maxX, maxY, minX, maxY};
+        }
+        return new DecodedBarcode(result.getText(), result.getBarcodeFormat().name(), box,
+                corners);
+    }
+
+    /**
+     * LuminanceSource over the Y plane at the start of an NV21 buffer. Supports cropping, which
+     * GenericMultipleBarcodeReader uses to look for more barcodes around a found one, and
+     * rotation so ZXing can also find 1D barcodes whose bars run along the rows.
+     */
+    static class YLuminanceSource extends LuminanceSource {
+        private final byte[] luma;
+        private final int dataWidth;
+        private final int left;
+        private final int top;
+
+        YLuminanceSource(byte[] luma, int width, int height) {
+            this(luma, width, 0, 0, width, height);
+        }
+
+        private YLuminanceSource(byte[] luma, int dataWidth, int left, int top, int width,
+                                 int height) {
+            super(width, height);
+            this.luma = luma;
+            this.dataWidth = dataWidth;
+            this.left = left;
+            this.top = top;
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            int width = getWidth();
+            if (row == null || row.length < width) {
+                row = new byte[width];
+            }
+            System.arraycopy(luma, (top + y) * dataWidth + left, row, 0, width);
+            return row;
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            int width = getWidth();
+            int height = getHeight();
+            if (left == 0 && top == 0 && width == dataWidth && luma.length == width * height) {
+                return luma;
+            }
+            byte[] matrix = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(luma, (top + y) * dataWidth + left, matrix, y * width, width);
+            }
+            return matrix;
+        }
+
+        @Override
+        public boolean isCropSupported() {
+            return true;
+        }
+
+        @Override
+        public LuminanceSource crop(int left, int top, int width, int height) {
+            return new YLuminanceSource(luma, dataWidth, this.left + left, this.top + top,
+                    width, height);
+        }
+
+        @Override
+        public boolean isRotateSupported() {
+            return true;
+        }
+
+        @Override
+        public LuminanceSource rotateCounterClockwise() {
+            int width = getWidth();
+            int height = getHeight();
+            byte[] rotated = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                int rowStart = (top + y) * dataWidth + left;
+                for (int x = 0; x < width; x++) {
+                    rotated[(width - 1 - x) * height + y] = luma[rowStart + x];
+                }
+            }
+            return new YLuminanceSource(rotated, height, width);
+        }
+    }
+}
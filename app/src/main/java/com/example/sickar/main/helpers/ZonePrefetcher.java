@@ -0,0 +1,306 @@
+package com.example.sickar.main.helpers;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Prefetches every parcel scanned by the configured systems in a recent time window so that
+ * scanning it on the floor is answered from the BarcodeDataCache without a network request.
+ *
+ * Each sync pages through the search/execute results from the last sync (or the start of the
+ * window on the first sync) up to now, newest first, and collects Items until their estimated size
+ * and that of the Items already prefetched reaches the memory budget. The Items are then offered
+ * to a Sink oldest first. The bytes of an Item are given back to the budget once the cache evicts
+ * or removes it, see onRemoved.
+ *
+ * The results are newest first, so a sync cut short by the budget leaves out the oldest part of
+ * its range. The last sync time only advances once a sync has stored its whole range, so that
+ * part is fetched as soon as the budget has room again.
+ */
+public class ZonePrefetcher {
+    private static final String TAG = "app_" + ZonePrefetcher.class.getSimpleName();
+
+    /**
+     * Fetches one page of search results
+     */
+    public interface PageSource {
+        /**
+         * Fetch the results scanned between two times. Blocks until the page has arrived.
+         *
+         * @param start  start of the time range, inclusive
+         * @param end    end of the time range, exclusive
+         * @param offset index of the first result of the page
+         * @param size   maximum number of results on the page
+         * @return page of results
+         * @throws IOException if the page could not be fetched
+         */
+        SearchPage fetchPage(Instant start, Instant end, int offset, int size) throws IOException;
+    }
+
+    /**
+     * Receives the prefetched Items
+     */
+    public interface Sink {
+        /**
+         * Offer a prefetched Item, the Items of a sync are offered oldest first
+         *
+         * @param item item
+         * @return true if the Item was kept, false if it was already present or there is no room
+         */
+        boolean offer(Item item);
+    }
+
+    private final PageSource source;
+    private final Sink sink;
+    private final int pageSize;
+    private final long memoryBudgetBytes;
+    private final Duration window;
+    private final Supplier<Instant> clock;
+
+    /**
+     * Estimated bytes of each prefetched Item still in the cache
+     */
+    private final Map<String, Long> prefetchedBytes = new ConcurrentHashMap<>();
+
+    /**
+     * Held for the duration of a sync. start(), stop() and reset() do not take it so they do not
+     * wait for a sync.
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * Incremented by reset, a sync that overlaps a reset does not advance the last sync time
+     */
+    private final AtomicInteger resets = new AtomicInteger();
+
+    private final AtomicLong bytesUsed = new AtomicLong();
+    private volatile Instant lastSync;
+    private volatile int itemsPrefetched;
+    private volatile int pagesFetched;
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * Construct a prefetcher
+     *
+     * @param source            fetches the pages
+     * @param sink              receives the Items
+     * @param pageSize          number of results to request per page
+     * @param memoryBudgetBytes estimated bytes of Items to prefetch at most
+     * @param window            how far back the first sync reaches
+     * @param clock             current time
+     */
+    public ZonePrefetcher(PageSource source, Sink sink, int pageSize, long memoryBudgetBytes,
+                          Duration window, Supplier<Instant> clock) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        this.source = source;
+        this.sink = sink;
+        this.pageSize = pageSize;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.window = window;
+        this.clock = clock;
+    }
+
+    /**
+     * Sync now and then repeatedly on an executor
+     *
+     * @param executor   background executor
+     * @param intervalMs time in milliseconds between the end of one sync and the next
+     */
+    public synchronized void start(ScheduledExecutorService executor, long intervalMs) {
+        stop();
+        scheduled = executor.scheduleWithFixedDelay(() -> {
+            try {
+                sync();
+            } catch (IOException e) {
+                Log.i(TAG, "prefetch failed, retrying next interval " + e.toString());
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the repeated syncs. A sync in progress finishes its current page.
+     */
+    public synchronized void stop() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+    }
+
+    /**
+     * Fetch the results newer than the last sync that fit in the memory budget. The last sync
+     * time only advances if every page was fetched and stored, so a failed sync or one cut short
+     * by the budget is repeated from the same start.
+     *
+     * @return number of Items offered to the sink and kept
+     * @throws IOException if a page could not be fetched
+     */
+    public int sync() throws IOException {
+        synchronized (syncLock) {
+            return syncLocked();
+        }
+    }
+
+    private int syncLocked() throws IOException {
+        int resetsAtStart = resets.get();
+        Instant end = clock.get();
+        Instant windowStart = end.minus(window);
+        Instant start = lastSync == null || lastSync.isBefore(windowStart) ? windowStart : lastSync;
+
+        // Items of this sync newest first, later pages may add systems to them
+        Map<String, Item> collected = new LinkedHashMap<>();
+        long collectedBytes = 0;
+        boolean complete = false;
+        int offset = 0;
+        pages:
+        while (true) {
+            if (bytesUsed.get() + collectedBytes >= memoryBudgetBytes) {
+                Log.i(TAG, "prefetch memory budget of " + memoryBudgetBytes + " bytes reached");
+                break;
+            }
+            SearchPage page = source.fetchPage(start, end, offset, pageSize);
+            pagesFetched++;
+            for (Item item : page.getItems()) {
+                Item existing = collected.get(item.getName());
+                if (prefetchedBytes.containsKey(item.getName())) {
+                    // still held from an earlier sync that was cut short
+                    continue;
+                } else if (existing != null) {
+                    long before = estimateBytes(existing);
+                    merge(existing, item);
+                    collectedBytes += estimateBytes(existing) - before;
+                } else if (bytesUsed.get() + collectedBytes >= memoryBudgetBytes) {
+                    Log.i(TAG, "prefetch memory budget of " + memoryBudgetBytes
+                            + " bytes reached");
+                    break pages;
+                } else {
+                    collected.put(item.getName(), item);
+                    collectedBytes += estimateBytes(item);
+                }
+            }
+            offset += page.getResultCount();
+            if (page.getResultCount() < pageSize
+                    || (page.getTotal() >= 0 && offset >= page.getTotal())) {
+                complete = true;
+                break;
+            }
+        }
+
+        // oldest first so the newest Item ends up in front of the other prefetched Items
+        List<Item> items = new ArrayList<>(collected.values());
+        int kept = 0;
+        for (int i = items.size() - 1; i >= 0; i--) {
+            Item item = items.get(i);
+            long bytes = estimateBytes(item);
+            if (sink.offer(item)) {
+                prefetchedBytes.put(item.getName(), bytes);
+                bytesUsed.addAndGet(bytes);
+                kept++;
+            }
+        }
+        if (complete && resets.get() == resetsAtStart) {
+            lastSync = end;
+        }
+        itemsPrefetched += kept;
+        Log.i(TAG, "prefetched " + kept + " items from " + start + " to " + end
+                + (complete ? "" : ", rest of the range left for the next sync"));
+        return kept;
+    }
+
+    /**
+     * Add the systems of an Item from a later page to the Item collected for the same barcode
+     */
+    private static void merge(Item existing, Item item) {
+        for (String system : item.getSystemList()) {
+            if (!existing.getSystemList().contains(system)) {
+                existing.addSystem(system, item.getSystemRecord(system));
+            }
+        }
+    }
+
+    /**
+     * Give the bytes of a prefetched Item back to the budget, called when the cache evicts or
+     * removes an Item
+     *
+     * @param barcode barcode of the Item
+     */
+    public void onRemoved(String barcode) {
+        Long bytes = prefetchedBytes.remove(barcode);
+        if (bytes != null) {
+            bytesUsed.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * Reset the budget and sync time, called when the cache has been cleared
+     */
+    public void reset() {
+        resets.incrementAndGet();
+        lastSync = null;
+        prefetchedBytes.clear();
+        bytesUsed.set(0);
+    }
+
+    /**
+     * @return end of the last successful sync, null if there was none
+     */
+    public Instant getLastSync() {
+        return lastSync;
+    }
+
+    /**
+     * @return estimated bytes of the Items prefetched so far
+     */
+    public long getBytesUsed() {
+        return bytesUsed.get();
+    }
+
+    /**
+     * @return number of Items prefetched so far
+     */
+    public int getItemsPrefetched() {
+        return itemsPrefetched;
+    }
+
+    /**
+     * @return number of pages fetched so far
+     */
+    public int getPagesFetched() {
+        return pagesFetched;
+    }
+
+    /**
+     * Rough heap size of an Item: two bytes per character of its strings plus the estimate of
+     * each SystemRecord
+     *
+     * @param item item
+     * @return estimated bytes
+     */
+    static long estimateBytes(Item item) {
+        long bytes = 96 + 2L * item.getName().length();
+        for (String system : item.getSystemList()) {
+            bytes += 96 + 2L * system.length();
+            SystemRecord record = item.getSystemRecord(system);
+            if (record != null) {
+                bytes += record.estimateBytes();
+            }
+        }
+        return bytes;
+    }
+}
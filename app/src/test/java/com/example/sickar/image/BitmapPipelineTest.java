@@ -0,0 +1,68 @@
+package com.example.sickar.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the sample size and bitmap reuse rules of BitmapPipeline
+ */
+public class BitmapPipelineTest {
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 2160;
+
+    @Test
+    public void sampleSizeKeepsThePictureAtLeastAsLargeAsShown() {
+        for (int width = 100; width <= 8000; width += 97) {
+            for (int height = 100; height <= 8000; height += 89) {
+                int sampleSize = BitmapPipeline.calculateInSampleSize(width, height,
+                        SCREEN_WIDTH, SCREEN_HEIGHT);
+                assertEquals(0, sampleSize & (sampleSize - 1));
+                // scale of the picture when fit inside the screen
+                float shown = Math.min((float) SCREEN_WIDTH / width,
+                        (float) SCREEN_HEIGHT / height);
+                assertTrue(width + "x" + height, 1f / sampleSize >= Math.min(shown, 1f));
+                // one more halving would show it upscaled
+                assertTrue(width + "x" + height, 1f / (sampleSize * 2) < Math.min(shown, 1f)
+                        || sampleSize == 1);
+            }
+        }
+    }
+
+    @Test
+    public void smallPicturesAreNotSampled() {
+        assertEquals(1, BitmapPipeline.calculateInSampleSize(800, 600, 1080, 2160));
+        assertEquals(1, BitmapPipeline.calculateInSampleSize(2000, 1500, 1080, 2160));
+        assertEquals(1, BitmapPipeline.calculateInSampleSize(4000, 3000, 0, 0));
+    }
+
+    @Test
+    public void scannerPicturesAreSampledToTheScreen() {
+        int width = 2448;
+        int height = 2048;
+        int sampleSize = BitmapPipeline.calculateInSampleSize(width, height, SCREEN_WIDTH,
+                SCREEN_HEIGHT);
+        assertEquals(2, sampleSize);
+        long full = 4L * width * height;
+        long sampled = 4L * (width / sampleSize) * (height / sampleSize);
+        assertEquals(full / 4, sampled);
+        // the pictures of 6 devices fit in about 28MB instead of 114MB
+        assertEquals(28, 6 * sampled / 1024 / 1024);
+    }
+
+    @Test
+    public void reusedBitmapMustHoldTheSampledPicture() {
+        int bytes = 4 * 1224 * 1024;
+        assertTrue(BitmapPipeline.fitsInBitmap(bytes, 2448, 2048, 2, 4));
+        assertTrue(BitmapPipeline.fitsInBitmap(bytes, 1224, 1024, 1, 4));
+        assertFalse(BitmapPipeline.fitsInBitmap(bytes, 2448, 2048, 1, 4));
+        // odd sizes round up when sampled
+        assertFalse(BitmapPipeline.fitsInBitmap(bytes, 2449, 2048, 2, 4));
+    }
+
+    @Test
+    public void keysSeparateBarcodeSystemAndDevice() {
+        assertEquals("b/1/2", BitmapPipeline.key("b", "1", "2"));
+        assertNotEquals(BitmapPipeline.key("b", "1", "2"), BitmapPipeline.key("b", "12", ""));
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.sickar.libs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the rotations of Billboard and that still cards are not rotated on every frame
+ */
+public class BillboardTest {
+    private static final float EPSILON = 1e-4f;
+
+    /**
+     * Rotate a vector by a quaternion {x, y, z, w}
+     */
+    private static float[] rotate(float[] q, float vx, float vy, float vz) {
+        float x = q[0], y = q[1], z = q[2], w = q[3];
+        // t = 2 * cross(q.xyz, v)
+        float tx = 2 * (y * vz - z * vy);
+        float ty = 2 * (z * vx - x * vz);
+        float tz = 2 * (x * vy - y * vx);
+        return new float[]{
+                vx + w * tx + (y * tz - z * ty),
+                vy + w * ty + (z * tx - x * tz),
+                vz + w * tz + (x * ty - y * tx)};
+    }
+
+    /**
+     * Column major matrix of a rotation about the y axis with a uniform scale and a translation
+     */
+    private static float[] yawMatrix(double degrees, float scale, float tx, float ty, float tz) {
+        float c = (float) Math.cos(Math.toRadians(degrees)) * scale;
+        float s = (float) Math.sin(Math.toRadians(degrees)) * scale;
+        return new float[]{
+                c, 0, -s, 0,
+                0, scale, 0, 0,
+                s, 0, c, 0,
+                tx, ty, tz, 1};
+    }
+
+    private static void assertVector(float x, float y, float z, float[] v) {
+        assertEquals(x, v[0], EPSILON);
+        assertEquals(y, v[1], EPSILON);
+        assertEquals(z, v[2], EPSILON);
+    }
+
+    @Test
+    public void forwardPointsAwayFromCamera() {
+        float[] q = new float[4];
+        assertTrue(Billboard.lookRotation(null, 3, 0, 4, q));
+        assertVector(0.6f, 0, 0.8f, rotate(q, 0, 0, 1));
+        assertVector(0, 1, 0, rotate(q, 0, 1, 0));
+    }
+
+    @Test
+    public void upStaysClosestToWorldUp() {
+        float[] q = new float[4];
+        // looking down at a card on the floor
+        assertTrue(Billboard.lookRotation(null, 0, -1, 1, q));
+        float h = (float) Math.sqrt(0.5);
+        assertVector(0, -h, h, rotate(q, 0, 0, 1));
+        assertVector(0, h, h, rotate(q, 0, 1, 0));
+        assertVector(1, 0, 0, rotate(q, 1, 0, 0));
+    }
+
+    @Test
+    public void everyQuadrantGivesAUnitQuaternion() {
+        float[] q = new float[4];
+        for (int degrees = 0; degrees < 360; degrees += 15) {
+            float dx = (float) Math.sin(Math.toRadians(degrees));
+            float dz = (float) Math.cos(Math.toRadians(degrees));
+            assertTrue(Billboard.lookRotation(null, dx, 0.3f, dz, q));
+            float norm = q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3];
+            assertEquals(1, norm, EPSILON);
+            float length = (float) Math.sqrt(dx * dx + 0.09f + dz * dz);
+            assertVector(dx / length, 0.3f / length, dz / length, rotate(q, 0, 0, 1));
+        }
+    }
+
+    @Test
+    public void rotationIsRelativeToParent() {
+        float[] parent = yawMatrix(90, 2, 5, 0, 0);
+        float[] local = new float[4];
+        assertTrue(Billboard.lookRotation(parent, 0, 0, 1, local));
+        // apply the parent's rotation to the local forward
+        float[] forward = rotate(local, 0, 0, 1);
+        float[] parentRotation = {0, (float) Math.sin(Math.PI / 4), 0,
+                (float) Math.cos(Math.PI / 4)};
+        assertVector(0, 0, 1, rotate(parentRotation, forward[0], forward[1], forward[2]));
+    }
+
+    @Test
+    public void degenerateDirectionsAreRejected() {
+        float[] q = {0, 0, 0, 1};
+        assertFalse(Billboard.lookRotation(null, 0, 0, 0, q));
+        assertFalse(Billboard.lookRotation(null, 0, 2, 0, q));
+        assertArrayEquals(new float[]{0, 0, 0, 1}, q, 0);
+    }
+
+    @Test
+    public void smallMovesAreSkipped() {
+        Billboard billboard = new Billboard(0.01f);
+        assertTrue(billboard.update(null, 0, 0, 1, 0, 0, 0));
+        assertFalse(billboard.update(null, 0, 0, 1, 0.005f, 0, 0));
+        assertTrue(billboard.update(null, 0, 0, 1, 0.02f, 0, 0));
+        assertFalse(billboard.update(null, 0.005f, 0, 1, 0.02f, 0, 0));
+        billboard.invalidate();
+        assertTrue(billboard.update(null, 0.005f, 0, 1, 0.02f, 0, 0));
+    }
+
+    @Test
+    public void turningOnlyTheParentIsNotSkipped() {
+        Billboard billboard = new Billboard(0.01f);
+        assertTrue(billboard.update(yawMatrix(0, 1, 0, 0, 0), 0, 0, 1, 0, 0, 0));
+        assertFalse(billboard.update(yawMatrix(0, 1, 0, 0, 0), 0, 0, 1, 0, 0, 0));
+        // the card and the camera stay where they are while the parent turns about the card
+        float[] turned = yawMatrix(90, 1, 0, 0, 0);
+        assertTrue(billboard.update(turned, 0, 0, 1, 0, 0, 0));
+        // the local forward is turned back so the card still faces away from the camera
+        float[] forward = rotate(billboard.getRotation(), 0, 0, 1);
+        float[] parentRotation = {0, (float) Math.sin(Math.PI / 4), 0,
+                (float) Math.cos(Math.PI / 4)};
+        assertVector(0, 0, 1, rotate(parentRotation, forward[0], forward[1], forward[2]));
+        assertFalse(billboard.update(turned, 0, 0, 1, 0, 0, 0));
+        // losing the parent needs a world rotation
+        assertTrue(billboard.update(null, 0, 0, 1, 0, 0, 0));
+    }
+
+    /**
+     * Fresh cards, one per slot
+     */
+    private static Billboard[] billboards(int cards) {
+        Billboard[] billboards = new Billboard[cards];
+        for (int i = 0; i < cards; i++) {
+            billboards[i] = new Billboard(0.005f);
+        }
+        return billboards;
+    }
+
+    @Test
+    public void stillCardsAreNotRotatedAgain() {
+        float[] parent = yawMatrix(30, 1, 0, 0, -1);
+        int frames = 200;
+        for (int cards : new int[]{10, 50, 200}) {
+            Billboard[] billboards = billboards(cards);
+            // every card is turned on every frame while the camera moves more than the threshold
+            assertEquals(cards * frames, run(billboards, parent, frames, 0.01f));
+            // the camera jumps back once and then stays put
+            assertEquals(cards, run(billboards, parent, frames, 0));
+        }
+    }
+
+    /**
+     * Wall clock timing, only run with -Dbenchmark=true
+     */
+    @Test
+    public void stillCardsCostLessThanMovingOnesBenchmark() {
+        assumeTrue("benchmark", Boolean.getBoolean("benchmark"));
+        float[] parent = yawMatrix(30, 1, 0, 0, -1);
+        int frames = 2000;
+        // warm up the JIT so the first count is not measured interpreted
+        run(billboards(1), parent, frames * 10, 0.01f);
+        for (int cards : new int[]{10, 50, 200}) {
+            long moving = Long.MAX_VALUE;
+            long still = Long.MAX_VALUE;
+            // best of a few runs
+            for (int attempt = 0; attempt < 5; attempt++) {
+                Billboard[] billboards = billboards(cards);
+                long start = System.nanoTime();
+                run(billboards, parent, frames, 0.01f);
+                moving = Math.min(moving, System.nanoTime() - start);
+                start = System.nanoTime();
+                run(billboards, parent, frames, 0);
+                still = Math.min(still, System.nanoTime() - start);
+            }
+            assertTrue(cards + " cards moving " + moving / frames + "ns still "
+                    + still / frames + "ns per frame", still < moving);
+        }
+    }
+
+    /**
+     * Update all cards for a number of frames with the camera moving by a step each frame
+     *
+     * @return number of rotations computed
+     */
+    private static int run(Billboard[] billboards, float[] parent, int frames, float step) {
+        int rotations = 0;
+        for (int f = 0; f < frames; f++) {
+            float cx = f * step;
+            for (int i = 0; i < billboards.length; i++) {
+                if (billboards[i].update(parent, i * 0.1f, 0, -1, cx, 0.2f, 0)) {
+                    rotations++;
+                }
+            }
+        }
+        return rotations;
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.sickar.libs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests for LinkedLruMap
+ */
+public class LinkedLruMapTest {
+
+    @Test
+    public void newestEntriesAreFirst() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(10);
+        map.putFirstIfAbsent("a", 1);
+        map.putFirstIfAbsent("b", 2);
+        map.putFirstIfAbsent("c", 3);
+
+        assertEquals(Arrays.asList(3, 2, 1), map.values());
+        assertEquals(Arrays.asList("c", "b", "a"), map.keys());
+        assertEquals(Integer.valueOf(3), map.peekFirst());
+        assertEquals(Integer.valueOf(1), map.peekLast());
+    }
+
+    @Test
+    public void repeatKeyIsNotInserted() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(10);
+        assertTrue(map.putFirstIfAbsent("a", 1));
+        map.putFirstIfAbsent("b", 2);
+        assertFalse(map.putFirstIfAbsent("a", 5));
+
+        assertEquals(Integer.valueOf(1), map.get("a"));
+        assertEquals(Arrays.asList("b", "a"), map.keys());
+    }
+
+    @Test
+    public void oldestEntriesAreEvicted() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(3);
+        for (int i = 0; i < 5; i++) {
+            map.putFirstIfAbsent("k" + i, i);
+        }
+
+        assertEquals(3, map.size());
+        assertEquals(Arrays.asList("k4", "k3", "k2"), map.keys());
+        assertFalse(map.containsKey("k0"));
+        assertFalse(map.containsKey("k1"));
+        assertNull(map.get("k1"));
+    }
+
+    @Test
+    public void offeredEntriesAreKeptBehindTheOthers() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(4);
+        map.putFirstIfAbsent("a", 1);
+        assertTrue(map.offerBack("p1", 10));
+        assertTrue(map.offerBack("p2", 11));
+        assertFalse(map.offerBack("a", 5));
+        map.putFirstIfAbsent("b", 2);
+
+        // newest offered entry first within the back region
+        assertEquals(Arrays.asList("b", "a", "p2", "p1"), map.keys());
+        // offered entries are evicted before the entries put in front
+        map.putFirstIfAbsent("c", 3);
+        assertEquals(Arrays.asList("c", "b", "a", "p2"), map.keys());
+    }
+
+    @Test
+    public void offerEvictsOnlyOfferedEntries() {
+        List<String> removed = new ArrayList<>();
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(3);
+        map.setRemovalListener((key, value) -> removed.add(key));
+        map.putFirstIfAbsent("a", 1);
+        map.offerBack("p1", 10);
+        map.offerBack("p2", 11);
+        // full, the oldest offered entry makes room for the newest
+        assertTrue(map.offerBack("p3", 12));
+        assertEquals(Arrays.asList("a", "p3", "p2"), map.keys());
+
+        map.putFirstIfAbsent("b", 2);
+        map.putFirstIfAbsent("c", 3);
+        assertEquals(Arrays.asList("c", "b", "a"), map.keys());
+        // no offered entries left to evict
+        assertFalse(map.offerBack("p4", 13));
+        map.remove("b");
+        assertEquals(Arrays.asList("p1", "p2", "p3", "b"), removed);
+
+        map.clear();
+        assertTrue(map.offerBack("p5", 14));
+        assertEquals(Collections.singletonList("p5"), map.keys());
+        assertEquals(4, removed.size());
+    }
+
+    @Test
+    public void promotedEntrySurvivesLaterOffers() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(3);
+        map.putFirstIfAbsent("s1", 1);
+        map.offerBack("p1", 2);
+        map.offerBack("p2", 3);
+
+        // p1 is scanned, it leaves the back region
+        assertTrue(map.promote("p1"));
+        assertEquals(Arrays.asList("p1", "s1", "p2"), map.keys());
+
+        for (int i = 3; i < 8; i++) {
+            assertTrue(map.offerBack("p" + i, i));
+        }
+        assertEquals(Arrays.asList("p1", "s1", "p7"), map.keys());
+
+        // once the back region is promoted away a full map refuses offers
+        assertTrue(map.promote("p7"));
+        assertFalse(map.offerBack("p8", 8));
+        assertFalse(map.promote("p8"));
+        assertEquals(Arrays.asList("p7", "p1", "s1"), map.keys());
+    }
+
+    @Test
+    public void getDoesNotReorder() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(2);
+        map.putFirstIfAbsent("a", 1);
+        map.putFirstIfAbsent("b", 2);
+        map.get("a");
+        map.putFirstIfAbsent("c", 3);
+
+        assertEquals(Arrays.asList("c", "b"), map.keys());
+    }
+
+    @Test
+    public void removeAndClear() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(5);
+        map.putFirstIfAbsent("a", 1);
+        map.putFirstIfAbsent("b", 2);
+        map.putFirstIfAbsent("c", 3);
+
+        assertEquals(Integer.valueOf(2), map.remove("b"));
+        assertNull(map.remove("b"));
+        assertEquals(Arrays.asList("c", "a"), map.keys());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.peekFirst());
+        assertTrue(map.values().isEmpty());
+
+        // still usable after clearing
+        map.putFirstIfAbsent("d", 4);
+        assertEquals(Arrays.asList("d"), map.keys());
+    }
+
+    @Test
+    public void shrinkingCapacityEvictsOldest() {
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(5);
+        for (int i = 0; i < 5; i++) {
+            map.putFirstIfAbsent("k" + i, i);
+        }
+        map.setCapacity(2);
+
+        assertEquals(Arrays.asList("k4", "k3"), map.keys());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        new LinkedLruMap<String, Integer>(0);
+    }
+
+    @Test
+    public void concurrentWritersKeepMapConsistent() throws InterruptedException {
+        final int capacity = 500;
+        final int threads = 4;
+        final int perThread = 5000;
+        LinkedLruMap<String, Integer> map = new LinkedLruMap<>(capacity);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    map.putFirstIfAbsent(id + "-" + i, i);
+                    map.get(id + "-" + (i / 2));
+                    if (i % 7 == 0) map.remove(id + "-" + (i - 3));
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertTrue(map.size() <= capacity);
+        List<String> keys = map.keys();
+        assertEquals(map.size(), keys.size());
+        for (String key : keys) {
+            assertTrue(map.containsKey(key));
+        }
+    }
+
+    /**
+     * Recency list of the old BarcodeDataCache, newest barcode at index 0
+     */
+    private static class ArrayListLru {
+        private final int capacity;
+        private final List<String> stack = new ArrayList<>();
+        private final Map<String, Integer> data = new HashMap<>();
+
+        ArrayListLru(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void putFirstIfAbsent(String key, Integer value) {
+            if (!data.containsKey(key)) {
+                stack.add(0, key);
+                data.put(key, value);
+                for (int i = stack.size() - 1; i >= capacity; i--) {
+                    data.remove(stack.remove(i));
+                }
+            }
+        }
+
+        void remove(String key) {
+            stack.remove(key);
+            data.remove(key);
+        }
+    }
+
+    /**
+     * Scan a new barcode and dismiss an older one on every step, like a conveyor feeding a large
+     * cache
+     *
+     * @return nanoseconds taken
+     */
+    private static long runScans(int capacity, int steps, LinkedLruMap<String, Integer> lru,
+                                 ArrayListLru old) {
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++) {
+            String dismissed = "parcel" + (i - capacity / 2);
+            if (lru != null) {
+                lru.putFirstIfAbsent("parcel" + i, i);
+                lru.remove(dismissed);
+            } else {
+                old.putFirstIfAbsent("parcel" + i, i);
+                old.remove(dismissed);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void matchesTheArrayListItReplaced() {
+        int capacity = 200;
+        LinkedLruMap<String, Integer> lru = new LinkedLruMap<>(capacity);
+        ArrayListLru old = new ArrayListLru(capacity);
+        runScans(capacity, 2000, lru, null);
+        runScans(capacity, 2000, null, old);
+
+        // same entries in the same order
+        assertEquals(old.stack, lru.keys());
+        assertEquals(capacity / 2, lru.size());
+    }
+
+    /**
+     * Wall clock timing, only run with -Dbenchmark=true
+     */
+    @Test
+    public void fasterThanTheArrayListItReplacedBenchmark() {
+        assumeTrue("benchmark", Boolean.getBoolean("benchmark"));
+        int capacity = 2000;
+        int steps = 20000;
+        long lruNanos = Long.MAX_VALUE;
+        long oldNanos = Long.MAX_VALUE;
+        // best of a few runs, the first ones warm up the JIT
+        for (int run = 0; run < 3; run++) {
+            lruNanos = Math.min(lruNanos,
+                    runScans(capacity, steps, new LinkedLruMap<>(capacity), null));
+            oldNanos = Math.min(oldNanos,
+                    runScans(capacity, steps, null, new ArrayListLru(capacity)));
+        }
+        // O(1) against O(n) per step, by far more than the margin
+        assertTrue("LinkedLruMap " + lruNanos / 1000 + "us, ArrayList " + oldNanos / 1000
+                + "us", lruNanos * 2 < oldNanos);
+    }
+}
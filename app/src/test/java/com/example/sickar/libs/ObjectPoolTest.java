@@ -0,0 +1,128 @@
+package com.example.sickar.libs;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ObjectPool and counts the node graphs built per place and remove cycle of AR cards
+ */
+public class ObjectPoolTest {
+    /**
+     * Stand in for the node graph of a card, counts how many are built
+     */
+    private static class Graph {
+        static int built;
+
+        final List<Graph> children = new ArrayList<>();
+        String item;
+        boolean enabled = true;
+
+        Graph(int childCount) {
+            built++;
+            for (int i = 0; i < childCount; i++) {
+                children.add(new Graph(0));
+            }
+        }
+
+        void reset() {
+            item = null;
+            enabled = true;
+        }
+    }
+
+    private static ObjectPool<Graph> pool(int capacity) {
+        return new ObjectPool<>(capacity, () -> new Graph(5), Graph::reset);
+    }
+
+    @Test
+    public void releasedObjectsAreReusedAndReset() {
+        ObjectPool<Graph> pool = pool(2);
+        Graph graph = pool.acquire();
+        graph.item = "a";
+        graph.enabled = false;
+        assertTrue(pool.release(graph));
+        Graph again = pool.acquire();
+        assertSame(graph, again);
+        assertNull(again.item);
+        assertTrue(again.enabled);
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void releasesBeyondCapacityAreDropped() {
+        ObjectPool<Graph> pool = pool(1);
+        Graph a = pool.acquire();
+        Graph b = pool.acquire();
+        assertTrue(pool.release(a));
+        assertFalse(pool.release(b));
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getDroppedCount());
+    }
+
+    @Test
+    public void prefillStopsAtCapacity() {
+        ObjectPool<Graph> pool = pool(3);
+        pool.prefill(5);
+        assertEquals(3, pool.getIdleCount());
+        assertEquals(3, pool.getCreatedCount());
+        pool.acquire();
+        assertEquals(3, pool.getCreatedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacityIsRejected() {
+        pool(-1);
+    }
+
+    @Test
+    public void placeAndRemoveCyclesBuildNoGraphsOnceWarm() {
+        int cycles = 100;
+        int cardsPerCycle = 4;
+
+        Graph.built = 0;
+        placeAndRemove(null, cycles, cardsPerCycle);
+        int withoutPool = Graph.built;
+
+        Graph.built = 0;
+        ObjectPool<Graph> pool = pool(8);
+        pool.prefill(2);
+        placeAndRemove(pool, cycles, cardsPerCycle);
+        int withPool = Graph.built;
+
+        // each graph is a base and 5 children
+        assertEquals(cycles * cardsPerCycle * 6, withoutPool);
+        // only the first cycle builds the graphs the prefill did not
+        assertEquals(cardsPerCycle * 6, withPool);
+        assertEquals(cycles * cardsPerCycle - (cardsPerCycle - 2), pool.getReusedCount());
+        assertEquals(0, pool.getDroppedCount());
+    }
+
+    /**
+     * Place a number of cards and remove them all, for a number of cycles
+     *
+     * @param pool pool to take the graphs from, null to build each one
+     */
+    private static void placeAndRemove(ObjectPool<Graph> pool, int cycles, int cardsPerCycle) {
+        ArrayDeque<Graph> placed = new ArrayDeque<>();
+        for (int c = 0; c < cycles; c++) {
+            for (int i = 0; i < cardsPerCycle; i++) {
+                Graph graph = pool == null ? new Graph(5) : pool.acquire();
+                assertNull(graph.item);
+                graph.item = "item" + i;
+                placed.add(graph);
+            }
+            while (!placed.isEmpty()) {
+                Graph graph = placed.poll();
+                if (pool != null) {
+                    pool.release(graph);
+                }
+            }
+        }
+    }
+}
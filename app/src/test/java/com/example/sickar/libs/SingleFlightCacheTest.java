@@ -0,0 +1,157 @@
+package com.example.sickar.libs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightCacheTest {
+    private final AtomicLong now = new AtomicLong(1000);
+    private final SingleFlightCache<String, String> cache = new SingleFlightCache<>(100, now::get);
+    private final List<CompletableFuture<String>> loads = new ArrayList<>();
+
+    private CompletableFuture<String> load(String key) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        loads.add(future);
+        return future;
+    }
+
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        CompletableFuture<String> first = cache.get("a", this::load);
+        CompletableFuture<String> second = cache.get("a", this::load);
+        CompletableFuture<String> other = cache.get("b", this::load);
+
+        assertEquals(2, loads.size());
+        assertFalse(first.isDone());
+        loads.get(0).complete("A");
+
+        assertEquals("A", first.get());
+        assertEquals("A", second.get());
+        assertFalse(other.isDone());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getJoins());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void completedResultsExpire() throws Exception {
+        cache.get("a", this::load);
+        loads.get(0).complete("A");
+
+        now.addAndGet(99);
+        assertEquals("A", cache.get("a", this::load).get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, loads.size());
+
+        now.addAndGet(1);
+        CompletableFuture<String> reloaded = cache.get("a", this::load);
+        assertEquals(2, loads.size());
+        assertFalse(reloaded.isDone());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void failedLoadsAreNotCached() {
+        CompletableFuture<String> failed = cache.get("a", this::load);
+        loads.get(0).completeExceptionally(new IllegalStateException("offline"));
+        assertTrue(failed.isCompletedExceptionally());
+
+        cache.get("a", this::load);
+        assertEquals(2, loads.size());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void loaderExceptionFailsTheFuture() {
+        CompletableFuture<String> failed = cache.get("a", key -> {
+            throw new IllegalStateException("no queue");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        cache.get("a", this::load);
+        assertEquals(1, loads.size());
+    }
+
+    @Test
+    public void invalidateDropsResult() {
+        cache.get("a", this::load);
+        loads.get(0).complete("A");
+        cache.invalidate("a");
+        cache.get("a", this::load);
+        assertEquals(2, loads.size());
+    }
+
+    @Test
+    public void expiredResultsAreSweptWhenResultsAreCached() {
+        for (int i = 0; i < 10; i++) {
+            cache.get("key" + i, this::load);
+            loads.get(i).complete("value" + i);
+            now.addAndGet(20);
+        }
+        // the first five had expired when the last was cached
+        assertEquals(5, cache.size());
+        now.addAndGet(1000);
+        cache.get("other", this::load);
+        loads.get(10).complete("other");
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void cancellingOneCallerLeavesTheOthers() throws Exception {
+        CompletableFuture<String> first = cache.get("a", this::load);
+        CompletableFuture<String> second = cache.get("a", this::load);
+        assertNotSame(first, second);
+        first.cancel(false);
+        second.complete("overwritten by the caller");
+        loads.get(0).complete("A");
+
+        assertFalse(loads.get(0).isCancelled());
+        assertEquals("A", cache.get("a", this::load).get());
+        assertEquals("A", cache.get("a", this::load).get());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void manyThreadsStartOneLoad() throws Exception {
+        SingleFlightCache<String, String> shared = new SingleFlightCache<>(1000);
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<String> load = new CompletableFuture<>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch ready = new CountDownLatch(1);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            results.add(result);
+            executor.execute(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                shared.get("a", key -> {
+                    started.incrementAndGet();
+                    return load;
+                }).thenAccept(result::complete);
+            });
+        }
+        ready.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        load.complete("A");
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("A", result.get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(1, started.get());
+        assertEquals(63, shared.getJoins() + shared.getHits());
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.sickar.libs;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the tiles TileGrid picks for the viewport of a scanner picture at different zoom levels
+ */
+public class TileGridTest {
+    private static final int WIDTH = 2448;
+    private static final int HEIGHT = 2048;
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 2160;
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * @return tiles visible on the screen with the picture scaled around its center
+     */
+    private static List<TileGrid.Tile> visibleAt(float scale) {
+        float centerX = WIDTH / 2f;
+        float centerY = HEIGHT / 2f;
+        float halfWidth = SCREEN_WIDTH / scale / 2;
+        float halfHeight = SCREEN_HEIGHT / scale / 2;
+        return TileGrid.visibleTiles(WIDTH, HEIGHT, TILE_SIZE, TileGrid.sampleSizeFor(scale),
+                centerX - halfWidth, centerY - halfHeight, centerX + halfWidth,
+                centerY + halfHeight);
+    }
+
+    @Test
+    public void sampleSizeKeepsFullDetail() {
+        assertEquals(1, TileGrid.sampleSizeFor(4f));
+        assertEquals(1, TileGrid.sampleSizeFor(1f));
+        assertEquals(1, TileGrid.sampleSizeFor(0.51f));
+        assertEquals(2, TileGrid.sampleSizeFor(0.5f));
+        assertEquals(2, TileGrid.sampleSizeFor(0.26f));
+        assertEquals(4, TileGrid.sampleSizeFor(0.25f));
+        assertEquals(1, TileGrid.sampleSizeFor(0f));
+    }
+
+    @Test
+    public void tilesCoverTheViewportClippedToThePicture() {
+        List<TileGrid.Tile> tiles = TileGrid.visibleTiles(1000, 600, 256, 1,
+                -50, 100, 600, 2000);
+        // columns 0 to 2, rows 0 to 2 with the last row cut at the bottom of the picture
+        assertEquals(9, tiles.size());
+        TileGrid.Tile first = tiles.get(0);
+        assertEquals(0, first.left);
+        assertEquals(0, first.top);
+        assertEquals(256, first.right);
+        TileGrid.Tile last = tiles.get(tiles.size() - 1);
+        assertEquals("1/2/2", last.key());
+        assertEquals(512, last.left);
+        assertEquals(768, last.right);
+        assertEquals(600, last.bottom);
+        assertEquals(88, last.decodedHeight());
+
+        assertTrue(TileGrid.visibleTiles(1000, 600, 256, 1, 1000, 0, 1200, 600).isEmpty());
+    }
+
+    @Test
+    public void sampledTilesSpanMorePicturePixels() {
+        List<TileGrid.Tile> tiles = TileGrid.visibleTiles(WIDTH, HEIGHT, TILE_SIZE, 8,
+                0, 0, WIDTH, HEIGHT);
+        // 2048 picture pixels per tile
+        assertEquals(2, tiles.size());
+        assertEquals(2048, tiles.get(0).right);
+        assertEquals(WIDTH, tiles.get(1).right);
+        assertEquals(TILE_SIZE, tiles.get(0).decodedWidth());
+        assertEquals((WIDTH - 2048 + 7) / 8, tiles.get(1).decodedWidth());
+    }
+
+    @Test
+    public void zoomingInNeverDecodesTheWholePicture() {
+        long full = 2L * WIDTH * HEIGHT;
+        for (float scale = 0.45f; scale <= 4f; scale *= 1.25f) {
+            List<TileGrid.Tile> tiles = visibleAt(scale);
+            long bytes = TileGrid.decodedBytes(tiles, 2);
+            // at most one tile of overhang on each side of a screen at twice the density
+            long bound = 2L * (2 * SCREEN_WIDTH + 2 * TILE_SIZE)
+                    * (2 * SCREEN_HEIGHT + 2 * TILE_SIZE);
+            assertTrue("scale " + scale + " decodes " + bytes, bytes <= bound);
+            if (scale >= 1f) {
+                assertTrue("scale " + scale + " decodes " + bytes, bytes < full);
+            }
+        }
+        // at 4x a 2 by 4 block of full detail tiles, a tenth of the whole picture
+        List<TileGrid.Tile> zoomed = visibleAt(4f);
+        assertEquals(8, zoomed.size());
+        assertEquals(8L * 2 * TILE_SIZE * TILE_SIZE, TileGrid.decodedBytes(zoomed, 2));
+        assertTrue(TileGrid.decodedBytes(zoomed, 2) * 9 < full);
+    }
+}
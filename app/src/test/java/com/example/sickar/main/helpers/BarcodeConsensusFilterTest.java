@@ -0,0 +1,119 @@
+package com.example.sickar.main.helpers;
+
+import com.example.sickar.main.helpers.BarcodeConsensusFilter.Decision;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives BarcodeConsensusFilter with synthetic detection sequences, one entry per frame
+ */
+public class BarcodeConsensusFilterTest {
+    private static final long FRAME_MS = 33;
+    private static final String PARCEL = "9612850147114161000158";
+
+    /**
+     * Feed one frame per array entry, null being a frame without the barcode
+     *
+     * @return decision per frame, null for frames without the barcode
+     */
+    private static List<Decision> run(BarcodeConsensusFilter filter, String... frames) {
+        List<Decision> decisions = new ArrayList<>();
+        long time = 0;
+        for (String value : frames) {
+            filter.beginFrame(time);
+            decisions.add(value == null ? null : filter.accept(value));
+            time += FRAME_MS;
+        }
+        return decisions;
+    }
+
+    @Test
+    public void emitsAfterKOfNFrames() {
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(3, 5, 500);
+        assertEquals(Arrays.asList(Decision.DROP, null, Decision.DROP, null, Decision.EMIT),
+                run(filter, PARCEL, null, PARCEL, null, PARCEL));
+    }
+
+    @Test
+    public void sparseDecodesNeverEmit() {
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(3, 5, 500);
+        // seen every third frame, so never 3 times within 5 frames
+        List<Decision> decisions = run(filter, PARCEL, null, null, PARCEL, null, null, PARCEL,
+                null, null, PARCEL);
+        assertFalse(decisions.contains(Decision.EMIT));
+    }
+
+    @Test
+    public void repeatsBecomeUpdatesUntilHoldOffEnds() {
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(2, 3, 100);
+        String[] frames = new String[8];
+        Arrays.fill(frames, PARCEL);
+        // frames at 0, 33, 66, ... emitted at 33, hold-off until 133
+        assertEquals(Arrays.asList(Decision.DROP, Decision.EMIT, Decision.UPDATE, Decision.UPDATE,
+                Decision.UPDATE, Decision.EMIT, Decision.UPDATE, Decision.UPDATE),
+                run(filter, frames));
+    }
+
+    @Test
+    public void duplicateDecodeInOneFrameCountsOnce() {
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(2, 5, 500);
+        filter.beginFrame(0);
+        assertEquals(Decision.DROP, filter.accept(PARCEL));
+        assertEquals(Decision.DROP, filter.accept(PARCEL));
+        filter.beginFrame(33);
+        assertEquals(Decision.EMIT, filter.accept(PARCEL));
+        assertEquals(Decision.UPDATE, filter.accept(PARCEL));
+    }
+
+    @Test
+    public void barcodesAreTrackedSeparately() {
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(2, 2, 500);
+        filter.beginFrame(0);
+        assertEquals(Decision.DROP, filter.accept("A00000000000001"));
+        assertEquals(Decision.DROP, filter.accept("B00000000000002"));
+        filter.beginFrame(33);
+        assertEquals(Decision.EMIT, filter.accept("B00000000000002"));
+        filter.beginFrame(66);
+        assertEquals(Decision.DROP, filter.accept("A00000000000001"));
+    }
+
+    @Test
+    public void forgottenAfterWindowAndHoldOff() {
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(1, 3, 100);
+        run(filter, PARCEL, null, null, null, null, null);
+        assertEquals(0, filter.size());
+    }
+
+    @Test
+    public void noisySequenceEmitsOnlyStableBarcode() {
+        // a stable barcode decoded in 80% of frames and a random misread in a few frames
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(3, 5, 500);
+        Random random = new Random(42);
+        int stableEmits = 0;
+        int misreadEmits = 0;
+        int messages = 0;
+        for (int i = 0; i < 300; i++) {
+            filter.beginFrame(i * FRAME_MS);
+            if (random.nextFloat() < 0.8f) {
+                Decision d = filter.accept(PARCEL);
+                if (d == Decision.EMIT) stableEmits++;
+                if (d != Decision.DROP) messages++;
+            }
+            if (random.nextFloat() < 0.1f) {
+                String misread = "96128501471141610" + random.nextInt(100000);
+                if (filter.accept(misread) == Decision.EMIT) misreadEmits++;
+            }
+        }
+        assertEquals(0, misreadEmits);
+        // 300 frames of 33 ms with a 500 ms hold-off report the parcel about once per hold-off
+        assertTrue("emits " + stableEmits, stableEmits >= 15 && stableEmits <= 21);
+        assertTrue(messages < 300);
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives BarcodeTracker with synthetic Y planes and camera poses
+ */
+public class BarcodeTrackerTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final float[] IDENTITY = {0, 0, 0, 1};
+    private static final float[] ORIGIN = {0, 0, 0};
+
+    private final BarcodeTracker tracker = new BarcodeTracker(10, 3,
+            (float) Math.toRadians(1.5), 0.02f, 12, 0.04f);
+
+    /**
+     * Grey frame with a bright rectangle, like a label on a parcel
+     */
+    private static LumaGrid frame(int left, int top, int right, int bottom) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean label = x >= left && x < right && y >= top && y < bottom;
+                plane.put((byte) (label ? 230 : 90));
+            }
+        }
+        plane.rewind();
+        return LumaGrid.fromPlane(plane, WIDTH, HEIGHT, WIDTH, 1, 16, 12);
+    }
+
+    /**
+     * Quaternion for a rotation about the y axis
+     */
+    private static float[] yaw(double degrees) {
+        double half = Math.toRadians(degrees) / 2;
+        return new float[]{0, (float) Math.sin(half), 0, (float) Math.cos(half)};
+    }
+
+    @Test
+    public void stillSceneIsDecodedAtTrackedCadence() {
+        LumaGrid grid = frame(200, 150, 400, 300);
+        int decodes = 0;
+        for (int i = 0; i < 300; i++) {
+            if (tracker.shouldDecode(grid, IDENTITY, ORIGIN)) {
+                decodes++;
+                tracker.onDecoded(1);
+            }
+        }
+        // first frame and then every 10th frame
+        assertEquals(30, decodes);
+        assertEquals(270, tracker.getSkips());
+        assertEquals(300, tracker.getFrames());
+        assertEquals(30, tracker.getDecodes());
+        // comparing 16x12 grids takes microseconds, far less than a decode
+        assertTrue(tracker.toString(), tracker.getAverageCheckNanos() < 1000000);
+    }
+
+    @Test
+    public void emptySceneUsesSearchCadence() {
+        LumaGrid grid = frame(0, 0, 0, 0);
+        int decodes = 0;
+        for (int i = 0; i < 30; i++) {
+            if (tracker.shouldDecode(grid, IDENTITY, ORIGIN)) {
+                decodes++;
+                tracker.onDecoded(0);
+            }
+        }
+        assertEquals(10, decodes);
+    }
+
+    /**
+     * Run the tracker with a consensus filter the way BarcodeProcessor does
+     *
+     * @param frameCount number of frames
+     * @param decoded    barcodes decoded in a frame, by frame index
+     * @return indices of the decoded frames
+     */
+    private List<Integer> scan(int frameCount, IntFunction<List<String>> decoded) {
+        BarcodeConsensusFilter filter = new BarcodeConsensusFilter(3, 5, 500);
+        LumaGrid grid = frame(200, 150, 400, 300);
+        List<Integer> decodedFrames = new ArrayList<>();
+        for (int i = 0; i < frameCount; i++) {
+            if (tracker.shouldDecode(grid, IDENTITY, ORIGIN)) {
+                decodedFrames.add(i);
+                filter.beginFrame(i * 33L);
+                int confirmed = 0;
+                for (String value : decoded.apply(i)) {
+                    if (filter.accept(value) != BarcodeConsensusFilter.Decision.DROP) {
+                        confirmed++;
+                    }
+                }
+                tracker.onDecoded(confirmed);
+            }
+        }
+        return decodedFrames;
+    }
+
+    @Test
+    public void barcodeKeepsSearchCadenceUntilConfirmed() {
+        List<Integer> decodes = scan(30, i -> Arrays.asList("A"));
+        // confirmed in the third decode, then tracked
+        assertEquals(Arrays.asList(0, 3, 6, 16, 26), decodes);
+    }
+
+    @Test
+    public void misreadDoesNotSlowTheSearch() {
+        List<Integer> decodes = scan(30, i -> i == 0 ? Arrays.asList("misread")
+                : new ArrayList<>());
+        assertEquals(10, decodes.size());
+    }
+
+    @Test
+    public void cameraRotationForcesDecode() {
+        LumaGrid grid = frame(200, 150, 400, 300);
+        assertTrue(tracker.shouldDecode(grid, IDENTITY, ORIGIN));
+        tracker.onDecoded(1);
+        assertFalse(tracker.shouldDecode(grid, yaw(1), ORIGIN));
+        assertTrue(tracker.shouldDecode(grid, yaw(2), ORIGIN));
+        // the rotated frame is the new reference
+        assertFalse(tracker.shouldDecode(grid, yaw(2.5), ORIGIN));
+    }
+
+    @Test
+    public void cameraTranslationForcesDecode() {
+        LumaGrid grid = frame(200, 150, 400, 300);
+        tracker.shouldDecode(grid, IDENTITY, ORIGIN);
+        tracker.onDecoded(1);
+        assertFalse(tracker.shouldDecode(grid, IDENTITY, new float[]{0.01f, 0, 0}));
+        assertTrue(tracker.shouldDecode(grid, IDENTITY, new float[]{0.01f, 0.02f, 0}));
+    }
+
+    @Test
+    public void newRegionForcesDecode() {
+        tracker.shouldDecode(frame(200, 150, 400, 300), IDENTITY, ORIGIN);
+        tracker.onDecoded(1);
+        assertFalse(tracker.shouldDecode(frame(200, 150, 400, 300), IDENTITY, ORIGIN));
+        // a second label enters the view
+        assertTrue(tracker.shouldDecode(frame(200, 150, 600, 300), IDENTITY, ORIGIN));
+    }
+
+    @Test
+    public void lostTrackingForcesDecode() {
+        LumaGrid grid = frame(200, 150, 400, 300);
+        tracker.shouldDecode(grid, IDENTITY, ORIGIN);
+        tracker.onDecoded(1);
+        assertTrue(tracker.shouldDecode(grid, null, null));
+        assertTrue(tracker.shouldDecode(grid, IDENTITY, ORIGIN));
+        assertFalse(tracker.shouldDecode(grid, IDENTITY, ORIGIN));
+    }
+
+    @Test
+    public void gridSamplesRowStrideAndPixelStride() {
+        // two bytes per pixel and padding at the end of each row
+        int rowStride = WIDTH * 2 + 16;
+        ByteBuffer plane = ByteBuffer.allocate(rowStride * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(y * rowStride + x * 2, (byte) (x < WIDTH / 2 ? 20 : 200));
+            }
+        }
+        LumaGrid grid = LumaGrid.fromPlane(plane, WIDTH, HEIGHT, rowStride, 2, 4, 2);
+        assertEquals(20, grid.mean(0, 0));
+        assertEquals(20, grid.mean(1, 1));
+        assertEquals(200, grid.mean(2, 0));
+        assertEquals(200, grid.mean(3, 1));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hands boxes through a BoxBuffer to a BoxAnimator the way the GraphicOverlay does
+ */
+public class BoxAnimatorTest {
+    private final BoxBuffer buffer = new BoxBuffer(4, null);
+    private final BoxAnimator animator = new BoxAnimator(4, 200);
+    private final float[] read = new float[16];
+
+    private void publish(int[]... boxes) {
+        buffer.begin();
+        for (int[] box : boxes) {
+            buffer.add(box);
+        }
+        buffer.publish();
+    }
+
+    private void target(long nowMs) {
+        animator.setTargets(read, buffer.read(read), nowMs);
+    }
+
+    @Test
+    public void bufferSwapsWholeFrames() {
+        publish(new int[]{0, 0, 10, 10}, new int[]{20, 0, 30, 10});
+        long version = buffer.getVersion();
+        buffer.begin();
+        buffer.add(new int[]{50, 50, 60, 60});
+        // not published yet, the reader still sees the last frame
+        assertEquals(2, buffer.read(read));
+        assertEquals(20, read[4], 0);
+        buffer.publish();
+        assertEquals(version + 1, buffer.getVersion());
+        assertEquals(1, buffer.read(read));
+        assertEquals(50, read[0], 0);
+    }
+
+    @Test
+    public void bufferDropsBoxesBeyondCapacity() {
+        buffer.begin();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.add(new int[]{i, i, i + 1, i + 1}));
+        }
+        assertFalse(buffer.add(new int[]{9, 9, 10, 10}));
+        buffer.publish();
+        assertEquals(4, buffer.read(read));
+        buffer.clear();
+        assertEquals(0, buffer.read(read));
+    }
+
+    @Test
+    public void firstBoxAppearsInPlace() {
+        publish(new int[]{0, 0, 100, 50});
+        target(0);
+        assertFalse(animator.update(0));
+        assertEquals(1, animator.getCount());
+        assertEquals(100, animator.getBoxes()[2], 0);
+    }
+
+    @Test
+    public void movedBoxSlidesOverDetectionInterval() {
+        publish(new int[]{0, 0, 100, 50});
+        target(0);
+        animator.update(0);
+        publish(new int[]{40, 0, 140, 50});
+        target(100);
+
+        assertTrue(animator.update(100));
+        assertEquals(0, animator.getBoxes()[0], 0);
+        assertTrue(animator.update(150));
+        assertEquals(20, animator.getBoxes()[0], 0.01);
+        assertFalse(animator.update(200));
+        assertEquals(40, animator.getBoxes()[0], 0);
+    }
+
+    @Test
+    public void distantBoxIsNotMatched() {
+        publish(new int[]{0, 0, 100, 50});
+        target(0);
+        animator.update(0);
+        publish(new int[]{500, 500, 600, 550});
+        target(100);
+        animator.update(100);
+        assertEquals(500, animator.getBoxes()[0], 0);
+    }
+
+    @Test
+    public void boxesMatchTheirNearestPredecessor() {
+        publish(new int[]{0, 0, 100, 50}, new int[]{300, 0, 400, 50});
+        target(0);
+        animator.update(0);
+        // same boxes in the other order, moved right by 10
+        publish(new int[]{310, 0, 410, 50}, new int[]{10, 0, 110, 50});
+        target(100);
+        animator.update(150);
+        assertEquals(305, animator.getBoxes()[0], 0.01);
+        assertEquals(5, animator.getBoxes()[4], 0.01);
+    }
+}
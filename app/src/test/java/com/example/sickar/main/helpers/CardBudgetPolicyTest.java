@@ -0,0 +1,145 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.sickar.main.helpers.CardBudgetPolicy.Level.FULL;
+import static com.example.sickar.main.helpers.CardBudgetPolicy.Level.HIDDEN;
+import static com.example.sickar.main.helpers.CardBudgetPolicy.Level.MARKER;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the levels and releases chosen by CardBudgetPolicy
+ */
+public class CardBudgetPolicyTest {
+    private CardBudgetPolicy policy;
+    private List<CardBudgetPolicy.Card> cards;
+
+    @Before
+    public void setUp() {
+        policy = new CardBudgetPolicy(2, 3, 10);
+        cards = new ArrayList<>();
+    }
+
+    private CardBudgetPolicy.Card add(float distance, boolean inView) {
+        CardBudgetPolicy.Card card = new CardBudgetPolicy.Card();
+        card.distance = distance;
+        card.inView = inView;
+        cards.add(card);
+        return card;
+    }
+
+    /**
+     * Evaluate and mark the FULL cards as loaded and the released ones as not loaded, as the
+     * CardManager does
+     */
+    private void evaluate(long nowMs) {
+        policy.evaluate(cards, nowMs);
+        for (CardBudgetPolicy.Card card : cards) {
+            if (card.shouldRelease()) {
+                card.setLoaded(false);
+            }
+            if (card.getLevel() == FULL) {
+                card.setLoaded(true);
+            }
+        }
+    }
+
+    @Test
+    public void levelsFollowDistanceAndView() {
+        CardBudgetPolicy.Card near = add(1, true);
+        CardBudgetPolicy.Card far = add(5, true);
+        CardBudgetPolicy.Card culled = add(12, true);
+        CardBudgetPolicy.Card behind = add(1, false);
+        evaluate(0);
+        assertEquals(FULL, near.getLevel());
+        assertEquals(MARKER, far.getLevel());
+        assertEquals(HIDDEN, culled.getLevel());
+        assertEquals(HIDDEN, behind.getLevel());
+        assertEquals(1, policy.getFullCount());
+        assertEquals(1, policy.getMarkerCount());
+        assertEquals(2, policy.getHiddenCount());
+    }
+
+    @Test
+    public void nearestCardsAreFullWithinBudget() {
+        CardBudgetPolicy.Card c = add(2.5f, true);
+        CardBudgetPolicy.Card a = add(0.5f, true);
+        CardBudgetPolicy.Card b = add(1.5f, true);
+        evaluate(0);
+        assertEquals(FULL, a.getLevel());
+        assertEquals(FULL, b.getLevel());
+        assertEquals(MARKER, c.getLevel());
+        assertEquals(2, policy.getFullCount());
+        assertEquals(1, policy.getMarkerCount());
+        assertFalse(c.isLoaded());
+    }
+
+    @Test
+    public void leastRecentlySeenCardsAreReleased() {
+        CardBudgetPolicy.Card a = add(1, true);
+        CardBudgetPolicy.Card b = add(1, false);
+        CardBudgetPolicy.Card c = add(1, false);
+        evaluate(0);
+        a.inView = false;
+        b.inView = true;
+        evaluate(100);
+        // a and b loaded, within the budget
+        assertTrue(a.isLoaded());
+        assertTrue(b.isLoaded());
+        assertEquals(0, policy.getReleasedCount());
+
+        b.inView = false;
+        c.inView = true;
+        evaluate(200);
+        // a was seen least recently, b stays loaded while hidden
+        assertTrue(a.shouldRelease());
+        assertFalse(a.isLoaded());
+        assertTrue(b.isLoaded());
+        assertTrue(c.isLoaded());
+        assertEquals(HIDDEN, a.getLevel());
+        assertEquals(1, policy.getReleasedCount());
+        assertEquals(2, policy.getLoadedCount());
+    }
+
+    @Test
+    public void fullCardsAreNeverReleased() {
+        CardBudgetPolicy.Card a = add(1, true);
+        CardBudgetPolicy.Card b = add(2, true);
+        evaluate(0);
+        CardBudgetPolicy.Card c = add(0.5f, true);
+        evaluate(100);
+        // c is nearer and becomes FULL, b drops to a marker and is released for it
+        assertEquals(FULL, a.getLevel());
+        assertEquals(FULL, c.getLevel());
+        assertEquals(MARKER, b.getLevel());
+        assertTrue(b.shouldRelease());
+        assertFalse(a.shouldRelease());
+        assertEquals(2, policy.getLoadedCount());
+    }
+
+    @Test
+    public void loadedCountNeverExceedsBudget() {
+        for (int i = 0; i < 20; i++) {
+            add(i % 4, i % 3 != 0);
+        }
+        for (int t = 0; t < 50; t++) {
+            for (int i = 0; i < cards.size(); i++) {
+                cards.get(i).inView = (i + t) % 3 != 0;
+                cards.get(i).distance = (i * 7 + t) % 12;
+            }
+            evaluate(t * 100L);
+            int loaded = 0;
+            for (CardBudgetPolicy.Card card : cards) {
+                if (card.isLoaded()) {
+                    loaded++;
+                }
+            }
+            assertTrue(loaded <= 2);
+            assertTrue(policy.getFullCount() <= 2);
+        }
+    }
+}
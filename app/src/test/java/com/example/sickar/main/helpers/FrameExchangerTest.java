@@ -0,0 +1,113 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the latest frame wins handoff and the reuse of pooled frames
+ */
+public class FrameExchangerTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private final FrameExchanger exchanger = new FrameExchanger();
+    private final ByteBuffer plane = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+
+    /**
+     * Fill a pooled frame with a plane whose first pixel is the frame number and publish it
+     */
+    private LuminanceFrame push(int number) {
+        plane.put(0, (byte) number);
+        LuminanceFrame frame = exchanger.acquire();
+        frame.copyFrom(plane, WIDTH, HEIGHT, WIDTH, 1, 90, null);
+        exchanger.publish(frame);
+        return frame;
+    }
+
+    @Test
+    public void latestFrameWins() throws InterruptedException {
+        push(1);
+        push(2);
+        push(3);
+
+        LuminanceFrame frame = exchanger.take();
+
+        assertEquals(3, frame.getNv21()[0]);
+        assertEquals(3, exchanger.getPublished());
+        assertEquals(2, exchanger.getDropped());
+        assertEquals(1, exchanger.getTaken());
+    }
+
+    @Test
+    public void steadyStateReusesFramesAndBuffers() throws InterruptedException {
+        Set<LuminanceFrame> frames = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<byte[]> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+        LuminanceFrame decoding = null;
+        for (int i = 0; i < 100; i++) {
+            frames.add(push(i));
+            // the decoder takes every third frame and holds it while more frames arrive
+            if (i % 3 == 0) {
+                if (decoding != null) {
+                    exchanger.release(decoding);
+                }
+                decoding = exchanger.take();
+                buffers.add(decoding.getNv21());
+                assertEquals((byte) i, decoding.getNv21()[0]);
+            }
+        }
+        assertEquals(3, frames.size());
+        assertEquals(3, buffers.size());
+    }
+
+    @Test
+    public void concurrentHandoffAccountsForEveryFrame() throws InterruptedException {
+        int count = 2000;
+        AtomicInteger outOfOrder = new AtomicInteger();
+        Thread decoder = new Thread(() -> {
+            try {
+                int last = -1;
+                while (true) {
+                    LuminanceFrame frame = exchanger.take();
+                    int number = frame.getNv21()[1] & 0xff | (frame.getNv21()[2] & 0xff) << 8;
+                    // frames arrive in order even though some are skipped
+                    if (number <= last) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    last = number;
+                    exchanger.release(frame);
+                }
+            } catch (InterruptedException e) {
+                // done
+            }
+        });
+        decoder.start();
+        for (int i = 0; i < count; i++) {
+            plane.put(1, (byte) i);
+            plane.put(2, (byte) (i >> 8));
+            LuminanceFrame frame = exchanger.acquire();
+            frame.copyFrom(plane, WIDTH, HEIGHT, WIDTH, 1, 0, null);
+            exchanger.publish(frame);
+        }
+        // wait for the decoder to take the last pending frame
+        long deadline = System.currentTimeMillis() + 5000;
+        while (exchanger.getTaken() + exchanger.getDropped() < count
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        decoder.interrupt();
+        decoder.join();
+
+        assertEquals(0, outOfOrder.get());
+        assertEquals(count, exchanger.getPublished());
+        assertEquals(count, exchanger.getTaken() + exchanger.getDropped());
+        // the decoder kept up with some of the frames
+        assertTrue(exchanger.toString(), exchanger.getTaken() > 0);
+    }
+}
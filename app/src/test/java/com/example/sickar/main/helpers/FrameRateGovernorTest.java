@@ -0,0 +1,116 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives FrameRateGovernor with synthetic camera motion and decoder latencies
+ */
+public class FrameRateGovernorTest {
+    private static final float[] ORIGIN = {0, 0, 0};
+
+    private final FrameRateGovernor governor = new FrameRateGovernor(33, 100, 400, 0.6f,
+            (float) Math.toRadians(30), 0.25f, (float) Math.toRadians(3), 0.02f, 1500);
+
+    /**
+     * Quaternion for a rotation about the y axis
+     */
+    private static float[] yaw(double degrees) {
+        double half = Math.toRadians(degrees) / 2;
+        return new float[]{0, (float) Math.sin(half), 0, (float) Math.cos(half)};
+    }
+
+    /**
+     * Feed 30 fps poses from a yaw rate for a duration and decode every frame
+     *
+     * @return delay after the last decode
+     */
+    private long run(long fromMs, long durationMs, double degreesPerSecond, long latencyMs) {
+        long delay = 0;
+        for (long t = fromMs; t < fromMs + durationMs; t += 33) {
+            governor.onPose(t, yaw(degreesPerSecond * t / 1000.0), ORIGIN);
+            delay = governor.onDecoded(t, latencyMs);
+        }
+        return delay;
+    }
+
+    @Test
+    public void panningScansAtFullRate() {
+        long delay = run(0, 1000, 90, 10);
+        assertEquals(FrameRateGovernor.Mode.SCAN, governor.getMode());
+        assertEquals(33, governor.getIntervalMs());
+        assertEquals(23, delay);
+    }
+
+    @Test
+    public void stillCameraBacksOff() {
+        run(0, 1000, 0, 10);
+        // still for less than the hold time
+        assertEquals(FrameRateGovernor.Mode.TRACK, governor.getMode());
+        long delay = run(1000, 1000, 0, 10);
+        assertEquals(FrameRateGovernor.Mode.IDLE, governor.getMode());
+        assertEquals(390, delay);
+        assertTrue(governor.getDecisions(FrameRateGovernor.Mode.TRACK) > 0);
+        assertTrue(governor.getDecisions(FrameRateGovernor.Mode.IDLE) > 0);
+        // one decision per decoded frame, 31 frames in each second
+        assertEquals(62, governor.getDecisions(FrameRateGovernor.Mode.SCAN)
+                + governor.getDecisions(FrameRateGovernor.Mode.TRACK)
+                + governor.getDecisions(FrameRateGovernor.Mode.IDLE));
+    }
+
+    @Test
+    public void movingAgainScansImmediately() {
+        run(0, 3000, 0, 10);
+        assertEquals(FrameRateGovernor.Mode.IDLE, governor.getMode());
+        run(3000, 200, 120, 10);
+        assertEquals(FrameRateGovernor.Mode.SCAN, governor.getMode());
+    }
+
+    @Test
+    public void slowDecoderKeepsDutyCycle() {
+        // 60 ms decodes may only use 60% of the time
+        long delay = run(0, 1000, 90, 60);
+        assertEquals(100, governor.getIntervalMs());
+        assertEquals(40, delay);
+    }
+
+    @Test
+    public void heatStretchesInterval() {
+        governor.setThermalLevel(FrameRateGovernor.THERMAL_WARM);
+        run(0, 1000, 90, 10);
+        assertEquals(66, governor.getIntervalMs());
+        governor.setThermalLevel(FrameRateGovernor.THERMAL_HOT);
+        run(1000, 100, 90, 10);
+        assertEquals(132, governor.getIntervalMs());
+    }
+
+    @Test
+    public void lostTrackingIsNotStill() {
+        for (long t = 0; t < 3000; t += 33) {
+            governor.onPose(t, null, null);
+            governor.onDecoded(t, 10);
+        }
+        assertEquals(FrameRateGovernor.Mode.TRACK, governor.getMode());
+    }
+
+    @Test
+    public void measuresEffectiveRate() {
+        for (long t = 0; t < 2000; t += 50) {
+            governor.onPose(t, yaw(t / 10.0), ORIGIN);
+            governor.onDecoded(t, 10);
+        }
+        assertEquals(20f, governor.getEffectiveFps(), 0.01f);
+        assertEquals(10f, governor.getLatencyMs(), 0.01f);
+    }
+
+    @Test
+    public void batteryTemperatureLevels() {
+        assertEquals(FrameRateGovernor.THERMAL_NONE,
+                FrameRateGovernor.thermalLevelForBattery(355, 40, 45));
+        assertEquals(FrameRateGovernor.THERMAL_WARM,
+                FrameRateGovernor.thermalLevelForBattery(412, 40, 45));
+        assertEquals(FrameRateGovernor.THERMAL_HOT,
+                FrameRateGovernor.thermalLevelForBattery(450, 40, 45));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.sickar.main.helpers;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that the streaming ItemJsonParser produces the same Items as
+ * BarcodeDataCache.jsonToItem for the recorded get/ responses in resources/responses/get
+ */
+public class ItemJsonParserTest {
+    private static final String[] GOLDEN_FILES = {
+            "two_systems.json",
+            "null_properties.json",
+            "no_results.json",
+            "reordered_fields.json",
+            "three_systems_tampered.json"
+    };
+
+    @Test
+    public void matchesJsonObjectParsing() throws Exception {
+        for (String file : GOLDEN_FILES) {
+            byte[] data = readResource("/responses/get/" + file);
+            Item expected = BarcodeDataCache.jsonToItem(file,
+                    new JSONObject(new String(data, StandardCharsets.UTF_8)));
+            Item actual = ItemJsonParser.parse(file, data);
+            assertNotNull(file, expected);
+            assertSameItem(file, expected, actual);
+        }
+    }
+
+    @Test
+    public void parsesDisplayValues() throws Exception {
+        Item item = ItemJsonParser.parse("9612850147114161000158",
+                readResource("/responses/get/two_systems.json"));
+
+        assertEquals("9612850147114161000158", item.getName());
+        assertEquals(2, item.getSystemList().size());
+        assertEquals("Outbound Line 2", item.getProp("2", "systemLabel"));
+        assertEquals("412.3 mm", item.getProp("2", "length"));
+        assertEquals("08-01-2019 17:42:13", item.getProp("2", "objectScanTime"));
+        assertEquals("0.93", item.getProp("2", "boxFactor"));
+        assertEquals("[9612850147114161000158]", item.getProp("2", "barcodes"));
+    }
+
+    @Test
+    public void skipsNullProperties() throws Exception {
+        Item item = ItemJsonParser.parse("x", readResource("/responses/get/null_properties.json"));
+
+        assertNull(item.getProp("7", "width"));
+        assertNull(item.getProp("7", "weight"));
+        assertNull(item.getProp("7", "gap"));
+        assertNull(item.getProp("7", "barcodes"));
+        // volume is computed from the dimensions that are present
+        assertEquals(250.0f * 120.5f / 1000 + " cm^3", item.getProp("7", "volume"));
+    }
+
+    @Test
+    public void emptyResultsHaveNoSystems() throws Exception {
+        Item item = ItemJsonParser.parse("x", readResource("/responses/get/no_results.json"));
+        assertTrue(item.getSystemList().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingResults() throws Exception {
+        ItemJsonParser.parse("x", ("{\"systems\": [\"1\", \"2\"], \"results\": [" +
+                "{\"systemName\": \"a\"}]}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse a response a number of times with the streaming parser or the JSONObject path
+     *
+     * @return nanoseconds taken
+     */
+    private static long parseRepeatedly(byte[] data, int times, boolean streaming)
+            throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            Item item = streaming ? ItemJsonParser.parse("x", data)
+                    : BarcodeDataCache.jsonToItem("x",
+                    new JSONObject(new String(data, StandardCharsets.UTF_8)));
+            assertEquals(3, item.getSystemList().size());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Wall clock timing, only run with -Dbenchmark=true. The golden file tests above cover the
+     * equivalence of the two paths.
+     */
+    @Test
+    public void streamingIsFasterThanJsonObjectBenchmark() throws Exception {
+        assumeTrue("benchmark", Boolean.getBoolean("benchmark"));
+        byte[] data = readResource("/responses/get/three_systems_tampered.json");
+        int times = 500;
+        long streamingNanos = Long.MAX_VALUE;
+        long jsonObjectNanos = Long.MAX_VALUE;
+        // best of a few runs, the first ones warm up the JIT
+        for (int run = 0; run < 5; run++) {
+            streamingNanos = Math.min(streamingNanos, parseRepeatedly(data, times, true));
+            jsonObjectNanos = Math.min(jsonObjectNanos, parseRepeatedly(data, times, false));
+        }
+        assertTrue("streaming " + streamingNanos / times + "ns, JSONObject "
+                + jsonObjectNanos / times + "ns per response", streamingNanos < jsonObjectNanos);
+    }
+
+    /**
+     * Compare the systems and the ordered properties of each system
+     */
+    private static void assertSameItem(String file, Item expected, Item actual) {
+        assertEquals(file, expected.getName(), actual.getName());
+        assertEquals(file, expected.getSystemList(), actual.getSystemList());
+        for (String system : expected.getSystemList()) {
+            assertEquals(file + " system " + system,
+                    new ArrayList<>(expected.getSystemData(system).entrySet()),
+                    new ArrayList<>(actual.getSystemData(system).entrySet()));
+        }
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        try (InputStream in = ItemJsonParserTest.class.getResourceAsStream(name)) {
+            assertNotNull("missing resource " + name, in);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ItemSnapshot and reads an Item from several threads while others add systems and
+ * properties
+ */
+public class ItemSnapshotTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int SYSTEMS_PER_WRITER = 200;
+
+    @Test
+    public void snapshotsDoNotChangeWhenTheItemDoes() {
+        Item item = new Item("x");
+        item.addSystem("1");
+        item.addProp("1", "length", "400 mm");
+        ItemSnapshot before = item.snapshot();
+
+        item.addProp("1", "length", "500 mm");
+        item.addSystem("2");
+
+        assertEquals("400 mm", before.getProp("1", "length"));
+        assertEquals(1, before.getSystemList().size());
+        assertEquals("500 mm", item.getProp("1", "length"));
+        assertEquals(2, item.getSystemList().size());
+    }
+
+    @Test
+    public void systemsAreReadByIdWithoutACurrentSystem() {
+        Item item = new Item("x");
+        item.addSystem("2");
+        item.addSystem("1");
+        item.addProp("2", "weight", "3 kg");
+        item.addProp("1", "weight", "2 kg");
+        ItemSnapshot snapshot = item.snapshot();
+        assertEquals("3 kg", snapshot.getProp("2", "weight"));
+        assertEquals("2 kg", snapshot.getProp("1", "weight"));
+        assertNull(snapshot.getProp("3", "weight"));
+        assertNull(snapshot.getSystemData("3"));
+        assertEquals("weight: 2 kg", snapshot.getAllPropsAsString("1"));
+        assertTrue(snapshot.getPropsForARCard().contains("weight : 3 kg"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void systemListIsReadOnly() {
+        Item item = new Item("x");
+        item.addSystem("1");
+        item.snapshot().getSystemList().add("2");
+    }
+
+    @Test
+    public void propertyOfAMissingSystemIsIgnored() {
+        Item item = new Item("x");
+        item.addSystem("1");
+        ItemSnapshot before = item.snapshot();
+        item.addProp("2", "length", "400 mm");
+        assertSame(before, item.snapshot());
+    }
+
+    @Test
+    public void concurrentReadersSeeConsistentSnapshots() throws Exception {
+        Item item = new Item("x");
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < SYSTEMS_PER_WRITER; i++) {
+                        String system = writer + "-" + i;
+                        item.addSystem(system);
+                        item.addProp(system, "systemName", "name-" + system);
+                        item.addProp(system, "length", i + ".0 mm");
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    writersDone.countDown();
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    int lastSize = 0;
+                    while (writing.get()) {
+                        ItemSnapshot snapshot = item.snapshot();
+                        List<String> systems = snapshot.getSystemList();
+                        int size = systems.size();
+                        assertTrue("systems are never removed", size >= lastSize);
+                        lastSize = size;
+                        for (String system : systems) {
+                            Map<String, String> data = snapshot.getSystemData(system);
+                            assertNotNull(system, data);
+                            String name = data.get("systemName");
+                            assertTrue(system + " " + name,
+                                    name == null || name.equals("name-" + system));
+                        }
+                        assertEquals("a snapshot does not change", size,
+                                snapshot.getSystemList().size());
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        assertTrue(writersDone.await(30, TimeUnit.SECONDS));
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // no update was lost
+        ItemSnapshot last = item.snapshot();
+        assertEquals(WRITERS * SYSTEMS_PER_WRITER, last.getSystemList().size());
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < SYSTEMS_PER_WRITER; i++) {
+                String system = w + "-" + i;
+                assertEquals("name-" + system, last.getProp(system, "systemName"));
+                assertEquals(i + ".0 mm", last.getProp(system, "length"));
+            }
+        }
+    }
+}
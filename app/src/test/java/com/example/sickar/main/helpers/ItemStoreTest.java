@@ -0,0 +1,192 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the on-disk format of ItemStore by reopening the log the way a restarted app would
+ */
+public class ItemStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    private ItemStore open(File file, int maxItems, long ttlMs) throws Exception {
+        ItemStore store = new ItemStore(file, maxItems, ttlMs, now::get);
+        store.open();
+        return store;
+    }
+
+    private static Item item(String barcode) {
+        Item item = new Item(barcode);
+        item.addSystem("2");
+        item.addProp("2", "systemLabel", "Outbound Line 2");
+        item.addProp("2", "length", "412.3 mm");
+        item.addProp("2", "gap", null);
+        item.addSystem("1");
+        item.addProp("1", "systemLabel", "Inbound Line 1");
+        item.addProp("1", "barcodes", "[" + barcode + "]");
+        return item;
+    }
+
+    @Test
+    public void itemsSurviveReopen() throws Exception {
+        File file = new File(folder.getRoot(), "cache/items.log");
+        ItemStore store = open(file, 10, 0);
+        Item original = item("9612850147114161000158");
+        store.put(original);
+        store.close();
+
+        Item loaded = open(file, 10, 0).get("9612850147114161000158");
+        assertNotNull(loaded);
+        assertEquals(original.getName(), loaded.getName());
+        assertEquals(original.getSystemList(), loaded.getSystemList());
+        for (String system : original.getSystemList()) {
+            assertEquals(new ArrayList<>(original.getSystemData(system).entrySet()),
+                    new ArrayList<>(loaded.getSystemData(system).entrySet()));
+        }
+        assertNull(loaded.getProp("2", "gap"));
+    }
+
+    @Test
+    public void removedItemsStayRemovedAfterReopen() throws Exception {
+        File file = folder.newFile("items.log");
+        ItemStore store = open(file, 10, 0);
+        store.put(item("a"));
+        store.put(item("b"));
+        store.remove("a");
+        store.close();
+
+        store = open(file, 10, 0);
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void expiredItemsAreNotReturned() throws Exception {
+        File file = folder.newFile("items.log");
+        ItemStore store = open(file, 10, 1000);
+        store.put(item("a"));
+        now.addAndGet(999);
+        assertNotNull(store.get("a"));
+
+        // a repeated put does not extend the TTL
+        store.put(item("a"));
+        now.addAndGet(1);
+        assertNull(store.get("a"));
+        store.close();
+
+        assertEquals(0, open(file, 10, 1000).size());
+    }
+
+    @Test
+    public void oldestItemsAreEvicted() throws Exception {
+        File file = folder.newFile("items.log");
+        ItemStore store = open(file, 3, 0);
+        for (String barcode : new String[]{"a", "b", "c", "d"}) {
+            store.put(item(barcode));
+        }
+        assertNull(store.get("a"));
+        assertNotNull(store.get("d"));
+        store.close();
+
+        store = open(file, 3, 0);
+        assertEquals(3, store.size());
+        assertNull(store.get("a"));
+    }
+
+    @Test
+    public void cutOffRecordIsDropped() throws Exception {
+        File file = folder.newFile("items.log");
+        ItemStore store = open(file, 10, 0);
+        store.put(item("a"));
+        long goodLength = store.logBytes();
+        store.put(item("b"));
+        store.close();
+
+        // simulate the process dying in the middle of the second write
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        store = open(file, 10, 0);
+        assertNotNull(store.get("a"));
+        assertNull(store.get("b"));
+        assertEquals(goodLength, store.logBytes());
+
+        // the log can be appended to again
+        store.put(item("b"));
+        store.close();
+        assertNotNull(open(file, 10, 0).get("b"));
+    }
+
+    @Test
+    public void compactionKeepsLiveItems() throws Exception {
+        File file = folder.newFile("items.log");
+        ItemStore store = open(file, 50, 0);
+        for (int i = 0; i < 2000; i++) {
+            store.put(item("barcode" + i));
+        }
+        // only the newest 50 are reachable, so the log was compacted along the way
+        assertTrue(store.logBytes() < 100 * 1024);
+        store.compact();
+        store.close();
+
+        store = open(file, 50, 0);
+        assertEquals(50, store.size());
+        assertNotNull(store.get("barcode1999"));
+        assertNotNull(store.get("barcode1950"));
+        assertNull(store.get("barcode1949"));
+    }
+
+    @Test
+    public void failedCompactionKeepsTheOldLog() throws Exception {
+        File file = folder.newFile("items.log");
+        ItemStore store = new ItemStore(file, 10, 0, now::get) {
+            @Override
+            boolean rename(File from, File to) {
+                return false;
+            }
+        };
+        store.open();
+        for (int i = 0; i < 20; i++) {
+            store.put(item("barcode" + i));
+        }
+        long logBytes = store.logBytes();
+        try {
+            store.compact();
+            fail("compaction succeeded without replacing the log");
+        } catch (IOException e) {
+            // expected
+        }
+        // still readable through the old offsets
+        assertEquals(logBytes, store.logBytes());
+        assertEquals("barcode19", store.get("barcode19").getName());
+        assertEquals("barcode10", store.get("barcode10").getName());
+        assertFalse(new File(file.getPath() + ".compact").exists());
+        store.put(item("barcode20"));
+        assertNotNull(store.get("barcode20"));
+    }
+
+    @Test
+    public void asyncCallsRunInOrder() throws Exception {
+        ItemStore store = new ItemStore(new File(folder.getRoot(), "async.log"), 10,
+                TimeUnit.DAYS.toMillis(1));
+        store.putAsync(item("a"));
+        assertEquals("a", store.getAsync("a").get(5, TimeUnit.SECONDS).getName());
+        store.removeAsync("a");
+        assertNull(store.getAsync("a").get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static com.example.sickar.main.helpers.ItemJsonParserTest.readResource;
+import static org.junit.Assert.*;
+
+/**
+ * Checks PictureDiskCache against the get_pictures/ response in
+ * resources/responses/get_pictures and reopens the cache the way a restarted app would
+ */
+public class PictureDiskCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static InputStream response(String file) throws IOException {
+        return new ByteArrayInputStream(readResource("/responses/get_pictures/" + file));
+    }
+
+    /**
+     * @return response with one picture of the given bytes
+     */
+    private static InputStream response(byte[] picture) {
+        return new ByteArrayInputStream(("{\"results\": {\"1\": {\"1\": \"data:image/jpeg;base64,"
+                + Base64.getEncoder().encodeToString(picture) + "\"}}}")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    public void picturesAreDecodedIntoFilesPerSystemAndDevice() throws Exception {
+        PictureDiskCache cache = new PictureDiskCache(folder.getRoot(), 1 << 20);
+        Map<String, Map<String, File>> files = cache.put("b", response("two_systems.json"));
+
+        assertEquals(Arrays.asList("1", "2"), Arrays.asList(files.keySet().toArray()));
+        assertArrayEquals("picture 1 1".getBytes(StandardCharsets.UTF_8),
+                read(files.get("1").get("1")));
+        byte[] allBytes = new byte[256];
+        for (int i = 0; i < allBytes.length; i++) {
+            allBytes[i] = (byte) i;
+        }
+        // escaped slashes
+        assertArrayEquals(allBytes, read(files.get("1").get("2")));
+        // no data uri prefix, escaped line break, null picture and other members skipped
+        assertEquals(1, files.get("2").size());
+        assertArrayEquals("picture 2 2 without a data uri prefix".getBytes(StandardCharsets.UTF_8),
+                read(files.get("2").get("2")));
+        assertFalse(files.containsKey("3"));
+
+        assertSame(files, cache.get("b"));
+        assertNull(cache.get("c"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedBarcodesAreEvicted() throws Exception {
+        PictureDiskCache cache = new PictureDiskCache(folder.getRoot(), 250);
+        File a = cache.put("a", response(new byte[100])).get("1").get("1");
+        File b = cache.put("b", response(new byte[100])).get("1").get("1");
+        assertNotNull(cache.get("a"));
+        cache.put("c", response(new byte[100]));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertEquals(200, cache.getTotalBytes());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void barcodeWrittenLastIsKeptEvenIfTooLarge() throws Exception {
+        PictureDiskCache cache = new PictureDiskCache(folder.getRoot(), 50);
+        cache.put("a", response(new byte[40]));
+        File b = cache.put("b", response(new byte[100])).get("1").get("1");
+        assertTrue(b.exists());
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void indexIsReadBackFromDisk() throws Exception {
+        PictureDiskCache cache = new PictureDiskCache(folder.getRoot(), 1 << 20);
+        Map<String, Map<String, File>> a = cache.put("a/1", response(new byte[100]));
+        Map<String, Map<String, File>> b = cache.put("..", response(new byte[100]));
+        // a was viewed last
+        assertTrue(b.get("1").get("1").getParentFile().getParentFile().setLastModified(1000));
+        assertTrue(a.get("1").get("1").getParentFile().getParentFile().setLastModified(2000));
+        // left over from a put that was interrupted
+        assertTrue(new File(folder.getRoot(), "~tmp-1-1/1").mkdirs());
+
+        PictureDiskCache reopened = new PictureDiskCache(folder.getRoot(), 150);
+        assertEquals(1, reopened.size());
+        assertEquals(a, reopened.get("a/1"));
+        assertNull(reopened.get(".."));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void replacedAndEvictedPicturesAreDeleted() throws Exception {
+        PictureDiskCache cache = new PictureDiskCache(folder.getRoot(), 150);
+        // reads the empty directory up front like the app does at startup
+        cache.load();
+        File old = cache.put("a", response(new byte[10])).get("1").get("1");
+        File replaced = cache.put("a", response(new byte[100])).get("1").get("1");
+        assertEquals(old, replaced);
+        assertEquals(100, replaced.length());
+        cache.put("b", response(new byte[100]));
+        assertNull(cache.get("a"));
+        assertFalse(replaced.exists());
+        // only b is left, the directories renamed away are deleted
+        assertEquals(1, folder.getRoot().list().length);
+        assertEquals(100, cache.getTotalBytes());
+    }
+
+    @Test
+    public void malformedResponseLeavesNothingBehind() throws Exception {
+        PictureDiskCache cache = new PictureDiskCache(folder.getRoot(), 1 << 20);
+        cache.put("a", response(new byte[10]));
+        byte[] truncated = Arrays.copyOf(readResource("/responses/get_pictures/two_systems.json"),
+                200);
+        try {
+            cache.put("a", new ByteArrayInputStream(truncated));
+            fail("truncated response was accepted");
+        } catch (IOException e) {
+            // expected
+        }
+        // the pictures already cached are kept
+        assertEquals(10, cache.get("a").get("1").get("1").length());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void largePictureIsStreamedToDisk() throws Exception {
+        int chunks = 2048;
+        int chunkSize = 3 * 1024;
+        CRC32 expected = new CRC32();
+        Random random = new Random(1);
+        // generates the Base64 of the picture chunk by chunk, the response never exists whole
+        InputStream body = new InputStream() {
+            private byte[] buffer = new byte[0];
+            private int position;
+            private int chunk;
+
+            @Override
+            public int read() {
+                if (position == buffer.length) {
+                    if (chunk == chunks) {
+                        return -1;
+                    }
+                    byte[] data = new byte[chunkSize];
+                    random.nextBytes(data);
+                    expected.update(data);
+                    buffer = Base64.getEncoder().encode(data);
+                    position = 0;
+                    chunk++;
+                }
+                return buffer[position++];
+            }
+        };
+        InputStream response = new SequenceInputStream(new SequenceInputStream(
+                new ByteArrayInputStream("{\"results\":{\"1\":{\"1\":\"data:image/jpeg;base64,"
+                        .getBytes(StandardCharsets.UTF_8)), body),
+                new ByteArrayInputStream("\"}}}".getBytes(StandardCharsets.UTF_8)));
+
+        PictureDiskCache cache = new PictureDiskCache(folder.getRoot(), Long.MAX_VALUE);
+        long start = System.nanoTime();
+        File picture = cache.put("a", response).get("1").get("1");
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        CRC32 actual = new CRC32();
+        actual.update(read(picture));
+        assertEquals((long) chunks * chunkSize, picture.length());
+        assertEquals(expected.getValue(), actual.getValue());
+        // about 6MB, decoded and written in well under a second on a desktop
+        assertTrue("streamed in " + elapsedMs + "ms", elapsedMs < 10000);
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs PicturePrefetcher against a fetcher whose fetches are completed by the test
+ */
+public class PicturePrefetcherTest {
+    private static final Instant START = Instant.parse("2019-08-01T12:00:00Z");
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(START);
+
+    /**
+     * Fetches started, in order
+     */
+    private final Map<String, CompletableFuture<Long>> fetches = new LinkedHashMap<>();
+
+    private PicturePrefetcher prefetcher(int maxQueued, long budget) {
+        return new PicturePrefetcher(barcode -> {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            fetches.put(barcode, future);
+            return future;
+        }, maxQueued, budget, Duration.ofMinutes(10), now::get);
+    }
+
+    private List<String> started() {
+        return new ArrayList<>(fetches.keySet());
+    }
+
+    @Test
+    public void fetchesOneAtATimeMostRecentFirst() {
+        PicturePrefetcher prefetcher = prefetcher(8, Long.MAX_VALUE);
+        prefetcher.enqueue("a");
+        prefetcher.enqueue("b");
+        prefetcher.enqueue("c");
+        // duplicates are ignored
+        prefetcher.enqueue("a");
+        prefetcher.enqueue("c");
+        assertEquals(Arrays.asList("a"), started());
+        assertEquals(2, prefetcher.getQueuedCount());
+
+        fetches.get("a").complete(100L);
+        assertEquals(Arrays.asList("a", "c"), started());
+        fetches.get("c").complete(100L);
+        fetches.get("b").complete(100L);
+        assertEquals(Arrays.asList("a", "c", "b"), started());
+        assertEquals(3, prefetcher.getFetchedCount());
+        assertEquals(300, prefetcher.getBytesFetched());
+        assertNull(prefetcher.getInFlight());
+    }
+
+    @Test
+    public void oldestBarcodeIsDroppedWhenTheQueueIsFull() {
+        PicturePrefetcher prefetcher = prefetcher(2, Long.MAX_VALUE);
+        for (String barcode : Arrays.asList("a", "b", "c", "d")) {
+            prefetcher.enqueue(barcode);
+        }
+        // a is in flight, b was dropped for d
+        fetches.get("a").complete(0L);
+        fetches.get("d").complete(0L);
+        fetches.get("c").complete(0L);
+        assertEquals(Arrays.asList("a", "d", "c"), started());
+    }
+
+    @Test
+    public void dismissedItemIsCancelled() {
+        PicturePrefetcher prefetcher = prefetcher(8, Long.MAX_VALUE);
+        prefetcher.enqueue("a");
+        prefetcher.enqueue("b");
+        prefetcher.enqueue("c");
+
+        assertTrue(prefetcher.cancel("b"));
+        assertTrue(prefetcher.cancel("a"));
+        assertTrue(fetches.get("a").isCancelled());
+        // the next barcode starts once the fetch in flight is cancelled
+        assertEquals("c", prefetcher.getInFlight());
+        assertFalse(prefetcher.cancel("x"));
+
+        fetches.get("c").complete(10L);
+        assertEquals(Arrays.asList("a", "c"), started());
+        assertEquals(2, prefetcher.getCancelledCount());
+        assertEquals(1, prefetcher.getFetchedCount());
+        assertEquals(10, prefetcher.getBytesFetched());
+    }
+
+    @Test
+    public void failedFetchMovesOn() {
+        PicturePrefetcher prefetcher = prefetcher(8, Long.MAX_VALUE);
+        prefetcher.enqueue("a");
+        prefetcher.enqueue("b");
+        fetches.get("a").completeExceptionally(new RuntimeException("timeout"));
+        assertEquals("b", prefetcher.getInFlight());
+        assertEquals(0, prefetcher.getFetchedCount());
+    }
+
+    @Test
+    public void cachedPicturesDoNotWait() {
+        PicturePrefetcher prefetcher = new PicturePrefetcher(
+                barcode -> CompletableFuture.completedFuture(0L), 8, 1, Duration.ofMinutes(10),
+                now::get);
+        for (int i = 0; i < 20; i++) {
+            prefetcher.enqueue("a" + i);
+        }
+        assertEquals(20, prefetcher.getFetchedCount());
+        assertEquals(0, prefetcher.getQueuedCount());
+    }
+
+    @Test
+    public void budgetIsRefilledAfterTheWindow() {
+        PicturePrefetcher prefetcher = prefetcher(8, 250);
+        prefetcher.enqueue("a");
+        prefetcher.enqueue("b");
+        prefetcher.enqueue("c");
+        fetches.get("a").complete(200L);
+        // the budget is not spent yet, c may overshoot it
+        fetches.get("c").complete(200L);
+        assertNull(prefetcher.getInFlight());
+        assertEquals(1, prefetcher.getQueuedCount());
+
+        // still in the same window
+        now.set(START.plus(Duration.ofMinutes(9)));
+        prefetcher.enqueue("d");
+        assertNull(prefetcher.getInFlight());
+
+        now.set(START.plus(Duration.ofMinutes(10)));
+        prefetcher.enqueue("e");
+        assertEquals("e", prefetcher.getInFlight());
+        assertEquals(2, prefetcher.getQueuedCount());
+        assertEquals(Arrays.asList("a", "c", "e"), started());
+    }
+
+    @Test
+    public void stopCancelsEverything() {
+        PicturePrefetcher prefetcher = prefetcher(8, Long.MAX_VALUE);
+        prefetcher.enqueue("a");
+        prefetcher.enqueue("b");
+        prefetcher.stop();
+        assertTrue(fetches.get("a").isCancelled());
+        assertEquals(0, prefetcher.getQueuedCount());
+        assertNull(prefetcher.getInFlight());
+        assertEquals(1, fetches.size());
+    }
+}
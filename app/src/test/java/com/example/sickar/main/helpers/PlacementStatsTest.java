@@ -0,0 +1,41 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the time to first card and per card latencies reported by PlacementStats
+ */
+public class PlacementStatsTest {
+    private final PlacementStats stats = new PlacementStats();
+
+    @Test
+    public void firstCardIsMeasuredFromSessionStart() {
+        stats.onSessionStart(1000);
+        assertEquals(-1, stats.getTimeToFirstCardMs());
+        stats.onCardReady(3000, 3400);
+        stats.onCardReady(5000, 5010);
+        assertEquals(2400, stats.getTimeToFirstCardMs());
+        assertEquals(2, stats.getCards());
+        assertEquals(205, stats.getMeanLatencyMs(), 0);
+        assertEquals(400, stats.getMaxLatencyMs());
+    }
+
+    @Test
+    public void newSessionMeasuresItsFirstCard() {
+        stats.onSessionStart(0);
+        stats.onCardReady(100, 150);
+        stats.onSessionStart(1000);
+        stats.onCardReady(1200, 1210);
+        assertEquals(210, stats.getTimeToFirstCardMs());
+        assertEquals(2, stats.getCards());
+    }
+
+    @Test
+    public void cardsWithoutSessionHaveNoFirstCardTime() {
+        stats.onCardReady(100, 150);
+        assertEquals(-1, stats.getTimeToFirstCardMs());
+        assertEquals(50, stats.getMeanLatencyMs(), 0);
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.sickar.main.helpers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives RequestBatcher against a local stub of the SICK AR backend and counts the round trips
+ * that reach the stub.
+ */
+public class RequestBatcherTest {
+    private static final String[] BARCODES = {
+            "9612850147114161000158", "9612850147114161000159", "9612850147114161000160",
+            "9612850147114161000161", "9612850147114161000162"
+    };
+
+    private StubBackend backend;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        backend = new StubBackend();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        backend.stop();
+    }
+
+    @Test
+    public void barcodesInOneWindowShareOneRequest() throws Exception {
+        HttpDispatcher dispatcher = new HttpDispatcher(BARCODES.length);
+        RequestBatcher batcher = new RequestBatcher(100, 20, scheduler, dispatcher);
+        dispatcher.batcher = batcher;
+
+        for (String barcode : BARCODES) {
+            batcher.add(barcode);
+        }
+        // repeats within the window are not looked up twice
+        batcher.add(BARCODES[0]);
+
+        assertTrue(dispatcher.done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, backend.bulkRequests.get());
+        assertEquals(0, backend.singleRequests.get());
+        assertEquals(BARCODES.length, dispatcher.items.size());
+        assertEquals(BARCODES.length - 1, batcher.getRoundTripsSaved());
+        assertEquals(1, backend.totalRequests());
+        assertEquals(1, batcher.getRoundTrips());
+        assertEquals(BARCODES.length, batcher.getBarcodesRequested());
+    }
+
+    @Test
+    public void fullBatchIsSentBeforeWindowCloses() throws Exception {
+        HttpDispatcher dispatcher = new HttpDispatcher(BARCODES.length);
+        RequestBatcher batcher = new RequestBatcher(60000, 2, scheduler, dispatcher);
+        dispatcher.batcher = batcher;
+
+        for (String barcode : BARCODES) {
+            batcher.add(barcode);
+        }
+        batcher.flush();
+
+        assertTrue(dispatcher.done.await(5, TimeUnit.SECONDS));
+        // two full batches of 2 and the flushed batch of 1
+        assertEquals(2, backend.bulkRequests.get());
+        assertEquals(1, backend.singleRequests.get());
+        assertEquals(2, batcher.getRoundTripsSaved());
+    }
+
+    @Test
+    public void fallsBackToSingleLookups() throws Exception {
+        backend.bulkSupported = false;
+        HttpDispatcher dispatcher = new HttpDispatcher(BARCODES.length + 1);
+        RequestBatcher batcher = new RequestBatcher(100, 20, scheduler, dispatcher);
+        dispatcher.batcher = batcher;
+
+        for (String barcode : BARCODES) {
+            batcher.add(barcode);
+        }
+        // wait for the batch to be rejected before adding another barcode
+        long deadline = System.currentTimeMillis() + 5000;
+        while (batcher.isBulkSupported() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(batcher.isBulkSupported());
+        batcher.add("9612850147114161000163");
+
+        assertTrue(dispatcher.done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, backend.bulkRequests.get());
+        assertEquals(BARCODES.length + 1, backend.singleRequests.get());
+        assertEquals(BARCODES.length + 1, dispatcher.items.size());
+        // the rejected bulk lookup was one extra round trip
+        assertEquals(-1, batcher.getRoundTripsSaved());
+    }
+
+    /**
+     * Dispatcher that performs the lookups over HTTP against the stub backend and collects the
+     * parsed Items like DataViewModel.putBarcodeItem would.
+     */
+    private class HttpDispatcher implements RequestBatcher.Dispatcher {
+        private final Map<String, Item> items = new ConcurrentHashMap<>();
+        private final CountDownLatch done;
+        private RequestBatcher batcher;
+
+        HttpDispatcher(int expectedItems) {
+            done = new CountDownLatch(expectedItems);
+        }
+
+        @Override
+        public void sendBulk(List<String> barcodes) {
+            try {
+                HttpURLConnection connection = backend.open("get_bulk");
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(("{\"barcodes\": [\"" + String.join("\", \"", barcodes) + "\"]}")
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                if (connection.getResponseCode() == 404) {
+                    batcher.onBulkUnsupported(barcodes);
+                    return;
+                }
+                Map<String, Item> result = ItemJsonParser.parseBulk(read(connection));
+                for (String barcode : barcodes) {
+                    put(barcode, result.get(barcode));
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void sendSingle(String barcode) {
+            try {
+                HttpURLConnection connection = backend.open("get/" + barcode);
+                put(barcode, ItemJsonParser.parse(barcode, read(connection)));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private void put(String barcode, Item item) {
+            assertNotNull(item);
+            assertEquals(barcode, item.getName());
+            assertEquals("Line " + barcode.substring(barcode.length() - 3),
+                    item.getProp("1", "systemLabel"));
+            if (items.put(barcode, item) == null) {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Local HTTP server answering get/ and get_bulk like the SICK AR backend. Counts how many
+     * requests of each kind it served.
+     */
+    private static class StubBackend {
+        private final HttpServer server;
+        private final AtomicInteger bulkRequests = new AtomicInteger();
+        private final AtomicInteger singleRequests = new AtomicInteger();
+        private volatile boolean bulkSupported = true;
+
+        StubBackend() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/get/", exchange -> {
+                singleRequests.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                respond(exchange, 200, itemJson(path.substring(path.lastIndexOf('/') + 1)));
+            });
+            server.createContext("/get_bulk", exchange -> {
+                bulkRequests.incrementAndGet();
+                if (!bulkSupported) {
+                    respond(exchange, 404, "{}");
+                    return;
+                }
+                String body = new String(readAll(exchange.getRequestBody()),
+                        StandardCharsets.UTF_8);
+                StringBuilder response = new StringBuilder("{\"results\": {");
+                String[] parts = body.split("\"");
+                boolean first = true;
+                for (String part : parts) {
+                    if (part.matches("[0-9]{13,}")) {
+                        if (!first) response.append(", ");
+                        response.append('"').append(part).append("\": ").append(itemJson(part));
+                        first = false;
+                    }
+                }
+                response.append("}}");
+                respond(exchange, 200, response.toString());
+            });
+            server.start();
+        }
+
+        HttpURLConnection open(String path) throws IOException {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + path);
+            return (HttpURLConnection) url.openConnection();
+        }
+
+        int totalRequests() {
+            return bulkRequests.get() + singleRequests.get();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private static String itemJson(String barcode) {
+            return "{\"systems\": [\"1\"], \"results\": [{"
+                    + "\"systemName\": \"Line\", "
+                    + "\"systemLabel\": \"Line " + barcode.substring(barcode.length() - 3) + "\", "
+                    + "\"length\": {\"value\": 100.0, \"unitLabel\": \"mm\"}, "
+                    + "\"boxFactor\": 1.0, "
+                    + "\"objectScanTime\": \"2019-08-01T17:42:13Z\", "
+                    + "\"barcodes\": [{\"value\": \"" + barcode + "\"}]}]}";
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body)
+                throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static byte[] read(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
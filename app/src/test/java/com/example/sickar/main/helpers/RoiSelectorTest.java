@@ -0,0 +1,63 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the regions chosen by RoiSelector in each mode
+ */
+public class RoiSelectorTest {
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 640;
+
+    private static RoiSelector selector(String mode) {
+        return new RoiSelector(mode, 0.5f, 0.25f, 0.75f, 0.5f, 4);
+    }
+
+    @Test
+    public void fullModeNeverCrops() {
+        RoiSelector selector = selector(RoiSelector.MODE_FULL);
+        selector.onDecoded(Collections.singletonList(new int[]{10, 10, 50, 50}));
+        assertNull(selector.select(WIDTH, HEIGHT));
+        assertEquals(0, selector.getCroppedFrames());
+    }
+
+    @Test
+    public void reticleModeCentersWindow() {
+        assertArrayEquals(new int[]{120, 160, 360, 480},
+                selector(RoiSelector.MODE_RETICLE).select(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void bandModeSpansWidth() {
+        assertArrayEquals(new int[]{0, 160, WIDTH, 480},
+                selector(RoiSelector.MODE_BAND).select(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void trackedModeFollowsDecodedBoxes() {
+        RoiSelector selector = selector(RoiSelector.MODE_TRACKED);
+        // nothing tracked yet
+        assertNull(selector.select(WIDTH, HEIGHT));
+
+        selector.onDecoded(Arrays.asList(new int[]{100, 200, 300, 260},
+                new int[]{120, 300, 280, 340}));
+        // union 100,200 .. 300,340 grown by half of its larger side, clamped to the frame
+        assertArrayEquals(new int[]{0, 100, 400, 440}, selector.select(WIDTH, HEIGHT));
+        assertArrayEquals(new int[]{0, 100, 400, 440}, selector.select(WIDTH, HEIGHT));
+        assertArrayEquals(new int[]{0, 100, 400, 440}, selector.select(WIDTH, HEIGHT));
+        // full frame every fourth frame to find new barcodes
+        assertNull(selector.select(WIDTH, HEIGHT));
+        assertNotNull(selector.select(WIDTH, HEIGHT));
+
+        // barcodes left the view
+        selector.onDecoded(Collections.emptyList());
+        assertNull(selector.select(WIDTH, HEIGHT));
+        assertEquals(7, selector.getFrames());
+        assertEquals(4, selector.getCroppedFrames());
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives ScanStateMachine on the calling thread with a fake Host
+ */
+public class ScanStateMachineTest {
+    private static final String BARCODE = "1234567890ABC";
+    private static final int[] CORNERS = {10, 20, 110, 20, 110, 60, 10, 60};
+
+    /**
+     * Item data as the view model would hold it
+     */
+    private static class FakeHost implements ScanStateMachine.Host {
+        final Set<String> cached = new HashSet<>();
+        final Set<String> pending = new HashSet<>();
+        final Set<String> listed = new HashSet<>();
+        final Set<String> anchored = new HashSet<>();
+        final List<String> fetched = new ArrayList<>();
+        int renderReady;
+
+        @Override
+        public boolean isCached(String barcode) {
+            return cached.contains(barcode);
+        }
+
+        @Override
+        public boolean isRequestPending(String barcode) {
+            return pending.contains(barcode);
+        }
+
+        @Override
+        public void fetch(String barcode) {
+            fetched.add(barcode);
+            pending.add(barcode);
+        }
+
+        @Override
+        public boolean isListed(String barcode) {
+            return listed.contains(barcode);
+        }
+
+        @Override
+        public void markListed(String barcode) {
+            listed.add(barcode);
+        }
+
+        @Override
+        public boolean isAnchored(String barcode) {
+            return anchored.contains(barcode);
+        }
+
+        @Override
+        public void onRenderReady() {
+            renderReady++;
+        }
+
+        /**
+         * Data arrives from the network, new items are listed by the data observer
+         */
+        void arrive(String barcode) {
+            pending.remove(barcode);
+            cached.add(barcode);
+            listed.add(barcode);
+        }
+    }
+
+    private final FakeHost host = new FakeHost();
+    private long now;
+    private final ScanStateMachine machine =
+            new ScanStateMachine(host, Runnable::run, 500, () -> now);
+
+    private static List<ScanStateMachine.Detection> confirmed(String barcode) {
+        return Collections.singletonList(new ScanStateMachine.Detection(barcode, CORNERS));
+    }
+
+    @Test
+    public void unknownBarcodeIsFetchedOnce() {
+        machine.onFrame(confirmed(BARCODE));
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(Collections.singletonList(BARCODE), host.fetched);
+        assertEquals(ScanStateMachine.State.REQUESTED, machine.getState(BARCODE));
+
+        ScanStateMachine.RenderBatch batch = machine.takeRenderBatch();
+        assertTrue(batch.requestIssued);
+        assertTrue(batch.requestPending);
+        assertEquals(2, batch.frames);
+        assertTrue(batch.anchors.isEmpty());
+    }
+
+    @Test
+    public void arrivedDataAnchorsOnNextDetection() {
+        machine.onFrame(confirmed(BARCODE));
+        host.arrive(BARCODE);
+        machine.takeRenderBatch();
+
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(ScanStateMachine.State.LISTED, machine.getState(BARCODE));
+        ScanStateMachine.RenderBatch batch = machine.takeRenderBatch();
+        // the data observer already listed it
+        assertTrue(batch.listed.isEmpty());
+        assertEquals(1, batch.anchors.size());
+        assertEquals(60, batch.anchors.get(0).x, 0);
+        assertEquals(20, batch.anchors.get(0).y, 0);
+
+        machine.onAnchorResult(BARCODE, true);
+        host.anchored.add(BARCODE);
+        assertEquals(ScanStateMachine.State.ANCHORED, machine.getState(BARCODE));
+        machine.onFrame(confirmed(BARCODE));
+        assertNull(machine.takeRenderBatch());
+    }
+
+    @Test
+    public void prefetchedItemIsListedThenAnchored() {
+        host.cached.add(BARCODE);
+        machine.onFrame(confirmed(BARCODE));
+        ScanStateMachine.RenderBatch batch = machine.takeRenderBatch();
+        assertEquals(Collections.singletonList(BARCODE), batch.listed);
+        assertEquals(1, batch.anchors.size());
+        assertTrue(host.fetched.isEmpty());
+        assertTrue(host.isListed(BARCODE));
+    }
+
+    @Test
+    public void anchorIsNotRequestedAgainWhileInFlight() {
+        host.arrive(BARCODE);
+        machine.onFrame(confirmed(BARCODE));
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(1, machine.takeRenderBatch().anchors.size());
+    }
+
+    @Test
+    public void failedAnchorIsRetriedAfterDelay() {
+        host.arrive(BARCODE);
+        machine.onFrame(confirmed(BARCODE));
+        machine.takeRenderBatch();
+        machine.onAnchorResult(BARCODE, false);
+
+        now = 200;
+        machine.onFrame(confirmed(BARCODE));
+        assertNull(machine.takeRenderBatch());
+        now = 600;
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(1, machine.takeRenderBatch().anchors.size());
+    }
+
+    @Test
+    public void failedRequestIsIssuedAgain() {
+        machine.onFrame(confirmed(BARCODE));
+        host.pending.remove(BARCODE);
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(Arrays.asList(BARCODE, BARCODE), host.fetched);
+    }
+
+    @Test
+    public void swipedItemIsListedAgain() {
+        host.arrive(BARCODE);
+        machine.onFrame(confirmed(BARCODE));
+        machine.onAnchorResult(BARCODE, true);
+        host.anchored.add(BARCODE);
+        machine.takeRenderBatch();
+
+        // swiping the card away unlists the item and removes its anchor
+        host.listed.remove(BARCODE);
+        host.anchored.remove(BARCODE);
+        machine.onFrame(confirmed(BARCODE));
+        ScanStateMachine.RenderBatch batch = machine.takeRenderBatch();
+        assertEquals(Collections.singletonList(BARCODE), batch.listed);
+        assertEquals(1, batch.anchors.size());
+    }
+
+    @Test
+    public void mainThreadIsNotifiedOncePerBatch() {
+        machine.onFrame(confirmed(BARCODE));
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(1, host.renderReady);
+        assertNotNull(machine.takeRenderBatch());
+        assertNull(machine.takeRenderBatch());
+
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(2, host.renderReady);
+    }
+
+    @Test
+    public void anchoredBarcodeDoesNotNotify() {
+        host.arrive(BARCODE);
+        host.anchored.add(BARCODE);
+        machine.onFrame(confirmed(BARCODE));
+        machine.onAnchorResult(BARCODE, true);
+        machine.takeRenderBatch();
+
+        machine.onFrame(confirmed(BARCODE));
+        assertEquals(1, host.renderReady);
+        assertNull(machine.takeRenderBatch());
+    }
+}
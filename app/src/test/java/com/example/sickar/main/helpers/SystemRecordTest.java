@@ -0,0 +1,131 @@
+package com.example.sickar.main.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.example.sickar.main.helpers.ItemJsonParserTest.readResource;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that SystemRecord stores measurements typed and still reads back the display strings
+ */
+public class SystemRecordTest {
+    @Test
+    public void displayStringsAreKept() {
+        String[] displays = {"412.3 mm", "0.93", "30.1265 cm^3", "-0.4 deg", "2.5 m/s", "3 kg",
+                "1e3 mm", "900 in", "n/a mm", "[9612850147114161000158]", "", "LMS_Line_2"};
+        SystemRecord record = new SystemRecord();
+        for (int i = 0; i < displays.length; i++) {
+            record.put("p" + i, displays[i]);
+        }
+        for (int i = 0; i < displays.length; i++) {
+            assertEquals(displays[i], record.get("p" + i));
+        }
+    }
+
+    @Test
+    public void measurementsAreTyped() {
+        SystemRecord record = new SystemRecord();
+        record.put("length", "41.2 cm");
+        record.put("weight", "2100 g");
+        record.putNumber("height", 1.5, "m");
+        record.put("systemLabel", "Outbound Line 2");
+        record.put("gap", "900 in");
+
+        assertEquals(41.2, record.getNumber("length"), 0);
+        assertEquals(SystemRecord.Unit.CM, record.getUnit("length"));
+        assertEquals(412, record.getBaseValue("length"), 1e-9);
+        assertEquals(2.1, record.getBaseValue("weight"), 1e-9);
+        assertEquals(SystemRecord.Dimension.MASS, record.getUnit("weight").getDimension());
+        assertEquals(1500, record.getBaseValue("height"), 1e-9);
+        assertEquals("1.5 m", record.get("height"));
+        assertTrue(Double.isNaN(record.getNumber("systemLabel")));
+        assertNull(record.getUnit("gap"));
+        assertTrue(Double.isNaN(record.getBaseValue("missing")));
+    }
+
+    @Test
+    public void mapViewKeepsOrderAndNulls() {
+        SystemRecord record = new SystemRecord();
+        record.put("systemName", "LMS_Line_2");
+        record.put("length", "412.3 mm");
+        record.put("gap", null);
+        record.putFloat("volume", 30.1265f, SystemRecord.Unit.CM3);
+        record.put("length", "411.9 mm");
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("systemName", "LMS_Line_2");
+        expected.put("length", "411.9 mm");
+        expected.put("gap", null);
+        expected.put("volume", 30.1265f + " cm^3");
+        Map<String, String> view = record.asMap();
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(view.entrySet()));
+        assertEquals(expected, view);
+        assertTrue(view.containsKey("gap"));
+        assertFalse(view.containsKey("width"));
+        assertEquals(4, view.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mapViewIsReadOnly() {
+        new SystemRecord().asMap().put("length", "1.0 mm");
+    }
+
+    @Test
+    public void recordsGrowAndCopiesAreIndependent() {
+        SystemRecord record = new SystemRecord();
+        for (int i = 0; i < 40; i++) {
+            record.putNumber("p" + i, i, "mm");
+        }
+        SystemRecord copy = record.copy();
+        record.put("p0", "5.0 mm");
+        assertEquals(40, copy.size());
+        assertEquals("0.0 mm", copy.get("p0"));
+        assertEquals("39.0 mm", copy.get("p39"));
+        assertEquals("5.0 mm", record.get("p0"));
+    }
+
+    @Test
+    public void labelsAndSystemNamesAreShared() {
+        SystemRecord a = new SystemRecord();
+        SystemRecord b = new SystemRecord();
+        a.put(new String("systemLabel"), new String("Outbound Line 2"));
+        b.put(new String("systemLabel"), new String("Outbound Line 2"));
+        Map.Entry<String, String> entryA = a.asMap().entrySet().iterator().next();
+        Map.Entry<String, String> entryB = b.asMap().entrySet().iterator().next();
+        assertSame(entryA.getKey(), entryB.getKey());
+        assertSame(entryA.getValue(), entryB.getValue());
+    }
+
+    @Test
+    public void smallerThanMapOfDisplayStrings() throws Exception {
+        Item item = ItemJsonParser.parse("x", readResource("/responses/get/two_systems.json"));
+        for (String system : item.getSystemList()) {
+            SystemRecord record = item.getSystemRecord(system);
+            // the estimate ZonePrefetcher used for a LinkedHashMap of display strings
+            long mapBytes = 0;
+            for (Map.Entry<String, String> prop : record.asMap().entrySet()) {
+                mapBytes += 80 + 2L * prop.getKey().length();
+                if (prop.getValue() != null) {
+                    mapBytes += 2L * prop.getValue().length();
+                }
+            }
+            assertTrue("system " + system + " record " + record.estimateBytes() + " map "
+                    + mapBytes, record.estimateBytes() < mapBytes);
+        }
+    }
+
+    @Test
+    public void unitsAreFoundByLabel() {
+        for (SystemRecord.Unit unit : SystemRecord.Unit.values()) {
+            assertSame(unit, SystemRecord.Unit.fromLabel(unit.getLabel()));
+        }
+        assertNull(SystemRecord.Unit.fromLabel("in"));
+        assertEquals(Arrays.asList(412.0, 2.1), Arrays.asList(
+                SystemRecord.Unit.CM.toBase(41.2), SystemRecord.Unit.G.toBase(2100)));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.sickar.main.helpers;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.sickar.main.helpers.ItemJsonParserTest.readResource;
+import static org.junit.Assert.*;
+
+/**
+ * Checks TamperDetector against the tamper/ responses recorded in resources/responses/tamper for
+ * the items in resources/responses/get
+ */
+public class TamperDetectorTest {
+    private static final String[] RECORDED_FILES = {
+            "two_systems.json",
+            "null_properties.json",
+            "reordered_fields.json",
+            "three_systems_tampered.json"
+    };
+
+    private final TamperDetector detector = new TamperDetector();
+
+    @Test
+    public void matchesRecordedBackendResponses() throws Exception {
+        for (String file : RECORDED_FILES) {
+            Item item = ItemJsonParser.parse(file, readResource("/responses/get/" + file));
+            Map<?, ?> recorded = new Gson().fromJson(new String(
+                    readResource("/responses/tamper/" + file), StandardCharsets.UTF_8),
+                    HashMap.class);
+            Map<String, Object> local = detector.detect(item);
+            assertTrue(file + " local " + local + " recorded " + recorded,
+                    TamperDetector.sameResult(local, recorded));
+        }
+    }
+
+    @Test
+    public void resultHasTheStructureOfTheBackendResponse() throws Exception {
+        Item item = ItemJsonParser.parse("x",
+                readResource("/responses/get/three_systems_tampered.json"));
+        Map<String, Object> result = detector.detect(item);
+        assertEquals(true, result.get("tamper"));
+        assertEquals(Collections.singletonList("3"), result.get("tamperOrder"));
+        assertEquals(Arrays.asList("height", "weight"),
+                ((Map<?, ?>) result.get("tamperDetails")).get("3"));
+    }
+
+    @Test
+    public void singleSystemIsNotTampered() throws Exception {
+        Item item = ItemJsonParser.parse("x", readResource("/responses/get/null_properties.json"));
+        Map<String, Object> result = detector.detect(item);
+        assertEquals(false, result.get("tamper"));
+        assertTrue(((List<?>) result.get("tamperOrder")).isEmpty());
+    }
+
+    @Test
+    public void toleranceIsTheLargerOfAbsoluteAndRatio() {
+        TamperDetector.Tolerance tolerance = new TamperDetector.Tolerance(10, 0.05);
+        // small values use the absolute tolerance
+        assertFalse(tolerance.isExceeded(100, 110));
+        assertTrue(tolerance.isExceeded(100, 110.1));
+        // large values use the ratio
+        assertFalse(tolerance.isExceeded(1000, 1050));
+        assertTrue(tolerance.isExceeded(1000, 949));
+    }
+
+    @Test
+    public void missingAndIncomparablePropertiesAreSkipped() {
+        Item item = new Item("x");
+        item.addSystem("2");
+        item.addSystem("1");
+        item.addProp("1", "length", "400 mm");
+        item.addProp("1", "weight", "3 kg");
+        item.addProp("2", "length", "900 in");
+        item.addProp("2", "height", "100 mm");
+        assertEquals(false, detector.detect(item).get("tamper"));
+    }
+
+    @Test
+    public void onlyConfiguredPropertiesAreCompared() {
+        Map<String, TamperDetector.Tolerance> tolerances = new HashMap<>();
+        tolerances.put("weight", new TamperDetector.Tolerance(0.1, 0));
+        TamperDetector weightOnly = new TamperDetector(tolerances);
+        Item item = new Item("x");
+        item.addSystem("2");
+        item.addSystem("1");
+        item.addProp("1", "length", "400 mm");
+        item.addProp("1", "weight", "3 kg");
+        item.addProp("2", "length", "100 mm");
+        item.addProp("2", "weight", "3.05 kg");
+        assertEquals(false, weightOnly.detect(item).get("tamper"));
+        item.addProp("2", "weight", "3.2 kg");
+        assertEquals(true, weightOnly.detect(item).get("tamper"));
+    }
+
+    @Test
+    public void disagreementsAreFound() {
+        Map<String, Object> a = new HashMap<>();
+        a.put("tamper", true);
+        a.put("tamperOrder", Collections.singletonList("3"));
+        a.put("tamperDetails", Collections.singletonMap("3", Arrays.asList("height", "weight")));
+        Map<String, Object> b = new HashMap<>(a);
+        b.put("tamperDetails", Collections.singletonMap("3", Arrays.asList("weight", "height")));
+        assertTrue(TamperDetector.sameResult(a, b));
+        b.put("tamperDetails", Collections.singletonMap("3", Collections.singletonList("weight")));
+        assertFalse(TamperDetector.sameResult(a, b));
+        b.put("tamper", false);
+        assertFalse(TamperDetector.sameResult(a, b));
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.sickar.main.helpers;
+
+import com.google.zxing.oned.Code128Writer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Decodes synthetic Code 128 labels with the pure Java reference decoder
+ */
+public class ZXingBarcodeDecoderTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final String VALUE = "1Z999AA10123456784";
+    private static final int QUIET = 10;
+
+    private final ZXingBarcodeDecoder decoder =
+            new ZXingBarcodeDecoder(Collections.singletonList("CODE_128"));
+
+    /**
+     * Grey Y plane with a Code 128 label drawn at left, top, two pixels per module and a quiet
+     * zone of QUIET modules on both ends. If alongRows is set the bars run along the rows of the
+     * buffer. The label width and height are written to size.
+     */
+    private static byte[] plane(int left, int top, boolean alongRows, int[] size) {
+        boolean[] bars = new Code128Writer().encode(VALUE);
+        int labelLength = (bars.length + 2 * QUIET) * 2;
+        int labelThickness = 100;
+        size[0] = alongRows ? labelThickness : labelLength;
+        size[1] = alongRows ? labelLength : labelThickness;
+        byte[] y = new byte[WIDTH * HEIGHT];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int u = col - left;
+                int v = row - top;
+                byte luma = (byte) 110;
+                if (u >= 0 && v >= 0 && u < size[0] && v < size[1]) {
+                    int module = (alongRows ? v : u) / 2 - QUIET;
+                    boolean bar = module >= 0 && module < bars.length && bars[module];
+                    luma = (byte) (bar ? 25 : 225);
+                }
+                y[row * WIDTH + col] = luma;
+            }
+        }
+        return y;
+    }
+
+    private static LuminanceFrame frame(byte[] y, int rotationDegrees) {
+        ByteBuffer plane = ByteBuffer.wrap(y);
+        return LuminanceFrame.fromYPlane(plane, WIDTH, HEIGHT, WIDTH, 1, rotationDegrees);
+    }
+
+    @Test
+    public void decodesUprightLabel() {
+        int[] size = new int[2];
+        LuminanceFrame frame = frame(plane(100, 200, false, size), 0);
+
+        List<DecodedBarcode> barcodes = decoder.decode(frame);
+
+        assertEquals(1, barcodes.size());
+        DecodedBarcode barcode = barcodes.get(0);
+        assertEquals(VALUE, barcode.getValue());
+        assertEquals("CODE_128", barcode.getFormat());
+        int[] box = barcode.getBox();
+        // the box covers most of the bars along the read line and is padded across it
+        int barsLength = size[0] - 4 * QUIET;
+        assertTrue(box[0] >= 100 && box[2] <= 100 + size[0]);
+        assertTrue(box[2] - box[0] > barsLength * 8 / 10);
+        assertTrue(box[1] < 250 && box[3] > 250);
+        assertTrue(box[1] >= 200 - barsLength / 5 && box[3] <= 300 + barsLength / 5);
+        assertEquals(8, barcode.getCorners().length);
+    }
+
+    @Test
+    public void mapsRotatedFrameToUprightCoordinates() {
+        int[] size = new int[2];
+        // bars run along the buffer rows, rotating the buffer by 90 makes them upright
+        LuminanceFrame frame = frame(plane(300, 80, true, size), 90);
+
+        List<DecodedBarcode> barcodes = decoder.decode(frame);
+
+        assertEquals(1, barcodes.size());
+        assertEquals(VALUE, barcodes.get(0).getValue());
+        int[] box = barcodes.get(0).getBox();
+        // upright image is HEIGHT wide and WIDTH tall, the label runs along x
+        assertTrue(box[2] - box[0] > box[3] - box[1]);
+        assertTrue(box[2] < HEIGHT && box[3] < WIDTH);
+        // buffer rows 80 .. 80 + length map to upright x HEIGHT - 1 - row
+        assertTrue(box[0] >= HEIGHT - 80 - size[1] - 4);
+        assertTrue(box[2] <= HEIGHT - 80 + 4);
+        // buffer columns 300 .. 400 map to upright y
+        assertTrue(box[1] <= 400 && box[3] >= 300);
+    }
+
+    @Test
+    public void emptyFrameReportsNoBarcodes() {
+        byte[] y = new byte[WIDTH * HEIGHT];
+        Arrays.fill(y, (byte) 110);
+        List<List<DecodedBarcode>> results = new ArrayList<>();
+
+        decoder.decode(frame(y, 0), Runnable::run, new BarcodeDecoder.Listener() {
+            @Override
+            public void onDecoded(List<DecodedBarcode> barcodes) {
+                results.add(barcodes);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                fail(e.toString());
+            }
+        });
+
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).isEmpty());
+    }
+
+    @Test
+    public void decodesTheSameFrameRepeatedly() {
+        int[] size = new int[2];
+        LuminanceFrame frame = frame(plane(100, 200, false, size), 0);
+        int[] first = decoder.decode(frame).get(0).getBox();
+        for (int i = 0; i < 5; i++) {
+            List<DecodedBarcode> barcodes = decoder.decode(frame);
+            assertEquals(1, barcodes.size());
+            assertEquals(VALUE, barcodes.get(0).getValue());
+            assertArrayEquals(first, barcodes.get(0).getBox());
+        }
+    }
+
+    /**
+     * Wall clock timing, only run with -Dbenchmark=true
+     */
+    @Test
+    public void decodeTimeBenchmark() {
+        assumeTrue("benchmark", Boolean.getBoolean("benchmark"));
+        int[] size = new int[2];
+        LuminanceFrame frame = frame(plane(100, 200, false, size), 0);
+        decoder.decode(frame);
+        int runs = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            assertEquals(1, decoder.decode(frame).size());
+        }
+        long averageUs = (System.nanoTime() - start) / runs / 1000;
+        // a few frames a second even on a slow test machine, tens of milliseconds on a desktop
+        assertTrue("average decode " + averageUs + "us", averageUs < 250000);
+    }
+
+    @Test
+    public void croppedFrameReportsFullFrameCoordinates() {
+        int[] size = new int[2];
+        byte[] y = plane(100, 200, false, size);
+        int[] full = decoder.decode(frame(y, 0)).get(0).getBox();
+
+        LuminanceFrame cropped = LuminanceFrame.fromYPlane(ByteBuffer.wrap(y), WIDTH, HEIGHT,
+                WIDTH, 1, 0, new int[]{60, 150, 560, 350});
+        List<DecodedBarcode> barcodes = decoder.decode(cropped);
+
+        assertTrue(cropped.isCropped());
+        assertEquals(500 * 200, cropped.getWidth() * cropped.getHeight());
+        assertEquals(1, barcodes.size());
+        // same ends along the bars, the row ZXing reads across them depends on the crop
+        int[] box = barcodes.get(0).getBox();
+        assertEquals(full[0], box[0]);
+        assertEquals(full[2], box[2]);
+        assertTrue(box[1] < 300 && box[3] > 200);
+    }
+
+    @Test
+    public void croppedRotatedFrameReportsFullFrameCoordinates() {
+        int[] size = new int[2];
+        byte[] y = plane(300, 80, true, size);
+        int[] full = decoder.decode(frame(y, 90)).get(0).getBox();
+
+        // upright image is HEIGHT wide, the label spans upright x 0 .. 400 and y 300 .. 400
+        LuminanceFrame cropped = LuminanceFrame.fromYPlane(ByteBuffer.wrap(y), WIDTH, HEIGHT,
+                WIDTH, 1, 90, new int[]{0, 250, HEIGHT, 450});
+        List<DecodedBarcode> barcodes = decoder.decode(cropped);
+
+        assertEquals(HEIGHT, cropped.getUprightWidth());
+        assertEquals(200, cropped.getUprightHeight());
+        assertArrayEquals(new int[]{0, 250}, cropped.getUprightOffset());
+        assertEquals(1, barcodes.size());
+        int[] box = barcodes.get(0).getBox();
+        assertEquals(full[0], box[0]);
+        assertEquals(full[2], box[2]);
+        assertTrue(box[1] < 400 && box[3] > 300);
+    }
+
+    /**
+     * Reticle windows of a few sizes and a box tracked around the label, as the timing benchmark
+     * uses them
+     */
+    private static List<int[]> rois(int left, int top, int[] size) {
+        List<int[]> rois = new ArrayList<>();
+        for (float fraction : new float[]{1f, 0.85f, 0.7f}) {
+            rois.add(new RoiSelector(RoiSelector.MODE_RETICLE, fraction, 0, 1, 0, 1)
+                    .select(WIDTH, HEIGHT));
+        }
+        int pad = size[0] / 10;
+        rois.add(new int[]{left - pad, top - pad, left + size[0] + pad, top + size[1] + pad});
+        return rois;
+    }
+
+    @Test
+    public void roiCropsReportFullFrameCoordinates() {
+        int[] size = new int[2];
+        int left = (WIDTH - 420) / 2;
+        int top = (HEIGHT - 100) / 2;
+        byte[] y = plane(left, top, false, size);
+        int[] full = decoder.decode(frame(y, 0)).get(0).getBox();
+
+        for (int[] roi : rois(left, top, size)) {
+            String message = Arrays.toString(roi);
+            List<DecodedBarcode> barcodes = decoder.decode(LuminanceFrame.fromYPlane(
+                    ByteBuffer.wrap(y), WIDTH, HEIGHT, WIDTH, 1, 0, roi));
+            assertEquals(message, 1, barcodes.size());
+            assertEquals(message, VALUE, barcodes.get(0).getValue());
+            int[] box = barcodes.get(0).getBox();
+            assertEquals(message, full[0], box[0]);
+            assertEquals(message, full[2], box[2]);
+            assertTrue(message, box[1] < top + size[1] && box[3] > top);
+        }
+    }
+
+    /**
+     * Wall clock timing, only run with -Dbenchmark=true
+     */
+    @Test
+    public void decodeTimeByRoiSizeBenchmark() {
+        assumeTrue("benchmark", Boolean.getBoolean("benchmark"));
+        int[] size = new int[2];
+        int left = (WIDTH - 420) / 2;
+        int top = (HEIGHT - 100) / 2;
+        byte[] y = plane(left, top, false, size);
+        List<int[]> rois = rois(left, top, size);
+        long[] nanos = new long[rois.size()];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = measure(y, rois.get(i), 20);
+        }
+        long trackedNanos = nanos[3];
+        String times = Arrays.toString(nanos);
+        // fewer pixels decode faster, the tracked box by far
+        assertTrue(times, nanos[2] < nanos[0]);
+        assertTrue(times, trackedNanos * 2 < nanos[0]);
+    }
+
+    /**
+     * Copy and decode a region of interest of a frame
+     *
+     * @return average nanoseconds per run, after a first run that warms up the decoder
+     */
+    private long measure(byte[] y, int[] roi, int runs) {
+        long nanos = 0;
+        for (int i = 0; i <= runs; i++) {
+            long start = System.nanoTime();
+            LuminanceFrame frame = LuminanceFrame.fromYPlane(ByteBuffer.wrap(y), WIDTH, HEIGHT,
+                    WIDTH, 1, 0, roi);
+            assertEquals(1, decoder.decode(frame).size());
+            // the first run warms up the decoder
+            if (i > 0) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+        return nanos / runs;
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.sickar.main.helpers;
+
+import com.example.sickar.libs.LinkedLruMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs ZonePrefetcher against a local stub of the search/execute API
+ */
+public class ZonePrefetcherTest {
+    private static final Instant START = Instant.parse("2019-08-01T12:00:00Z");
+
+    private StubSearchServer server;
+    private final AtomicReference<Instant> now = new AtomicReference<>(START);
+    private final LinkedLruMap<String, Item> cache = new LinkedLruMap<>(10000);
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubSearchServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private ZonePrefetcher prefetcher(int pageSize, long budget) {
+        ZonePrefetcher prefetcher = new ZonePrefetcher(server::fetchPage,
+                item -> cache.offerBack(item.getName(), item), pageSize, budget,
+                Duration.ofMinutes(30), now::get);
+        cache.setRemovalListener((barcode, item) -> prefetcher.onRemoved(barcode));
+        return prefetcher;
+    }
+
+    @Test
+    public void pagesThroughTheWindow() throws Exception {
+        // 450 parcels in the last 30 minutes, one older parcel outside the window
+        for (int i = 0; i < 450; i++) {
+            server.add("1", "parcel" + i, START.minusSeconds(i * 3 + 1));
+        }
+        server.add("1", "old", START.minus(Duration.ofMinutes(31)));
+
+        ZonePrefetcher prefetcher = prefetcher(200, Long.MAX_VALUE);
+        assertEquals(450, prefetcher.sync());
+
+        assertEquals(3, server.requests.size());
+        assertEquals(450, cache.size());
+        assertFalse(cache.containsKey("old"));
+        assertEquals(START, prefetcher.getLastSync());
+        assertEquals("412.3 mm", cache.get("parcel7").getProp("1", "length"));
+    }
+
+    @Test
+    public void systemsOnLaterPagesAreMerged() throws Exception {
+        server.add("2", "a", START.minusSeconds(1));
+        server.add("2", "b", START.minusSeconds(2));
+        server.add("1", "a", START.minusSeconds(3));
+
+        prefetcher(2, Long.MAX_VALUE).sync();
+
+        assertEquals(2, server.requests.size());
+        assertEquals(Arrays.asList("2", "1"), cache.get("a").getSystemList());
+        assertEquals(Collections.singletonList("2"), cache.get("b").getSystemList());
+    }
+
+    @Test
+    public void refreshOnlyPullsNewerRecords() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            server.add("1", "parcel" + i, START.minusSeconds(i + 1));
+        }
+        ZonePrefetcher prefetcher = prefetcher(200, Long.MAX_VALUE);
+        prefetcher.sync();
+
+        now.set(START.plusSeconds(60));
+        server.add("1", "new", START.plusSeconds(30));
+        server.requests.clear();
+        assertEquals(1, prefetcher.sync());
+
+        assertEquals(1, server.requests.size());
+        assertEquals(START.toString(), server.requests.get(0).getString("startDate"));
+        // newest prefetched item first
+        assertEquals(Arrays.asList("new", "parcel0", "parcel1"), cache.keys().subList(0, 3));
+    }
+
+    @Test
+    public void stopsAtMemoryBudget() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            server.add("1", String.format("parcel%03d", i), START.minusSeconds(i + 1));
+        }
+        long perItem = ZonePrefetcher.estimateBytes(server.item("1", "parcel000"));
+        ZonePrefetcher prefetcher = prefetcher(10, perItem * 25);
+
+        assertEquals(25, prefetcher.sync());
+        assertEquals(3, server.requests.size());
+        assertTrue(prefetcher.getBytesUsed() >= perItem * 25);
+        assertTrue(cache.containsKey("parcel024"));
+        assertFalse(cache.containsKey("parcel025"));
+        // the older part of the range is still to be fetched
+        assertNull(prefetcher.getLastSync());
+    }
+
+    @Test
+    public void prefetchingResumesOnceItemsAreEvicted() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            server.add("1", String.format("parcel%03d", i), START.minusSeconds(i + 1));
+        }
+        long perItem = ZonePrefetcher.estimateBytes(server.item("1", "parcel000"));
+        ZonePrefetcher prefetcher = prefetcher(10, perItem * 25);
+        assertEquals(25, prefetcher.sync());
+
+        // the budget is spent, nothing is fetched and nothing is skipped
+        now.set(START.plusSeconds(60));
+        server.add("1", "parcelnew", START.plusSeconds(30));
+        server.requests.clear();
+        assertEquals(0, prefetcher.sync());
+        assertTrue(server.requests.isEmpty());
+        assertNull(prefetcher.getLastSync());
+
+        // the cache evicts the five oldest prefetched items
+        for (int i = 20; i < 25; i++) {
+            assertNotNull(cache.remove(String.format("parcel%03d", i)));
+        }
+        assertEquals(perItem * 20, prefetcher.getBytesUsed());
+        assertEquals(5, prefetcher.sync());
+        assertTrue(cache.containsKey("parcelnew"));
+        assertEquals(perItem * 25, prefetcher.getBytesUsed());
+
+        // with room for everything the sync completes
+        cache.clear();
+        prefetcher.reset();
+        prefetcher = prefetcher(10, perItem * 100);
+        assertEquals(41, prefetcher.sync());
+        assertEquals(now.get(), prefetcher.getLastSync());
+    }
+
+    @Test
+    public void resetStartsOverFromTheWindow() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            server.add("1", "parcel" + i, START.minusSeconds(i + 1));
+        }
+        ZonePrefetcher prefetcher = prefetcher(10, Long.MAX_VALUE);
+        prefetcher.sync();
+        cache.clear();
+        prefetcher.reset();
+        assertEquals(0, prefetcher.getBytesUsed());
+        assertNull(prefetcher.getLastSync());
+
+        assertEquals(5, prefetcher.sync());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void failedSyncIsRepeated() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            server.add("1", "parcel" + i, START.minusSeconds(i + 1));
+        }
+        ZonePrefetcher prefetcher = prefetcher(2, Long.MAX_VALUE);
+        server.failAtOffset = 2;
+        try {
+            prefetcher.sync();
+            fail("expected the second page to fail");
+        } catch (IOException expected) {
+            assertNull(prefetcher.getLastSync());
+        }
+
+        server.failAtOffset = -1;
+        prefetcher.sync();
+        assertEquals(5, cache.size());
+        assertEquals(START, prefetcher.getLastSync());
+    }
+
+    /**
+     * Local HTTP server answering search/execute from a list of results, newest first
+     */
+    private static class StubSearchServer {
+        private final HttpServer server;
+        private final List<JSONObject> results = new ArrayList<>();
+        private final List<JSONObject> requests = new ArrayList<>();
+        private volatile int failAtOffset = -1;
+
+        StubSearchServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/search/execute", this::handle);
+            server.start();
+        }
+
+        void add(String systemId, String barcode, Instant scanTime) {
+            results.add(result(systemId, barcode, scanTime));
+            results.sort((a, b) -> b.getString("objectScanTime")
+                    .compareTo(a.getString("objectScanTime")));
+        }
+
+        Item item(String systemId, String barcode) throws IOException {
+            String page = "{\"results\": [" + result(systemId, barcode, START) + "]}";
+            return ItemJsonParser.parseSearchPage(page.getBytes(StandardCharsets.UTF_8))
+                    .getItems().iterator().next();
+        }
+
+        private static JSONObject result(String systemId, String barcode, Instant scanTime) {
+            return new JSONObject("{\"systemId\": \"" + systemId + "\", "
+                    + "\"systemName\": \"LMS_Line_" + systemId + "\", "
+                    + "\"systemLabel\": \"Line " + systemId + "\", "
+                    + "\"length\": {\"value\": 412.3, \"unitLabel\": \"mm\"}, "
+                    + "\"width\": {\"value\": 305.0, \"unitLabel\": \"mm\"}, "
+                    + "\"boxFactor\": 0.93, "
+                    + "\"objectScanTime\": \"" + scanTime + "\", "
+                    + "\"barcodes\": [{\"value\": \"" + barcode + "\"}]}");
+        }
+
+        SearchPage fetchPage(Instant start, Instant end, int offset, int size)
+                throws IOException {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort()
+                    + "/search/execute?offset=" + offset + "&size=" + size + "&locale=en-US");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            JSONObject values = new JSONObject();
+            values.put("startDate", start.toString());
+            values.put("endDate", end.toString());
+            values.put("searchPattern", "*");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(new JSONObject().put("type", "byBarcode").put("values", values)
+                        .toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (connection.getResponseCode() != 200) {
+                throw new IOException("status " + connection.getResponseCode());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return ItemJsonParser.parseSearchPage(readAll(in));
+            }
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            JSONObject values = new JSONObject(new String(readAll(exchange.getRequestBody()),
+                    StandardCharsets.UTF_8)).getJSONObject("values");
+            requests.add(values);
+            Map<String, Integer> query = new LinkedHashMap<>();
+            for (String param : exchange.getRequestURI().getQuery().split("&")) {
+                String[] kv = param.split("=");
+                if (!kv[0].equals("locale")) query.put(kv[0], Integer.parseInt(kv[1]));
+            }
+            int offset = query.get("offset");
+            if (offset == failAtOffset) {
+                respond(exchange, 503, "{}");
+                return;
+            }
+            Instant start = Instant.parse(values.getString("startDate"));
+            Instant end = Instant.parse(values.getString("endDate"));
+            List<JSONObject> matching = new ArrayList<>();
+            for (JSONObject result : results) {
+                Instant t = Instant.parse(result.getString("objectScanTime"));
+                if (!t.isBefore(start) && t.isBefore(end)) matching.add(result);
+            }
+            int to = Math.min(matching.size(), offset + query.get("size"));
+            StringBuilder body = new StringBuilder("{\"total\": " + matching.size()
+                    + ", \"results\": [");
+            for (int i = offset; i < to; i++) {
+                if (i > offset) body.append(", ");
+                body.append(matching.get(i));
+            }
+            respond(exchange, 200, body.append("]}").toString());
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body)
+                throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}